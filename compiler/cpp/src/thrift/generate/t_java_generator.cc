@@ -73,6 +73,11 @@ public:
     suppress_generated_annotations_ = false;
     rethrow_unhandled_exceptions_ = false;
     unsafe_binaries_ = false;
+    primitive_collections_ = false;
+    ordered_readers_ = false;
+    immutable_structs_ = false;
+    cache_serialized_ = false;
+    lazy_strings_ = false;
     for( iter = parsed_options.begin(); iter != parsed_options.end(); ++iter) {
       if( iter->first.compare("beans") == 0) {
         bean_style_ = true;
@@ -106,6 +111,19 @@ public:
         }
       } else if( iter->first.compare("unsafe_binaries") == 0) {
         unsafe_binaries_ = true;
+      } else if( iter->first.compare("primitive_collections") == 0) {
+        primitive_collections_ = true;
+      } else if( iter->first.compare("ordered_readers") == 0) {
+        ordered_readers_ = true;
+      } else if( iter->first.compare("immutable_structs") == 0) {
+        immutable_structs_ = true;
+        if (iter->second.compare("cache_serialized") == 0) {
+          cache_serialized_ = true;
+        } else if (!iter->second.empty()) {
+          throw "unknown option java:" + iter->first + "=" + iter->second;
+        }
+      } else if( iter->first.compare("lazy_strings") == 0) {
+        lazy_strings_ = true;
       } else {
         throw "unknown option java:" + iter->first;
       }
@@ -165,7 +183,13 @@ public:
   void generate_java_struct_result_writer(std::ostream& out, t_struct* tstruct);
   void generate_java_struct_writer(std::ostream& out, t_struct* tstruct);
   void generate_java_struct_tostring(std::ostream& out, t_struct* tstruct);
-  void generate_java_struct_clear(std::ostream& out, t_struct* tstruct);
+  void generate_java_struct_clear(std::ostream& out, t_struct* tstruct, bool is_result = false);
+  void generate_java_struct_freeze(std::ostream& out, t_struct* tstruct);
+  void generate_java_struct_decode_strings(std::ostream& out, t_struct* tstruct);
+  void generate_deserialize_struct_field(std::ostream& out,
+                                         t_struct* tstruct,
+                                         t_field* tfield,
+                                         bool has_metadata);
   void generate_java_struct_write_object(std::ostream& out, t_struct* tstruct);
   void generate_java_struct_read_object(std::ostream& out, t_struct* tstruct);
   void generate_java_meta_data_map(std::ostream& out, t_struct* tstruct);
@@ -223,6 +247,7 @@ public:
   void generate_scheme_map(ostream& out, t_struct* tstruct);
   void generate_standard_writer(ostream& out, t_struct* tstruct, bool is_result);
   void generate_standard_reader(ostream& out, t_struct* tstruct);
+  void generate_ordered_reader_fields(ostream& out, t_struct* tstruct, std::string isset_bit);
   void generate_java_struct_standard_scheme(ostream& out, t_struct* tstruct, bool is_result);
 
   void generate_java_struct_tuple_scheme(ostream& out, t_struct* tstruct);
@@ -390,6 +415,120 @@ public:
     return "";
   }
 
+  /**
+   * Returns the primitive backed runtime class of a list of i32, i64 or double, or of a
+   * set or map keyed by i32 or i64. Returns an empty string when the container keeps its
+   * java.util implementation.
+   */
+  std::string primitive_collection_name(t_type* ttype) {
+    if (!primitive_collections_) {
+      return "";
+    }
+    ttype = get_true_type(ttype);
+    std::string suffix;
+    if (ttype->is_list()) {
+      suffix = primitive_suffix(((t_list*)ttype)->get_elem_type());
+      return suffix.empty() ? "" : "org.apache.thrift.T" + suffix + "ArrayList";
+    } else if (sorted_containers_) {
+      return "";
+    } else if (ttype->is_set()) {
+      suffix = primitive_suffix(((t_set*)ttype)->get_elem_type());
+      return (suffix.empty() || suffix == "Double") ? "" : "org.apache.thrift.T" + suffix + "HashSet";
+    } else if (ttype->is_map()) {
+      suffix = primitive_suffix(((t_map*)ttype)->get_key_type());
+      return (suffix.empty() || suffix == "Double") ? "" : "org.apache.thrift.T" + suffix + "HashMap";
+    }
+    return "";
+  }
+
+  std::string primitive_suffix(t_type* ttype) {
+    ttype = get_true_type(ttype);
+    if (ttype->is_base_type()) {
+      switch (((t_base_type*)ttype)->get_base()) {
+      case t_base_type::TYPE_I32:
+        return "Int";
+      case t_base_type::TYPE_I64:
+        return "Long";
+      case t_base_type::TYPE_DOUBLE:
+        return "Double";
+      default:
+        break;
+      }
+    }
+    return "";
+  }
+
+  // Reused objects may be of any type, so only fresh primitive collections are filled
+  // through their primitive methods
+  bool has_primitive_reader(t_type* ttype) {
+    return !reuse_objects_ && !primitive_collection_name(ttype).empty();
+  }
+
+  // Containers of base types are copied with the copy constructor of their class, since
+  // their elements need no deep copy
+  bool is_copy_constructed(t_container* container) {
+    if (container->is_map()) {
+      t_map* tmap = (t_map*)container;
+      return tmap->get_key_type()->is_base_type() && tmap->get_val_type()->is_base_type();
+    }
+    t_type* elem_type = container->is_list() ? ((t_list*)container)->get_elem_type()
+                                             : ((t_set*)container)->get_elem_type();
+    return elem_type->is_base_type();
+  }
+
+  // Structs of the program can be frozen with the immutable_structs option. Unions and the
+  // args and results of services are left as they are
+  bool is_immutable(t_struct* tstruct) {
+    if (!immutable_structs_ || tstruct->is_union()) {
+      return false;
+    }
+    const vector<t_struct*>& objects = program_->get_objects();
+    return std::find(objects.begin(), objects.end(), tstruct) != objects.end();
+  }
+
+  // Throws if a frozen struct is changed
+  void generate_check_mutable(std::ostream& out, t_struct* tstruct) {
+    if (is_immutable(tstruct)) {
+      indent(out) << "checkMutable();" << endl;
+    }
+  }
+
+  // With the lazy_strings option the string fields of the structs of the program are read as
+  // views of their UTF-8 bytes, which are decoded when the fields are first used
+  bool is_lazy_string(t_struct* tstruct, t_field* tfield) {
+    t_type* ttype = get_true_type(tfield->get_type());
+    if (!lazy_strings_ || tstruct->is_union() || !ttype->is_string() || ttype->is_binary()) {
+      return false;
+    }
+    const vector<t_struct*>& objects = program_->get_objects();
+    return std::find(objects.begin(), objects.end(), tstruct) != objects.end();
+  }
+
+  bool has_lazy_strings(t_struct* tstruct) {
+    const vector<t_field*>& members = tstruct->get_members();
+    for (vector<t_field*>::const_iterator m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
+      if (is_lazy_string(tstruct, *m_iter)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Decodes the lazy strings of a struct before code which uses its fields directly
+  void generate_decode_strings(std::ostream& out, t_struct* tstruct, std::string obj) {
+    if (has_lazy_strings(tstruct)) {
+      indent(out) << obj << "decodeStrings();" << endl;
+    }
+  }
+
+  void generate_decode_string(std::ostream& out, t_field* tfield) {
+    std::string name = tfield->get_name();
+    indent(out) << "if (this." << name << " == null && this.__" << name << "_utf8 != null) {" << endl;
+    indent(out) << "  this." << name << " = org.apache.thrift.TBaseHelper.decodeString(this.__" << name
+                << "_utf8);" << endl;
+    indent(out) << "}" << endl;
+  }
+
   std::string constant_name(std::string name);
 
 private:
@@ -415,6 +554,11 @@ private:
   bool suppress_generated_annotations_;
   bool rethrow_unhandled_exceptions_;
   bool unsafe_binaries_;
+  bool primitive_collections_;
+  bool ordered_readers_;
+  bool immutable_structs_;
+  bool cache_serialized_;
+  bool lazy_strings_;
 
 };
 
@@ -1457,6 +1601,10 @@ void t_java_generator::generate_java_struct_definition(ostream& out,
     out << ", android.os.Parcelable";
   }
 
+  if (is_immutable(tstruct)) {
+    out << ", org.apache.thrift.TFreezable";
+  }
+
   out << " ";
 
   scope_up(out);
@@ -1478,7 +1626,7 @@ void t_java_generator::generate_java_struct_definition(ostream& out,
   out << endl;
 
   for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
-    if (bean_style_ || private_members_) {
+    if (bean_style_ || private_members_ || is_immutable(tstruct) || has_lazy_strings(tstruct)) {
       indent(out) << "private ";
     } else {
       generate_java_doc(out, *m_iter);
@@ -1537,6 +1685,21 @@ void t_java_generator::generate_java_struct_definition(ostream& out,
     }
   }
 
+  if (is_immutable(tstruct)) {
+    indent(out) << "private transient boolean __frozen = false;" << endl;
+    indent(out) << "private transient int __hashCode = 0;" << endl;
+    if (cache_serialized_) {
+      indent(out) << "private transient org.apache.thrift.TSerializedForm<" << tstruct->get_name()
+                  << "> __serializedForm = null;" << endl;
+    }
+  }
+  for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
+    if (is_lazy_string(tstruct, *m_iter)) {
+      indent(out) << "private transient java.nio.ByteBuffer __" << (*m_iter)->get_name()
+                  << "_utf8 = null;" << endl;
+    }
+  }
+
   generate_java_meta_data_map(out, tstruct);
 
   bool all_optional_members = true;
@@ -1636,13 +1799,29 @@ void t_java_generator::generate_java_struct_definition(ostream& out,
       indent_up();
     }
 
-    if (type->is_container()) {
+    if (type->is_container() && is_immutable(tstruct) && is_copy_constructed((t_container*)type)
+        && primitive_collection_name(type).empty()) {
+      // the containers of frozen structs are shared until the copy changes them
+      indent(out) << "if (other.__frozen) {" << endl;
+      indent(out) << "  this." << field_name << " = org.apache.thrift.TBaseHelper.copyOnWrite(other."
+                  << field_name << ");" << endl;
+      indent(out) << "} else {" << endl;
+      indent_up();
+      generate_deep_copy_container(out, "other", field_name, "__this__" + field_name, type);
+      indent(out) << "this." << field_name << " = __this__" << field_name << ";" << endl;
+      indent_down();
+      indent(out) << "}" << endl;
+    } else if (type->is_container()) {
       generate_deep_copy_container(out, "other", field_name, "__this__" + field_name, type);
       indent(out) << "this." << field_name << " = __this__" << field_name << ";" << endl;
     } else {
       indent(out) << "this." << field_name << " = ";
       generate_deep_copy_non_container(out, "other." + field_name, field_name, type);
       out << ";" << endl;
+      if (is_lazy_string(tstruct, field)) {
+        // the views of undecoded strings are shared, since they are never changed
+        indent(out) << "this.__" << field_name << "_utf8 = other.__" << field_name << "_utf8;" << endl;
+      }
     }
 
     if (can_be_null) {
@@ -1659,7 +1838,13 @@ void t_java_generator::generate_java_struct_definition(ostream& out,
   indent(out) << "  return new " << tstruct->get_name() << "(this);" << endl;
   indent(out) << "}" << endl << endl;
 
-  generate_java_struct_clear(out, tstruct);
+  generate_java_struct_clear(out, tstruct, is_result);
+  if (is_immutable(tstruct)) {
+    generate_java_struct_freeze(out, tstruct);
+  }
+  if (has_lazy_strings(tstruct)) {
+    generate_java_struct_decode_strings(out, tstruct);
+  }
 
   generate_java_bean_boilerplate(out, tstruct);
   generate_generic_field_getters_setters(out, tstruct);
@@ -1701,6 +1886,7 @@ void t_java_generator::generate_java_struct_parcelable(ostream& out, t_struct* t
   out << indent() << "@Override" << endl << indent()
       << "public void writeToParcel(android.os.Parcel out, int flags) {" << endl;
   indent_up();
+  generate_decode_strings(out, tstruct, "");
   string bitsetPrimitiveType = "";
   switch (needs_isset(tstruct, &bitsetPrimitiveType)) {
   case ISSET_NONE:
@@ -1922,6 +2108,8 @@ void t_java_generator::generate_java_struct_equality(ostream& out, t_struct* tst
   indent_up();
   out << indent() << "if (that == null)" << endl << indent() << "  return false;" << endl
       << indent() << "if (this == that)" << endl << indent() << "  return true;"  << endl;
+  generate_decode_strings(out, tstruct, "");
+  generate_decode_strings(out, tstruct, "that.");
 
   const vector<t_field*>& members = tstruct->get_members();
   vector<t_field*>::const_iterator m_iter;
@@ -1975,6 +2163,13 @@ void t_java_generator::generate_java_struct_equality(ostream& out, t_struct* tst
   const int B_NO = 524287;
   out << indent() << "@Override" << endl << indent() << "public int hashCode() {" << endl;
   indent_up();
+  if (is_immutable(tstruct)) {
+    // Only frozen structs memoize their hash code
+    indent(out) << "if (__hashCode != 0) {" << endl;
+    indent(out) << "  return __hashCode;" << endl;
+    indent(out) << "}" << endl;
+  }
+  generate_decode_strings(out, tstruct, "");
   indent(out) << "int hashCode = 1;" << endl;
 
   for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
@@ -2033,6 +2228,11 @@ void t_java_generator::generate_java_struct_equality(ostream& out, t_struct* tst
   }
 
   out << endl;
+  if (is_immutable(tstruct)) {
+    indent(out) << "if (__frozen) {" << endl;
+    indent(out) << "  __hashCode = hashCode;" << endl;
+    indent(out) << "}" << endl;
+  }
   indent(out) << "return hashCode;" << endl;
   indent_down();
   indent(out) << "}" << endl << endl;
@@ -2049,6 +2249,8 @@ void t_java_generator::generate_java_struct_compare_to(ostream& out, t_struct* t
   out << endl;
 
   indent(out) << "int lastComparison = 0;" << endl;
+  generate_decode_strings(out, tstruct, "");
+  generate_decode_strings(out, tstruct, "other.");
   out << endl;
 
   const vector<t_field*>& members = tstruct->get_members();
@@ -2082,10 +2284,10 @@ void t_java_generator::generate_java_struct_compare_to(ostream& out, t_struct* t
  * @param tstruct The struct definition
  */
 void t_java_generator::generate_java_struct_reader(ostream& out, t_struct* tstruct) {
-  (void)tstruct;
   indent(out) << "public void read(org.apache.thrift.protocol.TProtocol iprot) throws "
                  "org.apache.thrift.TException {" << endl;
   indent_up();
+  generate_check_mutable(out, tstruct);
   indent(out) << "scheme(iprot).read(iprot, this);" << endl;
   indent_down();
   indent(out) << "}" << endl << endl;
@@ -2109,7 +2311,14 @@ void t_java_generator::generate_java_validator(ostream& out, t_struct* tstruct)
             << (*f_iter)->get_name() << "' is unset! Struct:\" + toString());" << endl << indent()
             << "}" << endl << endl;
       } else {
-        if (type_can_be_null((*f_iter)->get_type())) {
+        if (is_lazy_string(tstruct, *f_iter)) {
+          // validating a struct when it is read does not decode its strings
+          indent(out) << "if (!" << generate_isset_check(*f_iter) << ") {" << endl;
+          indent(out)
+              << "  throw new org.apache.thrift.protocol.TProtocolException(\"Required field '"
+              << (*f_iter)->get_name() << "' was not present! Struct: \" + toString());" << endl;
+          indent(out) << "}" << endl;
+        } else if (type_can_be_null((*f_iter)->get_type())) {
           indent(out) << "if (" << (*f_iter)->get_name() << " == null) {" << endl;
           indent(out)
               << "  throw new org.apache.thrift.protocol.TProtocolException(\"Required field '"
@@ -2144,10 +2353,14 @@ void t_java_generator::generate_java_validator(ostream& out, t_struct* tstruct)
  * @param tstruct The struct definition
  */
 void t_java_generator::generate_java_struct_writer(ostream& out, t_struct* tstruct) {
-  (void)tstruct;
   indent(out) << "public void write(org.apache.thrift.protocol.TProtocol oprot) throws "
                  "org.apache.thrift.TException {" << endl;
   indent_up();
+  if (is_immutable(tstruct) && cache_serialized_) {
+    indent(out) << "if (__serializedForm != null && __serializedForm.write(oprot)) {" << endl;
+    indent(out) << "  return;" << endl;
+    indent(out) << "}" << endl;
+  }
   indent(out) << "scheme(oprot).write(oprot, this);" << endl;
 
   indent_down();
@@ -2396,6 +2609,7 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
       out << cap_name << "(" << type_name(element_type) << " elem) {" << endl;
 
       indent_up();
+      generate_check_mutable(out, tstruct);
       indent(out) << "if (this." << field_name << " == null) {" << endl;
       indent_up();
       indent(out) << "this." << field_name;
@@ -2422,6 +2636,7 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
           << endl;
 
       indent_up();
+      generate_check_mutable(out, tstruct);
       indent(out) << "if (this." << field_name << " == null) {" << endl;
       indent_up();
       std::string constructor_args;
@@ -2444,10 +2659,19 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
         indent(out) << "@Deprecated" << endl;
       }
       indent(out) << "public byte[] get" << cap_name << "() {" << endl;
-      indent(out) << "  set" << cap_name << "(org.apache.thrift.TBaseHelper.rightSize("
-                  << field_name << "));" << endl;
-      indent(out) << "  return " << field_name << " == null ? null : " << field_name << ".array();"
-                  << endl;
+      if (is_immutable(tstruct)) {
+        // Frozen structs cannot be changed, and right size their binaries when frozen
+        indent(out) << "  java.nio.ByteBuffer " << field_name
+                    << "RightSized = org.apache.thrift.TBaseHelper.rightSize(" << field_name << ");"
+                    << endl;
+        indent(out) << "  return " << field_name << "RightSized == null ? null : " << field_name
+                    << "RightSized.array();" << endl;
+      } else {
+        indent(out) << "  set" << cap_name << "(org.apache.thrift.TBaseHelper.rightSize("
+                    << field_name << "));" << endl;
+        indent(out) << "  return " << field_name << " == null ? null : " << field_name << ".array();"
+                    << endl;
+      }
       indent(out) << "}" << endl << endl;
 
       indent(out) << "public java.nio.ByteBuffer buffer" << get_cap_name("for") << cap_name << "() {"
@@ -2473,6 +2697,9 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
         }
         out << cap_name << "() {" << endl;
         indent_up();
+        if (is_lazy_string(tstruct, field)) {
+          generate_decode_string(out, field);
+        }
 
         indent(out) << "if (this.isSet" << cap_name << "()) {" << endl;
         indent_up();
@@ -2500,6 +2727,9 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
         }
         out << cap_name << "() {" << endl;
         indent_up();
+        if (is_lazy_string(tstruct, field)) {
+          generate_decode_string(out, field);
+        }
         indent(out) << "return this." << field_name << ";" << endl;
         indent_down();
         indent(out) << "}" << endl << endl;
@@ -2519,6 +2749,9 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
         out << type_name(tstruct);
       }
       out << " set" << cap_name << "(byte[] " << field_name << ") {" << endl;
+      indent_up();
+      generate_check_mutable(out, tstruct);
+      indent_down();
       indent(out) << "  this." << field_name << " = " << field_name << " == null ? (java.nio.ByteBuffer)null";
 
       if(unsafe_binaries_){
@@ -2544,6 +2777,7 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
     out << " set" << cap_name << "(" << (type_can_be_null(type) ? (java_nullable_annotation() + " ") : "")
         << type_name(type) << " " << field_name << ") {" << endl;
     indent_up();
+    generate_check_mutable(out, tstruct);
     indent(out) << "this." << field_name << " = ";
     if (type->is_binary() && !unsafe_binaries_) {
       out << "org.apache.thrift.TBaseHelper.copyBinary(" << field_name << ")";
@@ -2551,6 +2785,9 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
       out << field_name;
     }
     out << ";" << endl;
+    if (is_lazy_string(tstruct, field)) {
+      indent(out) << "this.__" << field_name << "_utf8 = null;" << endl;
+    }
     generate_isset_set(out, field, "");
     if (!bean_style_) {
       indent(out) << "return this;" << endl;
@@ -2565,8 +2802,12 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
     }
     indent(out) << "public void unset" << cap_name << "() {" << endl;
     indent_up();
+    generate_check_mutable(out, tstruct);
     if (type_can_be_null(type)) {
       indent(out) << "this." << field_name << " = null;" << endl;
+      if (is_lazy_string(tstruct, field)) {
+        indent(out) << "this.__" << field_name << "_utf8 = null;" << endl;
+      }
     } else if (issetType == ISSET_PRIMITIVE) {
       indent(out) << "__isset_bitfield = org.apache.thrift.EncodingUtils.clearBit(__isset_bitfield, "
                   << isset_field_id(field) << ");" << endl;
@@ -2584,7 +2825,10 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
     }
     indent(out) << "public boolean is" << get_cap_name("set") << cap_name << "() {" << endl;
     indent_up();
-    if (type_can_be_null(type)) {
+    if (is_lazy_string(tstruct, field)) {
+      indent(out) << "return this." << field_name << " != null || this.__" << field_name
+                  << "_utf8 != null;" << endl;
+    } else if (type_can_be_null(type)) {
       indent(out) << "return this." << field_name << " != null;" << endl;
     } else if (issetType == ISSET_PRIMITIVE) {
       indent(out) << "return org.apache.thrift.EncodingUtils.testBit(__isset_bitfield, " << isset_field_id(field)
@@ -2601,9 +2845,13 @@ void t_java_generator::generate_java_bean_boilerplate(ostream& out, t_struct* ts
     indent(out) << "public void set" << cap_name << get_cap_name("isSet") << "(boolean value) {"
                 << endl;
     indent_up();
+    generate_check_mutable(out, tstruct);
     if (type_can_be_null(type)) {
       indent(out) << "if (!value) {" << endl;
       indent(out) << "  this." << field_name << " = null;" << endl;
+      if (is_lazy_string(tstruct, field)) {
+        indent(out) << "  this.__" << field_name << "_utf8 = null;" << endl;
+      }
       indent(out) << "}" << endl;
     } else if (issetType == ISSET_PRIMITIVE) {
       indent(out) << "__isset_bitfield = org.apache.thrift.EncodingUtils.setBit(__isset_bitfield, "
@@ -2628,6 +2876,7 @@ void t_java_generator::generate_java_struct_tostring(ostream& out, t_struct* tst
   out << indent() << "java.lang.StringBuilder sb = new java.lang.StringBuilder(\"" << tstruct->get_name() << "(\");"
       << endl;
   out << indent() << "boolean first = true;" << endl << endl;
+  generate_decode_strings(out, tstruct, "");
 
   const vector<t_field*>& fields = tstruct->get_members();
   vector<t_field*>::const_iterator f_iter;
@@ -3647,6 +3896,13 @@ void t_java_generator::generate_process_function(t_service* tservice, t_function
   indent(f_service_) << "  return new " << argsname << "();" << endl;
   indent(f_service_) << "}" << endl << endl;
 
+  if (!tfunction->is_oneway()) {
+    indent(f_service_) << "@Override" << endl;
+    indent(f_service_) << "public " << resultname << " getEmptyResultInstance() {" << endl;
+    indent(f_service_) << "  return new " << resultname << "();" << endl;
+    indent(f_service_) << "}" << endl << endl;
+  }
+
   indent(f_service_) << "protected boolean isOneway() {" << endl;
   indent(f_service_) << "  return " << ((tfunction->is_oneway()) ? "true" : "false") << ";" << endl;
   indent(f_service_) << "}" << endl << endl;
@@ -3660,7 +3916,7 @@ void t_java_generator::generate_process_function(t_service* tservice, t_function
                      << " args) throws org.apache.thrift.TException {" << endl;
   indent_up();
   if (!tfunction->is_oneway()) {
-    indent(f_service_) << resultname << " result = new " << resultname << "();" << endl;
+    indent(f_service_) << resultname << " result = getResultInstance();" << endl;
   }
 
   t_struct* xs = tfunction->get_xceptions();
@@ -3806,6 +4062,22 @@ void t_java_generator::generate_deserialize_field(ostream& out,
   }
 }
 
+/**
+ * Deserializes a field of a struct read by its scheme. Lazy strings are read as
+ * views of their UTF-8 bytes.
+ */
+void t_java_generator::generate_deserialize_struct_field(ostream& out,
+                                                         t_struct* tstruct,
+                                                         t_field* tfield,
+                                                         bool has_metadata) {
+  if (is_lazy_string(tstruct, tfield)) {
+    indent(out) << "struct.__" << tfield->get_name() << "_utf8 = iprot.readStringBytes();" << endl;
+    indent(out) << "struct." << tfield->get_name() << " = null;" << endl;
+  } else {
+    generate_deserialize_field(out, tfield, "struct.", has_metadata);
+  }
+}
+
 /**
  * Generates an unserializer for a struct, invokes read()
  */
@@ -3838,82 +4110,78 @@ void t_java_generator::generate_deserialize_container(ostream& out,
   string obj;
 
   if (ttype->is_map()) {
-    obj = tmp("_map");
+    obj = tmp("_mapSize");
   } else if (ttype->is_set()) {
-    obj = tmp("_set");
+    obj = tmp("_setSize");
   } else if (ttype->is_list()) {
-    obj = tmp("_list");
+    obj = tmp("_listSize");
   }
 
   if (has_metadata) {
-    // Declare variables, read header
+    // Declare variables, read header. Only the size is needed, so that no
+    // container header is allocated
     if (ttype->is_map()) {
-      indent(out) << "org.apache.thrift.protocol.TMap " << obj << " = iprot.readMapBegin();"
-                  << endl;
+      indent(out) << "int " << obj << " = iprot.readMapBeginSize();" << endl;
     } else if (ttype->is_set()) {
-      indent(out) << "org.apache.thrift.protocol.TSet " << obj << " = iprot.readSetBegin();"
-                  << endl;
+      indent(out) << "int " << obj << " = iprot.readSetBeginSize();" << endl;
     } else if (ttype->is_list()) {
-      indent(out) << "org.apache.thrift.protocol.TList " << obj << " = iprot.readListBegin();"
-                  << endl;
+      indent(out) << "int " << obj << " = iprot.readListBeginSize();" << endl;
     }
   } else {
     // Declare variables, read header
-    if (ttype->is_map()) {
-      indent(out) << "org.apache.thrift.protocol.TMap " << obj
-                  << " = new org.apache.thrift.protocol.TMap("
-                  << type_to_enum(((t_map*)ttype)->get_key_type()) << ", "
-                  << type_to_enum(((t_map*)ttype)->get_val_type()) << ", "
-                  << "iprot.readI32());" << endl;
-    } else if (ttype->is_set()) {
-      indent(out) << "org.apache.thrift.protocol.TSet " << obj
-                  << " = new org.apache.thrift.protocol.TSet("
-                  << type_to_enum(((t_set*)ttype)->get_elem_type()) << ", iprot.readI32());"
-                  << endl;
-    } else if (ttype->is_list()) {
-      indent(out) << "org.apache.thrift.protocol.TList " << obj
-                  << " = new org.apache.thrift.protocol.TList("
-                  << type_to_enum(((t_list*)ttype)->get_elem_type()) << ", iprot.readI32());"
-                  << endl;
-    }
-  }
-
-  if (reuse_objects_) {
-    indent(out) << "if (" << prefix << " == null) {" << endl;
-    indent_up();
+    indent(out) << "int " << obj << " = iprot.readI32();" << endl;
   }
 
-  if (is_enum_set(ttype)) {
-    out << indent() << prefix << " = " << type_name(ttype, false, true, true) << ".noneOf";
+  if (has_primitive_reader(ttype)) {
+    // Fill the collection through a local of its own type, so that the elements are added
+    // with its primitive methods
+    string local = tmp("_prim");
+    indent(out) << type_name(ttype, false, true) << " " << local << " = new "
+                << type_name(ttype, false, true) << "(" << obj << ");" << endl;
+    indent(out) << prefix << " = " << local << ";" << endl;
+    prefix = local;
   } else {
-    out << indent() << prefix << " = new " << type_name(ttype, false, true);
-  }
+    if (reuse_objects_) {
+      indent(out) << "if (" << prefix << " == null) {" << endl;
+      indent_up();
+    }
 
-  // construct the collection correctly i.e. with appropriate size/type
-  if (is_enum_set(ttype) || is_enum_map(ttype)) {
-    out << "(" << inner_enum_type_name(ttype) << ");" << endl;
-  } else if (sorted_containers_ && (ttype->is_map() || ttype->is_set())) {
-    // TreeSet and TreeMap don't have any constructor which takes a capacity as an argument
-    out << "();" << endl;
-  } else {
-    out << "(" << (ttype->is_list() ? "" : "2*") << obj << ".size"
-        << ");" << endl;
-  }
+    if (is_enum_set(ttype)) {
+      out << indent() << prefix << " = " << type_name(ttype, false, true, true) << ".noneOf";
+    } else {
+      out << indent() << prefix << " = new " << type_name(ttype, false, true);
+    }
 
-  if (reuse_objects_) {
-    indent_down();
-    indent(out) << "}" << endl;
-  }
+    // construct the collection correctly i.e. with appropriate size/type
+    if (is_enum_set(ttype) || is_enum_map(ttype)) {
+      out << "(" << inner_enum_type_name(ttype) << ");" << endl;
+    } else if (sorted_containers_ && (ttype->is_map() || ttype->is_set())) {
+      // TreeSet and TreeMap don't have any constructor which takes a capacity as an argument
+      out << "();" << endl;
+    } else {
+      out << "(" << (ttype->is_list() ? "" : "2*") << obj << ");" << endl;
+    }
 
-  if (ttype->is_map()) {
-    generate_deserialize_map_element(out, (t_map*)ttype, prefix, obj, has_metadata);
-  } else if (ttype->is_set()) {
-    generate_deserialize_set_element(out, (t_set*)ttype, prefix, obj, has_metadata);
-  } else if (ttype->is_list()) {
-    generate_deserialize_list_element(out, (t_list*)ttype, prefix, obj, has_metadata);
+    if (reuse_objects_) {
+      indent_down();
+      indent(out) << "}" << endl;
+    }
   }
 
-  scope_down(out);
+  if (ttype->is_list() && has_primitive_reader(ttype)) {
+    // Primitive lists read all their elements with one bulk protocol call
+    indent(out) << prefix << ".readElements(iprot, " << obj << ");" << endl;
+  } else {
+    if (ttype->is_map()) {
+      generate_deserialize_map_element(out, (t_map*)ttype, prefix, obj, has_metadata);
+    } else if (ttype->is_set()) {
+      generate_deserialize_set_element(out, (t_set*)ttype, prefix, obj, has_metadata);
+    } else if (ttype->is_list()) {
+      generate_deserialize_list_element(out, (t_list*)ttype, prefix, obj, has_metadata);
+    }
+
+    scope_down(out);
+  }
 
   if (has_metadata) {
     // Read container end
@@ -3946,8 +4214,7 @@ void t_java_generator::generate_deserialize_map_element(ostream& out,
 
   // For loop iterates over elements
   string i = tmp("_i");
-  indent(out) << "for (int " << i << " = 0; " << i << " < " << obj << ".size"
-              << "; "
+  indent(out) << "for (int " << i << " = 0; " << i << " < " << obj << "; "
               << "++" << i << ")" << endl;
 
   scope_up(out);
@@ -3960,7 +4227,12 @@ void t_java_generator::generate_deserialize_map_element(ostream& out,
     scope_up(out);
   }
 
-  indent(out) << prefix << ".put(" << key << ", " << val << ");" << endl;
+  if (has_primitive_reader(tmap)) {
+    indent(out) << prefix << ".put" << primitive_suffix(tmap->get_key_type()) << "(" << key << ", "
+                << val << ");" << endl;
+  } else {
+    indent(out) << prefix << ".put(" << key << ", " << val << ");" << endl;
+  }
 
   if (get_true_type(fkey.get_type())->is_enum()) {
     scope_down(out);
@@ -3990,8 +4262,7 @@ void t_java_generator::generate_deserialize_set_element(ostream& out,
 
   // For loop iterates over elements
   string i = tmp("_i");
-  indent(out) << "for (int " << i << " = 0; " << i << " < " << obj << ".size"
-              << "; "
+  indent(out) << "for (int " << i << " = 0; " << i << " < " << obj << "; "
               << "++" << i << ")" << endl;
   scope_up(out);
 
@@ -4002,7 +4273,12 @@ void t_java_generator::generate_deserialize_set_element(ostream& out,
     scope_up(out);
   }
 
-  indent(out) << prefix << ".add(" << elem << ");" << endl;
+  if (has_primitive_reader(tset)) {
+    indent(out) << prefix << ".add" << primitive_suffix(tset->get_elem_type()) << "(" << elem
+                << ");" << endl;
+  } else {
+    indent(out) << prefix << ".add(" << elem << ");" << endl;
+  }
 
   if (get_true_type(felem.get_type())->is_enum()) {
     scope_down(out);
@@ -4028,8 +4304,7 @@ void t_java_generator::generate_deserialize_list_element(ostream& out,
 
   // For loop iterates over elements
   string i = tmp("_i");
-  indent(out) << "for (int " << i << " = 0; " << i << " < " << obj << ".size"
-              << "; "
+  indent(out) << "for (int " << i << " = 0; " << i << " < " << obj << "; "
               << "++" << i << ")" << endl;
   scope_up(out);
 
@@ -4040,7 +4315,12 @@ void t_java_generator::generate_deserialize_list_element(ostream& out,
     scope_up(out);
   }
 
-  indent(out) << prefix << ".add(" << elem << ");" << endl;
+  if (has_primitive_reader(tlist)) {
+    indent(out) << prefix << ".add" << primitive_suffix(tlist->get_elem_type()) << "(" << elem
+                << ");" << endl;
+  } else {
+    indent(out) << prefix << ".add(" << elem << ");" << endl;
+  }
 
   if (get_true_type(felem.get_type())->is_enum()) {
     scope_down(out);
@@ -4166,6 +4446,39 @@ void t_java_generator::generate_serialize_container(ostream& out,
     indent(out) << "oprot.writeI32(" << prefix << ".size());" << endl;
   }
 
+  bool primitive = !primitive_collection_name(ttype).empty();
+  if (primitive) {
+    // A primitive list is written with one bulk protocol call and a primitive set or
+    // map is walked by slot. Any other implementation goes through its iterator
+    string local = tmp("_prim");
+    string slot = tmp("_slot");
+    indent(out) << "if (" << prefix << " instanceof " << type_name(ttype, false, true, true) << ") {"
+                << endl;
+    indent_up();
+    indent(out) << type_name(ttype, false, true) << " " << local << " = ("
+                << type_name(ttype, false, true) << ")" << prefix << ";" << endl;
+    if (ttype->is_list()) {
+      indent(out) << local << ".writeElements(oprot);" << endl;
+    } else {
+      indent(out) << "for (int " << slot << " = " << local << ".nextSlot(0); " << slot << " >= 0; "
+                  << slot << " = " << local << ".nextSlot(" << slot << " + 1))" << endl;
+      scope_up(out);
+      if (ttype->is_map()) {
+        t_field kfield(((t_map*)ttype)->get_key_type(), local + ".keyAt(" + slot + ")");
+        generate_serialize_field(out, &kfield, "", has_metadata);
+        t_field vfield(((t_map*)ttype)->get_val_type(), local + ".valueAt(" + slot + ")");
+        generate_serialize_field(out, &vfield, "", has_metadata);
+      } else {
+        t_field efield(((t_set*)ttype)->get_elem_type(), local + ".keyAt(" + slot + ")");
+        generate_serialize_field(out, &efield, "", has_metadata);
+      }
+      scope_down(out);
+    }
+    indent_down();
+    indent(out) << "} else {" << endl;
+    indent_up();
+  }
+
   string iter = tmp("_iter");
   if (ttype->is_map()) {
     indent(out) << "for (java.util.Map.Entry<" << type_name(((t_map*)ttype)->get_key_type(), true, false)
@@ -4190,6 +4503,11 @@ void t_java_generator::generate_serialize_container(ostream& out,
   }
   scope_down(out);
 
+  if (primitive) {
+    indent_down();
+    indent(out) << "}" << endl;
+  }
+
   if (has_metadata) {
     if (ttype->is_map()) {
       indent(out) << "oprot.writeMapEnd();" << endl;
@@ -4263,6 +4581,9 @@ string t_java_generator::type_name(t_type* ttype,
     if (in_init) {
       if (is_enum_map(tmap)) {
         prefix = "java.util.EnumMap";
+      } else if (!primitive_collection_name(tmap).empty()) {
+        return primitive_collection_name(tmap)
+               + (skip_generic ? "" : "<" + type_name(tmap->get_val_type(), true) + ">");
       } else if (sorted_containers_) {
         prefix = "java.util.TreeMap";
       } else {
@@ -4278,6 +4599,8 @@ string t_java_generator::type_name(t_type* ttype,
     if (in_init) {
       if (is_enum_set(tset)) {
         prefix = "java.util.EnumSet";
+      } else if (!primitive_collection_name(tset).empty()) {
+        return primitive_collection_name(tset);
       } else if (sorted_containers_) {
         prefix = "java.util.TreeSet";
       } else {
@@ -4290,6 +4613,9 @@ string t_java_generator::type_name(t_type* ttype,
   } else if (ttype->is_list()) {
     t_list* tlist = (t_list*)ttype;
     if (in_init) {
+      if (!primitive_collection_name(tlist).empty()) {
+        return primitive_collection_name(tlist);
+      }
       prefix = "java.util.ArrayList";
     } else {
       prefix = "java.util.List";
@@ -4687,18 +5013,7 @@ void t_java_generator::generate_deep_copy_container(ostream& out,
   else
     source_name = source_name_p1 + "." + source_name_p2;
 
-  bool copy_construct_container;
-  if (container->is_map()) {
-    t_map* tmap = (t_map*)container;
-    copy_construct_container = tmap->get_key_type()->is_base_type()
-                               && tmap->get_val_type()->is_base_type();
-  } else {
-    t_type* elem_type = container->is_list() ? ((t_list*)container)->get_elem_type()
-                                             : ((t_set*)container)->get_elem_type();
-    copy_construct_container = elem_type->is_base_type();
-  }
-
-  if (copy_construct_container) {
+  if (is_copy_constructed(container)) {
     // deep copy of base types can be done much more efficiently than iterating over all the
     // elements manually
     indent(out) << type_name(type, true, false) << " " << result_name << " = new "
@@ -4709,9 +5024,12 @@ void t_java_generator::generate_deep_copy_container(ostream& out,
   std::string constructor_args;
   if (is_enum_set(container) || is_enum_map(container)) {
     constructor_args = inner_enum_type_name(container);
-  } else if (!(sorted_containers_ && (container->is_map() || container->is_set()))) {
-    // unsorted containers accept a capacity value
+  } else if (container->is_list() || !primitive_collection_name(container).empty()) {
+    // lists and primitive collections accept the number of elements
     constructor_args = source_name + ".size()";
+  } else if (!sorted_containers_) {
+    // hash containers accept a capacity value, which is doubled to stay below the load factor
+    constructor_args = "2*" + source_name + ".size()";
   }
 
   if (is_enum_set(container)) {
@@ -5014,7 +5332,9 @@ t_java_generator::isset_type t_java_generator::needs_isset(t_struct* tstruct,
   }
 }
 
-void t_java_generator::generate_java_struct_clear(std::ostream& out, t_struct* tstruct) {
+void t_java_generator::generate_java_struct_clear(std::ostream& out,
+                                                  t_struct* tstruct,
+                                                  bool is_result) {
   if (!java5_) {
     indent(out) << "@Override" << endl;
   }
@@ -5024,10 +5344,15 @@ void t_java_generator::generate_java_struct_clear(std::ostream& out, t_struct* t
   vector<t_field*>::const_iterator m_iter;
 
   indent_up();
+  generate_check_mutable(out, tstruct);
   for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
     t_field* field = *m_iter;
     t_type* t = get_true_type(field->get_type());
 
+    if (is_lazy_string(tstruct, field)) {
+      indent(out) << "this.__" << field->get_name() << "_utf8 = null;" << endl;
+    }
+
     if (field->get_value() != NULL) {
       print_const_value(out, "this." + field->get_name(), t, field->get_value(), true, true);
       continue;
@@ -5035,7 +5360,8 @@ void t_java_generator::generate_java_struct_clear(std::ostream& out, t_struct* t
 
     if (type_can_be_null(t)) {
 
-      if (reuse_objects_ && (t->is_container() || t->is_struct())) {
+      // A reused result must not clear the objects the handler returned
+      if (reuse_objects_ && !is_result && (t->is_container() || t->is_struct())) {
         indent(out) << "if (this." << field->get_name() << " != null) {" << endl;
         indent_up();
         indent(out) << "this." << field->get_name() << ".clear();" << endl;
@@ -5077,6 +5403,84 @@ void t_java_generator::generate_java_struct_clear(std::ostream& out, t_struct* t
   indent(out) << "}" << endl << endl;
 }
 
+/**
+ * Generates the freeze method of an immutable struct, and the check of its
+ * mutators that it is not frozen.
+ *
+ * @param tstruct The struct definition
+ */
+void t_java_generator::generate_java_struct_freeze(ostream& out, t_struct* tstruct) {
+  const vector<t_field*>& members = tstruct->get_members();
+  vector<t_field*>::const_iterator m_iter;
+
+  indent(out) << "/**" << endl;
+  indent(out) << " * Makes this struct unmodifiable, along with the structs and containers it holds."
+              << endl;
+  if (cache_serialized_) {
+    indent(out) << " * Once frozen, it memoizes its hash code and caches its serialized form." << endl;
+  } else {
+    indent(out) << " * Once frozen, it memoizes its hash code." << endl;
+  }
+  indent(out) << " */" << endl;
+  indent(out) << "public " << tstruct->get_name() << " freeze() {" << endl;
+  indent_up();
+  indent(out) << "if (!__frozen) {" << endl;
+  indent_up();
+  indent(out) << "__frozen = true;" << endl;
+  generate_decode_strings(out, tstruct, "");
+  for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
+    std::string field_name = (*m_iter)->get_name();
+    t_type* type = get_true_type((*m_iter)->get_type());
+    if (type->is_binary()) {
+      indent(out) << "this." << field_name << " = org.apache.thrift.TBaseHelper.rightSize(this."
+                  << field_name << ");" << endl;
+    } else if (type->is_struct() || type->is_xception() || type->is_container()) {
+      indent(out) << "this." << field_name << " = org.apache.thrift.TBaseHelper.freeze(this."
+                  << field_name << ");" << endl;
+    }
+  }
+  if (cache_serialized_) {
+    indent(out) << "__serializedForm = new org.apache.thrift.TSerializedForm<"
+                << tstruct->get_name() << ">(this, new " << tstruct->get_name()
+                << "StandardScheme());" << endl;
+  }
+  indent_down();
+  indent(out) << "}" << endl;
+  indent(out) << "return this;" << endl;
+  indent_down();
+  indent(out) << "}" << endl << endl;
+
+  indent(out) << "private void checkMutable() {" << endl;
+  indent(out) << "  if (__frozen) {" << endl;
+  indent(out) << "    throw new java.lang.UnsupportedOperationException(\"" << tstruct->get_name()
+              << " is frozen\");" << endl;
+  indent(out) << "  }" << endl;
+  indent(out) << "}" << endl << endl;
+}
+
+/**
+ * Generates the method which decodes the strings of a struct with lazy strings,
+ * for the methods which use all of its fields.
+ *
+ * @param tstruct The struct definition
+ */
+void t_java_generator::generate_java_struct_decode_strings(ostream& out, t_struct* tstruct) {
+  const vector<t_field*>& members = tstruct->get_members();
+  vector<t_field*>::const_iterator m_iter;
+
+  // The views are kept once decoded, so that a struct read by several threads is
+  // never seen with neither a string nor its view
+  indent(out) << "private void decodeStrings() {" << endl;
+  indent_up();
+  for (m_iter = members.begin(); m_iter != members.end(); ++m_iter) {
+    if (is_lazy_string(tstruct, *m_iter)) {
+      generate_decode_string(out, *m_iter);
+    }
+  }
+  indent_down();
+  indent(out) << "}" << endl << endl;
+}
+
 // generates java method to serialize (in the Java sense) the object
 void t_java_generator::generate_java_struct_write_object(ostream& out, t_struct* tstruct) {
   (void)tstruct;
@@ -5132,25 +5536,47 @@ void t_java_generator::generate_standard_reader(ostream& out, t_struct* tstruct)
   vector<t_field*>::const_iterator f_iter;
 
   // Declare stack tmp variables and read struct header
-  out << indent() << "org.apache.thrift.protocol.TField schemeField;" << endl << indent()
-      << "iprot.readStructBegin();" << endl;
+  out << indent() << "int schemeFieldHeader;" << endl << indent() << "byte schemeFieldType;"
+      << endl;
+
+  // Bits of the primitive fields read in order, set on the struct at once at the end
+  string isset_primitive_type;
+  bool ordered_isset_bits = ordered_readers_
+                            && needs_isset(tstruct, &isset_primitive_type) == ISSET_PRIMITIVE;
+  if (ordered_isset_bits) {
+    indent(out) << (isset_primitive_type == "long" ? "long" : "int") << " schemeIssetBits = 0;"
+                << endl;
+  }
+  indent(out) << "iprot.readStructBegin();" << endl;
+
+  if (ordered_readers_) {
+    generate_ordered_reader_fields(out,
+                                   tstruct,
+                                   !ordered_isset_bits ? ""
+                                   : isset_primitive_type == "long" ? "1L" : "1");
+  }
 
   // Loop over reading in fields
   indent(out) << "while (true)" << endl;
   scope_up(out);
 
-  // Read beginning field marker
-  indent(out) << "schemeField = iprot.readFieldBegin();" << endl;
+  // Read beginning field marker, packed in an int rather than a TField. The ordered
+  // reader has already read the header of the first field it did not expect
+  if (!ordered_readers_) {
+    indent(out) << "schemeFieldHeader = iprot.readFieldHeader();" << endl;
+  }
+  indent(out) << "schemeFieldType = org.apache.thrift.protocol.TField.headerType(schemeFieldHeader);"
+              << endl;
 
   // Check for field STOP marker and break
-  indent(out) << "if (schemeField.type == org.apache.thrift.protocol.TType.STOP) { " << endl;
+  indent(out) << "if (schemeFieldType == org.apache.thrift.protocol.TType.STOP) { " << endl;
   indent_up();
   indent(out) << "break;" << endl;
   indent_down();
   indent(out) << "}" << endl;
 
   // Switch statement on the field we are reading
-  indent(out) << "switch (schemeField.id) {" << endl;
+  indent(out) << "switch (org.apache.thrift.protocol.TField.headerId(schemeFieldHeader)) {" << endl;
 
   indent_up();
 
@@ -5159,23 +5585,23 @@ void t_java_generator::generate_standard_reader(ostream& out, t_struct* tstruct)
     indent(out) << "case " << (*f_iter)->get_key() << ": // "
                 << constant_name((*f_iter)->get_name()) << endl;
     indent_up();
-    indent(out) << "if (schemeField.type == " << type_to_enum((*f_iter)->get_type()) << ") {"
+    indent(out) << "if (schemeFieldType == " << type_to_enum((*f_iter)->get_type()) << ") {"
                 << endl;
     indent_up();
 
-    generate_deserialize_field(out, *f_iter, "struct.", true);
+    generate_deserialize_struct_field(out, tstruct, *f_iter, true);
     indent(out) << "struct."
                 << "set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet")
                 << "(true);" << endl;
     indent_down();
     out << indent() << "} else { " << endl << indent()
-        << "  org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);" << endl
+        << "  org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeFieldType);" << endl
         << indent() << "}" << endl << indent() << "break;" << endl;
     indent_down();
   }
 
   indent(out) << "default:" << endl;
-  indent(out) << "  org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);"
+  indent(out) << "  org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeFieldType);"
               << endl;
 
   indent_down();
@@ -5183,10 +5609,16 @@ void t_java_generator::generate_standard_reader(ostream& out, t_struct* tstruct)
 
   // Read field end marker
   indent(out) << "iprot.readFieldEnd();" << endl;
+  if (ordered_readers_) {
+    indent(out) << "schemeFieldHeader = iprot.readFieldHeader();" << endl;
+  }
 
   indent_down();
   indent(out) << "}" << endl;
 
+  if (ordered_isset_bits) {
+    indent(out) << "struct.__isset_bitfield |= schemeIssetBits;" << endl;
+  }
   out << indent() << "iprot.readStructEnd();" << endl;
 
   // in non-beans style, check for required fields of primitive type
@@ -5213,6 +5645,45 @@ void t_java_generator::generate_standard_reader(ostream& out, t_struct* tstruct)
   out << indent() << "}" << endl;
 }
 
+/**
+ * Generates the fast path of an ordered reader. Writers emit the fields in id order,
+ * so each field is expected after the previous one: its header is compared with a
+ * constant and the field is read without a switch. Absent fields fall through to the
+ * next one, and the first unexpected header is left for the switch loop.
+ *
+ * @param isset_bit "1" or "1L" to collect the isset bits of primitive fields in
+ *                  schemeIssetBits, empty to set them through the struct.
+ */
+void t_java_generator::generate_ordered_reader_fields(ostream& out,
+                                                      t_struct* tstruct,
+                                                      string isset_bit) {
+  const vector<t_field*>& fields = tstruct->get_sorted_members();
+  vector<t_field*>::const_iterator f_iter;
+
+  indent(out) << "schemeFieldHeader = iprot.readFieldHeader();" << endl;
+  for (f_iter = fields.begin(); f_iter != fields.end(); ++f_iter) {
+    indent(out) << "if (schemeFieldHeader == (" << type_to_enum((*f_iter)->get_type())
+                << " << 16 | " << ((*f_iter)->get_key() & 0xffff) << ")) { // "
+                << constant_name((*f_iter)->get_name()) << endl;
+    indent_up();
+    generate_deserialize_struct_field(out, tstruct, *f_iter, true);
+    if (!type_can_be_null((*f_iter)->get_type())) {
+      if (!isset_bit.empty()) {
+        indent(out) << "schemeIssetBits |= " << isset_bit << " << " << isset_field_id(*f_iter) << ";"
+                    << endl;
+      } else {
+        indent(out) << "struct."
+                    << "set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet")
+                    << "(true);" << endl;
+      }
+    }
+    indent(out) << "iprot.readFieldEnd();" << endl;
+    indent(out) << "schemeFieldHeader = iprot.readFieldHeader();" << endl;
+    indent_down();
+    indent(out) << "}" << endl;
+  }
+}
+
 void t_java_generator::generate_standard_writer(ostream& out, t_struct* tstruct, bool is_result) {
   indent_up();
   out << indent() << "public void write(org.apache.thrift.protocol.TProtocol oprot, "
@@ -5223,6 +5694,7 @@ void t_java_generator::generate_standard_writer(ostream& out, t_struct* tstruct,
 
   // performs various checks (e.g. check that all required fields are set)
   indent(out) << "struct.validate();" << endl << endl;
+  generate_decode_strings(out, tstruct, "struct.");
 
   indent(out) << "oprot.writeStructBegin(STRUCT_DESC);" << endl;
 
@@ -5306,7 +5778,7 @@ void t_java_generator::generate_java_struct_tuple_reader(ostream& out, t_struct*
       optional_count++;
     }
     if ((*f_iter)->get_req() == t_field::T_REQUIRED) {
-      generate_deserialize_field(out, (*f_iter), "struct.", false);
+      generate_deserialize_struct_field(out, tstruct, (*f_iter), false);
       indent(out) << "struct.set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet")
                   << "(true);" << endl;
     }
@@ -5319,7 +5791,7 @@ void t_java_generator::generate_java_struct_tuple_reader(ostream& out, t_struct*
           || (*f_iter)->get_req() == t_field::T_OPT_IN_REQ_OUT) {
         indent(out) << "if (incoming.get(" << i << ")) {" << endl;
         indent_up();
-        generate_deserialize_field(out, (*f_iter), "struct.", false);
+        generate_deserialize_struct_field(out, tstruct, (*f_iter), false);
         indent(out) << "struct.set" << get_cap_name((*f_iter)->get_name()) << get_cap_name("isSet")
                     << "(true);" << endl;
         indent_down();
@@ -5338,6 +5810,7 @@ void t_java_generator::generate_java_struct_tuple_writer(ostream& out, t_struct*
               << tstruct->get_name() << " struct) throws org.apache.thrift.TException {" << endl;
   indent_up();
   indent(out) << "org.apache.thrift.protocol.TTupleProtocol oprot = (org.apache.thrift.protocol.TTupleProtocol) prot;" << endl;
+  generate_decode_strings(out, tstruct, "struct.");
 
   const vector<t_field*>& fields = tstruct->get_members();
   vector<t_field*>::const_iterator f_iter;
@@ -5456,4 +5929,16 @@ THRIFT_REGISTER_GENERATOR(
     "    generated_annotations=[undated|suppress]:\n"
     "                     undated: suppress the date at @Generated annotations\n"
     "                     suppress: suppress @Generated annotations entirely\n"
-    "    unsafe_binaries: Do not copy ByteBuffers in constructors, getters, and setters.\n")
+    "    unsafe_binaries: Do not copy ByteBuffers in constructors, getters, and setters.\n"
+    "    primitive_collections:\n"
+    "                     Use primitive backed lists of i32/i64/double and sets/maps keyed by "
+    "i32/i64.\n"
+    "    ordered_readers: Readers expect the fields in id order and check for the next one "
+    "before dispatching on the field id.\n"
+    "    immutable_structs[=cache_serialized]:\n"
+    "                     Structs can be frozen, after which they cannot be changed and memoize "
+    "their hash code.\n"
+    "                     With cache_serialized, frozen structs also cache their binary and "
+    "compact encodings.\n"
+    "    lazy_strings:    Strings are read as views of their UTF-8 bytes, and decoded when first "
+    "used.\n")
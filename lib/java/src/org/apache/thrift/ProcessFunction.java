@@ -4,6 +4,8 @@ import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.server.TServerInstrumentation;
+import org.apache.thrift.server.TServerInstrumentation.Outcome;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,15 +15,88 @@ public abstract class ProcessFunction<I, T extends TBase> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(ProcessFunction.class.getName());
 
+  private volatile boolean reuseStructs = false;
+  private final ThreadLocal<Reusable> reusable = new ThreadLocal<Reusable>();
+
+  // The args and result structs a thread reuses from one call to the next
+  private static final class Reusable {
+    TBase args;
+    TBase result;
+    boolean inUse;
+    boolean resultAvailable;
+  }
+
   public ProcessFunction(String methodName) {
     this.methodName = methodName;
   }
 
   public final void process(int seqid, TProtocol iprot, TProtocol oprot, I iface) throws TException {
-    T args = getEmptyArgsInstance();
+    process(seqid, iprot, oprot, iface, null);
+  }
+
+  /**
+   * Processes a call, notifying the instrumentation of its outcome.
+   *
+   * @param instrumentation notified when the call completes, may be null.
+   */
+  public final void process(int seqid, TProtocol iprot, TProtocol oprot, I iface,
+                            TServerInstrumentation instrumentation) throws TException {
+    if (!reuseStructs) {
+      process(seqid, iprot, oprot, iface, instrumentation, null);
+      return;
+    }
+    Reusable reused = reusable.get();
+    if (reused == null) {
+      reused = new Reusable();
+      reusable.set(reused);
+    }
+    if (reused.inUse) {
+      // A call made from the handler of a call on the same thread gets structs of its own
+      boolean resultAvailable = reused.resultAvailable;
+      reused.resultAvailable = false;
+      try {
+        process(seqid, iprot, oprot, iface, instrumentation, null);
+      } finally {
+        reused.resultAvailable = resultAvailable;
+      }
+      return;
+    }
+    reused.inUse = true;
+    reused.resultAvailable = true;
+    try {
+      process(seqid, iprot, oprot, iface, instrumentation, reused);
+    } finally {
+      reused.inUse = false;
+      reused.resultAvailable = false;
+      // Don't keep the arguments and the return value reachable until the next call. Args
+      // generated with reuse-objects clear their containers in place and keep their capacity.
+      if (reused.args != null) {
+        reused.args.clear();
+      }
+      if (reused.result != null) {
+        reused.result.clear();
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void process(int seqid, TProtocol iprot, TProtocol oprot, I iface,
+                       TServerInstrumentation instrumentation, Reusable reused) throws TException {
+    T args;
+    if (reused == null) {
+      args = getEmptyArgsInstance();
+    } else {
+      if (reused.args == null) {
+        reused.args = getEmptyArgsInstance();
+      }
+      args = (T) reused.args;
+    }
     try {
       args.read(iprot);
     } catch (TProtocolException e) {
+      if (instrumentation != null) {
+        instrumentation.methodCompleted(getMethodName(), 0, Outcome.PROTOCOL_ERROR);
+      }
       iprot.readMessageEnd();
       TApplicationException x = new TApplicationException(TApplicationException.PROTOCOL_ERROR, e.getMessage());
       oprot.writeMessageBegin(new TMessage(getMethodName(), TMessageType.EXCEPTION, seqid));
@@ -31,11 +106,30 @@ public abstract class ProcessFunction<I, T extends TBase> {
       return;
     }
     iprot.readMessageEnd();
+    if (TDeadline.isCurrentExpired()) {
+      // the client gave up already, don't spend time on the request
+      LOGGER.debug("Deadline exceeded before processing " + getMethodName());
+      if (instrumentation != null) {
+        instrumentation.methodCompleted(getMethodName(), 0, Outcome.REJECTED);
+      }
+      if (!isOneway()) {
+        TApplicationException x = new TApplicationException(TApplicationException.INTERNAL_ERROR,
+            "Deadline exceeded before processing " + getMethodName());
+        oprot.writeMessageBegin(new TMessage(getMethodName(), TMessageType.EXCEPTION, seqid));
+        x.write(oprot);
+        oprot.writeMessageEnd();
+        oprot.getTransport().flush();
+      }
+      return;
+    }
     TSerializable result = null;
     byte msgType = TMessageType.REPLY;
+    long start = instrumentation != null ? System.nanoTime() : 0;
+    Outcome outcome = Outcome.ERROR;
 
     try {
       result = getResult(iface, args);
+      outcome = Outcome.SUCCESS;
     } catch (TTransportException ex) {
       LOGGER.error("Transport error while processing " + getMethodName(), ex);
       throw ex;
@@ -51,6 +145,10 @@ public abstract class ProcessFunction<I, T extends TBase> {
             "Internal error processing " + getMethodName());
         msgType = TMessageType.EXCEPTION;
       }
+    } finally {
+      if (instrumentation != null) {
+        instrumentation.methodCompleted(getMethodName(), System.nanoTime() - start, outcome);
+      }
     }
 
     if(!isOneway()) {
@@ -72,6 +170,40 @@ public abstract class ProcessFunction<I, T extends TBase> {
     }
   }
 
+  /**
+   * Reuses the args and result structs of each thread from one call to the next, clearing
+   * them once the reply is written instead of allocating new ones. Code generated with the reuse-objects option also
+   * keeps the containers of the args along with their capacity, so the handler must not
+   * keep the arguments it is called with once it returns.
+   * <p>
+   * The structs are kept by the threads which process the calls, like the worker threads
+   * of TThreadPoolServer and of the nonblocking servers.
+   */
+  public void setReuseStructs(boolean reuseStructs) {
+    this.reuseStructs = reuseStructs;
+  }
+
+  public boolean isReuseStructs() {
+    return reuseStructs;
+  }
+
+  /**
+   * Returns the result struct for getResult to fill, which is the cleared result struct of
+   * the calling thread when structs are reused.
+   */
+  @SuppressWarnings("unchecked")
+  protected final <R extends TBase> R getResultInstance() {
+    Reusable reused = reuseStructs ? reusable.get() : null;
+    if (reused == null || !reused.resultAvailable) {
+      return (R) getEmptyResultInstance();
+    }
+    reused.resultAvailable = false;
+    if (reused.result == null) {
+      reused.result = getEmptyResultInstance();
+    }
+    return (R) reused.result;
+  }
+
   protected boolean rethrowUnhandledExceptions(){
     return false;
   }
@@ -82,6 +214,14 @@ public abstract class ProcessFunction<I, T extends TBase> {
 
   public abstract T getEmptyArgsInstance();
 
+  /**
+   * Returns a new result struct, or null for oneway methods and for process functions which
+   * create their results in getResult.
+   */
+  public TBase getEmptyResultInstance() {
+    return null;
+  }
+
   public String getMethodName() {
     return methodName;
   }
@@ -22,6 +22,8 @@ package org.apache.thrift;
 import java.io.Serializable;
 
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSizeProtocol;
 
 /**
  * Generic base interface for generated Thrift objects.
@@ -64,4 +66,15 @@ public interface TBase<T extends TBase<T,F>, F extends TFieldIdEnum> extends Com
    * called the default constructor.
    */
   public void clear();
+
+  /**
+   * Get the number of bytes this object is serialized to by the protocols of
+   * the factory. The sizes of the binary and compact protocols are computed
+   * without serializing the object.
+   *
+   * @param factory Factory of the protocol the object is written with
+   */
+  default int serializedSize(TProtocolFactory factory) throws TException {
+    return TSizeProtocol.sizeOf(this, factory);
+  }
 }
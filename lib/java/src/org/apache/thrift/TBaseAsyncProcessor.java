@@ -22,17 +22,24 @@ import org.apache.thrift.protocol.*;
 import org.apache.thrift.async.AsyncMethodCallback;
 
 import org.apache.thrift.server.AbstractNonblockingServer.*;
+import org.apache.thrift.server.TServerInstrumentation;
+import org.apache.thrift.server.TServerInstrumentation.Outcome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class TBaseAsyncProcessor<I> implements TAsyncProcessor, TProcessor {
     protected final Logger LOGGER = LoggerFactory.getLogger(getClass().getName());
 
     final I iface;
     final Map<String,AsyncProcessFunction<I, ? extends TBase,?>> processMap;
+    final Map<String,TBulkhead> bulkheads = new ConcurrentHashMap<String,TBulkhead>();
+    private volatile TServerInstrumentation instrumentation;
 
     public TBaseAsyncProcessor(I iface, Map<String, AsyncProcessFunction<I, ? extends TBase,?>> processMap) {
         this.iface = iface;
@@ -43,6 +50,41 @@ public class TBaseAsyncProcessor<I> implements TAsyncProcessor, TProcessor {
         return Collections.unmodifiableMap(processMap);
     }
 
+    /**
+     * Limits the number of concurrent calls of a method to the permits of the bulkhead. Several
+     * methods can share a bulkhead. Calls which cannot get a permit right away are rejected.
+     * A call holds its permit until its result handler completes.
+     *
+     * @param methodName name of the method, as in the process map.
+     * @param bulkhead the bulkhead of the method, or null to remove the method from its bulkhead.
+     */
+    public void assignBulkhead(String methodName, TBulkhead bulkhead) {
+        if (!processMap.containsKey(methodName)) {
+            throw new IllegalArgumentException("Unknown method: " + methodName);
+        }
+        if (bulkhead == null) {
+            bulkheads.remove(methodName);
+        } else {
+            bulkheads.put(methodName, bulkhead);
+        }
+    }
+
+    public Map<String,TBulkhead> getBulkheadsView() {
+        return Collections.unmodifiableMap(bulkheads);
+    }
+
+    /**
+     * Sets the instrumentation notified of the outcome of every call, null for none.
+     * The latency of a call runs until its result handler completes.
+     */
+    public void setInstrumentation(TServerInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
+    public TServerInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
     public void process(final AsyncFrameBuffer fb) throws TException {
 
         final TProtocol in = fb.getInputProtocol();
@@ -70,12 +112,17 @@ public class TBaseAsyncProcessor<I> implements TAsyncProcessor, TProcessor {
             return;
         }
 
+        final TServerInstrumentation instrumentation = this.instrumentation;
+
         //Get Args
         TBase args = fn.getEmptyArgsInstance();
 
         try {
             args.read(in);
         } catch (TProtocolException e) {
+            if (instrumentation != null) {
+                instrumentation.methodCompleted(msg.name, 0, Outcome.PROTOCOL_ERROR);
+            }
             in.readMessageEnd();
 
             TApplicationException x = new TApplicationException(TApplicationException.PROTOCOL_ERROR,
@@ -93,19 +140,169 @@ public class TBaseAsyncProcessor<I> implements TAsyncProcessor, TProcessor {
         }
         in.readMessageEnd();
 
+        if (TDeadline.isCurrentExpired()) {
+            // the client gave up already, don't spend time on the request
+            TDeadline.setCurrent(null);
+            TMessageHeaders.setCurrent(null);
+            LOGGER.debug("Deadline exceeded before processing " + msg.name);
+            if (instrumentation != null) {
+                instrumentation.methodCompleted(msg.name, 0, Outcome.REJECTED);
+            }
+            if (!fn.isOneway()) {
+              TApplicationException x = new TApplicationException(TApplicationException.INTERNAL_ERROR,
+                  "Deadline exceeded before processing " + msg.name);
+              out.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+              x.write(out);
+              out.writeMessageEnd();
+              out.getTransport().flush();
+            }
+            fb.responseReady();
+            return;
+        }
+
+        final TBulkhead bulkhead = bulkheads.get(msg.name);
+        if (bulkhead != null && !bulkhead.tryAcquireNow()) {
+            TDeadline.setCurrent(null);
+            TMessageHeaders.setCurrent(null);
+            LOGGER.debug("Bulkhead " + bulkhead.getName() + " is full, rejected " + msg.name);
+            if (instrumentation != null) {
+                instrumentation.methodCompleted(msg.name, 0, Outcome.REJECTED);
+            }
+            if (!fn.isOneway()) {
+                out.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+                bulkhead.rejection(msg.name).write(out);
+                out.writeMessageEnd();
+                out.getTransport().flush();
+            }
+            fb.responseReady();
+            return;
+        }
+
         if (fn.isOneway()) {
-          fb.responseReady();
+            fb.responseReady();
         }
 
-        //start off processing function
         AsyncMethodCallback resultHandler = fn.getResultHandler(fb, msg.seqid);
+        if (instrumentation != null) {
+            resultHandler = new InstrumentedResultHandler(instrumentation, msg.name, resultHandler);
+        }
+        if (bulkhead != null && !fn.isOneway()) {
+            resultHandler = new BulkheadResultHandler(bulkhead, resultHandler);
+        }
+        if (bulkhead == null || bulkhead.getExecutor() == null) {
+            start(fn, args, resultHandler, bulkhead);
+            return;
+        }
+
+        //start off processing function on the executor of the bulkhead, along with the deadline and headers
+        final AsyncProcessFunction startFn = fn;
+        final TBase startArgs = args;
+        final AsyncMethodCallback startHandler = resultHandler;
+        final TDeadline deadline = TDeadline.setCurrent(null);
+        final Map<String, String> headers = TMessageHeaders.setCurrent(null);
+        try {
+            bulkhead.getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    TDeadline.setCurrent(deadline);
+                    TMessageHeaders.setCurrent(headers);
+                    start(startFn, startArgs, startHandler, bulkhead);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Executor of bulkhead " + bulkhead.getName() + " rejected " + msg.name, e);
+            if (fn.isOneway()) {
+                bulkhead.release();
+            } else {
+                resultHandler.onError(bulkhead.rejection(msg.name));
+            }
+        }
+    }
+
+    private void start(AsyncProcessFunction fn, TBase args, AsyncMethodCallback resultHandler, TBulkhead bulkhead) {
         try {
-          fn.start(iface, args, resultHandler);
+            fn.start(iface, args, resultHandler);
         } catch (Exception e) {
-          LOGGER.debug("Exception handling function", e);
-          resultHandler.onError(e);
+            LOGGER.debug("Exception handling function", e);
+            resultHandler.onError(e);
+        } finally {
+            TDeadline.setCurrent(null);
+            TMessageHeaders.setCurrent(null);
+            // oneway calls are done once started, the others release the permit in their result handler
+            if (bulkhead != null && fn.isOneway()) {
+                bulkhead.release();
+            }
+            if (fn.isOneway() && resultHandler instanceof InstrumentedResultHandler) {
+                ((InstrumentedResultHandler) resultHandler).started();
+            }
+        }
+    }
+
+    /**
+     * Notifies the instrumentation of the outcome of a call when its result is sent, or when
+     * a oneway call is started.
+     */
+    private static class InstrumentedResultHandler implements AsyncMethodCallback {
+        private final TServerInstrumentation instrumentation;
+        private final String methodName;
+        private final AsyncMethodCallback delegate;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        InstrumentedResultHandler(TServerInstrumentation instrumentation, String methodName,
+                                  AsyncMethodCallback delegate) {
+            this.instrumentation = instrumentation;
+            this.methodName = methodName;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onComplete(Object response) {
+            complete(Outcome.SUCCESS);
+            delegate.onComplete(response);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            // exceptions declared by the method are structs, sent back as a regular reply
+            complete(exception instanceof TBase ? Outcome.SUCCESS : Outcome.ERROR);
+            delegate.onError(exception);
+        }
+
+        void started() {
+            complete(Outcome.SUCCESS);
+        }
+
+        private void complete(Outcome outcome) {
+            if (completed.compareAndSet(false, true)) {
+                instrumentation.methodCompleted(methodName, System.nanoTime() - start, outcome);
+            }
+        }
+    }
+
+    /**
+     * Returns the permit of a call to its bulkhead when its result is sent.
+     */
+    private static class BulkheadResultHandler implements AsyncMethodCallback {
+        private final TBulkhead bulkhead;
+        private final AsyncMethodCallback delegate;
+
+        BulkheadResultHandler(TBulkhead bulkhead, AsyncMethodCallback delegate) {
+            this.bulkhead = bulkhead;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onComplete(Object response) {
+            bulkhead.release();
+            delegate.onComplete(response);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            bulkhead.release();
+            delegate.onError(exception);
         }
-        return;
     }
 
     @Override
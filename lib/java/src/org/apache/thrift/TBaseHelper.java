@@ -19,18 +19,23 @@ package org.apache.thrift;
 
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
+import org.apache.thrift.protocol.TUtf8;
+
 public final class TBaseHelper {
 
   private TBaseHelper(){}
@@ -113,7 +118,9 @@ public final class TBaseHelper {
 
   public static int compareTo(Set a, Set b) {
     int compare = compareTo(a.size(), b.size());
-    if (compare == 0) {
+    if (compare == 0 && isNaturallySorted(a) && isNaturallySorted(b)) {
+      return compareSorted(a.iterator(), b.iterator());
+    } else if (compare == 0) {
       ArrayList sortedA = new ArrayList(a);
       ArrayList sortedB = new ArrayList(b);
 
@@ -140,6 +147,10 @@ public final class TBaseHelper {
       return lastComparison;
     }
 
+    if (isNaturallySorted(a) && isNaturallySorted(b)) {
+      return compareSorted(a.entrySet().iterator(), b.entrySet().iterator());
+    }
+
     // Sort a and b so we can compare them.
     SortedMap sortedA = new TreeMap(comparator);
     sortedA.putAll(a);
@@ -165,6 +176,40 @@ public final class TBaseHelper {
     return 0;
   }
 
+  // Sets and maps in the natural order of their elements are iterated in the order
+  // the comparator would sort them in, so they need no sorting to be compared
+  private static boolean isNaturallySorted(Object container) {
+    container = TCopyOnWrite.unwrap(container);
+    if (container instanceof SortedSet) {
+      return ((SortedSet) container).comparator() == null;
+    } else if (container instanceof SortedMap) {
+      return ((SortedMap) container).comparator() == null;
+    }
+    return false;
+  }
+
+  private static int compareSorted(Iterator iterA, Iterator iterB) {
+    while (iterA.hasNext() && iterB.hasNext()) {
+      Object a = iterA.next();
+      Object b = iterB.next();
+      int compare;
+      if (a instanceof Map.Entry) {
+        Map.Entry entryA = (Map.Entry) a;
+        Map.Entry entryB = (Map.Entry) b;
+        compare = comparator.compare(entryA.getKey(), entryB.getKey());
+        if (compare == 0) {
+          compare = comparator.compare(entryA.getValue(), entryB.getValue());
+        }
+      } else {
+        compare = comparator.compare(a, b);
+      }
+      if (compare != 0) {
+        return compare;
+      }
+    }
+    return 0;
+  }
+
   /**
    * Comparator to compare items inside a structure (e.g. a list, set, or map).
    */
@@ -269,6 +314,17 @@ public final class TBaseHelper {
     return ByteBuffer.wrap(byteBufferToByteArray(in));
   }
 
+  /**
+   * Decodes a string from its UTF-8 bytes, as read by
+   * {@link org.apache.thrift.protocol.TProtocol#readStringBytes()}.
+   */
+  public static String decodeString(ByteBuffer utf8) {
+    if (utf8.hasArray()) {
+      return TUtf8.decode(utf8.array(), utf8.arrayOffset() + utf8.position(), utf8.remaining());
+    }
+    return StandardCharsets.UTF_8.decode(utf8.duplicate()).toString();
+  }
+
   public static ByteBuffer copyBinary(final ByteBuffer orig) {
     if (orig == null) {
       return null;
@@ -294,4 +350,85 @@ public final class TBaseHelper {
   public static int hashCode(double value) {
     return Double.hashCode(value);
   }
+
+  /**
+   * Returns a copy of an unmodifiable container, which shares its elements until the
+   * copy is changed. The copy is then made a HashSet, HashMap, TreeSet or TreeMap,
+   * like the container it was made from, or an ArrayList. The elements are not copied,
+   * so this is meant for the containers of base types in frozen structs.
+   */
+  public static <E> List<E> copyOnWrite(List<E> list) {
+    return new TCopyOnWrite.SharedList<E>(list);
+  }
+
+  /**
+   * @see #copyOnWrite(List)
+   */
+  public static <E> Set<E> copyOnWrite(Set<E> set) {
+    return new TCopyOnWrite.SharedSet<E>(set);
+  }
+
+  /**
+   * @see #copyOnWrite(List)
+   */
+  public static <K, V> Map<K, V> copyOnWrite(Map<K, V> map) {
+    return new TCopyOnWrite.SharedMap<K, V>(map);
+  }
+
+  /**
+   * Freeze the structs a value holds and make its containers unmodifiable, for
+   * the freeze() method of generated structs. List elements and map values are
+   * replaced by their frozen forms. Set elements and map keys are frozen if they
+   * are structs, but containers nested in them are left as they are.
+   *
+   * @return the value, or an unmodifiable view of it if it is a container
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> T freeze(T value) {
+    value = (T) TCopyOnWrite.unwrap(value);
+    if (value instanceof TFreezable) {
+      ((TFreezable) value).freeze();
+      return value;
+    }
+    if (value instanceof List) {
+      List<Object> list = (List<Object>) value;
+      if (!(value instanceof TIntArrayList || value instanceof TLongArrayList || value instanceof TDoubleArrayList)) {
+        for (ListIterator<Object> it = list.listIterator(); it.hasNext(); ) {
+          Object elem = it.next();
+          Object frozen = freeze(elem);
+          if (frozen != elem) {
+            it.set(frozen);
+          }
+        }
+      }
+      return (T) Collections.unmodifiableList(list);
+    }
+    if (value instanceof Set) {
+      Set<Object> set = (Set<Object>) value;
+      if (!(value instanceof TIntHashSet || value instanceof TLongHashSet)) {
+        for (Object elem : set) {
+          if (elem instanceof TFreezable) {
+            ((TFreezable) elem).freeze();
+          }
+        }
+      }
+      return (T) (set instanceof SortedSet ? Collections.unmodifiableSortedSet((SortedSet<Object>) set)
+          : Collections.unmodifiableSet(set));
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> map = (Map<Object, Object>) value;
+      for (Map.Entry<Object, Object> entry : map.entrySet()) {
+        if (entry.getKey() instanceof TFreezable) {
+          ((TFreezable) entry.getKey()).freeze();
+        }
+        Object frozen = freeze(entry.getValue());
+        if (frozen != entry.getValue()) {
+          entry.setValue(frozen);
+        }
+      }
+      return (T) (map instanceof SortedMap ? Collections.unmodifiableSortedMap((SortedMap<Object, Object>) map)
+          : Collections.unmodifiableMap(map));
+    }
+    return value;
+  }
 }
@@ -2,16 +2,20 @@ package org.apache.thrift;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolUtil;
 import org.apache.thrift.protocol.TType;
+import org.apache.thrift.server.TServerInstrumentation;
 
 public abstract class TBaseProcessor<I> implements TProcessor {
   private final I iface;
   private final Map<String,ProcessFunction<I, ? extends TBase>> processMap;
+  private final Map<String,TBulkhead> bulkheads = new ConcurrentHashMap<String,TBulkhead>();
+  private volatile TServerInstrumentation instrumentation;
 
   protected TBaseProcessor(I iface, Map<String, ProcessFunction<I, ? extends TBase>> processFunctionMap) {
     this.iface = iface;
@@ -22,20 +26,92 @@ public abstract class TBaseProcessor<I> implements TProcessor {
     return Collections.unmodifiableMap(processMap);
   }
 
+  /**
+   * Limits the number of concurrent calls of a method to the permits of the bulkhead. Several
+   * methods can share a bulkhead. Calls which cannot get a permit are rejected.
+   *
+   * @param methodName name of the method, as in the process map.
+   * @param bulkhead the bulkhead of the method, or null to remove the method from its bulkhead.
+   */
+  public void assignBulkhead(String methodName, TBulkhead bulkhead) {
+    if (!processMap.containsKey(methodName)) {
+      throw new IllegalArgumentException("Unknown method: " + methodName);
+    }
+    if (bulkhead == null) {
+      bulkheads.remove(methodName);
+    } else {
+      bulkheads.put(methodName, bulkhead);
+    }
+  }
+
+  public Map<String,TBulkhead> getBulkheadsView() {
+    return Collections.unmodifiableMap(bulkheads);
+  }
+
+  /**
+   * Sets the instrumentation notified of the outcome of every call, null for none.
+   */
+  public void setInstrumentation(TServerInstrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
+  public TServerInstrumentation getInstrumentation() {
+    return instrumentation;
+  }
+
+  /**
+   * Reuses the args and result structs of every method across calls on the same thread.
+   *
+   * @see ProcessFunction#setReuseStructs(boolean)
+   */
+  public void setReuseStructs(boolean reuseStructs) {
+    for (ProcessFunction<I, ? extends TBase> fn : processMap.values()) {
+      fn.setReuseStructs(reuseStructs);
+    }
+  }
+
   @Override
   public void process(TProtocol in, TProtocol out) throws TException {
-    TMessage msg = in.readMessageBegin();
-    ProcessFunction fn = processMap.get(msg.name);
-    if (fn == null) {
-      TProtocolUtil.skip(in, TType.STRUCT);
-      in.readMessageEnd();
-      TApplicationException x = new TApplicationException(TApplicationException.UNKNOWN_METHOD, "Invalid method name: '"+msg.name+"'");
-      out.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
-      x.write(out);
-      out.writeMessageEnd();
-      out.getTransport().flush();
-    } else {
-      fn.process(msg.seqid, in, out, iface);
+    try {
+      TMessage msg = in.readMessageBegin();
+      ProcessFunction fn = processMap.get(msg.name);
+      if (fn == null) {
+        TProtocolUtil.skip(in, TType.STRUCT);
+        in.readMessageEnd();
+        TApplicationException x = new TApplicationException(TApplicationException.UNKNOWN_METHOD, "Invalid method name: '"+msg.name+"'");
+        out.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+        x.write(out);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+      } else {
+        TServerInstrumentation instrumentation = this.instrumentation;
+        TBulkhead bulkhead = bulkheads.get(msg.name);
+        if (bulkhead == null) {
+          fn.process(msg.seqid, in, out, iface, instrumentation);
+        } else if (bulkhead.tryAcquire()) {
+          try {
+            fn.process(msg.seqid, in, out, iface, instrumentation);
+          } finally {
+            bulkhead.release();
+          }
+        } else {
+          if (instrumentation != null) {
+            instrumentation.methodCompleted(msg.name, 0, TServerInstrumentation.Outcome.REJECTED);
+          }
+          TProtocolUtil.skip(in, TType.STRUCT);
+          in.readMessageEnd();
+          if (msg.type == TMessageType.CALL) {
+            out.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+            bulkhead.rejection(msg.name).write(out);
+            out.writeMessageEnd();
+            out.getTransport().flush();
+          }
+        }
+      }
+    } finally {
+      // the deadline and headers received with the request only apply while processing it
+      TDeadline.setCurrent(null);
+      TMessageHeaders.setCurrent(null);
     }
   }
 }
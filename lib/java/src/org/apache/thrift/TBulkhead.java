@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Isolates a group of methods of a service, so that they cannot occupy more than a given
+ * number of the server threads. Methods are assigned to a bulkhead with
+ * {@link TBaseProcessor#assignBulkhead(String, TBulkhead)} or
+ * {@link TBaseAsyncProcessor#assignBulkhead(String, TBulkhead)}. A call of a method whose
+ * bulkhead is full is rejected with an INTERNAL_ERROR {@link TApplicationException}, so a slow
+ * method cannot starve the other methods served by the same threads.
+ *
+ * <pre>
+ * TBulkhead reports = new TBulkhead("reports", 4);
+ * processor.assignBulkhead("monthlyReport", reports);
+ * processor.assignBulkhead("yearlyReport", reports);
+ * </pre>
+ *
+ * The async processor never waits for a permit, as it may run on a selector thread. It starts
+ * the calls on the executor of the bulkhead if there is one, and holds the permit until the
+ * result of the call is sent.
+ */
+public class TBulkhead {
+
+  private final String name;
+  private final int maxConcurrentCalls;
+  private final long maxWaitNanos;
+  private final Executor executor;
+  private final Semaphore permits;
+
+  private final LongAdder rejectedCalls = new LongAdder();
+
+  /**
+   * Rejects calls right away when the maximum number of calls is running.
+   */
+  public TBulkhead(String name, int maxConcurrentCalls) {
+    this(name, maxConcurrentCalls, 0, TimeUnit.MILLISECONDS, null);
+  }
+
+  /**
+   * Lets calls of the synchronous processor wait up to maxWait for a running call to finish.
+   */
+  public TBulkhead(String name, int maxConcurrentCalls, long maxWait, TimeUnit unit) {
+    this(name, maxConcurrentCalls, maxWait, unit, null);
+  }
+
+  /**
+   * Starts the calls of the async processor on the given executor.
+   */
+  public TBulkhead(String name, int maxConcurrentCalls, Executor executor) {
+    this(name, maxConcurrentCalls, 0, TimeUnit.MILLISECONDS, executor);
+  }
+
+  private TBulkhead(String name, int maxConcurrentCalls, long maxWait, TimeUnit unit, Executor executor) {
+    if (maxConcurrentCalls <= 0) {
+      throw new IllegalArgumentException("maxConcurrentCalls must be positive.");
+    }
+    this.name = name;
+    this.maxConcurrentCalls = maxConcurrentCalls;
+    this.maxWaitNanos = unit.toNanos(maxWait);
+    this.executor = executor;
+    this.permits = new Semaphore(maxConcurrentCalls);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaxConcurrentCalls() {
+    return maxConcurrentCalls;
+  }
+
+  /**
+   * @return the executor the async processor starts the calls on, or null to start them on
+   * the thread handing over the request.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * @return number of calls running in the bulkhead.
+   */
+  public int getActiveCalls() {
+    return maxConcurrentCalls - permits.availablePermits();
+  }
+
+  /**
+   * @return number of calls rejected because the bulkhead was full.
+   */
+  public long getRejectedCalls() {
+    return rejectedCalls.sum();
+  }
+
+  /**
+   * Takes a permit for a call, waiting up to the maximum wait of the bulkhead.
+   *
+   * @return false if the call must be rejected.
+   */
+  public boolean tryAcquire() {
+    boolean acquired = permits.tryAcquire();
+    if (!acquired && maxWaitNanos > 0) {
+      try {
+        acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (!acquired) {
+      rejectedCalls.increment();
+    }
+    return acquired;
+  }
+
+  /**
+   * Takes a permit for a call if one is available right away.
+   *
+   * @return false if the call must be rejected.
+   */
+  public boolean tryAcquireNow() {
+    if (permits.tryAcquire()) {
+      return true;
+    }
+    rejectedCalls.increment();
+    return false;
+  }
+
+  /**
+   * Returns the permit of a finished call.
+   */
+  public void release() {
+    permits.release();
+  }
+
+  /**
+   * @return the exception rejected calls of the given method are answered with.
+   */
+  TApplicationException rejection(String methodName) {
+    return new TApplicationException(TApplicationException.INTERNAL_ERROR,
+        "Bulkhead " + name + " is full, rejected " + methodName);
+  }
+
+  @Override
+  public String toString() {
+    return "TBulkhead[" + name + ", active=" + getActiveCalls() + "/" + maxConcurrentCalls
+        + ", rejected=" + getRejectedCalls() + "]";
+  }
+}
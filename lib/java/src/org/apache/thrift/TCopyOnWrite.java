@@ -0,0 +1,327 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Containers which share the contents of a container that does not change, and copy
+ * them on the first change. The deep copies of frozen structs use them, so that large
+ * containers of base types are only copied if the copy is changed.
+ *
+ * @see TBaseHelper#copyOnWrite(List)
+ */
+final class TCopyOnWrite {
+
+  private TCopyOnWrite() {}
+
+  /**
+   * Returns the container which is read from, so that it can be inspected as is.
+   */
+  static Object unwrap(Object container) {
+    if (container instanceof SharedList) {
+      return ((SharedList<?>) container).list;
+    } else if (container instanceof SharedSet) {
+      return ((SharedSet<?>) container).set;
+    } else if (container instanceof SharedMap) {
+      return ((SharedMap<?, ?>) container).map;
+    }
+    return container;
+  }
+
+  static final class SharedList<E> extends AbstractList<E> implements RandomAccess {
+    private List<E> list;
+    private boolean copied = false;
+
+    SharedList(List<E> list) {
+      this.list = list;
+    }
+
+    private List<E> mutable() {
+      if (!copied) {
+        list = new ArrayList<E>(list);
+        copied = true;
+      }
+      return list;
+    }
+
+    @Override
+    public int size() {
+      return list.size();
+    }
+
+    @Override
+    public E get(int index) {
+      return list.get(index);
+    }
+
+    @Override
+    public E set(int index, E element) {
+      return mutable().set(index, element);
+    }
+
+    @Override
+    public void add(int index, E element) {
+      mutable().add(index, element);
+      modCount++;
+    }
+
+    @Override
+    public E remove(int index) {
+      E removed = mutable().remove(index);
+      modCount++;
+      return removed;
+    }
+
+    @Override
+    public void clear() {
+      list = new ArrayList<E>();
+      copied = true;
+      modCount++;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this || list.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+      return list.hashCode();
+    }
+  }
+
+  static final class SharedSet<E> extends AbstractSet<E> {
+    private Set<E> set;
+    private boolean copied = false;
+
+    SharedSet(Set<E> set) {
+      this.set = set;
+    }
+
+    private Set<E> mutable() {
+      if (!copied) {
+        set = set instanceof SortedSet ? new TreeSet<E>((SortedSet<E>) set) : new HashSet<E>(set);
+        copied = true;
+      }
+      return set;
+    }
+
+    @Override
+    public int size() {
+      return set.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      return set.contains(o);
+    }
+
+    @Override
+    public boolean add(E e) {
+      return !set.contains(e) && mutable().add(e);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      return set.contains(o) && mutable().remove(o);
+    }
+
+    @Override
+    public void clear() {
+      set = set instanceof SortedSet ? new TreeSet<E>(((SortedSet<E>) set).comparator()) : new HashSet<E>();
+      copied = true;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+      if (copied) {
+        return set.iterator();
+      }
+      // The shared set does not change, so it is iterated while elements are removed from the copy
+      final Iterator<E> it = set.iterator();
+      return new Iterator<E>() {
+        private E last;
+        private boolean removable = false;
+
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        public E next() {
+          last = it.next();
+          removable = true;
+          return last;
+        }
+
+        public void remove() {
+          if (!removable) {
+            throw new IllegalStateException();
+          }
+          mutable().remove(last);
+          removable = false;
+        }
+      };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this || set.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+      return set.hashCode();
+    }
+  }
+
+  static final class SharedMap<K, V> extends AbstractMap<K, V> {
+    private Map<K, V> map;
+    private boolean copied = false;
+    private Set<Map.Entry<K, V>> entrySet;
+
+    SharedMap(Map<K, V> map) {
+      this.map = map;
+    }
+
+    private Map<K, V> mutable() {
+      if (!copied) {
+        map = map instanceof SortedMap ? new TreeMap<K, V>((SortedMap<K, V>) map) : new HashMap<K, V>(map);
+        copied = true;
+      }
+      return map;
+    }
+
+    @Override
+    public int size() {
+      return map.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+      return map.containsValue(value);
+    }
+
+    @Override
+    public V get(Object key) {
+      return map.get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+      return mutable().put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+      return map.containsKey(key) ? mutable().remove(key) : null;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+      mutable().putAll(m);
+    }
+
+    @Override
+    public void clear() {
+      map = map instanceof SortedMap ? new TreeMap<K, V>(((SortedMap<K, V>) map).comparator()) : new HashMap<K, V>();
+      copied = true;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+      if (entrySet == null) {
+        entrySet = new AbstractSet<Map.Entry<K, V>>() {
+          @Override
+          public int size() {
+            return map.size();
+          }
+
+          @Override
+          public Iterator<Map.Entry<K, V>> iterator() {
+            return copied ? map.entrySet().iterator() : new SharedEntryIterator();
+          }
+        };
+      }
+      return entrySet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o == this || map.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+      return map.hashCode();
+    }
+
+    // Iterates the shared map, whose entries are changed through the copy
+    private final class SharedEntryIterator implements Iterator<Map.Entry<K, V>> {
+      private final Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+      private K lastKey;
+      private boolean removable = false;
+
+      public boolean hasNext() {
+        return it.hasNext();
+      }
+
+      public Map.Entry<K, V> next() {
+        Map.Entry<K, V> entry = it.next();
+        lastKey = entry.getKey();
+        removable = true;
+        return new SimpleEntry<K, V>(entry) {
+          @Override
+          public V setValue(V value) {
+            super.setValue(value);
+            return mutable().put(getKey(), value);
+          }
+        };
+      }
+
+      public void remove() {
+        if (!removable) {
+          throw new IllegalStateException();
+        }
+        mutable().remove(lastKey);
+        removable = false;
+      }
+    }
+  }
+}
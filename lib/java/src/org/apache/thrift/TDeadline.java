@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a call must complete. The current deadline of a thread
+ * applies to the calls it makes: clients fail calls whose deadline already passed,
+ * async calls time out at the deadline, and {@link org.apache.thrift.protocol.TDeadlineProtocol}
+ * sends the remaining time along with the request. On the server, the same protocol makes the
+ * received deadline current while the handler runs, so the processors can skip the requests
+ * which already expired and the calls made by the handler inherit the deadline.
+ *
+ * <pre>
+ * TDeadline previous = TDeadline.setCurrent(TDeadline.after(200, TimeUnit.MILLISECONDS));
+ * try {
+ *   client.call();
+ * } finally {
+ *   TDeadline.setCurrent(previous);
+ * }
+ * </pre>
+ */
+public final class TDeadline {
+
+  private static final ThreadLocal<TDeadline> CURRENT = new ThreadLocal<TDeadline>();
+
+  private final long deadlineNanos;
+
+  private TDeadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * @return a deadline the given duration from now.
+   */
+  public static TDeadline after(long duration, TimeUnit unit) {
+    return new TDeadline(System.nanoTime() + unit.toNanos(duration));
+  }
+
+  /**
+   * @return the time left before the deadline, negative once it passed.
+   */
+  public long remaining(TimeUnit unit) {
+    return unit.convert(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+  }
+
+  public boolean isExpired() {
+    return deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  /**
+   * @return the earliest of this deadline and the given one, which may be null.
+   */
+  public TDeadline min(TDeadline other) {
+    return other == null || deadlineNanos - other.deadlineNanos <= 0 ? this : other;
+  }
+
+  /**
+   * @return the deadline of the calls made by the current thread, or null if they have none.
+   */
+  public static TDeadline current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Set the deadline of the calls made by the current thread.
+   *
+   * @param deadline the new deadline, or null to remove it.
+   * @return the previous deadline, to restore once the calls are done.
+   */
+  public static TDeadline setCurrent(TDeadline deadline) {
+    TDeadline previous = CURRENT.get();
+    if (deadline == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(deadline);
+    }
+    return previous;
+  }
+
+  /**
+   * @return whether the current thread has a deadline which already passed.
+   */
+  public static boolean isCurrentExpired() {
+    TDeadline deadline = CURRENT.get();
+    return deadline != null && deadline.isExpired();
+  }
+
+  @Override
+  public String toString() {
+    return "TDeadline[remainingMillis=" + remaining(TimeUnit.MILLISECONDS) + "]";
+  }
+}
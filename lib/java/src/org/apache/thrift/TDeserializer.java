@@ -85,6 +85,27 @@ public class TDeserializer {
     }
   }
 
+  /**
+   * Deserialize the Thrift object from a byte array into an object which is
+   * reused for one record after another. The object is cleared before it is
+   * read, so that no field of the previous record is left set. Code generated
+   * with the reuse-objects option also reuses the structs and containers the
+   * object holds, and code generated with lazy_strings decodes its strings
+   * only when they are used.
+   * <p>
+   * Binaries, and the strings of lazy_strings structs, may be read as views
+   * of {@code bytes}, which must not change while the object is used.
+   *
+   * @param base The object to clear and read into
+   * @param bytes The array to read from
+   * @param offset The offset into {@code bytes}
+   * @param length The length to read from {@code bytes}
+   */
+  public void deserializeReused(TBase base, byte[] bytes, int offset, int length) throws TException {
+    base.clear();
+    deserialize(base, bytes, offset, length);
+  }
+
   /**
    * Deserialize the Thrift object from a Java string, using a specified
    * character set for decoding.
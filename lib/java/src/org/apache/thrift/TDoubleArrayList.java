@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * A list of doubles backed by a double array. Generated code built with the
+ * <code>primitive_collections</code> option reads and writes all the elements at once
+ * through {@link #readElements(TProtocol, int)} and {@link #writeElements(TProtocol)},
+ * so they are never boxed. Through the {@link java.util.List} interface it behaves like an
+ * {@link java.util.ArrayList} which does not permit null elements.
+ */
+public class TDoubleArrayList extends AbstractList<Double> implements RandomAccess {
+
+  private static final double[] EMPTY = {};
+
+  private double[] elements;
+  private int size;
+
+  public TDoubleArrayList() {
+    elements = EMPTY;
+  }
+
+  public TDoubleArrayList(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity: " + capacity);
+    }
+    elements = capacity == 0 ? EMPTY : new double[capacity];
+  }
+
+  public TDoubleArrayList(Collection<? extends Double> other) {
+    if (other instanceof TDoubleArrayList) {
+      TDoubleArrayList list = (TDoubleArrayList) other;
+      elements = Arrays.copyOf(list.elements, list.size);
+      size = list.size;
+    } else {
+      elements = new double[other.size()];
+      for (Double element : other) {
+        addDouble(element);
+      }
+    }
+  }
+
+  public double getDouble(int index) {
+    checkIndex(index);
+    return elements[index];
+  }
+
+  /**
+   * @return the element previously at the index.
+   */
+  public double setDouble(int index, double element) {
+    checkIndex(index);
+    double previous = elements[index];
+    elements[index] = element;
+    return previous;
+  }
+
+  public void addDouble(double element) {
+    if (size == elements.length) {
+      grow(size + 1);
+    }
+    modCount++;
+    elements[size++] = element;
+  }
+
+  public int indexOfDouble(double element) {
+    for (int i = 0; i < size; i++) {
+      if (Double.doubleToLongBits(elements[i]) == Double.doubleToLongBits(element)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean containsDouble(double element) {
+    return indexOfDouble(element) >= 0;
+  }
+
+  public double[] toDoubleArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  /**
+   * Reads count elements with {@link TProtocol#readDoubleArray(double[], int, int)} and
+   * appends them.
+   */
+  public void readElements(TProtocol iprot, int count) throws TException {
+    ensureCapacity(size + count);
+    iprot.readDoubleArray(elements, size, count);
+    modCount++;
+    size += count;
+  }
+
+  /**
+   * Writes the elements with {@link TProtocol#writeDoubleArray(double[], int, int)}.
+   */
+  public void writeElements(TProtocol oprot) throws TException {
+    oprot.writeDoubleArray(elements, 0, size);
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      grow(capacity);
+    }
+  }
+
+  @Override
+  public Double get(int index) {
+    return getDouble(index);
+  }
+
+  @Override
+  public Double set(int index, Double element) {
+    return setDouble(index, element);
+  }
+
+  @Override
+  public boolean add(Double element) {
+    addDouble(element);
+    return true;
+  }
+
+  @Override
+  public void add(int index, Double element) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    double value = element;
+    if (size == elements.length) {
+      grow(size + 1);
+    }
+    modCount++;
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = value;
+    size++;
+  }
+
+  @Override
+  public Double remove(int index) {
+    checkIndex(index);
+    modCount++;
+    double previous = elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    size--;
+    return previous;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    return o instanceof Double ? indexOfDouble((Double) o) : -1;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    modCount++;
+    size = 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TDoubleArrayList)) {
+      return super.equals(o);
+    }
+    TDoubleArrayList other = (TDoubleArrayList) o;
+    if (size != other.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (Double.doubleToLongBits(elements[i]) != Double.doubleToLongBits(other.elements[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 1;
+    for (int i = 0; i < size; i++) {
+      hashCode = 31 * hashCode + Double.hashCode(elements[i]);
+    }
+    return hashCode;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private void grow(int capacity) {
+    int grown = elements.length + (elements.length >> 1);
+    elements = Arrays.copyOf(elements, Math.max(Math.max(capacity, grown), 8));
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides when to hedge a call, that is to send a duplicate request to another endpoint and
+ * use whichever response comes first. The hedge is sent once the call has been outstanding
+ * longer than a percentile of the recent latencies, 95 by default, so only the slowest calls
+ * are duplicated. A budget caps the hedges to a fraction of the calls, so a slow service is not
+ * overloaded by hedges when every call becomes slow.
+ */
+public class THedgingPolicy {
+
+  public static final double DEFAULT_PERCENTILE = 0.95;
+  public static final double DEFAULT_MAX_HEDGE_RATIO = 0.1;
+
+  private static final int SAMPLES = 1024;
+  private static final int MIN_SAMPLES = 20;
+  private static final int RECOMPUTE_INTERVAL = 64;
+  // hedge budget unit, so fractions of a hedge can be accumulated
+  private static final long HEDGE = 1000;
+  private static final long MAX_BUDGET = 10 * HEDGE;
+
+  private final double percentile;
+  private final long minDelayNanos;
+  private final long budgetPerCall;
+
+  // ring of the latest latencies, and the cached percentile
+  private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+  private final AtomicLong recorded = new AtomicLong();
+  private volatile long delayNanos = -1;
+
+  private final AtomicLong budget = new AtomicLong(HEDGE);
+
+  public THedgingPolicy() {
+    this(DEFAULT_PERCENTILE, 1, TimeUnit.MILLISECONDS, DEFAULT_MAX_HEDGE_RATIO);
+  }
+
+  /**
+   * @param percentile latency percentile after which a call is hedged, between 0 and 1.
+   * @param minDelay shortest delay before hedging.
+   * @param unit unit of minDelay.
+   * @param maxHedgeRatio maximum fraction of the calls which are hedged.
+   */
+  public THedgingPolicy(double percentile, long minDelay, TimeUnit unit, double maxHedgeRatio) {
+    if (percentile <= 0 || percentile > 1) {
+      throw new IllegalArgumentException("Percentile must be in (0, 1]: " + percentile);
+    }
+    this.percentile = percentile;
+    this.minDelayNanos = unit.toNanos(minDelay);
+    this.budgetPerCall = (long) (maxHedgeRatio * HEDGE);
+  }
+
+  /**
+   * Record the latency of a successful call.
+   */
+  public void recordLatency(long latencyNanos) {
+    long slot = recorded.getAndIncrement();
+    samples.set((int) (slot % SAMPLES), latencyNanos);
+    long count = slot + 1;
+    if (count >= MIN_SAMPLES && (count < SAMPLES || count % RECOMPUTE_INTERVAL == 0)) {
+      // the copy may miss the latencies being recorded concurrently, which only shifts the window
+      long[] sorted = new long[(int) Math.min(count, SAMPLES)];
+      for (int i = 0; i < sorted.length; i++) {
+        sorted[i] = samples.get(i);
+      }
+      Arrays.sort(sorted);
+      int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1);
+      delayNanos = Math.max(minDelayNanos, sorted[Math.max(0, index)]);
+    }
+  }
+
+  /**
+   * Count a new call, growing the hedge budget.
+   */
+  public void onCall() {
+    long current;
+    do {
+      current = budget.get();
+      if (current >= MAX_BUDGET) {
+        return;
+      }
+    } while (!budget.compareAndSet(current, Math.min(MAX_BUDGET, current + budgetPerCall)));
+  }
+
+  /**
+   * @return how long to wait before hedging a call, or -1 when not enough latencies were
+   *         recorded yet to tell which calls are slow.
+   */
+  public long getHedgeDelay(TimeUnit unit) {
+    long delay = delayNanos;
+    return delay < 0 ? -1 : unit.convert(delay, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Take a hedge from the budget.
+   *
+   * @return whether the call can be hedged.
+   */
+  public boolean tryHedge() {
+    long current;
+    do {
+      current = budget.get();
+      if (current < HEDGE) {
+        return false;
+      }
+    } while (!budget.compareAndSet(current, current - HEDGE));
+    return true;
+  }
+}
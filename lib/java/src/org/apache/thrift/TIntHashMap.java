@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import static org.apache.thrift.TPrimitiveHashing.FREE;
+import static org.apache.thrift.TPrimitiveHashing.FULL;
+import static org.apache.thrift.TPrimitiveHashing.REMOVED;
+
+/**
+ * A map from ints to values kept in an open addressing hash table. Generated code built with
+ * the <code>primitive_collections</code> option puts entries with {@link #putInt(int, Object)}
+ * and walks them with {@link #nextSlot(int)}, {@link #keyAt(int)} and {@link #valueAt(int)}, so
+ * the keys are never boxed. Through the {@link java.util.Map} interface it behaves like a
+ * {@link java.util.HashMap} which does not permit null keys.
+ *
+ * @param <V> the type of the values.
+ */
+public class TIntHashMap<V> extends AbstractMap<Integer, V> {
+
+  private int[] keys;
+  private Object[] values;
+  private byte[] states;
+  private int size;
+  private int removed;
+  private int modCount;
+  private Set<Map.Entry<Integer, V>> entrySet;
+
+  public TIntHashMap() {
+    this(0);
+  }
+
+  /**
+   * @param expectedSize number of entries the map holds without growing.
+   */
+  public TIntHashMap(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Negative size: " + expectedSize);
+    }
+    allocate(TPrimitiveHashing.capacityFor(expectedSize));
+  }
+
+  public TIntHashMap(Map<? extends Integer, ? extends V> other) {
+    if (other instanceof TIntHashMap) {
+      TIntHashMap<?> map = (TIntHashMap<?>) other;
+      keys = map.keys.clone();
+      values = map.values.clone();
+      states = map.states.clone();
+      size = map.size;
+      removed = map.removed;
+    } else {
+      allocate(TPrimitiveHashing.capacityFor(other.size()));
+      putAll(other);
+    }
+  }
+
+  public boolean containsKeyInt(int key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   * @return the value of the key, or null if the map does not contain it.
+   */
+  public V getInt(int key) {
+    int slot = find(key);
+    return slot < 0 ? null : valueAt(slot);
+  }
+
+  /**
+   * @return the previous value of the key, or null if the map did not contain it.
+   */
+  public V putInt(int key, V value) {
+    int mask = keys.length - 1;
+    int slot = TPrimitiveHashing.mix(key) & mask;
+    int tombstone = -1;
+    while (states[slot] != FREE) {
+      if (states[slot] == FULL) {
+        if (keys[slot] == key) {
+          V previous = valueAt(slot);
+          values[slot] = value;
+          return previous;
+        }
+      } else if (tombstone < 0) {
+        tombstone = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (tombstone >= 0) {
+      slot = tombstone;
+      removed--;
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    states[slot] = FULL;
+    size++;
+    modCount++;
+    if (size + removed >= TPrimitiveHashing.maxFill(keys.length)) {
+      rehash(TPrimitiveHashing.capacityFor(size + 1));
+    }
+    return null;
+  }
+
+  /**
+   * @return the value of the removed key, or null if the map did not contain it.
+   */
+  public V removeInt(int key) {
+    int slot = find(key);
+    if (slot < 0) {
+      return null;
+    }
+    V previous = valueAt(slot);
+    removeSlot(slot);
+    return previous;
+  }
+
+  /**
+   * Walks the entries without an iterator:
+   * <pre>
+   * for (int slot = map.nextSlot(0); slot &gt;= 0; slot = map.nextSlot(slot + 1)) {
+   *   use(map.keyAt(slot), map.valueAt(slot));
+   * }
+   * </pre>
+   * @return the first slot at or after the given one which holds an entry, or -1.
+   */
+  public int nextSlot(int slot) {
+    for (; slot < states.length; slot++) {
+      if (states[slot] == FULL) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the key in a slot returned by {@link #nextSlot(int)}.
+   */
+  public int keyAt(int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * @return the value in a slot returned by {@link #nextSlot(int)}.
+   */
+  @SuppressWarnings("unchecked")
+  public V valueAt(int slot) {
+    return (V) values[slot];
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Integer && containsKeyInt((Integer) key);
+  }
+
+  @Override
+  public V get(Object key) {
+    return key instanceof Integer ? getInt((Integer) key) : null;
+  }
+
+  @Override
+  public V put(Integer key, V value) {
+    return putInt(key, value);
+  }
+
+  @Override
+  public V remove(Object key) {
+    return key instanceof Integer ? removeInt((Integer) key) : null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(states, FREE);
+    Arrays.fill(values, null);
+    size = 0;
+    removed = 0;
+    modCount++;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new EntrySet();
+    }
+    return entrySet;
+  }
+
+  private int find(int key) {
+    int mask = keys.length - 1;
+    int slot = TPrimitiveHashing.mix(key) & mask;
+    while (states[slot] != FREE) {
+      if (states[slot] == FULL && keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void removeSlot(int slot) {
+    states[slot] = REMOVED;
+    values[slot] = null;
+    size--;
+    removed++;
+    modCount++;
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    states = new byte[capacity];
+  }
+
+  private void rehash(int capacity) {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    byte[] oldStates = states;
+    allocate(capacity);
+    removed = 0;
+    int mask = capacity - 1;
+    for (int i = 0; i < oldStates.length; i++) {
+      if (oldStates[i] == FULL) {
+        int slot = TPrimitiveHashing.mix(oldKeys[i]) & mask;
+        while (states[slot] != FREE) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+        states[slot] = FULL;
+      }
+    }
+  }
+
+  private class EntrySet extends AbstractSet<Map.Entry<Integer, V>> {
+    @Override
+    public Iterator<Map.Entry<Integer, V>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public void clear() {
+      TIntHashMap.this.clear();
+    }
+  }
+
+  private class EntryIterator implements Iterator<Map.Entry<Integer, V>> {
+    private int next = nextSlot(0);
+    private int last = -1;
+    private int expectedModCount = modCount;
+
+    @Override
+    public boolean hasNext() {
+      return next >= 0;
+    }
+
+    @Override
+    public Map.Entry<Integer, V> next() {
+      if (expectedModCount != modCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (next < 0) {
+        throw new NoSuchElementException();
+      }
+      last = next;
+      next = nextSlot(next + 1);
+      return new Entry(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      if (expectedModCount != modCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeSlot(last);
+      last = -1;
+      expectedModCount = modCount;
+    }
+  }
+
+  // An entry reads and writes through to its slot
+  private class Entry implements Map.Entry<Integer, V> {
+    private final int slot;
+
+    Entry(int slot) {
+      this.slot = slot;
+    }
+
+    @Override
+    public Integer getKey() {
+      return keys[slot];
+    }
+
+    @Override
+    public V getValue() {
+      return valueAt(slot);
+    }
+
+    @Override
+    public V setValue(V value) {
+      V previous = valueAt(slot);
+      values[slot] = value;
+      return previous;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+      Object value = values[slot];
+      return getKey().equals(other.getKey())
+          && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      Object value = values[slot];
+      return Integer.hashCode(keys[slot]) ^ (value == null ? 0 : value.hashCode());
+    }
+
+    @Override
+    public String toString() {
+      return keys[slot] + "=" + values[slot];
+    }
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Sends the calls of a replicated service to the endpoint picked by a {@link TLoadBalancer},
+ * using clients from a {@link TServiceClientPool}. Calls which fail to connect are retried on
+ * another endpoint, since nothing was sent yet. Calls failing after that are not retried.
+ *
+ * @param <T> the type of the clients.
+ */
+public class TLoadBalancedClient<T extends TServiceClient> {
+
+  private final TLoadBalancer balancer;
+  private final TServiceClientPool<T> pool;
+  private final int maxConnectAttempts;
+
+  public TLoadBalancedClient(TLoadBalancer balancer, TServiceClientPool<T> pool) {
+    this(balancer, pool, balancer.getNumEndpoints());
+  }
+
+  /**
+   * @param balancer picks the endpoints.
+   * @param pool provides the clients of the endpoints.
+   * @param maxConnectAttempts number of endpoints to try when connecting fails.
+   */
+  public TLoadBalancedClient(TLoadBalancer balancer, TServiceClientPool<T> pool, int maxConnectAttempts) {
+    this.balancer = balancer;
+    this.pool = pool;
+    this.maxConnectAttempts = Math.max(1, maxConnectAttempts);
+  }
+
+  public TLoadBalancer getBalancer() {
+    return balancer;
+  }
+
+  /**
+   * Run a call with a client of the endpoint picked by the balancer.
+   */
+  public <R> R execute(TServiceClientPool.ClientCallback<T, R> callback) throws TException {
+    return execute(callback, null, null, null);
+  }
+
+  /**
+   * Run a call with a client of the endpoint picked by the balancer, and hedge it on another
+   * endpoint if it is slower than the policy allows, or if it fails before then without a
+   * response from the service. The first response is returned, the other call still completes
+   * in the background. The attempts run on the executor, with the
+   * deadline of the calling thread, which waits for them at most until that deadline.
+   *
+   * @throws TTransportException with the type TIMED_OUT if the deadline passes first.
+   */
+  public <R> R executeHedged(final TServiceClientPool.ClientCallback<T, R> callback, THedgingPolicy policy,
+                             Executor executor) throws TException {
+    policy.onCall();
+    final TDeadline deadline = TDeadline.current();
+    // picked here rather than by the attempt, so the hedge always knows which endpoint to avoid
+    final AtomicReference<TLoadBalancer.Endpoint> firstEndpoint =
+        new AtomicReference<TLoadBalancer.Endpoint>(balancer.select());
+    CompletionService<R> completion = new ExecutorCompletionService<R>(executor);
+    long start = System.nanoTime();
+    try {
+      completion.submit(attempt(callback, deadline, firstEndpoint.get(), null, firstEndpoint));
+    } catch (RejectedExecutionException e) {
+      balancer.recordFailure(firstEndpoint.get(), false);
+      throw e;
+    }
+    int attempts = 1;
+
+    long hedgeDelay = policy.getHedgeDelay(TimeUnit.NANOSECONDS);
+    if (deadline != null && deadline.remaining(TimeUnit.NANOSECONDS) <= hedgeDelay) {
+      // the hedge would be sent after the deadline
+      hedgeDelay = -1;
+    }
+    Exception failure = null;
+    try {
+      if (hedgeDelay >= 0) {
+        Future<R> done = completion.poll(hedgeDelay, TimeUnit.NANOSECONDS);
+        if (done == null) {
+          if (policy.tryHedge()) {
+            completion.submit(attempt(callback, deadline, null, firstEndpoint.get(), null));
+            attempts++;
+          }
+        } else {
+          attempts--;
+          try {
+            R result = done.get();
+            policy.recordLatency(System.nanoTime() - start);
+            return result;
+          } catch (ExecutionException e) {
+            failure = e;
+          }
+          // the first attempt failed before the hedge was due, send the hedge right away
+          if (isEndpointFailure(failure.getCause()) && (deadline == null || !deadline.isExpired())
+              && policy.tryHedge()) {
+            completion.submit(attempt(callback, deadline, null, firstEndpoint.get(), null));
+            attempts++;
+          }
+        }
+      }
+      for (; attempts > 0; attempts--) {
+        Future<R> done;
+        if (deadline == null) {
+          done = completion.take();
+        } else {
+          done = completion.poll(deadline.remaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
+          if (done == null) {
+            throw new TTransportException(TTransportException.TIMED_OUT, "Deadline exceeded");
+          }
+        }
+        try {
+          R result = done.get();
+          policy.recordLatency(System.nanoTime() - start);
+          return result;
+        } catch (ExecutionException e) {
+          failure = e;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TException("Interrupted while waiting for the response", e);
+    }
+
+    Throwable cause = failure.getCause();
+    if (cause instanceof TException) {
+      throw (TException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    throw new TException(cause);
+  }
+
+  private <R> Callable<R> attempt(final TServiceClientPool.ClientCallback<T, R> callback, final TDeadline deadline,
+                                  final TLoadBalancer.Endpoint endpoint, final TLoadBalancer.Endpoint excluded,
+                                  final AtomicReference<TLoadBalancer.Endpoint> selected) {
+    return new Callable<R>() {
+      @Override
+      public R call() throws TException {
+        TDeadline previous = TDeadline.setCurrent(deadline);
+        try {
+          return execute(callback, endpoint, excluded, selected);
+        } finally {
+          TDeadline.setCurrent(previous);
+        }
+      }
+    };
+  }
+
+  // Whether a call failed because of the endpoint rather than with a response of the service
+  private static boolean isEndpointFailure(Throwable cause) {
+    return cause instanceof TTransportException || cause instanceof TProtocolException
+        || cause instanceof RuntimeException;
+  }
+
+  /**
+   * @param first endpoint already selected for the first attempt, or null to select one.
+   */
+  private <R> R execute(TServiceClientPool.ClientCallback<T, R> callback, TLoadBalancer.Endpoint first,
+                        TLoadBalancer.Endpoint excluded, AtomicReference<TLoadBalancer.Endpoint> selected)
+      throws TException {
+    TTransportException connectFailure = null;
+    for (int attempt = 0; attempt < maxConnectAttempts; attempt++) {
+      TLoadBalancer.Endpoint endpoint = attempt == 0 && first != null ? first : balancer.select(excluded);
+      if (selected != null) {
+        selected.set(endpoint);
+      }
+      TServiceClientPool.PooledClient<T> pooled;
+      try {
+        pooled = pool.borrow(endpoint.getAddress());
+      } catch (TTransportException e) {
+        balancer.recordFailure(endpoint, true);
+        connectFailure = e;
+        continue;
+      } catch (TException e) {
+        balancer.recordFailure(endpoint, false);
+        throw e;
+      } catch (RuntimeException e) {
+        balancer.recordFailure(endpoint, false);
+        throw e;
+      }
+
+      long start = System.nanoTime();
+      try {
+        R result = callback.call(pooled.getClient());
+        balancer.recordSuccess(endpoint, System.nanoTime() - start);
+        return result;
+      } catch (TTransportException | TProtocolException e) {
+        pooled.invalidate();
+        balancer.recordFailure(endpoint, TLoadBalancer.shouldEject(e));
+        throw e;
+      } catch (TException e) {
+        // the endpoint responded, with an application error
+        balancer.recordSuccess(endpoint, System.nanoTime() - start);
+        throw e;
+      } catch (RuntimeException e) {
+        pooled.invalidate();
+        balancer.recordFailure(endpoint, false);
+        throw e;
+      } finally {
+        pool.release(pooled);
+      }
+    }
+    throw connectFailure;
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Picks the endpoint of a replicated service to send each request to, using the power of two
+ * choices: two endpoints are drawn at random and the less loaded one is used. The load of an
+ * endpoint is either its number of outstanding requests, or that number weighted by an
+ * exponentially weighted moving average of its latency.
+ * <p>
+ * Endpoints which cannot be connected to or time out are ejected for a while, starting at the
+ * base ejection time and doubling up to the max ejection time while they keep failing. When
+ * every endpoint is ejected, the one whose ejection ends first is used anyway.
+ * <p>
+ * Every endpoint returned by {@link #select()} must be reported back with
+ * {@link #recordSuccess} or {@link #recordFailure}. {@link TLoadBalancedClient} and
+ * {@link org.apache.thrift.async.TLoadBalancedAsyncClient} do it for the sync and async clients.
+ */
+public class TLoadBalancer {
+
+  public enum Policy {
+    /** Use the endpoint with the fewest outstanding requests. */
+    LEAST_OUTSTANDING,
+    /** Use the endpoint with the lowest latency average times outstanding requests. */
+    EWMA
+  }
+
+  public static final long DEFAULT_BASE_EJECTION_MILLIS = 1000;
+  public static final long DEFAULT_MAX_EJECTION_MILLIS = 30000;
+
+  // Time for the weight of a latency sample to decay to 1/e
+  private static final double DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * An endpoint and its load.
+   */
+  public static final class Endpoint {
+    private final InetSocketAddress address;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder ejections = new LongAdder();
+    // latency average and ejection state, written under the lock of the endpoint
+    private volatile double ewmaNanos = 0;
+    private long lastSampleNanos = 0;
+    private int consecutiveEjections = 0;
+    private volatile long ejectedUntilNanos = 0;
+    private volatile boolean ejected = false;
+
+    Endpoint(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    public InetSocketAddress getAddress() {
+      return address;
+    }
+
+    /**
+     * @return number of requests sent to the endpoint and not completed yet.
+     */
+    public int getOutstanding() {
+      return outstanding.get();
+    }
+
+    /**
+     * @return moving average of the latency of the endpoint.
+     */
+    public double getLatencyEwmaNanos() {
+      return ewmaNanos;
+    }
+
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    public long getFailures() {
+      return failures.sum();
+    }
+
+    public long getEjections() {
+      return ejections.sum();
+    }
+
+    /**
+     * @return whether the endpoint is currently ejected.
+     */
+    public boolean isEjected() {
+      return isEjected(System.nanoTime());
+    }
+
+    boolean isEjected(long now) {
+      return ejected && now - ejectedUntilNanos < 0;
+    }
+
+    synchronized void recordLatency(long latencyNanos, long now) {
+      if (lastSampleNanos == 0) {
+        ewmaNanos = latencyNanos;
+      } else {
+        double weight = Math.exp(-Math.max(0, now - lastSampleNanos) / DECAY_NANOS);
+        ewmaNanos = ewmaNanos * weight + latencyNanos * (1 - weight);
+      }
+      lastSampleNanos = now;
+      consecutiveEjections = 0;
+      ejected = false;
+    }
+
+    synchronized void eject(long now, long baseNanos, long maxNanos) {
+      long duration = baseNanos << Math.min(consecutiveEjections, 30);
+      if (duration <= 0 || duration > maxNanos) {
+        duration = maxNanos;
+      }
+      consecutiveEjections++;
+      ejectedUntilNanos = now + duration;
+      ejected = true;
+      ejections.increment();
+    }
+
+    @Override
+    public String toString() {
+      return address + "[outstanding=" + getOutstanding() + ", latencyEwmaNanos=" + (long) getLatencyEwmaNanos()
+          + ", requests=" + getRequests() + ", failures=" + getFailures() + ", ejections=" + getEjections()
+          + ", ejected=" + isEjected() + "]";
+    }
+  }
+
+  private final Endpoint[] endpoints;
+  private final Policy policy;
+  private final long baseEjectionNanos;
+  private final long maxEjectionNanos;
+
+  public TLoadBalancer(List<InetSocketAddress> addresses, Policy policy) {
+    this(addresses, policy, DEFAULT_BASE_EJECTION_MILLIS, DEFAULT_MAX_EJECTION_MILLIS);
+  }
+
+  /**
+   * @param addresses endpoints of the service.
+   * @param policy how to compare the load of two endpoints.
+   * @param baseEjectionMillis how long an endpoint is ejected after its first failure.
+   * @param maxEjectionMillis how long an endpoint is ejected at most.
+   */
+  public TLoadBalancer(List<InetSocketAddress> addresses, Policy policy,
+                       long baseEjectionMillis, long maxEjectionMillis) {
+    if (addresses.isEmpty()) {
+      throw new IllegalArgumentException("No endpoint to balance on");
+    }
+    this.endpoints = new Endpoint[addresses.size()];
+    for (int i = 0; i < endpoints.length; i++) {
+      endpoints[i] = new Endpoint(addresses.get(i));
+    }
+    this.policy = policy;
+    this.baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(baseEjectionMillis);
+    this.maxEjectionNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseEjectionMillis, maxEjectionMillis));
+  }
+
+  /**
+   * Pick the endpoint for a request and count the request as outstanding on it.
+   */
+  public Endpoint select() {
+    return select(null);
+  }
+
+  /**
+   * Pick the endpoint for a request, avoiding the given one when there are others, and count
+   * the request as outstanding on it. Hedged requests use it to go to another endpoint than
+   * the original request.
+   */
+  public Endpoint select(Endpoint excluded) {
+    Endpoint endpoint = choose(System.nanoTime(), excluded);
+    endpoint.outstanding.incrementAndGet();
+    endpoint.requests.increment();
+    return endpoint;
+  }
+
+  /**
+   * Report a request which got a response, whether or not it was an application error.
+   */
+  public void recordSuccess(Endpoint endpoint, long latencyNanos) {
+    endpoint.outstanding.decrementAndGet();
+    endpoint.recordLatency(latencyNanos, System.nanoTime());
+  }
+
+  /**
+   * Report a request which failed without a response.
+   *
+   * @param eject whether to eject the endpoint, see {@link #shouldEject(Exception)}.
+   */
+  public void recordFailure(Endpoint endpoint, boolean eject) {
+    endpoint.outstanding.decrementAndGet();
+    endpoint.failures.increment();
+    if (eject) {
+      endpoint.eject(System.nanoTime(), baseEjectionNanos, maxEjectionNanos);
+    }
+  }
+
+  /**
+   * @return whether a request failure means the endpoint should be ejected: it could not be
+   *         connected to, or it did not respond in time.
+   */
+  public static boolean shouldEject(Exception failure) {
+    if (failure instanceof TimeoutException || failure instanceof ConnectException) {
+      return true;
+    }
+    if (failure instanceof TTransportException) {
+      int type = ((TTransportException) failure).getType();
+      return type == TTransportException.NOT_OPEN || type == TTransportException.TIMED_OUT
+          || failure.getCause() instanceof SocketTimeoutException;
+    }
+    return false;
+  }
+
+  public Policy getPolicy() {
+    return policy;
+  }
+
+  public int getNumEndpoints() {
+    return endpoints.length;
+  }
+
+  public List<Endpoint> getEndpoints() {
+    List<Endpoint> list = new ArrayList<Endpoint>(endpoints.length);
+    Collections.addAll(list, endpoints);
+    return list;
+  }
+
+  private Endpoint choose(long now, Endpoint excluded) {
+    int skipped = -1;
+    if (excluded != null && endpoints.length > 1) {
+      for (int i = 0; i < endpoints.length; i++) {
+        if (endpoints[i] == excluded) {
+          skipped = i;
+          break;
+        }
+      }
+    }
+    int candidates = skipped < 0 ? endpoints.length : endpoints.length - 1;
+    if (candidates == 1) {
+      return endpoints[skipped == 0 ? 1 : 0];
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates);
+    int second = random.nextInt(candidates - 1);
+    if (second >= first) {
+      second++;
+    }
+    Endpoint a = candidate(first, skipped);
+    Endpoint b = candidate(second, skipped);
+    boolean aAvailable = !a.isEjected(now);
+    boolean bAvailable = !b.isEjected(now);
+    if (aAvailable && bAvailable) {
+      return load(b) < load(a) ? b : a;
+    }
+    if (aAvailable) {
+      return a;
+    }
+    if (bAvailable) {
+      return b;
+    }
+
+    // Both are ejected, use the least loaded available endpoint, or the first to come back
+    Endpoint best = null;
+    Endpoint soonest = null;
+    for (int i = 0; i < candidates; i++) {
+      Endpoint candidate = candidate((first + i) % candidates, skipped);
+      if (!candidate.isEjected(now)) {
+        if (best == null || load(candidate) < load(best)) {
+          best = candidate;
+        }
+      } else if (soonest == null || candidate.ejectedUntilNanos - soonest.ejectedUntilNanos < 0) {
+        soonest = candidate;
+      }
+    }
+    return best != null ? best : soonest;
+  }
+
+  // Maps the index of a candidate to the index of the endpoint, skipping the excluded one
+  private Endpoint candidate(int index, int skipped) {
+    return endpoints[skipped >= 0 && index >= skipped ? index + 1 : index];
+  }
+
+  private double load(Endpoint endpoint) {
+    int outstanding = endpoint.outstanding.get();
+    if (policy == Policy.LEAST_OUTSTANDING) {
+      return outstanding;
+    }
+    return endpoint.getLatencyEwmaNanos() * (outstanding + 1);
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * A list of longs backed by a long array. Generated code built with the
+ * <code>primitive_collections</code> option reads and writes all the elements at once
+ * through {@link #readElements(TProtocol, int)} and {@link #writeElements(TProtocol)},
+ * so they are never boxed. Through the {@link java.util.List} interface it behaves like an
+ * {@link java.util.ArrayList} which does not permit null elements.
+ */
+public class TLongArrayList extends AbstractList<Long> implements RandomAccess {
+
+  private static final long[] EMPTY = {};
+
+  private long[] elements;
+  private int size;
+
+  public TLongArrayList() {
+    elements = EMPTY;
+  }
+
+  public TLongArrayList(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Negative capacity: " + capacity);
+    }
+    elements = capacity == 0 ? EMPTY : new long[capacity];
+  }
+
+  public TLongArrayList(Collection<? extends Long> other) {
+    if (other instanceof TLongArrayList) {
+      TLongArrayList list = (TLongArrayList) other;
+      elements = Arrays.copyOf(list.elements, list.size);
+      size = list.size;
+    } else {
+      elements = new long[other.size()];
+      for (Long element : other) {
+        addLong(element);
+      }
+    }
+  }
+
+  public long getLong(int index) {
+    checkIndex(index);
+    return elements[index];
+  }
+
+  /**
+   * @return the element previously at the index.
+   */
+  public long setLong(int index, long element) {
+    checkIndex(index);
+    long previous = elements[index];
+    elements[index] = element;
+    return previous;
+  }
+
+  public void addLong(long element) {
+    if (size == elements.length) {
+      grow(size + 1);
+    }
+    modCount++;
+    elements[size++] = element;
+  }
+
+  public int indexOfLong(long element) {
+    for (int i = 0; i < size; i++) {
+      if (elements[i] == element) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public boolean containsLong(long element) {
+    return indexOfLong(element) >= 0;
+  }
+
+  public long[] toLongArray() {
+    return Arrays.copyOf(elements, size);
+  }
+
+  /**
+   * Reads count elements with {@link TProtocol#readI64Array(long[], int, int)} and
+   * appends them.
+   */
+  public void readElements(TProtocol iprot, int count) throws TException {
+    ensureCapacity(size + count);
+    iprot.readI64Array(elements, size, count);
+    modCount++;
+    size += count;
+  }
+
+  /**
+   * Writes the elements with {@link TProtocol#writeI64Array(long[], int, int)}.
+   */
+  public void writeElements(TProtocol oprot) throws TException {
+    oprot.writeI64Array(elements, 0, size);
+  }
+
+  public void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      grow(capacity);
+    }
+  }
+
+  @Override
+  public Long get(int index) {
+    return getLong(index);
+  }
+
+  @Override
+  public Long set(int index, Long element) {
+    return setLong(index, element);
+  }
+
+  @Override
+  public boolean add(Long element) {
+    addLong(element);
+    return true;
+  }
+
+  @Override
+  public void add(int index, Long element) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    long value = element;
+    if (size == elements.length) {
+      grow(size + 1);
+    }
+    modCount++;
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = value;
+    size++;
+  }
+
+  @Override
+  public Long remove(int index) {
+    checkIndex(index);
+    modCount++;
+    long previous = elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    size--;
+    return previous;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    return o instanceof Long ? indexOfLong((Long) o) : -1;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    modCount++;
+    size = 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof TLongArrayList)) {
+      return super.equals(o);
+    }
+    TLongArrayList other = (TLongArrayList) o;
+    if (size != other.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (elements[i] != other.elements[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 1;
+    for (int i = 0; i < size; i++) {
+      hashCode = 31 * hashCode + Long.hashCode(elements[i]);
+    }
+    return hashCode;
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private void grow(int capacity) {
+    int grown = elements.length + (elements.length >> 1);
+    elements = Arrays.copyOf(elements, Math.max(Math.max(capacity, grown), 8));
+  }
+}
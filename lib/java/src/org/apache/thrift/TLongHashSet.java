@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static org.apache.thrift.TPrimitiveHashing.FREE;
+import static org.apache.thrift.TPrimitiveHashing.FULL;
+import static org.apache.thrift.TPrimitiveHashing.REMOVED;
+
+/**
+ * A set of longs kept in an open addressing hash table. Generated code built with the
+ * <code>primitive_collections</code> option adds elements with {@link #addLong(long)} and
+ * walks them with {@link #nextSlot(int)} and {@link #keyAt(int)}, so they are never boxed.
+ * Through the {@link java.util.Set} interface it behaves like a {@link java.util.HashSet}
+ * which does not permit null elements.
+ */
+public class TLongHashSet extends AbstractSet<Long> {
+
+  private long[] keys;
+  private byte[] states;
+  private int size;
+  private int removed;
+  private int modCount;
+
+  public TLongHashSet() {
+    this(0);
+  }
+
+  /**
+   * @param expectedSize number of elements the set holds without growing.
+   */
+  public TLongHashSet(int expectedSize) {
+    if (expectedSize < 0) {
+      throw new IllegalArgumentException("Negative size: " + expectedSize);
+    }
+    allocate(TPrimitiveHashing.capacityFor(expectedSize));
+  }
+
+  public TLongHashSet(Collection<? extends Long> other) {
+    if (other instanceof TLongHashSet) {
+      TLongHashSet set = (TLongHashSet) other;
+      keys = set.keys.clone();
+      states = set.states.clone();
+      size = set.size;
+      removed = set.removed;
+    } else {
+      allocate(TPrimitiveHashing.capacityFor(other.size()));
+      addAll(other);
+    }
+  }
+
+  public boolean containsLong(long key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   * @return true if the set did not already contain the key.
+   */
+  public boolean addLong(long key) {
+    int mask = keys.length - 1;
+    int slot = TPrimitiveHashing.mix(key) & mask;
+    int tombstone = -1;
+    while (states[slot] != FREE) {
+      if (states[slot] == FULL) {
+        if (keys[slot] == key) {
+          return false;
+        }
+      } else if (tombstone < 0) {
+        tombstone = slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (tombstone >= 0) {
+      slot = tombstone;
+      removed--;
+    }
+    keys[slot] = key;
+    states[slot] = FULL;
+    size++;
+    modCount++;
+    if (size + removed >= TPrimitiveHashing.maxFill(keys.length)) {
+      rehash(TPrimitiveHashing.capacityFor(size + 1));
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the set contained the key.
+   */
+  public boolean removeLong(long key) {
+    int slot = find(key);
+    if (slot < 0) {
+      return false;
+    }
+    removeSlot(slot);
+    return true;
+  }
+
+  public long[] toLongArray() {
+    long[] result = new long[size];
+    int i = 0;
+    for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+      result[i++] = keys[slot];
+    }
+    return result;
+  }
+
+  /**
+   * Walks the elements without an iterator:
+   * <pre>
+   * for (int slot = set.nextSlot(0); slot &gt;= 0; slot = set.nextSlot(slot + 1)) {
+   *   use(set.keyAt(slot));
+   * }
+   * </pre>
+   * @return the first slot at or after the given one which holds an element, or -1.
+   */
+  public int nextSlot(int slot) {
+    for (; slot < states.length; slot++) {
+      if (states[slot] == FULL) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the element in a slot returned by {@link #nextSlot(int)}.
+   */
+  public long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof Long && containsLong((Long) o);
+  }
+
+  @Override
+  public boolean add(Long key) {
+    return addLong(key);
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return o instanceof Long && removeLong((Long) o);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(states, FREE);
+    size = 0;
+    removed = 0;
+    modCount++;
+  }
+
+  @Override
+  public Iterator<Long> iterator() {
+    return new Iterator<Long>() {
+      private int next = nextSlot(0);
+      private int last = -1;
+      private int expectedModCount = modCount;
+
+      @Override
+      public boolean hasNext() {
+        return next >= 0;
+      }
+
+      @Override
+      public Long next() {
+        if (expectedModCount != modCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (next < 0) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = nextSlot(next + 1);
+        return keys[last];
+      }
+
+      @Override
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        if (expectedModCount != modCount) {
+          throw new ConcurrentModificationException();
+        }
+        removeSlot(last);
+        last = -1;
+        expectedModCount = modCount;
+      }
+    };
+  }
+
+  @Override
+  public int hashCode() {
+    int hashCode = 0;
+    for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+      hashCode += Long.hashCode(keys[slot]);
+    }
+    return hashCode;
+  }
+
+  private int find(long key) {
+    int mask = keys.length - 1;
+    int slot = TPrimitiveHashing.mix(key) & mask;
+    while (states[slot] != FREE) {
+      if (states[slot] == FULL && keys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private void removeSlot(int slot) {
+    states[slot] = REMOVED;
+    size--;
+    removed++;
+    modCount++;
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    states = new byte[capacity];
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    byte[] oldStates = states;
+    allocate(capacity);
+    removed = 0;
+    int mask = capacity - 1;
+    for (int i = 0; i < oldStates.length; i++) {
+      if (oldStates[i] == FULL) {
+        int slot = TPrimitiveHashing.mix(oldKeys[i]) & mask;
+        while (states[slot] != FREE) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        states[slot] = FULL;
+      }
+    }
+  }
+}
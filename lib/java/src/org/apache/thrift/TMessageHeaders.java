@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Key/value headers carried along with calls, e.g. the ids of a distributed trace, without
+ * changing the signature of the methods. The current headers of a thread are sent with the
+ * calls it makes through {@link org.apache.thrift.protocol.THeaderProtocol}. On the server, the
+ * same protocol makes the received headers current while the handler runs, so the calls made
+ * by the handler pass them on.
+ *
+ * <pre>
+ * Map&lt;String, String&gt; previous = TMessageHeaders.setCurrent(Collections.singletonMap("trace-id", traceId));
+ * try {
+ *   client.call();
+ * } finally {
+ *   TMessageHeaders.setCurrent(previous);
+ * }
+ * </pre>
+ */
+public final class TMessageHeaders {
+
+  private static final ThreadLocal<Map<String, String>> CURRENT = new ThreadLocal<Map<String, String>>();
+
+  private TMessageHeaders() {
+  }
+
+  /**
+   * @return the headers of the calls made by the current thread, empty if they have none.
+   */
+  public static Map<String, String> current() {
+    Map<String, String> headers = CURRENT.get();
+    return headers != null ? headers : Collections.<String, String>emptyMap();
+  }
+
+  /**
+   * Set the headers of the calls made by the current thread. The headers are copied.
+   *
+   * @param headers the new headers, or null to remove them.
+   * @return the previous headers, to restore once the calls are done.
+   */
+  public static Map<String, String> setCurrent(Map<String, String> headers) {
+    Map<String, String> previous = CURRENT.get();
+    if (headers == null || headers.isEmpty()) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(Collections.unmodifiableMap(new HashMap<String, String>(headers)));
+    }
+    return previous;
+  }
+}
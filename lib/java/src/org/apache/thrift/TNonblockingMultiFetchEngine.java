@@ -0,0 +1,628 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.transport.TTransportException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A long lived alternative to {@link TNonblockingMultiFetchClient}. A single selector thread keeps
+ * one persistent connection per remote server and reuses it across fetches; requests sent to the
+ * same server are pipelined on that connection and matched to responses in order.
+ *
+ * Each fetch sends the same request to a list of servers, and completes when a quorum of them
+ * responded, when every server responded or failed, or when its timeout (in milliseconds)
+ * expires, whichever comes first. The result array is indexed like the server list; each response
+ * is a whole frame (4 bytes of length followed by the data) with position 0, entries are null for
+ * servers which did not respond in time. Responses arriving after the fetch completed are read
+ * and discarded.
+ *
+ * An optional {@link ResponseListener} gets each response as soon as it is read. Listeners and
+ * dependent stages of the returned futures run on the selector thread, so they must not block.
+ *
+ * Note:
+ *   It assumes all remote servers are TNonblockingServers and use
+ * TFramedTransport.
+ */
+public class TNonblockingMultiFetchEngine {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TNonblockingMultiFetchEngine.class);
+
+  /**
+   * Receives the outcome of every server of a fetch, on the selector thread.
+   */
+  public interface ResponseListener {
+    /**
+     * @param serverIndex index of the server in the server list of the fetch.
+     * @param response the whole response frame, with position 0.
+     */
+    void onResponse(int serverIndex, ByteBuffer response);
+
+    /**
+     * @param serverIndex index of the server in the server list of the fetch.
+     * @param exception why no response can be read from the server.
+     */
+    void onError(int serverIndex, Exception exception);
+  }
+
+  // if the size of the response msg exceeds this limit (in byte), the
+  // connection is closed without reading the msg
+  private final int maxRecvBufBytesPerServer;
+
+  private final Selector selector;
+  private final SelectThread selectThread;
+  private volatile boolean running = true;
+
+  // Tasks submitted by other threads, to be run on the selector thread.
+  private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+
+  // Only accessed from the selector thread.
+  private final Map<InetSocketAddress, Connection> connections = new HashMap<>();
+  private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+  private long timerSequence = 0;
+  private volatile int numConnections = 0;
+
+  public TNonblockingMultiFetchEngine(int maxRecvBufBytesPerServer) throws IOException {
+    this.maxRecvBufBytesPerServer = maxRecvBufBytesPerServer;
+    this.selector = Selector.open();
+    this.selectThread = new SelectThread();
+    this.selectThread.start();
+  }
+
+  /**
+   * Fetch from all the servers.
+   *
+   * @see #fetch(ByteBuffer, List, int, long, ResponseListener)
+   */
+  public CompletableFuture<ByteBuffer[]> fetch(ByteBuffer request, List<InetSocketAddress> servers,
+                                               long timeoutMillis) {
+    return fetch(request, servers, servers.size(), timeoutMillis, null);
+  }
+
+  /**
+   * Send the request to all the servers, and complete as soon as quorum of them responded.
+   *
+   * @param request framed request, from its position to its limit. It must not be modified until
+   *                the returned future is complete.
+   * @param servers servers to send the request to.
+   * @param quorum number of responses needed to complete the fetch.
+   * @param timeoutMillis time limit of the fetch, the fetch completes with the responses received
+   *                      so far when it expires.
+   * @param listener optional listener of each server's outcome, can be null.
+   * @return future of the responses, indexed like servers.
+   */
+  public CompletableFuture<ByteBuffer[]> fetch(ByteBuffer request, List<InetSocketAddress> servers,
+                                               int quorum, long timeoutMillis,
+                                               ResponseListener listener) {
+    if (quorum <= 0 || quorum > servers.size()) {
+      throw new IllegalArgumentException("Quorum " + quorum + " is out of range for " +
+          servers.size() + " servers");
+    }
+    Fetch fetch = new Fetch(request, servers, quorum, timeoutMillis, listener, 0);
+    submit(fetch);
+    return fetch.future;
+  }
+
+  /**
+   * Send the request to the first replica, and to the next one each time hedgeDelayMillis passes
+   * without a response or a replica fails. Completes with the first response.
+   *
+   * @param request framed request, from its position to its limit.
+   * @param replicas servers able to answer the request, in order of preference.
+   * @param hedgeDelayMillis delay before sending the request to one more replica.
+   * @param timeoutMillis time limit of the fetch.
+   * @return future of the first response, or null if no replica responded in time.
+   */
+  public CompletableFuture<ByteBuffer> fetchHedged(ByteBuffer request, List<InetSocketAddress> replicas,
+                                                   long hedgeDelayMillis, long timeoutMillis) {
+    if (replicas.isEmpty()) {
+      throw new IllegalArgumentException("No replica to fetch from");
+    }
+    Fetch fetch = new Fetch(request, replicas, 1, timeoutMillis, null, Math.max(hedgeDelayMillis, 1));
+    submit(fetch);
+    return fetch.future.thenApply(responses -> {
+      for (ByteBuffer response : responses) {
+        if (response != null) {
+          return response;
+        }
+      }
+      return null;
+    });
+  }
+
+  /**
+   * @return number of open connections, for monitoring only.
+   */
+  public int getNumConnections() {
+    return numConnections;
+  }
+
+  /**
+   * Stop the selector thread and close all the connections. Pending fetches complete with the
+   * responses received so far.
+   */
+  public void close() {
+    running = false;
+    selector.wakeup();
+    try {
+      selectThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    // Fetches submitted while the thread was exiting.
+    runPendingTasks();
+  }
+
+  private void submit(Fetch fetch) {
+    pendingTasks.add(fetch::start);
+    if (!running) {
+      // Complete it in case the selector thread is already gone.
+      runPendingTasks();
+      return;
+    }
+    selector.wakeup();
+  }
+
+  private synchronized void runPendingTasks() {
+    Runnable task;
+    while ((task = pendingTasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOGGER.error("Unexpected error in multi fetch task", e);
+      }
+    }
+  }
+
+  private Timer schedule(long delayMillis, Runnable action) {
+    Timer timer = new Timer(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis),
+        timerSequence++, action);
+    timers.add(timer);
+    return timer;
+  }
+
+  private class SelectThread extends Thread {
+
+    SelectThread() {
+      super("multi-fetch-selector");
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          runPendingTasks();
+          long waitMillis = runExpiredTimers();
+          try {
+            selector.select(waitMillis);
+          } catch (IOException e) {
+            LOGGER.error("selector selects error: " + e.toString());
+            continue;
+          }
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            ((Connection) key.attachment()).handle(key);
+          }
+        }
+      } catch (Throwable t) {
+        LOGGER.error("Unexpected error in multi fetch selector thread", t);
+        running = false;
+      } finally {
+        runPendingTasks();
+        for (Connection connection : new ArrayList<>(connections.values())) {
+          connection.fail(new TTransportException(TTransportException.NOT_OPEN, "Engine is closed"));
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          LOGGER.error("free resource error: " + e.toString());
+        }
+      }
+    }
+
+    /**
+     * @return milliseconds until the next timer expires, 0 if there is none.
+     */
+    private long runExpiredTimers() {
+      while (!timers.isEmpty()) {
+        Timer timer = timers.peek();
+        long remainingNanos = timer.deadlineNanos - System.nanoTime();
+        if (remainingNanos > 0) {
+          return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos + 999999));
+        }
+        timers.poll();
+        if (!timer.cancelled) {
+          timer.action.run();
+        }
+      }
+      return 0;
+    }
+  }
+
+  private static class Timer implements Comparable<Timer> {
+    final long deadlineNanos;
+    final long sequence;
+    final Runnable action;
+    boolean cancelled = false;
+
+    Timer(long deadlineNanos, long sequence, Runnable action) {
+      this.deadlineNanos = deadlineNanos;
+      this.sequence = sequence;
+      this.action = action;
+    }
+
+    @Override
+    public int compareTo(Timer other) {
+      int byDeadline = Long.compare(deadlineNanos - other.deadlineNanos, 0);
+      return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  /**
+   * State of one fetch, only accessed from the selector thread once started.
+   */
+  private class Fetch {
+    final ByteBuffer request;
+    final List<InetSocketAddress> servers;
+    final int quorum;
+    final long timeoutMillis;
+    final ResponseListener listener;
+    // 0 to send to all servers at once, otherwise the delay between hedged requests.
+    final long hedgeDelayMillis;
+    final CompletableFuture<ByteBuffer[]> future = new CompletableFuture<>();
+    final ByteBuffer[] responses;
+    final List<Call> calls = new ArrayList<>();
+    int numResponses = 0;
+    int numFinished = 0;
+    int numSent = 0;
+    Timer timeout;
+    Timer hedge;
+
+    Fetch(ByteBuffer request, List<InetSocketAddress> servers, int quorum, long timeoutMillis,
+          ResponseListener listener, long hedgeDelayMillis) {
+      this.request = request;
+      this.servers = new ArrayList<>(servers);
+      this.quorum = quorum;
+      this.timeoutMillis = timeoutMillis;
+      this.listener = listener;
+      this.hedgeDelayMillis = hedgeDelayMillis;
+      this.responses = new ByteBuffer[servers.size()];
+    }
+
+    void start() {
+      if (!running) {
+        for (int i = 0; i < servers.size(); i++) {
+          onError(i, new TTransportException(TTransportException.NOT_OPEN, "Engine is closed"));
+        }
+        return;
+      }
+      timeout = schedule(timeoutMillis, this::onTimeout);
+      if (hedgeDelayMillis > 0) {
+        sendNext();
+      } else {
+        while (numSent < servers.size() && !future.isDone()) {
+          sendNext();
+        }
+      }
+    }
+
+    void sendNext() {
+      if (future.isDone() || numSent >= servers.size()) {
+        return;
+      }
+      int index = numSent++;
+      if (hedgeDelayMillis > 0 && numSent < servers.size()) {
+        hedge = schedule(hedgeDelayMillis, this::sendNext);
+      }
+      Call call = new Call(this, index, request.duplicate());
+      calls.add(call);
+      send(servers.get(index), call);
+    }
+
+    void onResponse(int index, ByteBuffer response) {
+      responses[index] = response;
+      numResponses++;
+      numFinished++;
+      notifyListener(index, response, null);
+      if (numResponses >= quorum || numFinished == servers.size()) {
+        complete();
+      }
+    }
+
+    void onError(int index, Exception exception) {
+      numFinished++;
+      notifyListener(index, null, exception);
+      if (numFinished == servers.size()) {
+        complete();
+      } else if (hedgeDelayMillis > 0 && numFinished == numSent) {
+        // Fail over to the next replica right away.
+        if (hedge != null) {
+          hedge.cancelled = true;
+        }
+        sendNext();
+      }
+    }
+
+    void onTimeout() {
+      complete();
+      // Connections still busy with this fetch are presumably stuck, drop them so that later
+      // fetches do not queue up behind.
+      for (Call call : calls) {
+        if (!call.finished && call.connection != null) {
+          call.connection.fail(new TTransportException(TTransportException.TIMED_OUT,
+              "Fetch timed out after " + timeoutMillis + "ms"));
+        }
+      }
+    }
+
+    private void notifyListener(int index, ByteBuffer response, Exception exception) {
+      if (listener == null || future.isDone()) {
+        return;
+      }
+      try {
+        if (exception == null) {
+          listener.onResponse(index, response);
+        } else {
+          listener.onError(index, exception);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.error("Unexpected error in multi fetch listener", e);
+      }
+    }
+
+    private void complete() {
+      if (future.isDone()) {
+        return;
+      }
+      if (timeout != null) {
+        timeout.cancelled = true;
+      }
+      if (hedge != null) {
+        hedge.cancelled = true;
+      }
+      for (Call call : calls) {
+        // Responses still on the way are read and dropped.
+        call.discarded = true;
+      }
+      future.complete(responses);
+    }
+  }
+
+  private static class Call {
+    final Fetch fetch;
+    final int serverIndex;
+    final ByteBuffer request;
+    Connection connection;
+    boolean started = false;
+    boolean finished = false;
+    boolean discarded = false;
+
+    Call(Fetch fetch, int serverIndex, ByteBuffer request) {
+      this.fetch = fetch;
+      this.serverIndex = serverIndex;
+      this.request = request;
+    }
+
+    void onResponse(ByteBuffer response) {
+      finished = true;
+      if (!discarded) {
+        fetch.onResponse(serverIndex, response);
+      }
+    }
+
+    void onError(Exception exception) {
+      finished = true;
+      if (!discarded) {
+        fetch.onError(serverIndex, exception);
+      }
+    }
+  }
+
+  private void send(InetSocketAddress server, Call call) {
+    if (!running) {
+      call.onError(new TTransportException(TTransportException.NOT_OPEN, "Engine is closed"));
+      return;
+    }
+    Connection connection = connections.get(server);
+    if (connection == null) {
+      try {
+        connection = new Connection(server);
+      } catch (IOException e) {
+        LOGGER.error(String.format("set up socket to server %s error: %s", server, e));
+        call.onError(e);
+        return;
+      }
+      connections.put(server, connection);
+      numConnections = connections.size();
+    }
+    connection.enqueue(call);
+  }
+
+  /**
+   * A persistent connection to one server, only accessed from the selector thread.
+   */
+  private class Connection {
+    private final InetSocketAddress server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    // Calls waiting to be written, and calls waiting for their response, in order.
+    private final ArrayDeque<Call> sending = new ArrayDeque<>();
+    private final ArrayDeque<Call> receiving = new ArrayDeque<>();
+    private final ByteBuffer frameSizeBuffer = ByteBuffer.allocate(4);
+    private ByteBuffer frameBuffer;
+    private boolean connected = false;
+    private boolean closed = false;
+
+    Connection(InetSocketAddress server) throws IOException {
+      this.server = server;
+      SocketChannel socketChannel = SocketChannel.open();
+      try {
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setTcpNoDelay(true);
+        connected = socketChannel.connect(server);
+        key = socketChannel.register(selector,
+            connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+      } catch (IOException e) {
+        socketChannel.close();
+        throw e;
+      }
+      this.channel = socketChannel;
+    }
+
+    void enqueue(Call call) {
+      call.connection = this;
+      sending.add(call);
+      if (connected) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+      }
+    }
+
+    void handle(SelectionKey selected) {
+      try {
+        if (selected.isValid() && selected.isConnectable()) {
+          channel.finishConnect();
+          connected = true;
+          key.interestOps(sending.isEmpty() ? SelectionKey.OP_READ
+              : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+        if (selected.isValid() && selected.isWritable()) {
+          write();
+        }
+        if (selected.isValid() && selected.isReadable()) {
+          read();
+        }
+      } catch (IOException | TTransportException e) {
+        LOGGER.error(String.format("socket to server %s error: %s", server, e));
+        fail(e);
+      } catch (RuntimeException e) {
+        // Only this connection is broken, keep the select thread running for the others.
+        LOGGER.error(String.format("socket to server %s error", server), e);
+        fail(e);
+      }
+    }
+
+    private void write() throws IOException {
+      while (!sending.isEmpty()) {
+        Call call = sending.peek();
+        if (!call.started && call.discarded) {
+          // Nobody is waiting for the response any more.
+          sending.poll();
+          call.finished = true;
+          continue;
+        }
+        call.started = true;
+        channel.write(call.request);
+        if (call.request.hasRemaining()) {
+          return;
+        }
+        receiving.add(sending.poll());
+      }
+      key.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void read() throws IOException, TTransportException {
+      while (true) {
+        if (frameBuffer == null) {
+          if (channel.read(frameSizeBuffer) < 0) {
+            throw new TTransportException(TTransportException.END_OF_FILE, "Connection closed by server");
+          }
+          if (frameSizeBuffer.hasRemaining()) {
+            return;
+          }
+          int frameSize = frameSizeBuffer.getInt(0);
+          if (frameSize <= 0) {
+            throw new TTransportException(TTransportException.CORRUPTED_DATA, String.format(
+                "Read an invalid frame size %d from %s. Does the server use TFramedTransport?",
+                frameSize, server));
+          }
+          if (frameSize > maxRecvBufBytesPerServer - 4) {
+            throw new TTransportException(TTransportException.CORRUPTED_DATA, String.format(
+                "Read frame size %d from %s, total buffer size would exceed limit %d",
+                frameSize, server, maxRecvBufBytesPerServer));
+          }
+          frameBuffer = ByteBuffer.allocate(frameSize + 4);
+          frameBuffer.putInt(frameSize);
+          frameSizeBuffer.clear();
+        }
+        if (channel.read(frameBuffer) < 0) {
+          throw new TTransportException(TTransportException.END_OF_FILE, "Connection closed by server");
+        }
+        if (frameBuffer.hasRemaining()) {
+          return;
+        }
+        Call call = receiving.poll();
+        if (call == null) {
+          throw new TTransportException(TTransportException.CORRUPTED_DATA,
+              "Received a response from " + server + " without request");
+        }
+        frameBuffer.flip();
+        ByteBuffer response = frameBuffer;
+        frameBuffer = null;
+        call.onResponse(response);
+      }
+    }
+
+    void fail(Exception exception) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        LOGGER.error("free resource error: " + e.toString());
+      }
+      if (connections.get(server) == this) {
+        connections.remove(server);
+        numConnections = connections.size();
+      }
+      List<Call> pending = new ArrayList<>(receiving);
+      pending.addAll(sending);
+      receiving.clear();
+      sending.clear();
+      for (Call call : pending) {
+        call.onError(exception);
+      }
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+/**
+ * Shared parts of the open addressing tables behind the primitive sets and maps. Slots are
+ * probed linearly and removals leave a tombstone, so iterators can remove entries without
+ * moving the others.
+ */
+final class TPrimitiveHashing {
+
+  static final byte FREE = 0;
+  static final byte FULL = 1;
+  static final byte REMOVED = 2;
+
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private TPrimitiveHashing() {
+  }
+
+  /**
+   * @return the smallest power of two capacity which holds the given number of entries
+   * below its maximum fill.
+   */
+  static int capacityFor(int expectedSize) {
+    int capacity = 4;
+    while (maxFill(capacity) <= expectedSize) {
+      if (capacity == MAX_CAPACITY) {
+        throw new IllegalArgumentException("Too many entries: " + expectedSize);
+      }
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   * Live entries and tombstones together stay below three quarters of the capacity, which
+   * leaves free slots to end every probe.
+   */
+  static int maxFill(int capacity) {
+    return capacity - (capacity >> 2);
+  }
+
+  static int mix(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  static int mix(long key) {
+    return mix((int) (key ^ (key >>> 32)));
+  }
+}
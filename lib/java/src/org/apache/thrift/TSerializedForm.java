@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.Arrays;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSizeProtocol;
+import org.apache.thrift.scheme.IScheme;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+/**
+ * The binary and compact encodings of a frozen struct, cached the first time
+ * it is written with each protocol. Writing the struct again is then a single
+ * write of those bytes to the transport. Both protocols encode a struct the
+ * same wherever it is nested, so the bytes of a frozen struct are also used
+ * when it is written as part of another one.
+ *
+ * @param <T> The type of the struct.
+ */
+public final class TSerializedForm<T extends TBase<?, ?>> {
+
+  private final T struct_;
+
+  // Writes the struct itself, rather than its cached form
+  private final IScheme<T> scheme_;
+
+  private volatile byte[] binary_;
+  private volatile byte[] compact_;
+
+  public TSerializedForm(T struct, IScheme<T> scheme) {
+    struct_ = struct;
+    scheme_ = scheme;
+  }
+
+  /**
+   * Write the cached encoding of the struct if the protocol is the binary or
+   * compact protocol, encoding the struct first if it was not yet. The size
+   * protocols of both count the cached encodings without walking the struct.
+   *
+   * @param oprot Protocol to write the struct with
+   * @return false if the struct needs to be written with the protocol.
+   */
+  public boolean write(TProtocol oprot) throws TException {
+    Class<?> protocolClass = oprot.getClass();
+    byte[] bytes;
+    if (protocolClass == TBinaryProtocol.class) {
+      bytes = binary_;
+      if (bytes == null) {
+        binary_ = bytes = encode(new TBinaryProtocol.Factory());
+      }
+    } else if (protocolClass == TCompactProtocol.class) {
+      bytes = compact_;
+      if (bytes == null) {
+        compact_ = bytes = encode(new TCompactProtocol.Factory());
+      }
+    } else if (protocolClass == TSizeProtocol.Binary.class) {
+      return writeSize((TSizeProtocol) oprot, binary_);
+    } else if (protocolClass == TSizeProtocol.Compact.class) {
+      return writeSize((TSizeProtocol) oprot, compact_);
+    } else {
+      return false;
+    }
+    oprot.getTransport().write(bytes);
+    return true;
+  }
+
+  private static boolean writeSize(TSizeProtocol sizer, byte[] bytes) {
+    if (bytes == null) {
+      return false;
+    }
+    sizer.writeEncoded(bytes.length);
+    return true;
+  }
+
+  private byte[] encode(TProtocolFactory factory) throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(256);
+    scheme_.write(factory.getProtocol(buffer), struct_);
+    return Arrays.copyOf(buffer.getArray(), buffer.length());
+  }
+}
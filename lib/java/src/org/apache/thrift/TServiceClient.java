@@ -22,6 +22,7 @@ package org.apache.thrift;
 import org.apache.thrift.protocol.TMessage;
 import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransportException;
 
 /**
  * A TServiceClient is used to communicate with a TService implementation
@@ -67,6 +68,9 @@ public abstract class TServiceClient {
   }
 
   private void sendBase(String methodName, TBase<?,?> args, byte type) throws TException {
+    if (TDeadline.isCurrentExpired()) {
+      throw new TTransportException(TTransportException.TIMED_OUT, "Deadline exceeded before sending " + methodName);
+    }
     oprot_.writeMessageBegin(new TMessage(methodName, type, ++seqid_));
     args.write(oprot_);
     oprot_.writeMessageEnd();
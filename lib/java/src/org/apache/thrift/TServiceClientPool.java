@@ -0,0 +1,593 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TTransportFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of clients connected to remote services, keyed by endpoint. Clients are
+ * created with a {@link TServiceClientFactory} over a {@link TSocket} and reused
+ * across requests, so the sockets stay warm.
+ * <p>
+ * Borrowing and releasing clients does not lock: every endpoint keeps its idle
+ * clients in a concurrent deque, most recently used first. A client is closed
+ * instead of being reused when
+ * <ul>
+ *   <li>it has been idle longer than the max idle time,</li>
+ *   <li>it is older than the max lifetime, so connections rotate across server restarts and
+ *       load balancer changes,</li>
+ *   <li>it was invalidated, which {@link #execute} does when a call fails with a
+ *       {@link TTransportException} or a {@link TProtocolException},</li>
+ *   <li>its transport is closed or the optional {@link Validator} rejects it.</li>
+ * </ul>
+ *
+ * <pre>
+ * TServiceClientPool&lt;Calculator.Client&gt; pool = new TServiceClientPool&lt;Calculator.Client&gt;(
+ *     new TServiceClientPool.Args&lt;Calculator.Client&gt;(new Calculator.Client.Factory())
+ *         .transportFactory(new TFramedTransport.Factory())
+ *         .maxLifetimeMillis(TimeUnit.MINUTES.toMillis(10)));
+ * int sum = pool.execute(endpoint, client -&gt; client.add(1, 2));
+ * </pre>
+ *
+ * @param <T> the type of the clients.
+ */
+public class TServiceClientPool<T extends TServiceClient> implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TServiceClientPool.class.getName());
+
+  /**
+   * Calls made with a client borrowed from the pool.
+   */
+  public interface ClientCallback<T, R> {
+    R call(T client) throws TException;
+  }
+
+  /**
+   * Checks that an idle client can still be used, for instance by calling a cheap
+   * method of the service.
+   */
+  public interface Validator<T> {
+    boolean validate(T client);
+  }
+
+  public static class Args<T extends TServiceClient> {
+    final TServiceClientFactory<T> clientFactory;
+    TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
+    TTransportFactory transportFactory = new TTransportFactory();
+    int socketTimeout = 0;
+    int connectTimeout = 0;
+    int maxTotalPerEndpoint = Integer.MAX_VALUE;
+    int maxIdlePerEndpoint = 8;
+    long maxIdleMillis = TimeUnit.MINUTES.toMillis(1);
+    long maxLifetimeMillis = 0;
+    long evictionIntervalMillis = 0;
+    Validator<? super T> validator = null;
+    long validateAfterIdleMillis = 0;
+
+    public Args(TServiceClientFactory<T> clientFactory) {
+      this.clientFactory = clientFactory;
+    }
+
+    public Args<T> protocolFactory(TProtocolFactory protocolFactory) {
+      this.protocolFactory = protocolFactory;
+      return this;
+    }
+
+    /**
+     * Wraps the sockets, for instance into framed transports.
+     */
+    public Args<T> transportFactory(TTransportFactory transportFactory) {
+      this.transportFactory = transportFactory;
+      return this;
+    }
+
+    public Args<T> socketTimeout(int socketTimeout) {
+      this.socketTimeout = socketTimeout;
+      return this;
+    }
+
+    public Args<T> connectTimeout(int connectTimeout) {
+      this.connectTimeout = connectTimeout;
+      return this;
+    }
+
+    /**
+     * Maximum number of clients, idle or borrowed, of an endpoint. Borrowing past it fails.
+     */
+    public Args<T> maxTotalPerEndpoint(int maxTotalPerEndpoint) {
+      this.maxTotalPerEndpoint = maxTotalPerEndpoint;
+      return this;
+    }
+
+    /**
+     * Maximum number of idle clients kept for an endpoint, extra clients are closed on release.
+     */
+    public Args<T> maxIdlePerEndpoint(int maxIdlePerEndpoint) {
+      this.maxIdlePerEndpoint = maxIdlePerEndpoint;
+      return this;
+    }
+
+    /**
+     * Idle clients older than this are closed, 0 keeps them forever.
+     */
+    public Args<T> maxIdleMillis(long maxIdleMillis) {
+      this.maxIdleMillis = maxIdleMillis;
+      return this;
+    }
+
+    /**
+     * Clients connected for longer than this are closed instead of being reused, 0 disables it.
+     */
+    public Args<T> maxLifetimeMillis(long maxLifetimeMillis) {
+      this.maxLifetimeMillis = maxLifetimeMillis;
+      return this;
+    }
+
+    /**
+     * Period of the background eviction of the idle clients, 0 only evicts them on borrow.
+     */
+    public Args<T> evictionIntervalMillis(long evictionIntervalMillis) {
+      this.evictionIntervalMillis = evictionIntervalMillis;
+      return this;
+    }
+
+    /**
+     * Validates the clients which have been idle for at least validateAfterIdleMillis before
+     * handing them out.
+     */
+    public Args<T> validator(Validator<? super T> validator, long validateAfterIdleMillis) {
+      this.validator = validator;
+      this.validateAfterIdleMillis = validateAfterIdleMillis;
+      return this;
+    }
+  }
+
+  /**
+   * A client borrowed from the pool, to give back with {@link TServiceClientPool#release}.
+   */
+  public static final class PooledClient<T extends TServiceClient> {
+    private final T client;
+    private final TTransport transport;
+    private final InetSocketAddress endpoint;
+    private final long createdAt;
+    private volatile long lastUsed;
+    private volatile boolean invalid = false;
+    // set while borrowed, so that the pool notices a client released twice
+    private final AtomicBoolean inUse = new AtomicBoolean(true);
+
+    PooledClient(T client, TTransport transport, InetSocketAddress endpoint, long now) {
+      this.client = client;
+      this.transport = transport;
+      this.endpoint = endpoint;
+      this.createdAt = now;
+      this.lastUsed = now;
+    }
+
+    public T getClient() {
+      return client;
+    }
+
+    public InetSocketAddress getEndpoint() {
+      return endpoint;
+    }
+
+    /**
+     * Close the client on release instead of returning it to the pool. Call it when the
+     * connection may be unusable, for instance after a transport error.
+     */
+    public void invalidate() {
+      invalid = true;
+    }
+  }
+
+  /**
+   * Point in time view of the pool.
+   */
+  public static class PoolMetrics {
+    private final int endpoints;
+    private final int idle;
+    private final int active;
+    private final long created;
+    private final long borrowed;
+    private final long idleEvictions;
+    private final long lifetimeEvictions;
+    private final long failureEvictions;
+
+    PoolMetrics(int endpoints, int idle, int active, long created, long borrowed,
+                long idleEvictions, long lifetimeEvictions, long failureEvictions) {
+      this.endpoints = endpoints;
+      this.idle = idle;
+      this.active = active;
+      this.created = created;
+      this.borrowed = borrowed;
+      this.idleEvictions = idleEvictions;
+      this.lifetimeEvictions = lifetimeEvictions;
+      this.failureEvictions = failureEvictions;
+    }
+
+    public int getEndpoints() {
+      return endpoints;
+    }
+
+    /**
+     * @return number of clients waiting in the pool.
+     */
+    public int getIdle() {
+      return idle;
+    }
+
+    /**
+     * @return number of clients currently borrowed.
+     */
+    public int getActive() {
+      return active;
+    }
+
+    /**
+     * @return number of connections opened since the pool was created.
+     */
+    public long getCreated() {
+      return created;
+    }
+
+    public long getBorrowed() {
+      return borrowed;
+    }
+
+    /**
+     * @return number of clients closed because they were idle for too long, or exceeded the
+     *         number of idle clients of their endpoint.
+     */
+    public long getIdleEvictions() {
+      return idleEvictions;
+    }
+
+    /**
+     * @return number of clients closed because they reached their max lifetime.
+     */
+    public long getLifetimeEvictions() {
+      return lifetimeEvictions;
+    }
+
+    /**
+     * @return number of clients closed because they were invalidated, their transport was
+     *         closed or they failed validation.
+     */
+    public long getFailureEvictions() {
+      return failureEvictions;
+    }
+
+    @Override
+    public String toString() {
+      return "PoolMetrics[endpoints=" + endpoints + ", idle=" + idle + ", active=" + active
+          + ", created=" + created + ", borrowed=" + borrowed + ", idleEvictions=" + idleEvictions
+          + ", lifetimeEvictions=" + lifetimeEvictions + ", failureEvictions=" + failureEvictions + "]";
+    }
+  }
+
+  private final class EndpointPool {
+    final ConcurrentLinkedDeque<PooledClient<T>> idle = new ConcurrentLinkedDeque<PooledClient<T>>();
+    final AtomicInteger idleCount = new AtomicInteger();
+    final AtomicInteger activeCount = new AtomicInteger();
+    final AtomicInteger totalCount = new AtomicInteger();
+  }
+
+  private final Args<T> args;
+  private final ConcurrentMap<InetSocketAddress, EndpointPool> pools =
+      new ConcurrentHashMap<InetSocketAddress, EndpointPool>();
+  private final ScheduledExecutorService evictor;
+  private volatile boolean closed = false;
+
+  private final LongAdder created = new LongAdder();
+  private final LongAdder borrowed = new LongAdder();
+  private final LongAdder idleEvictions = new LongAdder();
+  private final LongAdder lifetimeEvictions = new LongAdder();
+  private final LongAdder failureEvictions = new LongAdder();
+
+  public TServiceClientPool(Args<T> args) {
+    this.args = args;
+    if (args.evictionIntervalMillis > 0) {
+      evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "TServiceClientPool-evictor");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      evictor.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            evictIdle();
+          } catch (RuntimeException e) {
+            LOGGER.warn("Failed to evict idle clients", e);
+          }
+        }
+      }, args.evictionIntervalMillis, args.evictionIntervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      evictor = null;
+    }
+  }
+
+  /**
+   * Borrow a client of the endpoint, reusing an idle one when possible.
+   *
+   * @param endpoint the remote service.
+   * @return the client, to give back with {@link #release(PooledClient)}.
+   * @throws TTransportException if a new connection cannot be opened.
+   * @throws TException if the pool is closed or the endpoint already has its maximum number
+   *         of clients.
+   */
+  public PooledClient<T> borrow(InetSocketAddress endpoint) throws TException {
+    if (closed) {
+      throw new TException("Client pool is closed");
+    }
+    EndpointPool pool = endpointPool(endpoint);
+    PooledClient<T> pooled;
+    while ((pooled = pool.idle.pollFirst()) != null) {
+      pool.idleCount.decrementAndGet();
+      long now = System.currentTimeMillis();
+      LongAdder reason = evictionReason(pooled, now);
+      if (reason == null && !validate(pooled, now)) {
+        reason = failureEvictions;
+      }
+      if (reason == null) {
+        pooled.inUse.set(true);
+        pool.activeCount.incrementAndGet();
+        borrowed.increment();
+        return pooled;
+      }
+      reason.increment();
+      destroy(pool, pooled);
+    }
+
+    int total;
+    do {
+      total = pool.totalCount.get();
+      if (total >= args.maxTotalPerEndpoint) {
+        throw new TException("Client pool exhausted for " + endpoint + ", " + total + " clients in use");
+      }
+    } while (!pool.totalCount.compareAndSet(total, total + 1));
+
+    try {
+      pooled = connect(endpoint);
+    } catch (TException e) {
+      pool.totalCount.decrementAndGet();
+      throw e;
+    } catch (RuntimeException e) {
+      pool.totalCount.decrementAndGet();
+      throw e;
+    }
+    created.increment();
+    pool.activeCount.incrementAndGet();
+    borrowed.increment();
+    return pooled;
+  }
+
+  /**
+   * Give a borrowed client back to the pool. Invalidated, expired and surplus clients are
+   * closed.
+   *
+   * @throws IllegalStateException if the client was already released.
+   */
+  public void release(PooledClient<T> pooled) {
+    if (!pooled.inUse.compareAndSet(true, false)) {
+      throw new IllegalStateException("Client of " + pooled.endpoint + " released twice");
+    }
+    EndpointPool pool = endpointPool(pooled.endpoint);
+    pool.activeCount.decrementAndGet();
+    long now = System.currentTimeMillis();
+    pooled.lastUsed = now;
+    LongAdder reason = evictionReason(pooled, now);
+    if (reason != null) {
+      reason.increment();
+      destroy(pool, pooled);
+      return;
+    }
+    if (closed) {
+      destroy(pool, pooled);
+      return;
+    }
+    if (pool.idleCount.incrementAndGet() > args.maxIdlePerEndpoint) {
+      pool.idleCount.decrementAndGet();
+      idleEvictions.increment();
+      destroy(pool, pooled);
+      return;
+    }
+    pool.idle.offerFirst(pooled);
+    if (closed && pool.idle.remove(pooled)) {
+      // lost a race with close()
+      pool.idleCount.decrementAndGet();
+      destroy(pool, pooled);
+    }
+  }
+
+  /**
+   * Run a call with a client of the endpoint. The client is invalidated if the call fails
+   * with an error which may leave the connection unusable.
+   */
+  public <R> R execute(InetSocketAddress endpoint, ClientCallback<T, R> callback) throws TException {
+    PooledClient<T> pooled = borrow(endpoint);
+    try {
+      return callback.call(pooled.getClient());
+    } catch (TTransportException | TProtocolException e) {
+      pooled.invalidate();
+      throw e;
+    } catch (RuntimeException e) {
+      pooled.invalidate();
+      throw e;
+    } finally {
+      release(pooled);
+    }
+  }
+
+  /**
+   * Close the idle clients which have been idle for too long or reached their max lifetime.
+   * Runs periodically when an eviction interval is configured.
+   */
+  public void evictIdle() {
+    long now = System.currentTimeMillis();
+    for (EndpointPool pool : pools.values()) {
+      Iterator<PooledClient<T>> iterator = pool.idle.descendingIterator();
+      while (iterator.hasNext()) {
+        PooledClient<T> pooled = iterator.next();
+        LongAdder reason = evictionReason(pooled, now);
+        if (reason != null && pool.idle.remove(pooled)) {
+          pool.idleCount.decrementAndGet();
+          reason.increment();
+          destroy(pool, pooled);
+        }
+      }
+    }
+  }
+
+  public PoolMetrics getMetrics() {
+    int idle = 0;
+    int active = 0;
+    for (EndpointPool pool : pools.values()) {
+      idle += pool.idleCount.get();
+      active += pool.activeCount.get();
+    }
+    return new PoolMetrics(pools.size(), idle, active, created.sum(), borrowed.sum(),
+        idleEvictions.sum(), lifetimeEvictions.sum(), failureEvictions.sum());
+  }
+
+  /**
+   * @return number of idle clients of the endpoint.
+   */
+  public int getIdleCount(InetSocketAddress endpoint) {
+    EndpointPool pool = pools.get(endpoint);
+    return pool == null ? 0 : pool.idleCount.get();
+  }
+
+  /**
+   * @return number of borrowed clients of the endpoint.
+   */
+  public int getActiveCount(InetSocketAddress endpoint) {
+    EndpointPool pool = pools.get(endpoint);
+    return pool == null ? 0 : pool.activeCount.get();
+  }
+
+  /**
+   * Close the idle clients and stop pooling, borrowed clients are closed when released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (evictor != null) {
+      evictor.shutdownNow();
+    }
+    for (EndpointPool pool : pools.values()) {
+      PooledClient<T> pooled;
+      while ((pooled = pool.idle.pollFirst()) != null) {
+        pool.idleCount.decrementAndGet();
+        destroy(pool, pooled);
+      }
+    }
+  }
+
+  private EndpointPool endpointPool(InetSocketAddress endpoint) {
+    EndpointPool pool = pools.get(endpoint);
+    if (pool == null) {
+      EndpointPool newPool = new EndpointPool();
+      pool = pools.putIfAbsent(endpoint, newPool);
+      if (pool == null) {
+        pool = newPool;
+      }
+    }
+    return pool;
+  }
+
+  private PooledClient<T> connect(InetSocketAddress endpoint) throws TException {
+    TSocket socket = new TSocket(endpoint.getHostString(), endpoint.getPort(),
+        args.socketTimeout, args.connectTimeout);
+    TTransport transport = args.transportFactory.getTransport(socket);
+    try {
+      if (!transport.isOpen()) {
+        transport.open();
+      }
+      T client = args.clientFactory.getClient(args.protocolFactory.getProtocol(transport));
+      return new PooledClient<T>(client, transport, endpoint, System.currentTimeMillis());
+    } catch (TException e) {
+      transport.close();
+      throw e;
+    } catch (RuntimeException e) {
+      transport.close();
+      throw e;
+    }
+  }
+
+  // Returns the counter of the reason why the client cannot be reused, or null if it can be
+  private LongAdder evictionReason(PooledClient<T> pooled, long now) {
+    if (pooled.invalid || !pooled.transport.isOpen()) {
+      return failureEvictions;
+    }
+    if (args.maxLifetimeMillis > 0 && now - pooled.createdAt >= args.maxLifetimeMillis) {
+      return lifetimeEvictions;
+    }
+    if (args.maxIdleMillis > 0 && now - pooled.lastUsed >= args.maxIdleMillis) {
+      return idleEvictions;
+    }
+    return null;
+  }
+
+  private boolean validate(PooledClient<T> pooled, long now) {
+    if (args.validator == null || now - pooled.lastUsed < args.validateAfterIdleMillis) {
+      return true;
+    }
+    try {
+      return args.validator.validate(pooled.client);
+    } catch (RuntimeException e) {
+      LOGGER.debug("Validation of a client of " + pooled.endpoint + " failed", e);
+      return false;
+    }
+  }
+
+  private void destroy(EndpointPool pool, PooledClient<T> pooled) {
+    pool.totalCount.decrementAndGet();
+    try {
+      pooled.transport.close();
+    } catch (RuntimeException e) {
+      LOGGER.debug("Failed to close a client of " + pooled.endpoint, e);
+    }
+  }
+}
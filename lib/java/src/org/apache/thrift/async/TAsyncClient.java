@@ -18,16 +18,23 @@
  */
 package org.apache.thrift.async;
 
+import java.nio.channels.SelectionKey;
+
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TNonblockingTransport;
 
 public abstract class TAsyncClient {
+  private static final int INITIAL_REQUEST_BUFFER_SIZE = 1024;
+
   protected final TProtocolFactory ___protocolFactory;
   protected final TNonblockingTransport ___transport;
   protected final TAsyncClientManager ___manager;
   protected TAsyncMethodCall ___currentMethod;
   private Exception ___error;
   private long ___timeout;
+  private SelectionKey ___selectionKey;
+  private TMemoryBuffer ___requestBuffer;
 
   public TAsyncClient(TProtocolFactory protocolFactory, TAsyncClientManager manager, TNonblockingTransport transport) {
     this(protocolFactory, manager, transport, 0);
@@ -56,6 +63,31 @@ public abstract class TAsyncClient {
     this.___timeout = timeout;
   }
 
+  /**
+   * Key of the transport in the selector of the manager, kept registered across calls
+   */
+  SelectionKey getSelectionKey() {
+    return ___selectionKey;
+  }
+
+  void setSelectionKey(SelectionKey selectionKey) {
+    this.___selectionKey = selectionKey;
+  }
+
+  /**
+   * Get the buffer the arguments of the next call are serialized into. The client only
+   * runs one call at a time, so the buffer is reused by every call.
+   * @return An empty buffer.
+   */
+  TMemoryBuffer getRequestBuffer() {
+    if (___requestBuffer == null) {
+      ___requestBuffer = new TMemoryBuffer(INITIAL_REQUEST_BUFFER_SIZE);
+    } else {
+      ___requestBuffer.reset();
+    }
+    return ___requestBuffer;
+  }
+
   /**
    * Is the client in an error state?
    * @return If client in an error state?
@@ -19,58 +19,197 @@
 package org.apache.thrift.async;
 
 import java.io.IOException;
-import java.io.Serializable;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Contains selector thread which transitions method call objects
+ * Contains selector threads which transition method call objects. Each client
+ * is pinned to one of the selector threads, so the calls of a client are
+ * always handled by the same thread. Timeouts are tracked in a hashed timing
+ * wheel and fire up to one tick after they expire.
  */
 public class TAsyncClientManager {
   private static final Logger LOGGER = LoggerFactory.getLogger(TAsyncClientManager.class.getName());
 
-  private final SelectThread selectThread;
-  private final ConcurrentLinkedQueue<TAsyncMethodCall> pendingCalls = new ConcurrentLinkedQueue<TAsyncMethodCall>();
+  /** Default resolution of the call timeouts. */
+  public static final long DEFAULT_TIMEOUT_TICK_MILLIS = 10;
+
+  private static final int TIMEOUT_WHEEL_BUCKETS = 512;
+
+  private final SelectThread[] selectThreads;
 
   public TAsyncClientManager() throws IOException {
-    this.selectThread = new SelectThread();
-    selectThread.start();
+    this(1);
+  }
+
+  public TAsyncClientManager(int selectorThreads) throws IOException {
+    this(selectorThreads, DEFAULT_TIMEOUT_TICK_MILLIS);
+  }
+
+  /**
+   * @param selectorThreads number of selector threads.
+   * @param timeoutTickMillis resolution of the call timeouts.
+   */
+  public TAsyncClientManager(int selectorThreads, long timeoutTickMillis) throws IOException {
+    if (selectorThreads <= 0) {
+      throw new IllegalArgumentException("selectorThreads must be positive: " + selectorThreads);
+    }
+    this.selectThreads = new SelectThread[selectorThreads];
+    try {
+      for (int i = 0; i < selectorThreads; i++) {
+        selectThreads[i] = new SelectThread(timeoutTickMillis);
+      }
+    } catch (IOException e) {
+      for (SelectThread thread : selectThreads) {
+        if (thread != null) {
+          thread.closeSelector();
+        }
+      }
+      throw e;
+    }
+    for (SelectThread thread : selectThreads) {
+      thread.start();
+    }
   }
 
   public void call(TAsyncMethodCall method) throws TException {
-    if (!isRunning()) {
+    SelectThread selectThread = selectThreadFor(method.getClient());
+    if (!selectThread.isAlive()) {
       throw new TException("SelectThread is not running");
     }
     method.prepareMethodCall();
-    pendingCalls.add(method);
-    selectThread.getSelector().wakeup();
+    selectThread.addPendingCall(method);
   }
 
   public void stop() {
-    selectThread.finish();
+    for (SelectThread thread : selectThreads) {
+      thread.finish();
+    }
   }
 
   public boolean isRunning() {
-    return selectThread.isAlive();
+    for (SelectThread thread : selectThreads) {
+      if (!thread.isAlive()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return a snapshot of the metrics of every selector thread.
+   */
+  public List<SelectorMetrics> getSelectorMetrics() {
+    List<SelectorMetrics> metrics = new ArrayList<SelectorMetrics>(selectThreads.length);
+    for (SelectThread thread : selectThreads) {
+      metrics.add(thread.getMetrics());
+    }
+    return metrics;
+  }
+
+  private SelectThread selectThreadFor(TAsyncClient client) {
+    if (selectThreads.length == 1) {
+      return selectThreads[0];
+    }
+    int hash = System.identityHashCode(client);
+    hash ^= (hash >>> 16);
+    return selectThreads[(hash & Integer.MAX_VALUE) % selectThreads.length];
   }
 
-  private class SelectThread extends Thread {
+  /**
+   * Point in time view of the work of one selector thread.
+   */
+  public static class SelectorMetrics {
+    private final String threadName;
+    private final int pendingCalls;
+    private final int watchedTimeouts;
+    private final long loops;
+    private final long totalLoopNanos;
+    private final long maxLoopNanos;
+
+    SelectorMetrics(String threadName, int pendingCalls, int watchedTimeouts, long loops,
+                    long totalLoopNanos, long maxLoopNanos) {
+      this.threadName = threadName;
+      this.pendingCalls = pendingCalls;
+      this.watchedTimeouts = watchedTimeouts;
+      this.loops = loops;
+      this.totalLoopNanos = totalLoopNanos;
+      this.maxLoopNanos = maxLoopNanos;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /**
+     * @return number of calls waiting to be started by the thread.
+     */
+    public int getPendingCalls() {
+      return pendingCalls;
+    }
+
+    /**
+     * @return number of started calls with a timeout.
+     */
+    public int getWatchedTimeouts() {
+      return watchedTimeouts;
+    }
+
+    /**
+     * @return number of times the thread went through its loop.
+     */
+    public long getLoops() {
+      return loops;
+    }
+
+    /**
+     * @return total time spent processing selected keys, timeouts and new calls.
+     */
+    public long getTotalLoopNanos() {
+      return totalLoopNanos;
+    }
+
+    /**
+     * @return longest time spent in a single pass of the loop.
+     */
+    public long getMaxLoopNanos() {
+      return maxLoopNanos;
+    }
+
+    @Override
+    public String toString() {
+      return threadName + "[pendingCalls=" + pendingCalls + ", watchedTimeouts=" + watchedTimeouts
+          + ", loops=" + loops + ", totalLoopNanos=" + totalLoopNanos + ", maxLoopNanos=" + maxLoopNanos + "]";
+    }
+  }
+
+  private static class SelectThread extends Thread {
     private final Selector selector;
     private volatile boolean running;
-    private final TreeSet<TAsyncMethodCall> timeoutWatchSet = new TreeSet<TAsyncMethodCall>(new TAsyncMethodCallTimeoutComparator());
+    private final ConcurrentLinkedQueue<TAsyncMethodCall> pendingCalls = new ConcurrentLinkedQueue<TAsyncMethodCall>();
+    private final AtomicInteger pendingCallCount = new AtomicInteger();
+    private final TimeoutWheel timeoutWheel;
+    private final List<TAsyncMethodCall<?>> expiredCalls = new ArrayList<TAsyncMethodCall<?>>();
 
-    public SelectThread() throws IOException {
+    private volatile int watchedTimeouts;
+    private volatile long loops;
+    private volatile long totalLoopNanos;
+    private volatile long maxLoopNanos;
+
+    public SelectThread(long timeoutTickMillis) throws IOException {
+      this.timeoutWheel = new TimeoutWheel(timeoutTickMillis, TIMEOUT_WHEEL_BUCKETS, System.currentTimeMillis());
       this.selector = SelectorProvider.provider().openSelector();
       this.running = true;
       this.setName("TAsyncClientManager#SelectorThread " + this.getId());
@@ -83,6 +222,17 @@ public class TAsyncClientManager {
       return selector;
     }
 
+    public void addPendingCall(TAsyncMethodCall methodCall) {
+      pendingCalls.add(methodCall);
+      pendingCallCount.incrementAndGet();
+      selector.wakeup();
+    }
+
+    public SelectorMetrics getMetrics() {
+      return new SelectorMetrics(getName(), pendingCallCount.get(), watchedTimeouts, loops,
+          totalLoopNanos, maxLoopNanos);
+    }
+
     public void finish() {
       running = false;
       selector.wakeup();
@@ -92,32 +242,31 @@ public class TAsyncClientManager {
       while (running) {
         try {
           try {
-            if (timeoutWatchSet.size() == 0) {
+            long selectTime = timeoutWheel.millisToNextTick(System.currentTimeMillis());
+            if (selectTime == 0) {
               // No timeouts, so select indefinitely
               selector.select();
             } else {
-              // We have a timeout pending, so calculate the time until then and select appropriately
-              long nextTimeout = timeoutWatchSet.first().getTimeoutTimestamp();
-              long selectTime = nextTimeout - System.currentTimeMillis();
-              if (selectTime > 0) {
-                // Next timeout is in the future, select and wake up then
-                selector.select(selectTime);
-              } else {
-                // Next timeout is now or in past, select immediately so we can time out
-                selector.selectNow();
-              }
+              // We have a timeout pending, so wake up at the end of the current tick
+              selector.select(selectTime);
             }
           } catch (IOException e) {
             LOGGER.error("Caught IOException in TAsyncClientManager!", e);
           }
+          long loopStart = System.nanoTime();
           transitionMethods();
           timeoutMethods();
           startPendingMethods();
+          recordLoop(System.nanoTime() - loopStart);
         } catch (Exception exception) {
           LOGGER.error("Ignoring uncaught exception in SelectThread", exception);
         }
       }
 
+      closeSelector();
+    }
+
+    private void closeSelector() {
       try {
         selector.close();
       } catch (IOException ex) {
@@ -125,6 +274,16 @@ public class TAsyncClientManager {
       }
     }
 
+    private void recordLoop(long loopNanos) {
+      // Only written by this thread
+      loops++;
+      totalLoopNanos += loopNanos;
+      if (loopNanos > maxLoopNanos) {
+        maxLoopNanos = loopNanos;
+      }
+      watchedTimeouts = timeoutWheel.size();
+    }
+
     // Transition methods for ready keys
     private void transitionMethods() {
       try {
@@ -142,9 +301,9 @@ public class TAsyncClientManager {
           TAsyncMethodCall methodCall = (TAsyncMethodCall)key.attachment();
           methodCall.transition(key);
 
-          // If done or error occurred, remove from timeout watch set
+          // If done or error occurred, remove from timeout wheel
           if (methodCall.isFinished() || methodCall.getClient().hasError()) {
-            timeoutWatchSet.remove(methodCall);
+            timeoutWheel.remove(methodCall);
           }
         }
       } catch (ClosedSelectorException e) {
@@ -154,31 +313,28 @@ public class TAsyncClientManager {
 
     // Timeout any existing method calls
     private void timeoutMethods() {
-      Iterator<TAsyncMethodCall> iterator = timeoutWatchSet.iterator();
       long currentTime = System.currentTimeMillis();
-      while (iterator.hasNext()) {
-        TAsyncMethodCall methodCall = iterator.next();
-        if (currentTime >= methodCall.getTimeoutTimestamp()) {
-          iterator.remove();
-          methodCall.onError(new TimeoutException("Operation " + methodCall.getClass() + " timed out after " + (currentTime - methodCall.getStartTime()) + " ms."));
-        } else {
-          break;
-        }
+      timeoutWheel.expire(currentTime, expiredCalls);
+      for (int i = 0; i < expiredCalls.size(); i++) {
+        TAsyncMethodCall<?> methodCall = expiredCalls.get(i);
+        methodCall.onError(new TimeoutException("Operation " + methodCall.getClass() + " timed out after " + (currentTime - methodCall.getStartTime()) + " ms."));
       }
+      expiredCalls.clear();
     }
 
     // Start any new calls
     private void startPendingMethods() {
       TAsyncMethodCall methodCall;
       while ((methodCall = pendingCalls.poll()) != null) {
+        pendingCallCount.decrementAndGet();
         // Catch registration errors. method will catch transition errors and cleanup.
         try {
           methodCall.start(selector);
 
-          // If timeout specified and first transition went smoothly, add to timeout watch set
+          // If timeout specified and first transition went smoothly, add to timeout wheel
           TAsyncClient client = methodCall.getClient();
-          if (client.hasTimeout() && !client.hasError()) {
-            timeoutWatchSet.add(methodCall);
+          if (methodCall.hasTimeout() && !client.hasError()) {
+            timeoutWheel.add(methodCall);
           }
         } catch (Exception exception) {
           LOGGER.warn("Caught exception in TAsyncClientManager!", exception);
@@ -187,15 +343,4 @@ public class TAsyncClientManager {
       }
     }
   }
-
-  /** Comparator used in TreeSet */
-  private static class TAsyncMethodCallTimeoutComparator implements Comparator<TAsyncMethodCall>, Serializable {
-    public int compare(TAsyncMethodCall left, TAsyncMethodCall right) {
-      if (left.getTimeoutTimestamp() == right.getTimeoutTimestamp()) {
-        return (int)(left.getSequenceId() - right.getSequenceId());
-      } else {
-        return (int)(left.getTimeoutTimestamp() - right.getTimeoutTimestamp());
-      }
-    }
-  }
 }
@@ -22,8 +22,10 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.thrift.TDeadline;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
@@ -45,7 +47,6 @@ import org.apache.thrift.transport.TTransportException;
  */
 public abstract class TAsyncMethodCall<T> {
 
-  private static final int INITIAL_MEMORY_BUFFER_SIZE = 128;
   private static AtomicLong sequenceIdCounter = new AtomicLong(0);
 
   public static enum State {
@@ -71,12 +72,20 @@ public abstract class TAsyncMethodCall<T> {
   private long sequenceId;
   private final long timeout;
 
-  private ByteBuffer sizeBuffer;
   private final byte[] sizeBufferArray = new byte[4];
+  private final ByteBuffer sizeBuffer = ByteBuffer.wrap(sizeBufferArray);
   private ByteBuffer frameBuffer;
+  // The frame size and the frame body, written together
+  private final ByteBuffer[] requestBuffers = new ByteBuffer[2];
 
   private long startTime = System.currentTimeMillis();
 
+  // Links of the timeout wheel bucket this call is in, maintained by TimeoutWheel
+  TAsyncMethodCall<?> timeoutPrev;
+  TAsyncMethodCall<?> timeoutNext;
+  long timeoutTick;
+  int timeoutBucket = -1;
+
   protected TAsyncMethodCall(TAsyncClient client, TProtocolFactory protocolFactory, TNonblockingTransport transport, AsyncMethodCallback<T> callback, boolean isOneway) {
     this.transport = transport;
     this.callback = callback;
@@ -84,7 +93,16 @@ public abstract class TAsyncMethodCall<T> {
     this.client = client;
     this.isOneway = isOneway;
     this.sequenceId = TAsyncMethodCall.sequenceIdCounter.getAndIncrement();
-    this.timeout = client.getTimeout();
+    this.timeout = effectiveTimeout(client.getTimeout(), TDeadline.current());
+  }
+
+  // The call times out at the current deadline if it comes before the client timeout
+  private static long effectiveTimeout(long clientTimeout, TDeadline deadline) {
+    if (deadline == null) {
+      return clientTimeout;
+    }
+    long remaining = Math.max(1, deadline.remaining(TimeUnit.MILLISECONDS));
+    return clientTimeout > 0 ? Math.min(clientTimeout, remaining) : remaining;
   }
 
   protected State getState() {
@@ -120,11 +138,11 @@ public abstract class TAsyncMethodCall<T> {
   protected abstract T getResult() throws Exception;
 
   /**
-   * Initialize buffers.
+   * Initialize buffers. The arguments are serialized into the request buffer of the client.
    * @throws TException if buffer initialization fails
    */
   protected void prepareMethodCall() throws TException {
-    TMemoryBuffer memoryBuffer = new TMemoryBuffer(INITIAL_MEMORY_BUFFER_SIZE);
+    TMemoryBuffer memoryBuffer = client.getRequestBuffer();
     TProtocol protocol = protocolFactory.getProtocol(memoryBuffer);
     write_args(protocol);
 
@@ -132,21 +150,31 @@ public abstract class TAsyncMethodCall<T> {
     frameBuffer = ByteBuffer.wrap(memoryBuffer.getArray(), 0, length);
 
     TFramedTransport.encodeFrameSize(length, sizeBufferArray);
-    sizeBuffer = ByteBuffer.wrap(sizeBufferArray);
+    sizeBuffer.clear();
+    requestBuffers[0] = sizeBuffer;
+    requestBuffers[1] = frameBuffer;
   }
 
   /**
    * Register with selector and start first state, which could be either connecting or writing.
+   * The key of an open transport stays registered between the calls of the client, so only
+   * its interest ops change.
    * @throws IOException if register or starting fails
    */
   void start(Selector sel) throws IOException {
-    SelectionKey key;
+    SelectionKey key = client.getSelectionKey();
     if (transport.isOpen()) {
-      state = State.WRITING_REQUEST_SIZE;
-      key = transport.registerSelector(sel, SelectionKey.OP_WRITE);
+      if (key == null || !key.isValid() || key.selector() != sel) {
+        key = transport.registerSelector(sel, 0);
+        client.setSelectionKey(key);
+      }
+      key.attach(this);
+      registerForFirstWrite(key);
     } else {
       state = State.CONNECTING;
       key = transport.registerSelector(sel, SelectionKey.OP_CONNECT);
+      client.setSelectionKey(key);
+      key.attach(this);
 
       // non-blocking connect can complete immediately,
       // in which case we should not expect the OP_CONNECT
@@ -154,8 +182,6 @@ public abstract class TAsyncMethodCall<T> {
         registerForFirstWrite(key);
       }
     }
-
-    key.attach(this);
   }
 
   void registerForFirstWrite(SelectionKey key) throws IOException {
@@ -189,10 +215,8 @@ public abstract class TAsyncMethodCall<T> {
           doConnecting(key);
           break;
         case WRITING_REQUEST_SIZE:
-          doWritingRequestSize();
-          break;
         case WRITING_REQUEST_BODY:
-          doWritingRequestBody(key);
+          doWritingRequest(key);
           break;
         case READING_RESPONSE_SIZE:
           doReadingResponseSize();
@@ -251,10 +275,14 @@ public abstract class TAsyncMethodCall<T> {
     }
   }
 
-  private void doWritingRequestBody(SelectionKey key) throws IOException {
-    if (transport.write(frameBuffer) < 0) {
+  // Writes the frame size and the frame body with a single gathering write
+  private void doWritingRequest(SelectionKey key) throws IOException {
+    if (transport.write(requestBuffers) < 0) {
       throw new IOException("Write call frame failed");
     }
+    if (sizeBuffer.remaining() == 0) {
+      state = State.WRITING_REQUEST_BODY;
+    }
     if (frameBuffer.remaining() == 0) {
       if (isOneway) {
         cleanUpAndFireCallback(key);
@@ -266,15 +294,6 @@ public abstract class TAsyncMethodCall<T> {
     }
   }
 
-  private void doWritingRequestSize() throws IOException {
-    if (transport.write(sizeBuffer) < 0) {
-      throw new IOException("Write call frame size failed");
-    }
-    if (sizeBuffer.remaining() == 0) {
-      state = State.WRITING_REQUEST_BODY;
-    }
-  }
-
   private void doConnecting(SelectionKey key) throws IOException {
     if (!key.isConnectable() || !transport.finishConnect()) {
       throw new IOException("not connectable or finishConnect returned false after we got an OP_CONNECT");
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.thrift.TDeadline;
+import org.apache.thrift.TException;
+import org.apache.thrift.THedgingPolicy;
+import org.apache.thrift.TLoadBalancer;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Sends the async calls of a replicated service to the endpoint picked by a
+ * {@link TLoadBalancer}. An async client runs one call at a time, so every endpoint keeps
+ * the clients which completed their last call for the next ones. A client is dropped after
+ * any error, since the async clients close their transport when a call fails.
+ *
+ * @param <C> the type of the async clients.
+ */
+public class TLoadBalancedAsyncClient<C extends TAsyncClient> implements Closeable {
+
+  /**
+   * Starts a call on the given client, which must report to the given callback.
+   */
+  public interface AsyncInvocation<C, R> {
+    void invoke(C client, AsyncMethodCallback<R> callback) throws TException;
+  }
+
+  private static final class PooledClient<C> {
+    final C client;
+    final TNonblockingSocket transport;
+
+    PooledClient(C client, TNonblockingSocket transport) {
+      this.client = client;
+      this.transport = transport;
+    }
+  }
+
+  private static final class IdleClients<C> {
+    final ConcurrentLinkedQueue<PooledClient<C>> queue = new ConcurrentLinkedQueue<PooledClient<C>>();
+    final AtomicInteger count = new AtomicInteger();
+  }
+
+  private final TLoadBalancer balancer;
+  private final TAsyncClientFactory<C> clientFactory;
+  private final long timeoutMillis;
+  private final int maxIdlePerEndpoint;
+  private final Map<InetSocketAddress, IdleClients<C>> idleClients = new HashMap<InetSocketAddress, IdleClients<C>>();
+  private volatile boolean closed = false;
+  private ScheduledExecutorService hedgeScheduler;
+
+  /**
+   * @param balancer picks the endpoints.
+   * @param clientFactory creates the clients of the endpoints.
+   * @param timeoutMillis timeout of the calls, 0 for none.
+   * @param maxIdlePerEndpoint number of clients kept for each endpoint between calls.
+   */
+  public TLoadBalancedAsyncClient(TLoadBalancer balancer, TAsyncClientFactory<C> clientFactory,
+                                  long timeoutMillis, int maxIdlePerEndpoint) {
+    this.balancer = balancer;
+    this.clientFactory = clientFactory;
+    this.timeoutMillis = timeoutMillis;
+    this.maxIdlePerEndpoint = maxIdlePerEndpoint;
+    for (TLoadBalancer.Endpoint endpoint : balancer.getEndpoints()) {
+      idleClients.put(endpoint.getAddress(), new IdleClients<C>());
+    }
+  }
+
+  public TLoadBalancer getBalancer() {
+    return balancer;
+  }
+
+  /**
+   * Start a call on a client of the endpoint picked by the balancer.
+   *
+   * @throws TException if the call cannot be started, the callback is not invoked then.
+   */
+  public <R> void execute(AsyncInvocation<C, R> invocation, AsyncMethodCallback<R> callback) throws TException {
+    start(invocation, callback, null);
+  }
+
+  /**
+   * Start a call on a client of the endpoint picked by the balancer, and hedge it on another
+   * endpoint if it is slower than the policy allows. The callback gets the first response, or
+   * the last error if every attempt fails.
+   *
+   * @throws TException if the call cannot be started, the callback is not invoked then.
+   */
+  public <R> void executeHedged(final AsyncInvocation<C, R> invocation, final AsyncMethodCallback<R> callback,
+                                final THedgingPolicy policy) throws TException {
+    policy.onCall();
+    final TDeadline deadline = TDeadline.current();
+    final long start = System.nanoTime();
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicInteger pending = new AtomicInteger(1);
+    final AtomicReference<ScheduledFuture<?>> hedge = new AtomicReference<ScheduledFuture<?>>();
+    final AsyncMethodCallback<R> hedgedCallback = new AsyncMethodCallback<R>() {
+      @Override
+      public void onComplete(R response) {
+        if (done.compareAndSet(false, true)) {
+          cancel(hedge.get());
+          policy.recordLatency(System.nanoTime() - start);
+          callback.onComplete(response);
+        }
+      }
+
+      @Override
+      public void onError(Exception exception) {
+        if (pending.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+          cancel(hedge.get());
+          callback.onError(exception);
+        }
+      }
+    };
+    final TLoadBalancer.Endpoint endpoint = start(invocation, hedgedCallback, null);
+
+    long delay = policy.getHedgeDelay(TimeUnit.NANOSECONDS);
+    if (delay < 0 || (deadline != null && deadline.remaining(TimeUnit.NANOSECONDS) <= delay)) {
+      return;
+    }
+    hedge.set(scheduler().schedule(new Runnable() {
+      @Override
+      public void run() {
+        if (done.get() || closed || !policy.tryHedge()) {
+          return;
+        }
+        pending.incrementAndGet();
+        TDeadline previous = TDeadline.setCurrent(deadline);
+        try {
+          start(invocation, hedgedCallback, endpoint);
+        } catch (TException | RuntimeException e) {
+          hedgedCallback.onError(e);
+        } finally {
+          TDeadline.setCurrent(previous);
+        }
+      }
+    }, delay, TimeUnit.NANOSECONDS));
+    if (done.get()) {
+      cancel(hedge.get());
+    }
+  }
+
+  private <R> TLoadBalancer.Endpoint start(AsyncInvocation<C, R> invocation, final AsyncMethodCallback<R> callback,
+                                           TLoadBalancer.Endpoint excluded) throws TException {
+    if (closed) {
+      throw new TException("Client is closed");
+    }
+    final TLoadBalancer.Endpoint endpoint = balancer.select(excluded);
+    final IdleClients<C> idle = idleClients.get(endpoint.getAddress());
+    final PooledClient<C> pooled;
+    try {
+      pooled = borrow(endpoint.getAddress(), idle);
+    } catch (IOException e) {
+      balancer.recordFailure(endpoint, true);
+      throw new TTransportException(TTransportException.NOT_OPEN, e);
+    }
+
+    final long start = System.nanoTime();
+    AsyncMethodCallback<R> balancedCallback = new AsyncMethodCallback<R>() {
+      @Override
+      public void onComplete(R response) {
+        balancer.recordSuccess(endpoint, System.nanoTime() - start);
+        release(idle, pooled);
+        callback.onComplete(response);
+      }
+
+      @Override
+      public void onError(Exception exception) {
+        if (isResponse(exception)) {
+          balancer.recordSuccess(endpoint, System.nanoTime() - start);
+        } else {
+          balancer.recordFailure(endpoint, TLoadBalancer.shouldEject(exception));
+        }
+        pooled.transport.close();
+        callback.onError(exception);
+      }
+    };
+    try {
+      invocation.invoke(pooled.client, balancedCallback);
+    } catch (TException | RuntimeException e) {
+      balancer.recordFailure(endpoint, false);
+      pooled.transport.close();
+      throw e;
+    }
+    return endpoint;
+  }
+
+  /**
+   * Close the idle clients, clients running a call are closed when it completes.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (this) {
+      if (hedgeScheduler != null) {
+        hedgeScheduler.shutdownNow();
+      }
+    }
+    for (IdleClients<C> idle : idleClients.values()) {
+      PooledClient<C> pooled;
+      while ((pooled = idle.queue.poll()) != null) {
+        idle.count.decrementAndGet();
+        pooled.transport.close();
+      }
+    }
+  }
+
+  private synchronized ScheduledExecutorService scheduler() {
+    if (hedgeScheduler == null) {
+      hedgeScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "TLoadBalancedAsyncClient-hedger");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return hedgeScheduler;
+  }
+
+  private static void cancel(ScheduledFuture<?> hedge) {
+    if (hedge != null) {
+      hedge.cancel(false);
+    }
+  }
+
+  private PooledClient<C> borrow(InetSocketAddress address, IdleClients<C> idle) throws IOException {
+    PooledClient<C> pooled;
+    while ((pooled = idle.queue.poll()) != null) {
+      idle.count.decrementAndGet();
+      if (!pooled.client.hasError() && pooled.transport.isOpen()) {
+        return pooled;
+      }
+      pooled.transport.close();
+    }
+    TNonblockingSocket transport = new TNonblockingSocket(address.getHostString(), address.getPort());
+    C client = clientFactory.getAsyncClient(transport);
+    if (timeoutMillis > 0) {
+      client.setTimeout(timeoutMillis);
+    }
+    return new PooledClient<C>(client, transport);
+  }
+
+  private void release(IdleClients<C> idle, PooledClient<C> pooled) {
+    if (closed || idle.count.incrementAndGet() > maxIdlePerEndpoint) {
+      idle.count.decrementAndGet();
+      pooled.transport.close();
+      return;
+    }
+    idle.queue.offer(pooled);
+  }
+
+  // Errors which do not come from the endpoint itself are failures, the others are responses
+  private static boolean isResponse(Exception exception) {
+    return !(exception instanceof IOException || exception instanceof TTransportException
+        || exception instanceof TProtocolException || exception instanceof TimeoutException
+        || exception instanceof RuntimeException);
+  }
+}
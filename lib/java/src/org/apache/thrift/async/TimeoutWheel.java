@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import java.util.List;
+
+/**
+ * Hashed timing wheel tracking the timeouts of method calls, owned by a single selector thread.
+ * Time is divided into ticks, and each call is linked into the bucket of the tick its timeout
+ * falls into, so adding and removing a call is constant time and allocation free. Calls expire
+ * at the end of their tick, so timeouts fire up to one tick late.
+ */
+class TimeoutWheel {
+
+  private final long tickMillis;
+  private final TAsyncMethodCall<?>[] buckets;
+  private final int mask;
+  // Last tick whose bucket has been expired.
+  private long currentTick;
+  private int size = 0;
+
+  /**
+   * @param tickMillis duration of a tick.
+   * @param numBuckets number of buckets, rounded up to a power of two.
+   * @param nowMillis current time.
+   */
+  TimeoutWheel(long tickMillis, int numBuckets, long nowMillis) {
+    if (tickMillis <= 0) {
+      throw new IllegalArgumentException("Tick duration must be positive: " + tickMillis);
+    }
+    int capacity = Integer.highestOneBit(Math.max(1, numBuckets - 1)) << 1;
+    this.tickMillis = tickMillis;
+    this.buckets = new TAsyncMethodCall<?>[capacity];
+    this.mask = capacity - 1;
+    this.currentTick = nowMillis / tickMillis;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void add(TAsyncMethodCall<?> methodCall) {
+    remove(methodCall);
+    long deadline = methodCall.getTimeoutTimestamp();
+    long deadlineTick = (deadline + tickMillis - 1) / tickMillis;
+    if (deadlineTick <= currentTick) {
+      deadlineTick = currentTick + 1;
+    }
+    int bucket = (int) (deadlineTick & mask);
+    methodCall.timeoutTick = deadlineTick;
+    methodCall.timeoutBucket = bucket;
+    methodCall.timeoutPrev = null;
+    methodCall.timeoutNext = buckets[bucket];
+    if (buckets[bucket] != null) {
+      buckets[bucket].timeoutPrev = methodCall;
+    }
+    buckets[bucket] = methodCall;
+    size++;
+  }
+
+  /**
+   * Remove the call if it is in the wheel, do nothing otherwise.
+   */
+  void remove(TAsyncMethodCall<?> methodCall) {
+    int bucket = methodCall.timeoutBucket;
+    if (bucket < 0) {
+      return;
+    }
+    if (methodCall.timeoutPrev == null) {
+      buckets[bucket] = methodCall.timeoutNext;
+    } else {
+      methodCall.timeoutPrev.timeoutNext = methodCall.timeoutNext;
+    }
+    if (methodCall.timeoutNext != null) {
+      methodCall.timeoutNext.timeoutPrev = methodCall.timeoutPrev;
+    }
+    methodCall.timeoutPrev = null;
+    methodCall.timeoutNext = null;
+    methodCall.timeoutBucket = -1;
+    size--;
+  }
+
+  /**
+   * Remove all the calls whose tick has passed.
+   *
+   * @param nowMillis current time.
+   * @param expired list to add the expired calls to.
+   */
+  void expire(long nowMillis, List<TAsyncMethodCall<?>> expired) {
+    long nowTick = nowMillis / tickMillis;
+    if (size == 0 || nowTick <= currentTick) {
+      currentTick = Math.max(currentTick, nowTick);
+      return;
+    }
+    // Each bucket needs to be visited at most once, even after a long pause.
+    long ticks = Math.min(nowTick - currentTick, buckets.length);
+    for (long i = 1; i <= ticks; i++) {
+      TAsyncMethodCall<?> methodCall = buckets[(int) ((currentTick + i) & mask)];
+      while (methodCall != null) {
+        TAsyncMethodCall<?> next = methodCall.timeoutNext;
+        if (methodCall.timeoutTick <= nowTick) {
+          remove(methodCall);
+          expired.add(methodCall);
+        }
+        methodCall = next;
+      }
+    }
+    currentTick = nowTick;
+  }
+
+  /**
+   * @param nowMillis current time.
+   * @return milliseconds until the end of the current tick, or 0 if the wheel is empty.
+   */
+  long millisToNextTick(long nowMillis) {
+    if (size == 0) {
+      return 0;
+    }
+    return Math.max(1, (currentTick + 1) * tickMillis - nowMillis);
+  }
+}
@@ -20,7 +20,7 @@
 package org.apache.thrift.protocol;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.LongBuffer;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransport;
@@ -54,6 +54,12 @@ public class TBinaryProtocol extends TProtocol {
 
   private final byte[] inoutTemp = new byte[8];
 
+  // Bulk writes, and bulk reads not served by the transport buffer, go through this
+  private static final int BULK_BUFFER_SIZE = 4096;
+  private byte[] bulkTemp;
+
+  private TStringCache stringCache_;
+
   /**
    * Factory
    */
@@ -62,6 +68,7 @@ public class TBinaryProtocol extends TProtocol {
     protected long containerLengthLimit_;
     protected boolean strictRead_;
     protected boolean strictWrite_;
+    protected TStringCache stringCache_;
 
     public Factory() {
       this(false, true);
@@ -82,8 +89,18 @@ public class TBinaryProtocol extends TProtocol {
       strictWrite_ = strictWrite;
     }
 
+    /**
+     * Sets the string cache of the protocols made from now on, null for none.
+     */
+    public void setStringCache(TStringCache stringCache) {
+      stringCache_ = stringCache;
+    }
+
     public TProtocol getProtocol(TTransport trans) {
-      return new TBinaryProtocol(trans, stringLengthLimit_, containerLengthLimit_, strictRead_, strictWrite_);
+      TBinaryProtocol protocol =
+          new TBinaryProtocol(trans, stringLengthLimit_, containerLengthLimit_, strictRead_, strictWrite_);
+      protocol.setStringCache(stringCache_);
+      return protocol;
     }
   }
 
@@ -110,6 +127,17 @@ public class TBinaryProtocol extends TProtocol {
     strictWrite_ = strictWrite;
   }
 
+  /**
+   * Sets the cache which dedups the strings read, null for none.
+   */
+  public void setStringCache(TStringCache stringCache) {
+    stringCache_ = stringCache;
+  }
+
+  public TStringCache getStringCache() {
+    return stringCache_;
+  }
+
   @Override
   public void writeMessageBegin(TMessage message) throws TException {
     if (strictWrite_) {
@@ -220,11 +248,67 @@ public class TBinaryProtocol extends TProtocol {
     writeI64(Double.doubleToLongBits(dub));
   }
 
+  @Override
+  public void writeByteArray(byte[] values, int offset, int length) throws TException {
+    trans_.write(values, offset, length);
+  }
+
+  @Override
+  public void writeI16Array(short[] values, int offset, int length) throws TException {
+    ByteBuffer buf = bulkWriteBuffer();
+    while (length > 0) {
+      int n = Math.min(length, BULK_BUFFER_SIZE / 2);
+      buf.asShortBuffer().put(values, offset, n);
+      trans_.write(bulkTemp, 0, n * 2);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  @Override
+  public void writeI32Array(int[] values, int offset, int length) throws TException {
+    ByteBuffer buf = bulkWriteBuffer();
+    while (length > 0) {
+      int n = Math.min(length, BULK_BUFFER_SIZE / 4);
+      buf.asIntBuffer().put(values, offset, n);
+      trans_.write(bulkTemp, 0, n * 4);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  @Override
+  public void writeI64Array(long[] values, int offset, int length) throws TException {
+    ByteBuffer buf = bulkWriteBuffer();
+    while (length > 0) {
+      int n = Math.min(length, BULK_BUFFER_SIZE / 8);
+      buf.asLongBuffer().put(values, offset, n);
+      trans_.write(bulkTemp, 0, n * 8);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  @Override
+  public void writeDoubleArray(double[] values, int offset, int length) throws TException {
+    ByteBuffer buf = bulkWriteBuffer();
+    while (length > 0) {
+      int n = Math.min(length, BULK_BUFFER_SIZE / 8);
+      LongBuffer bits = buf.asLongBuffer();
+      for (int i = 0; i < n; i++) {
+        bits.put(Double.doubleToLongBits(values[offset + i]));
+      }
+      trans_.write(bulkTemp, 0, n * 8);
+      offset += n;
+      length -= n;
+    }
+  }
+
   @Override
   public void writeString(String str) throws TException {
-    byte[] dat = str.getBytes(StandardCharsets.UTF_8);
-    writeI32(dat.length);
-    trans_.write(dat, 0, dat.length);
+    // Encoded through the bulk buffer, with the length computed up front
+    writeI32(TUtf8.encodedLength(str));
+    TUtf8.write(str, bulkBuffer(), trans_);
   }
 
   @Override
@@ -273,6 +357,13 @@ public class TBinaryProtocol extends TProtocol {
     return new TField("", type, id);
   }
 
+  @Override
+  public int readFieldHeader() throws TException {
+    byte type = readByte();
+    short id = type == TType.STOP ? 0 : readI16();
+    return TField.packHeader(type, id);
+  }
+
   @Override
   public void readFieldEnd() throws TException {}
 
@@ -283,6 +374,15 @@ public class TBinaryProtocol extends TProtocol {
     return map;
   }
 
+  @Override
+  public int readMapBeginSize() throws TException {
+    readByte();
+    readByte();
+    int size = readI32();
+    checkContainerReadLength(size);
+    return size;
+  }
+
   @Override
   public void readMapEnd() throws TException {}
 
@@ -293,6 +393,14 @@ public class TBinaryProtocol extends TProtocol {
     return list;
   }
 
+  @Override
+  public int readListBeginSize() throws TException {
+    readByte();
+    int size = readI32();
+    checkContainerReadLength(size);
+    return size;
+  }
+
   @Override
   public void readListEnd() throws TException {}
 
@@ -303,6 +411,11 @@ public class TBinaryProtocol extends TProtocol {
     return set;
   }
 
+  @Override
+  public int readSetBeginSize() throws TException {
+    return readListBeginSize();
+  }
+
   @Override
   public void readSetEnd() throws TException {}
 
@@ -389,6 +502,55 @@ public class TBinaryProtocol extends TProtocol {
     return Double.longBitsToDouble(readI64());
   }
 
+  @Override
+  public void readByteArray(byte[] values, int offset, int length) throws TException {
+    readAll(values, offset, length);
+  }
+
+  @Override
+  public void readI16Array(short[] values, int offset, int length) throws TException {
+    while (length > 0) {
+      ByteBuffer buf = bulkReadBuffer(length, 2);
+      int n = buf.remaining() / 2;
+      buf.asShortBuffer().get(values, offset, n);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  @Override
+  public void readI32Array(int[] values, int offset, int length) throws TException {
+    while (length > 0) {
+      ByteBuffer buf = bulkReadBuffer(length, 4);
+      int n = buf.remaining() / 4;
+      buf.asIntBuffer().get(values, offset, n);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  @Override
+  public void readI64Array(long[] values, int offset, int length) throws TException {
+    while (length > 0) {
+      ByteBuffer buf = bulkReadBuffer(length, 8);
+      int n = buf.remaining() / 8;
+      buf.asLongBuffer().get(values, offset, n);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  @Override
+  public void readDoubleArray(double[] values, int offset, int length) throws TException {
+    while (length > 0) {
+      ByteBuffer buf = bulkReadBuffer(length, 8);
+      int n = buf.remaining() / 8;
+      buf.asDoubleBuffer().get(values, offset, n);
+      offset += n;
+      length -= n;
+    }
+  }
+
   @Override
   public String readString() throws TException {
     int size = readI32();
@@ -396,8 +558,7 @@ public class TBinaryProtocol extends TProtocol {
     checkStringReadLength(size);
 
     if (trans_.getBytesRemainingInBuffer() >= size) {
-      String s = new String(trans_.getBuffer(), trans_.getBufferPosition(),
-          size, StandardCharsets.UTF_8);
+      String s = decodeString(trans_.getBuffer(), trans_.getBufferPosition(), size);
       trans_.consumeBuffer(size);
       return s;
     }
@@ -407,9 +568,22 @@ public class TBinaryProtocol extends TProtocol {
 
   public String readStringBody(int size) throws TException {
     checkStringReadLength(size);
-    byte[] buf = new byte[size];
+    byte[] buf = size <= BULK_BUFFER_SIZE ? bulkBuffer() : new byte[size];
     trans_.readAll(buf, 0, size);
-    return new String(buf, StandardCharsets.UTF_8);
+    return decodeString(buf, 0, size);
+  }
+
+  private String decodeString(byte[] buf, int off, int len) {
+    if (stringCache_ != null) {
+      return stringCache_.get(buf, off, len);
+    }
+    return TUtf8.decode(buf, off, len);
+  }
+
+  @Override
+  public ByteBuffer readStringBytes() throws TException {
+    // Strings are written as their UTF-8 bytes, like binaries
+    return readBinary();
   }
 
   @Override
@@ -454,4 +628,33 @@ public class TBinaryProtocol extends TProtocol {
   private int readAll(byte[] buf, int off, int len) throws TException {
     return trans_.readAll(buf, off, len);
   }
+
+  private byte[] bulkBuffer() {
+    if (bulkTemp == null) {
+      bulkTemp = new byte[BULK_BUFFER_SIZE];
+    }
+    return bulkTemp;
+  }
+
+  private ByteBuffer bulkWriteBuffer() {
+    return ByteBuffer.wrap(bulkBuffer());
+  }
+
+  /**
+   * Returns big-endian bytes of the next values of a bulk read, at most count values of
+   * the given width. They are taken from the transport buffer when it holds at least one
+   * value, and read into the bulk buffer otherwise.
+   */
+  private ByteBuffer bulkReadBuffer(int count, int width) throws TException {
+    int available = trans_.getBytesRemainingInBuffer() / width;
+    if (available > 0) {
+      int len = Math.min(count, available) * width;
+      ByteBuffer buf = ByteBuffer.wrap(trans_.getBuffer(), trans_.getBufferPosition(), len);
+      trans_.consumeBuffer(len);
+      return buf;
+    }
+    int len = Math.min(count, BULK_BUFFER_SIZE / width) * width;
+    readAll(bulkBuffer(), 0, len);
+    return ByteBuffer.wrap(bulkTemp, 0, len);
+  }
 }
@@ -22,7 +22,7 @@ package org.apache.thrift.protocol;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteOrder;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransport;
@@ -68,6 +68,7 @@ public class TCompactProtocol extends TProtocol {
   public static class Factory implements TProtocolFactory {
     private final long stringLengthLimit_;
     private final long containerLengthLimit_;
+    private TStringCache stringCache_;
 
     public Factory() {
       this(NO_LENGTH_LIMIT, NO_LENGTH_LIMIT);
@@ -82,8 +83,17 @@ public class TCompactProtocol extends TProtocol {
       this.stringLengthLimit_ = stringLengthLimit;
     }
 
+    /**
+     * Sets the string cache of the protocols made from now on, null for none.
+     */
+    public void setStringCache(TStringCache stringCache) {
+      stringCache_ = stringCache;
+    }
+
     public TProtocol getProtocol(TTransport trans) {
-      return new TCompactProtocol(trans, stringLengthLimit_, containerLengthLimit_);
+      TCompactProtocol protocol = new TCompactProtocol(trans, stringLengthLimit_, containerLengthLimit_);
+      protocol.setStringCache(stringCache_);
+      return protocol;
     }
   }
 
@@ -151,6 +161,15 @@ public class TCompactProtocol extends TProtocol {
    */
   private final byte[] temp = new byte[10];
 
+  /**
+   * Buffer the bulk writes encode into, and the bulk reads of doubles not served by
+   * the transport buffer read into. Allocated on first use.
+   */
+  private static final int BULK_BUFFER_SIZE = 4096;
+  private byte[] bulkTemp;
+
+  private TStringCache stringCache_;
+
   /**
    * Create a TCompactProtocol.
    *
@@ -188,6 +207,17 @@ public class TCompactProtocol extends TProtocol {
     this(transport, NO_LENGTH_LIMIT, NO_LENGTH_LIMIT);
   }
 
+  /**
+   * Sets the cache which dedups the strings read, null for none.
+   */
+  public void setStringCache(TStringCache stringCache) {
+    stringCache_ = stringCache;
+  }
+
+  public TStringCache getStringCache() {
+    return stringCache_;
+  }
+
   @Override
   public void reset() {
     lastField_.clear();
@@ -357,12 +387,87 @@ public class TCompactProtocol extends TProtocol {
     trans_.write(temp, 0, 8);
   }
 
+  @Override
+  public void writeByteArray(byte[] values, int offset, int length) throws TException {
+    trans_.write(values, offset, length);
+  }
+
+  /**
+   * Write i16s as zigzag varints, encoding them into the bulk buffer first.
+   */
+  @Override
+  public void writeI16Array(short[] values, int offset, int length) throws TException {
+    byte[] buf = bulkBuffer();
+    int pos = 0;
+    for (int i = offset; i < offset + length; i++) {
+      if (pos > BULK_BUFFER_SIZE - 5) {
+        trans_.write(buf, 0, pos);
+        pos = 0;
+      }
+      pos = putVarint32(intToZigZag(values[i]), buf, pos);
+    }
+    trans_.write(buf, 0, pos);
+  }
+
+  /**
+   * Write i32s as zigzag varints, encoding them into the bulk buffer first.
+   */
+  @Override
+  public void writeI32Array(int[] values, int offset, int length) throws TException {
+    byte[] buf = bulkBuffer();
+    int pos = 0;
+    for (int i = offset; i < offset + length; i++) {
+      if (pos > BULK_BUFFER_SIZE - 5) {
+        trans_.write(buf, 0, pos);
+        pos = 0;
+      }
+      pos = putVarint32(intToZigZag(values[i]), buf, pos);
+    }
+    trans_.write(buf, 0, pos);
+  }
+
+  /**
+   * Write i64s as zigzag varints, encoding them into the bulk buffer first.
+   */
+  @Override
+  public void writeI64Array(long[] values, int offset, int length) throws TException {
+    byte[] buf = bulkBuffer();
+    int pos = 0;
+    for (int i = offset; i < offset + length; i++) {
+      if (pos > BULK_BUFFER_SIZE - 10) {
+        trans_.write(buf, 0, pos);
+        pos = 0;
+      }
+      pos = putVarint64(longToZigzag(values[i]), buf, pos);
+    }
+    trans_.write(buf, 0, pos);
+  }
+
+  /**
+   * Write doubles as 8 bytes each, encoding them into the bulk buffer first.
+   */
+  @Override
+  public void writeDoubleArray(double[] values, int offset, int length) throws TException {
+    byte[] buf = bulkBuffer();
+    int pos = 0;
+    for (int i = offset; i < offset + length; i++) {
+      if (pos > BULK_BUFFER_SIZE - 8) {
+        trans_.write(buf, 0, pos);
+        pos = 0;
+      }
+      fixedLongToBytes(Double.doubleToLongBits(values[i]), buf, pos);
+      pos += 8;
+    }
+    trans_.write(buf, 0, pos);
+  }
+
   /**
    * Write a string to the wire with a varint size preceding.
    */
   public void writeString(String str) throws TException {
-    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
-    writeBinary(bytes, 0, bytes.length);
+    // Encoded through the bulk buffer, with the length computed up front
+    writeVarint32(TUtf8.encodedLength(str));
+    TUtf8.write(str, bulkBuffer(), trans_);
   }
 
   /**
@@ -408,47 +513,55 @@ public class TCompactProtocol extends TProtocol {
 
   /**
    * Write an i32 as a varint. Results in 1-5 bytes on the wire.
-   * TODO: make a permanent buffer like writeVarint64?
    */
   private void writeVarint32(int n) throws TException {
-    int idx = 0;
+    trans_.write(temp, 0, putVarint32(n, temp, 0));
+  }
+
+  /**
+   * Encode an i32 as a varint into buf at idx.
+   * @return the index after the varint.
+   */
+  private static int putVarint32(int n, byte[] buf, int idx) {
     while (true) {
       if ((n & ~0x7F) == 0) {
-        temp[idx++] = (byte)n;
-        // writeByteDirect((byte)n);
-        break;
-        // return;
+        buf[idx++] = (byte)n;
+        return idx;
       } else {
-        temp[idx++] = (byte)((n & 0x7F) | 0x80);
-        // writeByteDirect((byte)((n & 0x7F) | 0x80));
+        buf[idx++] = (byte)((n & 0x7F) | 0x80);
         n >>>= 7;
       }
     }
-    trans_.write(temp, 0, idx);
   }
 
   /**
    * Write an i64 as a varint. Results in 1-10 bytes on the wire.
    */
   private void writeVarint64(long n) throws TException {
-    int idx = 0;
+    trans_.write(temp, 0, putVarint64(n, temp, 0));
+  }
+
+  /**
+   * Encode an i64 as a varint into buf at idx.
+   * @return the index after the varint.
+   */
+  private static int putVarint64(long n, byte[] buf, int idx) {
     while (true) {
       if ((n & ~0x7FL) == 0) {
-        temp[idx++] = (byte)n;
-        break;
+        buf[idx++] = (byte)n;
+        return idx;
       } else {
-        temp[idx++] = ((byte)((n & 0x7F) | 0x80));
+        buf[idx++] = ((byte)((n & 0x7F) | 0x80));
         n >>>= 7;
       }
     }
-    trans_.write(temp, 0, idx);
   }
 
   /**
    * Convert l into a zigzag long. This allows negative numbers to be
    * represented compactly as a varint.
    */
-  private long longToZigzag(long l) {
+  static long longToZigzag(long l) {
     return (l << 1) ^ (l >> 63);
   }
 
@@ -456,7 +569,7 @@ public class TCompactProtocol extends TProtocol {
    * Convert n into a zigzag int. This allows negative numbers to be
    * represented compactly as a varint.
    */
-  private int intToZigZag(int n) {
+  static int intToZigZag(int n) {
     return (n << 1) ^ (n >> 31);
   }
 
@@ -538,11 +651,22 @@ public class TCompactProtocol extends TProtocol {
    * Read a field header off the wire.
    */
   public TField readFieldBegin() throws TException {
+    int header = readFieldHeader();
+    byte type = TField.headerType(header);
+    // if it's a stop, then we can return immediately, as the struct is over.
+    return type == TType.STOP ? TSTOP : new TField("", type, TField.headerId(header));
+  }
+
+  /**
+   * Read a field header without allocating a TField, see readFieldBegin.
+   */
+  @Override
+  public int readFieldHeader() throws TException {
     byte type = readByte();
 
     // if it's a stop, then we can return immediately, as the struct is over.
     if (type == TType.STOP) {
-      return TSTOP;
+      return TField.packHeader(TType.STOP, (short) 0);
     }
 
     short fieldId;
@@ -556,8 +680,7 @@ public class TCompactProtocol extends TProtocol {
       // has a delta. add the delta to the last read field id.
       fieldId = (short)(lastFieldId_ + modifier);
     }
-
-    TField field = new TField("", getTType((byte)(type & 0x0f)), fieldId);
+    byte fieldType = getTType((byte)(type & 0x0f));
 
     // if this happens to be a boolean field, the value is encoded in the type
     if (isBoolType(type)) {
@@ -566,8 +689,8 @@ public class TCompactProtocol extends TProtocol {
     }
 
     // push the new field onto the field stack so we can keep the deltas going.
-    lastFieldId_ = field.id;
-    return field;
+    lastFieldId_ = fieldId;
+    return TField.packHeader(fieldType, fieldId);
   }
 
   /**
@@ -582,6 +705,16 @@ public class TCompactProtocol extends TProtocol {
     return new TMap(getTType((byte)(keyAndValueType >> 4)), getTType((byte)(keyAndValueType & 0xf)), size);
   }
 
+  @Override
+  public int readMapBeginSize() throws TException {
+    int size = readVarint32();
+    checkContainerReadLength(size);
+    if (size != 0) {
+      readByte();
+    }
+    return size;
+  }
+
   /**
    * Read a list header off the wire. If the list size is 0-14, the size will
    * be packed into the element type header. If it's a longer list, the 4 MSB
@@ -599,6 +732,17 @@ public class TCompactProtocol extends TProtocol {
     return new TList(type, size);
   }
 
+  @Override
+  public int readListBeginSize() throws TException {
+    byte size_and_type = readByte();
+    int size = (size_and_type >> 4) & 0x0f;
+    if (size == 15) {
+      size = readVarint32();
+    }
+    checkContainerReadLength(size);
+    return size;
+  }
+
   /**
    * Read a set header off the wire. If the set size is 0-14, the size will
    * be packed into the element type header. If it's a longer set, the 4 MSB
@@ -609,6 +753,11 @@ public class TCompactProtocol extends TProtocol {
     return new TSet(readListBegin());
   }
 
+  @Override
+  public int readSetBeginSize() throws TException {
+    return readListBeginSize();
+  }
+
   /**
    * Read a boolean off the wire. If this is a boolean field, the value should
    * already have been read during readFieldBegin, so we'll just consume the
@@ -667,8 +816,136 @@ public class TCompactProtocol extends TProtocol {
     return Double.longBitsToDouble(bytesToLong(temp));
   }
 
+  @Override
+  public void readByteArray(byte[] values, int offset, int length) throws TException {
+    trans_.readAll(values, offset, length);
+  }
+
+  /**
+   * Read i16s written as zigzag varints. Varints which are known to fit in the
+   * transport buffer are decoded from it in one pass.
+   */
+  @Override
+  public void readI16Array(short[] values, int offset, int length) throws TException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      if (remaining < 5) {
+        values[i++] = readI16();
+        continue;
+      }
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int pos = start;
+      int last = start + remaining - 5;
+      while (i < end && pos <= last) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = buf[pos++];
+          result |= (b & 0x7f) << shift;
+          shift += 7;
+        } while (b < 0 && shift < 35);
+        values[i++] = (short)zigzagToInt(result);
+      }
+      trans_.consumeBuffer(pos - start);
+    }
+  }
+
+  /**
+   * Read i32s written as zigzag varints. Varints which are known to fit in the
+   * transport buffer are decoded from it in one pass.
+   */
+  @Override
+  public void readI32Array(int[] values, int offset, int length) throws TException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      if (remaining < 5) {
+        values[i++] = readI32();
+        continue;
+      }
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int pos = start;
+      int last = start + remaining - 5;
+      while (i < end && pos <= last) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = buf[pos++];
+          result |= (b & 0x7f) << shift;
+          shift += 7;
+        } while (b < 0 && shift < 35);
+        values[i++] = zigzagToInt(result);
+      }
+      trans_.consumeBuffer(pos - start);
+    }
+  }
+
+  /**
+   * Read i64s written as zigzag varints. Varints which are known to fit in the
+   * transport buffer are decoded from it in one pass.
+   */
+  @Override
+  public void readI64Array(long[] values, int offset, int length) throws TException {
+    int end = offset + length;
+    int i = offset;
+    while (i < end) {
+      int remaining = trans_.getBytesRemainingInBuffer();
+      if (remaining < 10) {
+        values[i++] = readI64();
+        continue;
+      }
+      byte[] buf = trans_.getBuffer();
+      int start = trans_.getBufferPosition();
+      int pos = start;
+      int last = start + remaining - 10;
+      while (i < end && pos <= last) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = buf[pos++];
+          result |= (long) (b & 0x7f) << shift;
+          shift += 7;
+        } while (b < 0 && shift < 70);
+        values[i++] = zigzagToLong(result);
+      }
+      trans_.consumeBuffer(pos - start);
+    }
+  }
+
   /**
-   * Reads a byte[] (via readBinary), and then UTF-8 decodes it.
+   * Read doubles written as 8 little-endian bytes each, through a view of the
+   * transport buffer or of the bulk buffer.
+   */
+  @Override
+  public void readDoubleArray(double[] values, int offset, int length) throws TException {
+    while (length > 0) {
+      int n = trans_.getBytesRemainingInBuffer() / 8;
+      ByteBuffer buf;
+      if (n > 0) {
+        n = Math.min(n, length);
+        buf = ByteBuffer.wrap(trans_.getBuffer(), trans_.getBufferPosition(), n * 8);
+        trans_.consumeBuffer(n * 8);
+      } else {
+        n = Math.min(length, BULK_BUFFER_SIZE / 8);
+        trans_.readAll(bulkBuffer(), 0, n * 8);
+        buf = ByteBuffer.wrap(bulkTemp, 0, n * 8);
+      }
+      buf.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(values, offset, n);
+      offset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Reads the UTF-8 bytes of a string, and then decodes them.
    */
   public String readString() throws TException {
     int length = readVarint32();
@@ -680,15 +957,31 @@ public class TCompactProtocol extends TProtocol {
 
     final String str;
     if (trans_.getBytesRemainingInBuffer() >= length) {
-      str = new String(trans_.getBuffer(), trans_.getBufferPosition(),
-          length, StandardCharsets.UTF_8);
+      str = decodeString(trans_.getBuffer(), trans_.getBufferPosition(), length);
       trans_.consumeBuffer(length);
+    } else if (length <= BULK_BUFFER_SIZE) {
+      byte[] buf = bulkBuffer();
+      trans_.readAll(buf, 0, length);
+      str = decodeString(buf, 0, length);
     } else {
-      str = new String(readBinary(length), StandardCharsets.UTF_8);
+      str = decodeString(readBinary(length), 0, length);
     }
     return str;
   }
 
+  private String decodeString(byte[] buf, int off, int len) {
+    if (stringCache_ != null) {
+      return stringCache_.get(buf, off, len);
+    }
+    return TUtf8.decode(buf, off, len);
+  }
+
+  @Override
+  public ByteBuffer readStringBytes() throws TException {
+    // Strings are written as their UTF-8 bytes, like binaries
+    return readBinary();
+  }
+
   /**
    * Read a byte[] from the wire.
    */
@@ -819,6 +1112,13 @@ public class TCompactProtocol extends TProtocol {
   // encoding helpers
   //
 
+  private byte[] bulkBuffer() {
+    if (bulkTemp == null) {
+      bulkTemp = new byte[BULK_BUFFER_SIZE];
+    }
+    return bulkTemp;
+  }
+
   /**
    * Convert from zigzag int to int.
    */
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TDeadline;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Carries the {@link TDeadline} of calls from clients to servers. The time left before the
+ * current deadline is written as an extra i64 field, with the reserved id
+ * {@link #DEADLINE_FIELD_ID}, at the end of the arguments of each call. Servers which do not
+ * use this protocol skip it like any unknown field. Servers which do use it read the field
+ * back and make the deadline current for the thread processing the call.
+ * <p>
+ * Only the structs read and written through the protocol are affected, so the tuple scheme
+ * cannot carry deadlines.
+ */
+public class TDeadlineProtocol extends TProtocolDecorator {
+
+  /** Id of the field carrying the remaining milliseconds. */
+  public static final short DEADLINE_FIELD_ID = Short.MIN_VALUE;
+
+  private static final TField DEADLINE_FIELD = new TField("", TType.I64, DEADLINE_FIELD_ID);
+
+  public static class Factory implements TProtocolFactory {
+    private static final long serialVersionUID = 1L;
+
+    private final TProtocolFactory factory;
+
+    public Factory(TProtocolFactory factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    public TProtocol getProtocol(TTransport trans) {
+      return new TDeadlineProtocol(factory.getProtocol(trans));
+    }
+  }
+
+  // Whether the message being written or read is a call
+  private boolean writingCall = false;
+  private boolean readingCall = false;
+  // Depth of the structs of the message being written or read
+  private int writeDepth = 0;
+  private int readDepth = 0;
+
+  public TDeadlineProtocol(TProtocol protocol) {
+    super(protocol);
+  }
+
+  @Override
+  public void writeMessageBegin(TMessage message) throws TException {
+    writingCall = message.type == TMessageType.CALL || message.type == TMessageType.ONEWAY;
+    writeDepth = 0;
+    super.writeMessageBegin(message);
+  }
+
+  @Override
+  public void writeStructBegin(TStruct struct) throws TException {
+    writeDepth++;
+    super.writeStructBegin(struct);
+  }
+
+  @Override
+  public void writeStructEnd() throws TException {
+    writeDepth--;
+    super.writeStructEnd();
+  }
+
+  @Override
+  public void writeFieldStop() throws TException {
+    if (writingCall && writeDepth == 1) {
+      TDeadline deadline = TDeadline.current();
+      if (deadline != null) {
+        super.writeFieldBegin(DEADLINE_FIELD);
+        super.writeI64(Math.max(0, deadline.remaining(TimeUnit.MILLISECONDS)));
+        super.writeFieldEnd();
+      }
+    }
+    super.writeFieldStop();
+  }
+
+  @Override
+  public TMessage readMessageBegin() throws TException {
+    TMessage message = super.readMessageBegin();
+    readingCall = message.type == TMessageType.CALL || message.type == TMessageType.ONEWAY;
+    readDepth = 0;
+    if (readingCall) {
+      // a new call starts, forget the deadline of the previous one
+      TDeadline.setCurrent(null);
+    }
+    return message;
+  }
+
+  @Override
+  public TStruct readStructBegin() throws TException {
+    readDepth++;
+    return super.readStructBegin();
+  }
+
+  @Override
+  public void readStructEnd() throws TException {
+    readDepth--;
+    super.readStructEnd();
+  }
+
+  @Override
+  public TField readFieldBegin() throws TException {
+    TField field = super.readFieldBegin();
+    if (readingCall && readDepth == 1 && field.id == DEADLINE_FIELD_ID && field.type == TType.I64) {
+      long remainingMillis = super.readI64();
+      super.readFieldEnd();
+      TDeadline.setCurrent(TDeadline.after(remainingMillis, TimeUnit.MILLISECONDS));
+      field = super.readFieldBegin();
+    }
+    return field;
+  }
+}
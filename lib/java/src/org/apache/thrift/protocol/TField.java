@@ -38,6 +38,28 @@ public class TField {
   public final byte   type;
   public final short  id;
 
+  /**
+   * Packs the type and id of a field header into an int, as returned by
+   * {@link TProtocol#readFieldHeader()}.
+   */
+  public static int packHeader(byte type, short id) {
+    return (type & 0xff) << 16 | (id & 0xffff);
+  }
+
+  /**
+   * @return the type of a packed field header.
+   */
+  public static byte headerType(int header) {
+    return (byte) (header >>> 16);
+  }
+
+  /**
+   * @return the id of a packed field header.
+   */
+  public static short headerId(int header) {
+    return (short) header;
+  }
+
   public String toString() {
     return "<TField name:'" + name + "' type:" + type + " field-id:" + id + ">";
   }
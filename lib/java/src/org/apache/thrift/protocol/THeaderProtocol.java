@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TMessageHeaders;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Carries {@link TMessageHeaders} from clients to servers. The current headers are written as
+ * a map&lt;string, string&gt; field, with the reserved id {@link #HEADERS_FIELD_ID}, in front of
+ * the arguments of each call. Servers which do not use this protocol skip it like any unknown
+ * field, so clients can send headers to servers which predate them. Servers which do use it
+ * read the field back, make the headers current for the thread processing the call, and keep
+ * them for {@link org.apache.thrift.server.THeaderServerContext}.
+ * <p>
+ * Like {@link TDeadlineProtocol}, which it can be stacked with, it only affects the structs
+ * read and written through the protocol, so the tuple scheme cannot carry headers.
+ */
+public class THeaderProtocol extends TProtocolDecorator {
+
+  /** Id of the field carrying the headers. */
+  public static final short HEADERS_FIELD_ID = Short.MIN_VALUE + 1;
+
+  private static final TField HEADERS_FIELD = new TField("", TType.MAP, HEADERS_FIELD_ID);
+
+  public static class Factory implements TProtocolFactory {
+    private static final long serialVersionUID = 1L;
+
+    private final TProtocolFactory factory;
+
+    public Factory(TProtocolFactory factory) {
+      this.factory = factory;
+    }
+
+    @Override
+    public TProtocol getProtocol(TTransport trans) {
+      return new THeaderProtocol(factory.getProtocol(trans));
+    }
+  }
+
+  // Whether the message being written or read is a call
+  private boolean writingCall = false;
+  private boolean readingCall = false;
+  // Depth of the structs of the message being written or read
+  private int writeDepth = 0;
+  private int readDepth = 0;
+  // Headers of the last call read
+  private volatile Map<String, String> readHeaders = Collections.emptyMap();
+
+  public THeaderProtocol(TProtocol protocol) {
+    super(protocol);
+  }
+
+  /**
+   * @return the headers received with the last call read through this protocol.
+   */
+  public Map<String, String> getReadHeaders() {
+    return readHeaders;
+  }
+
+  @Override
+  public void writeMessageBegin(TMessage message) throws TException {
+    writingCall = message.type == TMessageType.CALL || message.type == TMessageType.ONEWAY;
+    writeDepth = 0;
+    super.writeMessageBegin(message);
+  }
+
+  @Override
+  public void writeStructBegin(TStruct struct) throws TException {
+    super.writeStructBegin(struct);
+    if (++writeDepth == 1 && writingCall) {
+      Map<String, String> headers = TMessageHeaders.current();
+      if (!headers.isEmpty()) {
+        super.writeFieldBegin(HEADERS_FIELD);
+        super.writeMapBegin(new TMap(TType.STRING, TType.STRING, headers.size()));
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+          super.writeString(header.getKey());
+          super.writeString(header.getValue());
+        }
+        super.writeMapEnd();
+        super.writeFieldEnd();
+      }
+    }
+  }
+
+  @Override
+  public void writeStructEnd() throws TException {
+    writeDepth--;
+    super.writeStructEnd();
+  }
+
+  @Override
+  public TMessage readMessageBegin() throws TException {
+    TMessage message = super.readMessageBegin();
+    readingCall = message.type == TMessageType.CALL || message.type == TMessageType.ONEWAY;
+    readDepth = 0;
+    if (readingCall) {
+      // a new call starts, forget the headers of the previous one
+      readHeaders = Collections.emptyMap();
+      TMessageHeaders.setCurrent(null);
+    }
+    return message;
+  }
+
+  @Override
+  public TStruct readStructBegin() throws TException {
+    readDepth++;
+    return super.readStructBegin();
+  }
+
+  @Override
+  public void readStructEnd() throws TException {
+    readDepth--;
+    super.readStructEnd();
+  }
+
+  @Override
+  public TField readFieldBegin() throws TException {
+    TField field = super.readFieldBegin();
+    if (readingCall && readDepth == 1 && field.id == HEADERS_FIELD_ID && field.type == TType.MAP) {
+      TMap map = super.readMapBegin();
+      if (map.keyType == TType.STRING && map.valueType == TType.STRING) {
+        Map<String, String> headers = new HashMap<String, String>(2 * map.size);
+        for (int i = 0; i < map.size; i++) {
+          String key = super.readString();
+          headers.put(key, super.readString());
+        }
+        readHeaders = Collections.unmodifiableMap(headers);
+        TMessageHeaders.setCurrent(headers);
+      } else {
+        // some other map using the reserved id, these are not headers
+        for (int i = 0; i < map.size; i++) {
+          TProtocolUtil.skip(this, map.keyType);
+          TProtocolUtil.skip(this, map.valueType);
+        }
+      }
+      super.readMapEnd();
+      super.readFieldEnd();
+      field = super.readFieldBegin();
+    }
+    return field;
+  }
+}
@@ -869,6 +869,12 @@ public class TJSONProtocol extends TProtocol {
 
   @Override
   public TField readFieldBegin() throws TException {
+    int header = readFieldHeader();
+    return new TField("", TField.headerType(header), TField.headerId(header));
+  }
+
+  @Override
+  public int readFieldHeader() throws TException {
     byte ch = reader_.peek();
     byte type;
     short id = 0;
@@ -880,7 +886,7 @@ public class TJSONProtocol extends TProtocol {
       readJSONObjectStart();
       type = getTypeIDForTypeName(readJSONString(false).get());
     }
-    return new TField("", type, id);
+    return TField.packHeader(type, id);
   }
 
   @Override
@@ -898,6 +904,16 @@ public class TJSONProtocol extends TProtocol {
     return new TMap(keyType, valueType, size);
   }
 
+  @Override
+  public int readMapBeginSize() throws TException {
+    readJSONArrayStart();
+    getTypeIDForTypeName(readJSONString(false).get());
+    getTypeIDForTypeName(readJSONString(false).get());
+    int size = (int)readJSONInteger();
+    readJSONObjectStart();
+    return size;
+  }
+
   @Override
   public void readMapEnd() throws TException {
     readJSONObjectEnd();
@@ -912,6 +928,13 @@ public class TJSONProtocol extends TProtocol {
     return new TList(elemType, size);
   }
 
+  @Override
+  public int readListBeginSize() throws TException {
+    readJSONArrayStart();
+    getTypeIDForTypeName(readJSONString(false).get());
+    return (int)readJSONInteger();
+  }
+
   @Override
   public void readListEnd() throws TException {
     readJSONArrayEnd();
@@ -925,6 +948,11 @@ public class TJSONProtocol extends TProtocol {
     return new TSet(elemType, size);
   }
 
+  @Override
+  public int readSetBeginSize() throws TException {
+    return readListBeginSize();
+  }
+
   @Override
   public void readSetEnd() throws TException {
     readJSONArrayEnd();
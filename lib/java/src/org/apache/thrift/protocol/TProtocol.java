@@ -20,6 +20,7 @@
 package org.apache.thrift.protocol;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.thrift.TException;
 import org.apache.thrift.scheme.IScheme;
@@ -147,6 +148,151 @@ public abstract class TProtocol {
 
   public abstract ByteBuffer readBinary() throws TException;
 
+  /**
+   * Reads a string like {@link #readString()}, as the UTF-8 bytes it is encoded to.
+   * Protocols which write strings as their UTF-8 bytes override it to return them
+   * without decoding, the way {@link #readBinary()} returns binaries.
+   */
+  public ByteBuffer readStringBytes() throws TException {
+    return ByteBuffer.wrap(readString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads a field header like {@link #readFieldBegin()}, without allocating a
+   * TField. Protocols override it when they can decode the header directly.
+   *
+   * @return the type and id of the field, packed as by {@link TField#packHeader(byte, short)}.
+   */
+  public int readFieldHeader() throws TException {
+    TField field = readFieldBegin();
+    return TField.packHeader(field.type, field.id);
+  }
+
+  /**
+   * Reads a map header like {@link #readMapBegin()}, for readers which only
+   * need the size of the map.
+   *
+   * @return the number of entries of the map.
+   */
+  public int readMapBeginSize() throws TException {
+    return readMapBegin().size;
+  }
+
+  /**
+   * Reads a list header like {@link #readListBegin()}, for readers which only
+   * need the size of the list.
+   *
+   * @return the number of elements of the list.
+   */
+  public int readListBeginSize() throws TException {
+    return readListBegin().size;
+  }
+
+  /**
+   * Reads a set header like {@link #readSetBegin()}, for readers which only
+   * need the size of the set.
+   *
+   * @return the number of elements of the set.
+   */
+  public int readSetBeginSize() throws TException {
+    return readSetBegin().size;
+  }
+
+  /**
+   * Writes the values one after the other, as the elements of a list or set would be
+   * written with {@link #writeByte(byte)}. Protocols override it to write them in bulk.
+   */
+  public void writeByteArray(byte[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      writeByte(values[i]);
+    }
+  }
+
+  /**
+   * Reads values written by {@link #writeByteArray(byte[], int, int)} into the array.
+   */
+  public void readByteArray(byte[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      values[i] = readByte();
+    }
+  }
+
+  /**
+   * Writes the values one after the other, as the elements of a list or set would be
+   * written with {@link #writeI16(short)}. Protocols override it to write them in bulk.
+   */
+  public void writeI16Array(short[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      writeI16(values[i]);
+    }
+  }
+
+  /**
+   * Reads values written by {@link #writeI16Array(short[], int, int)} into the array.
+   */
+  public void readI16Array(short[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      values[i] = readI16();
+    }
+  }
+
+  /**
+   * Writes the values one after the other, as the elements of a list or set would be
+   * written with {@link #writeI32(int)}. Protocols override it to write them in bulk.
+   */
+  public void writeI32Array(int[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      writeI32(values[i]);
+    }
+  }
+
+  /**
+   * Reads values written by {@link #writeI32Array(int[], int, int)} into the array.
+   */
+  public void readI32Array(int[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      values[i] = readI32();
+    }
+  }
+
+  /**
+   * Writes the values one after the other, as the elements of a list or set would be
+   * written with {@link #writeI64(long)}. Protocols override it to write them in bulk.
+   */
+  public void writeI64Array(long[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      writeI64(values[i]);
+    }
+  }
+
+  /**
+   * Reads values written by {@link #writeI64Array(long[], int, int)} into the array.
+   */
+  public void readI64Array(long[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      values[i] = readI64();
+    }
+  }
+
+  /**
+   * Writes the values one after the other, as the elements of a list or set would be
+   * written with {@link #writeDouble(double)}. Protocols override it to write them in bulk.
+   */
+  public void writeDoubleArray(double[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      writeDouble(values[i]);
+    }
+  }
+
+  /**
+   * Reads values written by {@link #writeDoubleArray(double[], int, int)} into the array.
+   */
+  public void readDoubleArray(double[] values, int offset, int length) throws TException {
+    for (int i = offset; i < offset + length; i++) {
+      values[i] = readDouble();
+    }
+  }
+
   /**
    * Reset any internal state back to a blank slate. This method only needs to
    * be implemented for stateful protocols.
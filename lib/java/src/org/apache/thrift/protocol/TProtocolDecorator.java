@@ -210,4 +210,48 @@ public abstract class TProtocolDecorator extends TProtocol {
     public ByteBuffer readBinary() throws TException {
         return concreteProtocol.readBinary();
     }
+
+    public ByteBuffer readStringBytes() throws TException {
+        return concreteProtocol.readStringBytes();
+    }
+
+    public void writeByteArray(byte[] values, int offset, int length) throws TException {
+        concreteProtocol.writeByteArray(values, offset, length);
+    }
+
+    public void readByteArray(byte[] values, int offset, int length) throws TException {
+        concreteProtocol.readByteArray(values, offset, length);
+    }
+
+    public void writeI16Array(short[] values, int offset, int length) throws TException {
+        concreteProtocol.writeI16Array(values, offset, length);
+    }
+
+    public void readI16Array(short[] values, int offset, int length) throws TException {
+        concreteProtocol.readI16Array(values, offset, length);
+    }
+
+    public void writeI32Array(int[] values, int offset, int length) throws TException {
+        concreteProtocol.writeI32Array(values, offset, length);
+    }
+
+    public void readI32Array(int[] values, int offset, int length) throws TException {
+        concreteProtocol.readI32Array(values, offset, length);
+    }
+
+    public void writeI64Array(long[] values, int offset, int length) throws TException {
+        concreteProtocol.writeI64Array(values, offset, length);
+    }
+
+    public void readI64Array(long[] values, int offset, int length) throws TException {
+        concreteProtocol.readI64Array(values, offset, length);
+    }
+
+    public void writeDoubleArray(double[] values, int offset, int length) throws TException {
+        concreteProtocol.writeDoubleArray(values, offset, length);
+    }
+
+    public void readDoubleArray(double[] values, int offset, int length) throws TException {
+        concreteProtocol.readDoubleArray(values, offset, length);
+    }
 }
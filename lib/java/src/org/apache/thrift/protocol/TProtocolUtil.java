@@ -105,11 +105,11 @@ public class TProtocolUtil {
       case TType.STRUCT:
         prot.readStructBegin();
         while (true) {
-          TField field = prot.readFieldBegin();
-          if (field.type == TType.STOP) {
+          byte fieldType = TField.headerType(prot.readFieldHeader());
+          if (fieldType == TType.STOP) {
             break;
           }
-          skip(prot, field.type, maxDepth - 1);
+          skip(prot, fieldType, maxDepth - 1);
           prot.readFieldEnd();
         }
         prot.readStructEnd();
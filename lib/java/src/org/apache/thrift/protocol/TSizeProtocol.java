@@ -0,0 +1,547 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializable;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Write-only protocol which counts the bytes another protocol would write,
+ * without encoding them. Strings are measured without being converted to
+ * UTF-8, and primitive arrays are measured in one step, so computing the size
+ * of a message is much cheaper than serializing it.
+ *
+ * The sizes are exact for {@link TBinaryProtocol} and {@link TCompactProtocol};
+ * {@link #forFactory(TProtocolFactory)} returns the matching size protocol.
+ */
+public abstract class TSizeProtocol extends TProtocol {
+
+  /**
+   * Number of bytes written since the last reset.
+   */
+  protected long size_;
+
+  protected TSizeProtocol() {
+    super(null);
+  }
+
+  /**
+   * Get the number of bytes written since the last reset.
+   */
+  public long getSize() {
+    return size_;
+  }
+
+  /**
+   * Start counting a new message.
+   */
+  public void reset() {
+    size_ = 0;
+  }
+
+  /**
+   * Count a struct which is written as the bytes it was encoded to before.
+   */
+  public void writeEncoded(int length) {
+    size_ += length;
+  }
+
+  /**
+   * Get a size protocol counting the bytes written by the protocols of the
+   * factory, or null if the protocol is not one whose sizes are known.
+   */
+  public static TSizeProtocol forFactory(TProtocolFactory factory) {
+    if (factory.getClass() == TBinaryProtocol.Factory.class) {
+      return new Binary(((TBinaryProtocol.Factory) factory).strictWrite_);
+    }
+    if (factory.getClass() == TCompactProtocol.Factory.class) {
+      return new Compact();
+    }
+    return null;
+  }
+
+  /**
+   * Compute the number of bytes the object is written as by the protocols of
+   * the factory. Protocols without a size protocol are written to a transport
+   * which only counts the bytes.
+   *
+   * @throws TProtocolException if the object is larger than a byte array can be.
+   */
+  public static int sizeOf(TSerializable object, TProtocolFactory factory) throws TException {
+    long size;
+    TSizeProtocol sizer = forFactory(factory);
+    if (sizer != null) {
+      object.write(sizer);
+      size = sizer.getSize();
+    } else {
+      CountingTransport counter = new CountingTransport();
+      object.write(factory.getProtocol(counter));
+      size = counter.count;
+    }
+    return checkedSize(size);
+  }
+
+  private static int checkedSize(long size) throws TProtocolException {
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new TProtocolException(TProtocolException.SIZE_LIMIT, "Serialized size too large: " + size);
+    }
+    return (int) size;
+  }
+
+  /**
+   * Get the number of bytes of the string encoded in UTF-8. Unpaired
+   * surrogates count as one byte, as they are encoded as '?'.
+   */
+  public static int utf8Length(String str) {
+    return TUtf8.encodedLength(str);
+  }
+
+  /**
+   * Get the number of bytes of an unsigned varint.
+   */
+  public static int varint32Size(int n) {
+    return (31 - Integer.numberOfLeadingZeros(n | 1)) / 7 + 1;
+  }
+
+  /**
+   * Get the number of bytes of an unsigned 64 bit varint.
+   */
+  public static int varint64Size(long n) {
+    return (63 - Long.numberOfLeadingZeros(n | 1)) / 7 + 1;
+  }
+
+  private static int binaryLength(ByteBuffer bin) {
+    return bin.limit() - bin.position();
+  }
+
+  @Override
+  public void writeMessageEnd() throws TException {}
+
+  @Override
+  public void writeStructBegin(TStruct struct) throws TException {}
+
+  @Override
+  public void writeStructEnd() throws TException {}
+
+  @Override
+  public void writeFieldEnd() throws TException {}
+
+  @Override
+  public void writeMapEnd() throws TException {}
+
+  @Override
+  public void writeListEnd() throws TException {}
+
+  @Override
+  public void writeSetEnd() throws TException {}
+
+  @Override
+  public void writeByte(byte b) throws TException {
+    size_++;
+  }
+
+  @Override
+  public void writeDouble(double dub) throws TException {
+    size_ += 8;
+  }
+
+  @Override
+  public void writeByteArray(byte[] values, int offset, int length) throws TException {
+    size_ += length;
+  }
+
+  @Override
+  public void writeDoubleArray(double[] values, int offset, int length) throws TException {
+    size_ += 8L * length;
+  }
+
+  /**
+   * Sizes of {@link TBinaryProtocol}.
+   */
+  public static class Binary extends TSizeProtocol {
+
+    private final boolean strictWrite_;
+
+    public Binary() {
+      this(true);
+    }
+
+    public Binary(boolean strictWrite) {
+      strictWrite_ = strictWrite;
+    }
+
+    @Override
+    public void writeMessageBegin(TMessage message) throws TException {
+      // The version is an i32 and the type a byte in the old format
+      size_ += (strictWrite_ ? 4 : 1) + 4 + utf8Length(message.name) + 4;
+    }
+
+    @Override
+    public void writeFieldBegin(TField field) throws TException {
+      size_ += 3;
+    }
+
+    @Override
+    public void writeFieldStop() throws TException {
+      size_++;
+    }
+
+    @Override
+    public void writeMapBegin(TMap map) throws TException {
+      size_ += 6;
+    }
+
+    @Override
+    public void writeListBegin(TList list) throws TException {
+      size_ += 5;
+    }
+
+    @Override
+    public void writeSetBegin(TSet set) throws TException {
+      size_ += 5;
+    }
+
+    @Override
+    public void writeBool(boolean b) throws TException {
+      size_++;
+    }
+
+    @Override
+    public void writeI16(short i16) throws TException {
+      size_ += 2;
+    }
+
+    @Override
+    public void writeI32(int i32) throws TException {
+      size_ += 4;
+    }
+
+    @Override
+    public void writeI64(long i64) throws TException {
+      size_ += 8;
+    }
+
+    @Override
+    public void writeString(String str) throws TException {
+      size_ += 4 + utf8Length(str);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer buf) throws TException {
+      size_ += 4 + binaryLength(buf);
+    }
+
+    @Override
+    public void writeI16Array(short[] values, int offset, int length) throws TException {
+      size_ += 2L * length;
+    }
+
+    @Override
+    public void writeI32Array(int[] values, int offset, int length) throws TException {
+      size_ += 4L * length;
+    }
+
+    @Override
+    public void writeI64Array(long[] values, int offset, int length) throws TException {
+      size_ += 8L * length;
+    }
+  }
+
+  /**
+   * Sizes of {@link TCompactProtocol}. Like the protocol, it keeps track of
+   * the last field id of each struct to size the field id deltas.
+   */
+  public static class Compact extends TSizeProtocol {
+
+    private final ShortStack lastField_ = new ShortStack(15);
+
+    private short lastFieldId_ = 0;
+
+    // A bool field header is written with its value
+    private TField booleanField_ = null;
+
+    @Override
+    public void reset() {
+      super.reset();
+      lastField_.clear();
+      lastFieldId_ = 0;
+      booleanField_ = null;
+    }
+
+    @Override
+    public void writeMessageBegin(TMessage message) throws TException {
+      // Protocol id, version and type, seqid and name
+      size_ += 2 + varint32Size(message.seqid);
+      writeString(message.name);
+    }
+
+    @Override
+    public void writeStructBegin(TStruct struct) throws TException {
+      lastField_.push(lastFieldId_);
+      lastFieldId_ = 0;
+    }
+
+    @Override
+    public void writeStructEnd() throws TException {
+      lastFieldId_ = lastField_.pop();
+    }
+
+    @Override
+    public void writeFieldBegin(TField field) throws TException {
+      if (field.type == TType.BOOL) {
+        booleanField_ = field;
+      } else {
+        writeFieldHeader(field.id);
+      }
+    }
+
+    private void writeFieldHeader(short id) {
+      if (id > lastFieldId_ && id - lastFieldId_ <= 15) {
+        size_++;
+      } else {
+        size_ += 1 + varint32Size(TCompactProtocol.intToZigZag(id));
+      }
+      lastFieldId_ = id;
+    }
+
+    @Override
+    public void writeFieldStop() throws TException {
+      size_++;
+    }
+
+    @Override
+    public void writeMapBegin(TMap map) throws TException {
+      size_ += map.size == 0 ? 1 : varint32Size(map.size) + 1;
+    }
+
+    @Override
+    public void writeListBegin(TList list) throws TException {
+      writeCollectionBegin(list.size);
+    }
+
+    @Override
+    public void writeSetBegin(TSet set) throws TException {
+      writeCollectionBegin(set.size);
+    }
+
+    private void writeCollectionBegin(int size) {
+      size_ += size <= 14 ? 1 : 1 + varint32Size(size);
+    }
+
+    @Override
+    public void writeBool(boolean b) throws TException {
+      if (booleanField_ != null) {
+        writeFieldHeader(booleanField_.id);
+        booleanField_ = null;
+      } else {
+        size_++;
+      }
+    }
+
+    @Override
+    public void writeI16(short i16) throws TException {
+      size_ += varint32Size(TCompactProtocol.intToZigZag(i16));
+    }
+
+    @Override
+    public void writeI32(int i32) throws TException {
+      size_ += varint32Size(TCompactProtocol.intToZigZag(i32));
+    }
+
+    @Override
+    public void writeI64(long i64) throws TException {
+      size_ += varint64Size(TCompactProtocol.longToZigzag(i64));
+    }
+
+    @Override
+    public void writeString(String str) throws TException {
+      int length = utf8Length(str);
+      size_ += varint32Size(length) + length;
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer buf) throws TException {
+      int length = binaryLength(buf);
+      size_ += varint32Size(length) + length;
+    }
+
+    @Override
+    public void writeI16Array(short[] values, int offset, int length) throws TException {
+      for (int i = offset; i < offset + length; i++) {
+        size_ += varint32Size(TCompactProtocol.intToZigZag(values[i]));
+      }
+    }
+
+    @Override
+    public void writeI32Array(int[] values, int offset, int length) throws TException {
+      for (int i = offset; i < offset + length; i++) {
+        size_ += varint32Size(TCompactProtocol.intToZigZag(values[i]));
+      }
+    }
+
+    @Override
+    public void writeI64Array(long[] values, int offset, int length) throws TException {
+      for (int i = offset; i < offset + length; i++) {
+        size_ += varint64Size(TCompactProtocol.longToZigzag(values[i]));
+      }
+    }
+  }
+
+  /**
+   * Transport which drops the bytes written to it and counts them.
+   */
+  private static class CountingTransport extends TTransport {
+
+    long count;
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {}
+
+    @Override
+    public void close() {}
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+      throw new TTransportException(TTransportException.UNKNOWN, "Cannot read from a counting transport");
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+      count += len;
+    }
+  }
+
+  private static TException notReadable() {
+    return new TProtocolException(TProtocolException.NOT_IMPLEMENTED, "Cannot read from a size protocol");
+  }
+
+  /**
+   * Reading methods.
+   */
+
+  @Override
+  public TMessage readMessageBegin() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public void readMessageEnd() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public TStruct readStructBegin() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public void readStructEnd() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public TField readFieldBegin() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public void readFieldEnd() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public TMap readMapBegin() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public void readMapEnd() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public TList readListBegin() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public void readListEnd() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public TSet readSetBegin() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public void readSetEnd() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public boolean readBool() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public byte readByte() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public short readI16() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public int readI32() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public long readI64() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public double readDouble() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public String readString() throws TException {
+    throw notReadable();
+  }
+
+  @Override
+  public ByteBuffer readBinary() throws TException {
+    throw notReadable();
+  }
+}
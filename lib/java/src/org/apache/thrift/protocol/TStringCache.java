@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Dedups the strings a protocol reads, so that repeated reads of the same short string
+ * return the same instance without decoding it again. Meant for low-cardinality values,
+ * like enum-like names and map keys: strings longer than the maximum length are never
+ * cached, and each slot keeps the last string hashed to it.
+ * <p>
+ * A cache can be shared by the protocols of several threads. Its entries are immutable,
+ * so a race on a slot at worst loses an entry.
+ * <p>
+ * The cache is serializable so that the protocol factories holding it are. Only its size
+ * and maximum length are serialized, a deserialized cache starts empty.
+ */
+public final class TStringCache implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  public static final int DEFAULT_SIZE = 1024;
+  public static final int DEFAULT_MAX_LENGTH = 32;
+
+  private final transient Entry[] entries;
+  private final int size;
+  private final int maxLength;
+
+  private static final class Entry {
+    final int hash;
+    final byte[] utf8;
+    final String value;
+
+    Entry(int hash, byte[] utf8, String value) {
+      this.hash = hash;
+      this.utf8 = utf8;
+      this.value = value;
+    }
+
+    boolean matches(int hash, byte[] buf, int off, int len) {
+      if (this.hash != hash || utf8.length != len) {
+        return false;
+      }
+      for (int i = 0; i < len; i++) {
+        if (utf8[i] != buf[off + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  public TStringCache() {
+    this(DEFAULT_SIZE, DEFAULT_MAX_LENGTH);
+  }
+
+  /**
+   * @param size number of cached strings, rounded up to a power of two.
+   * @param maxLength length in bytes of the longest strings to cache.
+   */
+  public TStringCache(int size, int maxLength) {
+    if (size <= 0 || size > (1 << 30)) {
+      throw new IllegalArgumentException("Invalid size: " + size);
+    }
+    this.entries = new Entry[size == 1 ? 1 : Integer.highestOneBit(size - 1) << 1];
+    this.size = entries.length;
+    this.maxLength = maxLength;
+  }
+
+  private Object readResolve() {
+    return new TStringCache(size, maxLength);
+  }
+
+  /**
+   * Returns the string of UTF-8 bytes, from the cache when it holds it.
+   */
+  public String get(byte[] buf, int off, int len) {
+    if (len > maxLength) {
+      return TUtf8.decode(buf, off, len);
+    }
+    int hash = hash(buf, off, len);
+    int slot = hash & (entries.length - 1);
+    Entry entry = entries[slot];
+    if (entry != null && entry.matches(hash, buf, off, len)) {
+      return entry.value;
+    }
+    String value = TUtf8.decode(buf, off, len);
+    entries[slot] = new Entry(hash, Arrays.copyOfRange(buf, off, off + len), value);
+    return value;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public int getMaxLength() {
+    return maxLength;
+  }
+
+  private static int hash(byte[] buf, int off, int len) {
+    int h = len;
+    for (int i = off, end = off + len; i < end; i++) {
+      h = 31 * h + buf[i];
+    }
+    return h ^ (h >>> 16);
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * UTF-8 encoding and decoding of strings without the intermediate arrays and
+ * charset coders of {@link String#getBytes} and the String constructors. The
+ * results are the same as theirs: unpaired surrogates are encoded as '?', and
+ * malformed input is decoded by the JDK, with its replacement characters.
+ */
+public final class TUtf8 {
+
+  private TUtf8() {
+    // Utility class.
+  }
+
+  /**
+   * Returns the length of the UTF-8 encoding of a string.
+   */
+  public static int encodedLength(String s) {
+    int n = s.length();
+    int i = 0;
+    while (i < n && s.charAt(i) < 0x80) {
+      i++;
+    }
+    int length = i;
+    for (; i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (!Character.isSurrogate(c)) {
+        length += 3;
+      } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 1;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Encodes the chars of a string from start to end into dst at off, which must have room
+   * for 3 bytes per char. A surrogate pair must not be split by start or end.
+   *
+   * @return the offset in dst after the encoded chars.
+   */
+  public static int encode(String s, int start, int end, byte[] dst, int off) {
+    int i = start;
+    while (i < end) {
+      char c = s.charAt(i++);
+      if (c < 0x80) {
+        dst[off++] = (byte) c;
+      } else if (c < 0x800) {
+        dst[off++] = (byte) (0xc0 | (c >> 6));
+        dst[off++] = (byte) (0x80 | (c & 0x3f));
+      } else if (!Character.isSurrogate(c)) {
+        dst[off++] = (byte) (0xe0 | (c >> 12));
+        dst[off++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        dst[off++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(s.charAt(i))) {
+        int cp = Character.toCodePoint(c, s.charAt(i++));
+        dst[off++] = (byte) (0xf0 | (cp >> 18));
+        dst[off++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+        dst[off++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+        dst[off++] = (byte) (0x80 | (cp & 0x3f));
+      } else {
+        dst[off++] = '?';
+      }
+    }
+    return off;
+  }
+
+  /**
+   * Writes the UTF-8 encoding of a string to a transport, encoding it through the scratch
+   * buffer a chunk at a time. The scratch buffer must hold at least 6 bytes, the encoding
+   * of two chars.
+   */
+  public static void write(String s, byte[] scratch, TTransport trans) throws TTransportException {
+    if (scratch.length < 6) {
+      throw new IllegalArgumentException("Scratch buffer too small: " + scratch.length);
+    }
+    int n = s.length();
+    int chunk = scratch.length / 3;
+    int start = 0;
+    while (start < n) {
+      int end = Math.min(n, start + chunk);
+      if (end < n && Character.isHighSurrogate(s.charAt(end - 1))) {
+        end--;
+      }
+      trans.write(scratch, 0, encode(s, start, end, scratch, 0));
+      start = end;
+    }
+  }
+
+  /**
+   * Decodes a string from UTF-8 bytes.
+   */
+  @SuppressWarnings("deprecation")
+  public static String decode(byte[] buf, int off, int len) {
+    int end = off + len;
+    int i = off;
+    while (i < end && buf[i] >= 0) {
+      i++;
+    }
+    if (i == end) {
+      // ASCII, the chars are the bytes
+      return new String(buf, 0, off, len);
+    }
+    char[] chars = new char[len];
+    int n = 0;
+    for (int j = off; j < i; j++) {
+      chars[n++] = (char) buf[j];
+    }
+    while (i < end) {
+      int b1 = buf[i];
+      if (b1 >= 0) {
+        chars[n++] = (char) b1;
+        i++;
+        continue;
+      }
+      b1 &= 0xff;
+      if (b1 >= 0xc2 && b1 <= 0xdf && i + 1 < end && isContinuation(buf[i + 1])) {
+        chars[n++] = (char) (((b1 & 0x1f) << 6) | (buf[i + 1] & 0x3f));
+        i += 2;
+      } else if (b1 >= 0xe0 && b1 <= 0xef && i + 2 < end
+          && isContinuation(buf[i + 1]) && isContinuation(buf[i + 2])) {
+        int b2 = buf[i + 1] & 0xff;
+        if ((b1 == 0xe0 && b2 < 0xa0) || (b1 == 0xed && b2 >= 0xa0)) {
+          break; // overlong or surrogate
+        }
+        chars[n++] = (char) (((b1 & 0x0f) << 12) | ((b2 & 0x3f) << 6) | (buf[i + 2] & 0x3f));
+        i += 3;
+      } else if (b1 >= 0xf0 && b1 <= 0xf4 && i + 3 < end
+          && isContinuation(buf[i + 1]) && isContinuation(buf[i + 2]) && isContinuation(buf[i + 3])) {
+        int b2 = buf[i + 1] & 0xff;
+        if ((b1 == 0xf0 && b2 < 0x90) || (b1 == 0xf4 && b2 >= 0x90)) {
+          break; // overlong or beyond U+10FFFF
+        }
+        int cp = ((b1 & 0x07) << 18) | ((b2 & 0x3f) << 12) | ((buf[i + 2] & 0x3f) << 6) | (buf[i + 3] & 0x3f);
+        chars[n++] = Character.highSurrogate(cp);
+        chars[n++] = Character.lowSurrogate(cp);
+        i += 4;
+      } else {
+        break;
+      }
+    }
+    if (i < end) {
+      // malformed, leave the replacements to the JDK
+      return new String(buf, off, len, StandardCharsets.UTF_8);
+    }
+    return new String(chars, 0, n);
+  }
+
+  private static boolean isContinuation(byte b) {
+    return (b & 0xc0) == 0x80;
+  }
+}
@@ -19,9 +19,12 @@
 
 package org.apache.thrift.server;
 
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TAsyncProcessor;
 import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TIOStreamTransport;
@@ -303,6 +306,9 @@ public abstract class AbstractNonblockingServer extends TServer {
     // context associated with this connection
     protected final ServerContext context_;
 
+    // when the frame was fully read if the server is instrumented, 0 otherwise
+    protected long frameReadNanos_;
+
     public FrameBuffer(final TNonblockingTransport trans,
         final SelectionKey selectionKey,
         final AbstractSelectThread selectThread) {
@@ -395,6 +401,9 @@ public abstract class AbstractNonblockingServer extends TServer {
           // get rid of the read select interests
           selectionKey_.interestOps(0);
           state_ = FrameBufferState.READ_FRAME_COMPLETE;
+          if (instrumentation_ != null) {
+            frameReadNanos_ = System.nanoTime();
+          }
         }
 
         return true;
@@ -492,6 +501,10 @@ public abstract class AbstractNonblockingServer extends TServer {
       // we'd like to free this read memory up as quickly as possible for other
       // clients.
       readBufferBytesAllocated.addAndGet(-buffer_.array().length);
+      TServerInstrumentation instrumentation = instrumentation_;
+      if (instrumentation != null) {
+        instrumentation.frameProcessed(buffer_.array().length, response_.len());
+      }
 
       if (response_.len() == 0) {
         // go straight to reading again. this was probably an oneway method
@@ -516,6 +529,12 @@ public abstract class AbstractNonblockingServer extends TServer {
     public void invoke() {
       frameTrans_.reset(buffer_.array());
       response_.reset();
+      TServerInstrumentation instrumentation = instrumentation_;
+      // the frame was read before an instrumentation was set if frameReadNanos_ is 0
+      if (instrumentation != null && frameReadNanos_ != 0) {
+        instrumentation.frameDequeued(System.nanoTime() - frameReadNanos_);
+      }
+      frameReadNanos_ = 0;
 
       try {
         if (eventHandler_ != null) {
@@ -534,6 +553,48 @@ public abstract class AbstractNonblockingServer extends TServer {
       requestSelectInterestChange();
     }
 
+    /**
+     * Decode the name of the method called by the request, without invoking it.
+     *
+     * @return the method name, or null if the message header cannot be decoded.
+     */
+    public String getMethodName() {
+      frameTrans_.reset(buffer_.array());
+      try {
+        return inProt_.readMessageBegin().name;
+      } catch (TException te) {
+        return null;
+      }
+    }
+
+    /**
+     * Answer the request with an exception instead of invoking the processor,
+     * to shed load. Oneway requests are dropped.
+     *
+     * @param reason message of the exception sent back
+     */
+    public void reject(String reason) {
+      frameTrans_.reset(buffer_.array());
+      response_.reset();
+
+      try {
+        TMessage msg = inProt_.readMessageBegin();
+        if (msg.type == TMessageType.CALL) {
+          TApplicationException x = new TApplicationException(TApplicationException.INTERNAL_ERROR, reason);
+          outProt_.writeMessageBegin(new TMessage(msg.name, TMessageType.EXCEPTION, msg.seqid));
+          x.write(outProt_);
+          outProt_.writeMessageEnd();
+          outProt_.getTransport().flush();
+        }
+        responseReady();
+        return;
+      } catch (TException te) {
+        LOGGER.warn("Exception while rejecting!", te);
+      }
+      state_ = FrameBufferState.AWAITING_CLOSE;
+      requestSelectInterestChange();
+    }
+
     /**
      * Perform a read into buffer.
      *
@@ -598,6 +659,12 @@ public abstract class AbstractNonblockingServer extends TServer {
     public void invoke() {
       frameTrans_.reset(buffer_.array());
       response_.reset();
+      TServerInstrumentation instrumentation = instrumentation_;
+      // the frame was read before an instrumentation was set if frameReadNanos_ is 0
+      if (instrumentation != null && frameReadNanos_ != 0) {
+        instrumentation.frameDequeued(System.nanoTime() - frameReadNanos_);
+      }
+      frameReadNanos_ = 0;
 
       try {
         if (eventHandler_ != null) {
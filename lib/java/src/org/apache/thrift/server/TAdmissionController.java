@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which requests a server processes when its workers fall behind. Requests are shed,
+ * that is answered right away with an error instead of being processed, when
+ * <ul>
+ *   <li>the number of requests waiting for a worker reaches the queue bound, or</li>
+ *   <li>the queue has been standing: every request of the last interval waited longer than
+ *       the target delay. The requests which waited more than twice the target are shed then,
+ *       as their clients are likely to have given up on them. This is the CoDel algorithm
+ *       applied to the queue of requests.</li>
+ * </ul>
+ * Shedding stale requests keeps the queue short, so the requests which are processed still
+ * get a timely response.
+ */
+public class TAdmissionController {
+
+  public static final long DEFAULT_TARGET_DELAY_MILLIS = 5;
+  public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+  private final int maxQueuedRequests;
+  private final long targetDelayNanos;
+  private final long intervalNanos;
+
+  private final AtomicInteger queued = new AtomicInteger();
+  // minimum queue delay of the current interval, and when the interval ends
+  private final AtomicLong intervalMinDelay = new AtomicLong(Long.MAX_VALUE);
+  private final AtomicLong intervalEnd = new AtomicLong(System.nanoTime());
+  private volatile boolean overloaded = false;
+
+  private final LongAdder admitted = new LongAdder();
+  private final LongAdder shedQueueFull = new LongAdder();
+  private final LongAdder shedQueueDelay = new LongAdder();
+  private final LongAdder totalQueueDelayNanos = new LongAdder();
+  private final AtomicLong maxQueueDelayNanos = new AtomicLong();
+
+  /**
+   * Sheds requests when the queue is full or standing, with the default target delay and
+   * interval.
+   */
+  public TAdmissionController(int maxQueuedRequests) {
+    this(maxQueuedRequests, DEFAULT_TARGET_DELAY_MILLIS, DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param maxQueuedRequests number of requests which can wait for a worker.
+   * @param targetDelay queue delay considered acceptable, 0 to only bound the queue.
+   * @param interval period over which the queue delay is watched.
+   * @param unit unit of targetDelay and interval.
+   */
+  public TAdmissionController(int maxQueuedRequests, long targetDelay, long interval, TimeUnit unit) {
+    if (maxQueuedRequests <= 0) {
+      throw new IllegalArgumentException("maxQueuedRequests must be positive.");
+    }
+    this.maxQueuedRequests = maxQueuedRequests;
+    this.targetDelayNanos = unit.toNanos(targetDelay);
+    this.intervalNanos = unit.toNanos(interval);
+  }
+
+  /**
+   * Called when a request is about to be queued for a worker.
+   *
+   * @return false if the request must be shed because the queue is full.
+   */
+  public boolean tryEnqueue() {
+    if (queued.incrementAndGet() > maxQueuedRequests) {
+      queued.decrementAndGet();
+      shedQueueFull.increment();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Called when a queued request could not be handed to the workers after all.
+   */
+  public void cancelEnqueue() {
+    queued.decrementAndGet();
+  }
+
+  /**
+   * Called when a worker picks up a queued request.
+   *
+   * @param queueDelayNanos how long the request waited for the worker.
+   * @return false if the request must be shed because it waited too long.
+   */
+  public boolean admit(long queueDelayNanos) {
+    return admit(queueDelayNanos, System.nanoTime());
+  }
+
+  /**
+   * Called when a worker picks up a queued request, at the given time.
+   *
+   * @param queueDelayNanos how long the request waited for the worker.
+   * @param nowNanos current {@link System#nanoTime()}, which ends the watched intervals.
+   * @return false if the request must be shed because it waited too long.
+   */
+  public boolean admit(long queueDelayNanos, long nowNanos) {
+    queued.decrementAndGet();
+    totalQueueDelayNanos.add(queueDelayNanos);
+    long max;
+    while (queueDelayNanos > (max = maxQueueDelayNanos.get())
+        && !maxQueueDelayNanos.compareAndSet(max, queueDelayNanos)) {
+      // retry
+    }
+
+    if (targetDelayNanos > 0 && isShedding(queueDelayNanos, nowNanos)) {
+      shedQueueDelay.increment();
+      return false;
+    }
+    admitted.increment();
+    return true;
+  }
+
+  private boolean isShedding(long queueDelayNanos, long now) {
+    long end = intervalEnd.get();
+    if (now - end >= 0 && intervalEnd.compareAndSet(end, now + intervalNanos)) {
+      // the queue is standing if even the fastest request of the interval waited too long,
+      // an interval without requests had no queue at all
+      long intervalMin = intervalMinDelay.getAndSet(Long.MAX_VALUE);
+      overloaded = intervalMin != Long.MAX_VALUE && intervalMin > targetDelayNanos;
+    }
+    long min;
+    while (queueDelayNanos < (min = intervalMinDelay.get())
+        && !intervalMinDelay.compareAndSet(min, queueDelayNanos)) {
+      // retry
+    }
+    return overloaded && queueDelayNanos > 2 * targetDelayNanos;
+  }
+
+  public Metrics getMetrics() {
+    return new Metrics(queued.get(), overloaded, admitted.sum(), shedQueueFull.sum(), shedQueueDelay.sum(),
+        totalQueueDelayNanos.sum(), maxQueueDelayNanos.get());
+  }
+
+  /**
+   * Point in time view of the admission of the requests.
+   */
+  public static class Metrics {
+    private final int queued;
+    private final boolean overloaded;
+    private final long admitted;
+    private final long shedQueueFull;
+    private final long shedQueueDelay;
+    private final long totalQueueDelayNanos;
+    private final long maxQueueDelayNanos;
+
+    Metrics(int queued, boolean overloaded, long admitted, long shedQueueFull, long shedQueueDelay,
+            long totalQueueDelayNanos, long maxQueueDelayNanos) {
+      this.queued = queued;
+      this.overloaded = overloaded;
+      this.admitted = admitted;
+      this.shedQueueFull = shedQueueFull;
+      this.shedQueueDelay = shedQueueDelay;
+      this.totalQueueDelayNanos = totalQueueDelayNanos;
+      this.maxQueueDelayNanos = maxQueueDelayNanos;
+    }
+
+    /**
+     * @return number of requests waiting for a worker.
+     */
+    public int getQueued() {
+      return queued;
+    }
+
+    /**
+     * @return whether the queue was standing during the last interval.
+     */
+    public boolean isOverloaded() {
+      return overloaded;
+    }
+
+    /**
+     * @return number of requests handed to the processor.
+     */
+    public long getAdmitted() {
+      return admitted;
+    }
+
+    /**
+     * @return number of requests shed because the queue was full.
+     */
+    public long getShedQueueFull() {
+      return shedQueueFull;
+    }
+
+    /**
+     * @return number of requests shed because they waited too long in a standing queue.
+     */
+    public long getShedQueueDelay() {
+      return shedQueueDelay;
+    }
+
+    /**
+     * @return total time the requests picked up by workers spent in the queue.
+     */
+    public long getTotalQueueDelayNanos() {
+      return totalQueueDelayNanos;
+    }
+
+    /**
+     * @return longest time a request spent in the queue.
+     */
+    public long getMaxQueueDelayNanos() {
+      return maxQueueDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+      return "Metrics[queued=" + queued + ", overloaded=" + overloaded + ", admitted=" + admitted
+          + ", shedQueueFull=" + shedQueueFull + ", shedQueueDelay=" + shedQueueDelay
+          + ", totalQueueDelayNanos=" + totalQueueDelayNanos + ", maxQueueDelayNanos=" + maxQueueDelayNanos + "]";
+    }
+  }
+}
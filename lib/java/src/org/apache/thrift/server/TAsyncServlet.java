@@ -0,0 +1,316 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.ByteBufferPool;
+import org.apache.thrift.transport.TMemoryTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet serving thrift requests with the Servlet 3.1 asynchronous and nonblocking io APIs.
+ * Unlike {@link TServlet}, no container thread is held while a request body is received or a
+ * response is sent: the body is read into a pooled buffer as it arrives, the processor is invoked
+ * on the given executor, and the response is buffered and written out at once with its
+ * Content-Length set, so that the connection can be kept alive.
+ * <br>
+ * The servlet must be registered with async support enabled.
+ */
+public class TAsyncServlet extends HttpServlet {
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(TAsyncServlet.class);
+
+  private static final int DEFAULT_BODY_BUFFER_SIZE = 1024;
+
+  public static final int DEFAULT_MAX_REQUEST_SIZE = 16 * 1024 * 1024;
+
+  private final TProcessor processor;
+
+  private final TProtocolFactory inProtocolFactory;
+
+  private final TProtocolFactory outProtocolFactory;
+
+  private final Executor executor;
+
+  private final ByteBufferPool bufferPool;
+
+  private final Collection<Map.Entry<String, String>> customHeaders;
+
+  private long asyncTimeout = 0;
+
+  private int maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+
+  /**
+   * @param processor the processor for incoming requests.
+   * @param inProtocolFactory the protocol to read requests with.
+   * @param outProtocolFactory the protocol to write responses with.
+   * @param executor executor running the processor.
+   * @param bufferPool pool for request body buffers.
+   */
+  public TAsyncServlet(TProcessor processor, TProtocolFactory inProtocolFactory,
+      TProtocolFactory outProtocolFactory, Executor executor, ByteBufferPool bufferPool) {
+    super();
+    this.processor = processor;
+    this.inProtocolFactory = inProtocolFactory;
+    this.outProtocolFactory = outProtocolFactory;
+    this.executor = executor;
+    this.bufferPool = bufferPool;
+    this.customHeaders = new ArrayList<Map.Entry<String, String>>();
+  }
+
+  public TAsyncServlet(TProcessor processor, TProtocolFactory protocolFactory, Executor executor) {
+    this(processor, protocolFactory, protocolFactory, executor, new ByteBufferPool());
+  }
+
+  /**
+   * Set the timeout of each request, from the time it is received to the time the response is
+   * sent. Zero or less means no timeout. It defaults to no timeout.
+   *
+   * @param asyncTimeout timeout in milliseconds.
+   */
+  public void setAsyncTimeout(long asyncTimeout) {
+    this.asyncTimeout = asyncTimeout;
+  }
+
+  /**
+   * Set the largest request body accepted, in bytes. Larger requests are rejected with
+   * 413 Request Entity Too Large before their body is buffered. It defaults to
+   * {@link #DEFAULT_MAX_REQUEST_SIZE}.
+   *
+   * @param maxRequestSize maximum request body size in bytes.
+   */
+  public void setMaxRequestSize(int maxRequestSize) {
+    if (maxRequestSize <= 0) {
+      throw new IllegalArgumentException("maxRequestSize must be positive");
+    }
+    this.maxRequestSize = maxRequestSize;
+  }
+
+  /**
+   * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse
+   *      response)
+   */
+  @Override
+  protected void doPost(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    if (request.getContentLengthLong() > maxRequestSize) {
+      response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+      return;
+    }
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(asyncTimeout);
+    ServletInputStream in = request.getInputStream();
+    in.setReadListener(new AsyncCall(asyncContext, in, response, request.getContentLength()));
+  }
+
+  /**
+   * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse
+   *      response)
+   */
+  @Override
+  protected void doGet(HttpServletRequest request, HttpServletResponse response)
+      throws ServletException, IOException {
+    doPost(request, response);
+  }
+
+  public void addCustomHeader(final String key, final String value) {
+    this.customHeaders.add(new Map.Entry<String, String>() {
+      public String getKey() {
+        return key;
+      }
+
+      public String getValue() {
+        return value;
+      }
+
+      public String setValue(String value) {
+        return null;
+      }
+    });
+  }
+
+  public void setCustomHeaders(Collection<Map.Entry<String, String>> headers) {
+    this.customHeaders.clear();
+    this.customHeaders.addAll(headers);
+  }
+
+  /**
+   * Reads the body of one request, processes it and writes the response. The container calls
+   * the listener methods of a request one at a time. Only the body buffer is shared with the
+   * executor thread: whoever takes it out of {@code body} first releases it.
+   */
+  private class AsyncCall implements ReadListener, WriteListener, Runnable {
+    private final AsyncContext asyncContext;
+    private final ServletInputStream in;
+    private final HttpServletResponse response;
+    private final AtomicReference<ByteBuffer> body = new AtomicReference<ByteBuffer>();
+    private final int maxSize = maxRequestSize;
+    private TByteArrayOutputStream output;
+    private boolean written = false;
+
+    AsyncCall(AsyncContext asyncContext, ServletInputStream in, HttpServletResponse response,
+        int contentLength) {
+      this.asyncContext = asyncContext;
+      this.in = in;
+      this.response = response;
+      ByteBuffer buffer = bufferPool.acquire(contentLength > 0
+          ? contentLength : Math.min(DEFAULT_BODY_BUFFER_SIZE, maxSize));
+      buffer.limit(buffer.capacity());
+      this.body.set(buffer);
+    }
+
+    @Override
+    public void onDataAvailable() throws IOException {
+      ByteBuffer buffer = body.get();
+      while (buffer != null && in.isReady() && !in.isFinished()) {
+        if (!buffer.hasRemaining()) {
+          if (buffer.position() >= maxSize) {
+            LOGGER.warn("Thrift request larger than {} bytes rejected.", maxSize);
+            releaseBody();
+            fail(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+          }
+          ByteBuffer larger = bufferPool.acquire((int) Math.min(2L * buffer.capacity(), maxSize));
+          larger.limit(larger.capacity());
+          buffer.flip();
+          larger.put(buffer);
+          bufferPool.release(buffer);
+          buffer = larger;
+          body.set(buffer);
+        }
+        int got = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (got < 0) {
+          break;
+        }
+        buffer.position(buffer.position() + got);
+      }
+    }
+
+    @Override
+    public void onAllDataRead() {
+      if (body.get() == null) {
+        // Already rejected or failed.
+        return;
+      }
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        LOGGER.warn("Thrift request rejected by the executor.", e);
+        releaseBody();
+        fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+      }
+    }
+
+    /**
+     * Process the request on the executor.
+     */
+    @Override
+    public void run() {
+      ByteBuffer request = body.getAndSet(null);
+      if (request == null) {
+        // The request failed while it was queued.
+        return;
+      }
+      try {
+        TMemoryTransport transport = new TMemoryTransport(request.array(), request.arrayOffset(), request.position());
+        TProtocol inProtocol = inProtocolFactory.getProtocol(transport);
+        TProtocol outProtocol = outProtocolFactory.getProtocol(transport);
+        processor.process(inProtocol, outProtocol);
+        output = transport.getOutput();
+      } catch (Exception e) {
+        LOGGER.error("Error processing thrift request.", e);
+        fail(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        return;
+      } finally {
+        bufferPool.release(request);
+      }
+
+      response.setContentType("application/x-thrift");
+      for (Map.Entry<String, String> header : customHeaders) {
+        response.addHeader(header.getKey(), header.getValue());
+      }
+      response.setContentLength(output.len());
+      try {
+        response.getOutputStream().setWriteListener(this);
+      } catch (IOException e) {
+        onError(e);
+      }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      ServletOutputStream out = response.getOutputStream();
+      if (!written) {
+        if (!out.isReady()) {
+          return;
+        }
+        out.write(output.get(), 0, output.len());
+        written = true;
+      }
+      // Once the whole response is accepted by the container, the request is done.
+      if (out.isReady()) {
+        asyncContext.complete();
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      LOGGER.warn("Failed to serve thrift request.", t);
+      releaseBody();
+      asyncContext.complete();
+    }
+
+    private void fail(int status) {
+      response.setStatus(status);
+      asyncContext.complete();
+    }
+
+    private void releaseBody() {
+      ByteBuffer buffer = body.getAndSet(null);
+      if (buffer != null) {
+        bufferPool.release(buffer);
+      }
+    }
+  }
+}
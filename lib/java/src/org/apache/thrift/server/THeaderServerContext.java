@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.Map;
+
+import org.apache.thrift.TMessageHeaders;
+import org.apache.thrift.protocol.THeaderProtocol;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * Server context exposing the headers received with the calls of a connection, for instance to
+ * attribute the latency of a call to the trace of its client. Create it from the input protocol
+ * in {@link TServerEventHandler#createContext(TProtocol, TProtocol)}.
+ */
+public class THeaderServerContext implements ServerContext {
+
+  private final THeaderProtocol protocol;
+
+  /**
+   * @param inputProtocol the input protocol of the connection. If it is not a THeaderProtocol,
+   * the headers are those current on the thread reading the context.
+   */
+  public THeaderServerContext(TProtocol inputProtocol) {
+    this.protocol = inputProtocol instanceof THeaderProtocol ? (THeaderProtocol) inputProtocol : null;
+  }
+
+  /**
+   * @return the headers of the last call read on the connection.
+   */
+  public Map<String, String> getHeaders() {
+    return protocol != null ? protocol.getReadHeaders() : TMessageHeaders.current();
+  }
+}
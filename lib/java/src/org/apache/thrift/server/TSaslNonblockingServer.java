@@ -23,15 +23,19 @@ import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.callback.CallbackHandler;
 
@@ -40,6 +44,7 @@ import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TNonblockingTransport;
 import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.ByteBufferPool;
 import org.apache.thrift.transport.sasl.NonblockingSaslHandler;
 import org.apache.thrift.transport.sasl.NonblockingSaslHandler.Phase;
 import org.apache.thrift.transport.sasl.TBaseSaslProcessorFactory;
@@ -64,6 +69,7 @@ public class TSaslNonblockingServer extends TServer {
   private final ExecutorService processingExecutor;
   private final TSaslServerFactory saslServerFactory;
   private final TSaslProcessorFactory saslProcessorFactory;
+  private final ByteBufferPool requestBufferPool;
 
   public TSaslNonblockingServer(Args args) throws IOException {
     super(args);
@@ -73,6 +79,7 @@ public class TSaslNonblockingServer extends TServer {
     processingExecutor = Executors.newFixedThreadPool(args.processingThreads);
     saslServerFactory = args.saslServerFactory;
     saslProcessorFactory = args.saslProcessorFactory;
+    requestBufferPool = args.requestBufferPool;
   }
 
   @Override
@@ -100,6 +107,20 @@ public class TSaslNonblockingServer extends TServer {
     }
   }
 
+  /**
+   * Take a snapshot of the load on each network thread, in thread index order. The numbers are
+   * read without synchronization, so they are only approximately consistent with each other.
+   *
+   * @return an unmodifiable list of per network thread metrics.
+   */
+  public List<NetworkThreadMetrics> getNetworkThreadMetrics() {
+    List<NetworkThreadMetrics> metrics = new ArrayList<>(networkThreadPool.networkThreads.size());
+    for (NetworkThread networkThread : networkThreadPool.networkThreads) {
+      metrics.add(networkThread.metrics());
+    }
+    return Collections.unmodifiableList(metrics);
+  }
+
   /**
    * Gracefully shut down the server and block until all threads are stopped.
    *
@@ -202,8 +223,19 @@ public class TSaslNonblockingServer extends TServer {
   }
 
   private class NetworkThread extends Thread {
-    private final BlockingQueue<TNonblockingTransport> incomingConnections = new LinkedBlockingQueue<>();
-    private final BlockingQueue<NonblockingSaslHandler> stateTransitions = new LinkedBlockingQueue<>();
+    // Both queues are written by other threads and only drained by this network thread. The sizes
+    // are tracked separately because ConcurrentLinkedQueue.size() traverses the whole queue.
+    private final Queue<TNonblockingTransport> incomingConnections = new ConcurrentLinkedQueue<>();
+    private final Queue<NonblockingSaslHandler> stateTransitions = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingConnections = new AtomicInteger();
+    private final AtomicInteger pendingStateTransitions = new AtomicInteger();
+    // Set by the first producer after the network thread last drained its queues, so that a burst
+    // of completed phases costs only one selector wakeup.
+    private final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+    private final AtomicLong wakeups = new AtomicLong();
+    // Number of channels registered on the selector, published by the network thread itself since
+    // the key set of a selector is not safe to read from other threads.
+    private volatile int registeredConnections = 0;
     private final Selector ioSelector;
 
     NetworkThread(String name) throws IOException {
@@ -215,8 +247,11 @@ public class TSaslNonblockingServer extends TServer {
     public void run() {
       try {
         while (!stopped_) {
+          // Clear the flag before draining, anything queued after this point wakes up the select.
+          wakeupPending.set(false);
           handleIncomingConnections();
           handleStateChanges();
+          registeredConnections = ioSelector.keys().size();
           select();
           handleIO();
         }
@@ -233,6 +268,7 @@ public class TSaslNonblockingServer extends TServer {
         if (statemachine == null) {
           return;
         }
+        pendingStateTransitions.decrementAndGet();
         tryRunNextPhase(statemachine);
       }
     }
@@ -278,6 +314,7 @@ public class TSaslNonblockingServer extends TServer {
         if (connection == null) {
           return;
         }
+        pendingConnections.decrementAndGet();
         if (!connection.isOpen()) {
           LOGGER.warn("Incoming connection is already closed");
           continue;
@@ -287,7 +324,7 @@ public class TSaslNonblockingServer extends TServer {
           if (selectionKey.isValid()) {
             NonblockingSaslHandler saslHandler = new NonblockingSaslHandler(selectionKey, connection,
                 saslServerFactory, saslProcessorFactory, inputProtocolFactory_, outputProtocolFactory_,
-                eventHandler_);
+                eventHandler_, requestBufferPool);
             selectionKey.attach(saslHandler);
           }
         } catch (IOException e) {
@@ -304,6 +341,7 @@ public class TSaslNonblockingServer extends TServer {
         if (incomingConnection == null) {
           break;
         }
+        pendingConnections.decrementAndGet();
         incomingConnection.close();
       }
       Set<SelectionKey> registered = ioSelector.keys();
@@ -354,13 +392,39 @@ public class TSaslNonblockingServer extends TServer {
         return false;
       }
       if (incomingConnections.offer(connection)) {
-        wakeup();
+        pendingConnections.incrementAndGet();
+        scheduleWakeup();
         return true;
       }
       return false;
     }
 
+    void transitState(NonblockingSaslHandler statemachine) {
+      stateTransitions.add(statemachine);
+      pendingStateTransitions.incrementAndGet();
+      scheduleWakeup();
+    }
+
+    /**
+     * @return number of connections owned by this thread, registered or waiting to be registered.
+     */
+    int load() {
+      return registeredConnections + pendingConnections.get();
+    }
+
+    NetworkThreadMetrics metrics() {
+      return new NetworkThreadMetrics(getName(), registeredConnections, pendingConnections.get(),
+          pendingStateTransitions.get(), wakeups.get());
+    }
+
+    private void scheduleWakeup() {
+      if (wakeupPending.compareAndSet(false, true)) {
+        wakeup();
+      }
+    }
+
     private void wakeup() {
+      wakeups.incrementAndGet();
       ioSelector.wakeup();
     }
 
@@ -378,8 +442,7 @@ public class TSaslNonblockingServer extends TServer {
           while (!statemachine.isCurrentPhaseDone()) {
             statemachine.runCurrentPhase();
           }
-          stateTransitions.add(statemachine);
-          wakeup();
+          transitState(statemachine);
         } catch (Throwable e) {
           LOGGER.error("Damn it!", e);
         }
@@ -389,7 +452,7 @@ public class TSaslNonblockingServer extends TServer {
 
   private class NetworkThreadPool {
     private final List<NetworkThread> networkThreads;
-    private int accepted = 0;
+    private final AtomicInteger accepted = new AtomicInteger();
 
     NetworkThreadPool(int size) throws IOException {
       networkThreads = new ArrayList<>(size);
@@ -401,13 +464,26 @@ public class TSaslNonblockingServer extends TServer {
     }
 
     /**
-     * Round robin new connection among all the network threads.
+     * Assign new connection to the network thread with the fewest connections. The scan starts
+     * from a rotating index, so ties are broken in a round robin fashion.
      *
      * @param connection incoming connection.
      * @return true if the incoming connection is accepted by network thread pool.
      */
     boolean acceptNewConnection(TNonblockingTransport connection) {
-      return networkThreads.get((accepted ++) % networkThreads.size()).accept(connection);
+      int size = networkThreads.size();
+      int start = (accepted.getAndIncrement() & Integer.MAX_VALUE) % size;
+      NetworkThread target = networkThreads.get(start);
+      int minLoad = target.load();
+      for (int i = 1; i < size && minLoad > 0; i++) {
+        NetworkThread candidate = networkThreads.get((start + i) % size);
+        int load = candidate.load();
+        if (load < minLoad) {
+          target = candidate;
+          minLoad = load;
+        }
+      }
+      return target.accept(connection);
     }
 
     public void start() {
@@ -423,6 +499,64 @@ public class TSaslNonblockingServer extends TServer {
     }
   }
 
+  /**
+   * Point in time load of a single network thread.
+   */
+  public static class NetworkThreadMetrics {
+    private final String threadName;
+    private final int connections;
+    private final int pendingConnections;
+    private final int pendingStateTransitions;
+    private final long wakeups;
+
+    NetworkThreadMetrics(String threadName, int connections, int pendingConnections,
+                         int pendingStateTransitions, long wakeups) {
+      this.threadName = threadName;
+      this.connections = connections;
+      this.pendingConnections = pendingConnections;
+      this.pendingStateTransitions = pendingStateTransitions;
+      this.wakeups = wakeups;
+    }
+
+    public String getThreadName() {
+      return threadName;
+    }
+
+    /**
+     * @return number of connections registered on the selector of the network thread.
+     */
+    public int getConnections() {
+      return connections;
+    }
+
+    /**
+     * @return number of accepted connections not yet registered by the network thread.
+     */
+    public int getPendingConnections() {
+      return pendingConnections;
+    }
+
+    /**
+     * @return number of handlers that finished a computation phase and wait for the network thread.
+     */
+    public int getPendingStateTransitions() {
+      return pendingStateTransitions;
+    }
+
+    /**
+     * @return total number of selector wakeups issued to the network thread.
+     */
+    public long getWakeups() {
+      return wakeups;
+    }
+
+    @Override
+    public String toString() {
+      return threadName + "[connections=" + connections + ", pendingConnections=" + pendingConnections
+          + ", pendingStateTransitions=" + pendingStateTransitions + ", wakeups=" + wakeups + "]";
+    }
+  }
+
   public static class Args extends AbstractServerArgs<Args> {
 
     private int networkThreads = DEFAULT_NETWORK_THREADS;
@@ -430,6 +564,7 @@ public class TSaslNonblockingServer extends TServer {
     private int processingThreads = DEFAULT_PROCESSING_THREADS;
     private TSaslServerFactory saslServerFactory = new TSaslServerFactory();
     private TSaslProcessorFactory saslProcessorFactory;
+    private ByteBufferPool requestBufferPool = new ByteBufferPool();
 
     public Args(TNonblockingServerTransport transport) {
       super(transport);
@@ -469,6 +604,16 @@ public class TSaslNonblockingServer extends TServer {
       return this;
     }
 
+    /**
+     * Set the pool of buffers for request payloads, shared by all connections.
+     *
+     * @param requestBufferPool the pool, or null to allocate a new buffer for every request.
+     */
+    public Args requestBufferPool(ByteBufferPool requestBufferPool) {
+      this.requestBufferPool = requestBufferPool;
+      return this;
+    }
+
     public Args saslServerFactory(TSaslServerFactory saslServerFactory) {
       if (saslServerFactory == null) {
         throw new NullPointerException("saslServerFactory cannot be null");
@@ -127,6 +127,9 @@ public abstract class TServer {
 
   protected TServerEventHandler eventHandler_;
 
+  // may be set while the server runs
+  protected volatile TServerInstrumentation instrumentation_;
+
   // Flag for stopping the server
   // Please see THRIFT-1795 for the usage of this flag
   protected volatile boolean stopped_ = false;
@@ -167,6 +170,18 @@ public abstract class TServer {
     return eventHandler_;
   }
 
+  /**
+   * Sets the instrumentation notified of the frames processed by the server.
+   * Only the nonblocking servers, which read whole frames, call it.
+   */
+  public void setInstrumentation(TServerInstrumentation instrumentation) {
+    instrumentation_ = instrumentation;
+  }
+
+  public TServerInstrumentation getInstrumentation() {
+    return instrumentation_;
+  }
+
   public boolean getShouldStop() {
     return this.stopped_;
   }
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+/**
+ * Hooks called by the processors and the nonblocking servers around every request, to collect
+ * metrics without wrapping the handlers. {@link TServerMetrics} is an in-memory implementation.
+ * Implementations are called concurrently by the server threads, and should neither block nor
+ * throw.
+ * <p>
+ * The method hooks are called by the processors the instrumentation is set on with
+ * {@link org.apache.thrift.TBaseProcessor#setInstrumentation(TServerInstrumentation)} or
+ * {@link org.apache.thrift.TBaseAsyncProcessor#setInstrumentation(TServerInstrumentation)}. The
+ * frame hooks are called by the nonblocking servers the instrumentation is set on with
+ * {@link TServer#setInstrumentation(TServerInstrumentation)}.
+ */
+public interface TServerInstrumentation {
+
+  /**
+   * How the call of a method ended.
+   */
+  public static enum Outcome {
+    /** The handler returned, or threw an exception declared by the method. */
+    SUCCESS,
+    /** The handler failed with an undeclared exception. */
+    ERROR,
+    /** The arguments of the call could not be read. */
+    PROTOCOL_ERROR,
+    /** The call was not handed to the handler, e.g. its deadline had passed or its bulkhead was full. */
+    REJECTED
+  }
+
+  /**
+   * Called when a call of a method completes.
+   *
+   * @param methodName name of the method.
+   * @param latencyNanos time from reading the arguments to the end of the handler.
+   * @param outcome how the call ended.
+   */
+  void methodCompleted(String methodName, long latencyNanos, Outcome outcome);
+
+  /**
+   * Called when a frame read by a nonblocking server starts being processed.
+   *
+   * @param queueWaitNanos time between reading the frame and processing it, spent waiting for a worker.
+   */
+  void frameDequeued(long queueWaitNanos);
+
+  /**
+   * Called when the response to a frame is ready to be written.
+   *
+   * @param requestBytes size of the request frame, including its size.
+   * @param responseBytes size of the response frame including its size, 0 for oneway requests.
+   */
+  void frameProcessed(int requestBytes, int responseBytes);
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory {@link TServerInstrumentation}, keeping a latency histogram and outcome counters
+ * per method, along with the queue wait and sizes of the frames of the nonblocking servers.
+ * Recording takes no lock; {@link #snapshot()} exports the collected metrics.
+ *
+ * <pre>
+ * TServerMetrics metrics = new TServerMetrics();
+ * processor.setInstrumentation(metrics);
+ * server.setInstrumentation(metrics);
+ * ...
+ * LOGGER.info("Server metrics:\n" + metrics.snapshot());
+ * </pre>
+ */
+public class TServerMetrics implements TServerInstrumentation {
+
+  private final ConcurrentHashMap<String, MethodMetrics> methods = new ConcurrentHashMap<String, MethodMetrics>();
+  private final TLatencyHistogram queueWait = new TLatencyHistogram();
+  private final LongAdder frames = new LongAdder();
+  private final LongAdder requestBytes = new LongAdder();
+  private final LongAdder responseBytes = new LongAdder();
+
+  @Override
+  public void methodCompleted(String methodName, long latencyNanos, Outcome outcome) {
+    MethodMetrics metrics = methods.get(methodName);
+    if (metrics == null) {
+      MethodMetrics created = new MethodMetrics();
+      metrics = methods.putIfAbsent(methodName, created);
+      if (metrics == null) {
+        metrics = created;
+      }
+    }
+    metrics.outcomes[outcome.ordinal()].increment();
+    if (outcome == Outcome.SUCCESS || outcome == Outcome.ERROR) {
+      metrics.latency.record(latencyNanos);
+    }
+  }
+
+  @Override
+  public void frameDequeued(long queueWaitNanos) {
+    queueWait.record(queueWaitNanos);
+  }
+
+  @Override
+  public void frameProcessed(int requestBytes, int responseBytes) {
+    frames.increment();
+    this.requestBytes.add(requestBytes);
+    this.responseBytes.add(responseBytes);
+  }
+
+  public Snapshot snapshot() {
+    Map<String, MethodSnapshot> methodSnapshots = new TreeMap<String, MethodSnapshot>();
+    for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+      MethodMetrics metrics = entry.getValue();
+      long[] outcomes = new long[metrics.outcomes.length];
+      for (int i = 0; i < outcomes.length; i++) {
+        outcomes[i] = metrics.outcomes[i].sum();
+      }
+      methodSnapshots.put(entry.getKey(), new MethodSnapshot(metrics.latency.snapshot(), outcomes));
+    }
+    return new Snapshot(Collections.unmodifiableMap(methodSnapshots), queueWait.snapshot(),
+        frames.sum(), requestBytes.sum(), responseBytes.sum());
+  }
+
+  private static class MethodMetrics {
+    private final TLatencyHistogram latency = new TLatencyHistogram();
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+
+    MethodMetrics() {
+      for (int i = 0; i < outcomes.length; i++) {
+        outcomes[i] = new LongAdder();
+      }
+    }
+  }
+
+  /**
+   * Metrics of a method at a point in time.
+   */
+  public static class MethodSnapshot {
+    private final TLatencyHistogram.Snapshot latency;
+    private final long[] outcomes;
+
+    MethodSnapshot(TLatencyHistogram.Snapshot latency, long[] outcomes) {
+      this.latency = latency;
+      this.outcomes = outcomes;
+    }
+
+    /**
+     * @return latencies in nanoseconds of the calls handed to the handler.
+     */
+    public TLatencyHistogram.Snapshot getLatency() {
+      return latency;
+    }
+
+    /**
+     * @return number of calls which ended with the given outcome.
+     */
+    public long getCount(Outcome outcome) {
+      return outcomes[outcome.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (Outcome outcome : Outcome.values()) {
+        sb.append(outcome).append('=').append(outcomes[outcome.ordinal()]).append(", ");
+      }
+      return sb.append("latency nanos [").append(latency).append(']').toString();
+    }
+  }
+
+  /**
+   * Metrics of the server at a point in time.
+   */
+  public static class Snapshot {
+    private final Map<String, MethodSnapshot> methods;
+    private final TLatencyHistogram.Snapshot queueWait;
+    private final long frames;
+    private final long requestBytes;
+    private final long responseBytes;
+
+    Snapshot(Map<String, MethodSnapshot> methods, TLatencyHistogram.Snapshot queueWait,
+             long frames, long requestBytes, long responseBytes) {
+      this.methods = methods;
+      this.queueWait = queueWait;
+      this.frames = frames;
+      this.requestBytes = requestBytes;
+      this.responseBytes = responseBytes;
+    }
+
+    /**
+     * @return metrics of the called methods, by method name.
+     */
+    public Map<String, MethodSnapshot> getMethods() {
+      return methods;
+    }
+
+    /**
+     * @return time in nanoseconds the frames waited to be processed.
+     */
+    public TLatencyHistogram.Snapshot getQueueWait() {
+      return queueWait;
+    }
+
+    public long getFrames() {
+      return frames;
+    }
+
+    public long getRequestBytes() {
+      return requestBytes;
+    }
+
+    public long getResponseBytes() {
+      return responseBytes;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("frames=").append(frames)
+          .append(", requestBytes=").append(requestBytes)
+          .append(", responseBytes=").append(responseBytes)
+          .append(", queue wait nanos [").append(queueWait).append("]\n");
+      for (Map.Entry<String, MethodSnapshot> entry : methods.entrySet()) {
+        sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -39,11 +39,13 @@ import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A Half-Sync/Half-Async server with a separate pool of threads to handle
@@ -62,6 +64,11 @@ import java.util.concurrent.TimeUnit;
 public class TThreadedSelectorServer extends AbstractNonblockingServer {
   private static final Logger LOGGER = LoggerFactory.getLogger(TThreadedSelectorServer.class.getName());
 
+  private static final String SHED_MESSAGE = "Server overloaded, request shed";
+
+  // Bound on the methods whose cost is tracked, as method names come from the clients
+  private static final int MAX_COSTED_METHODS = 1024;
+
   public static class Args extends AbstractNonblockingServerArgs<Args> {
 
     /** The number of threads for selecting on already-accepted connections */
@@ -102,6 +109,38 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
 
     private AcceptPolicy acceptPolicy = AcceptPolicy.FAST_ACCEPT;
 
+    /**
+     * Determines how invocations are passed from the selector threads to the
+     * workers, when no executor service is specified.
+     */
+    public static enum InvokerPolicy {
+      /**
+       * All selector threads queue the invocations on the single queue of a
+       * fixed thread pool.
+       */
+      SHARED_QUEUE,
+      /**
+       * Each selector thread queues the invocations on its own lane of a
+       * {@link TWorkStealingInvoker}, the worker threads are split evenly over
+       * the lanes. Avoids contention on the queue with many selector threads.
+       */
+      WORK_STEALING
+    }
+
+    private InvokerPolicy invokerPolicy = InvokerPolicy.SHARED_QUEUE;
+
+    /**
+     * Requests of methods which took at most this long on average are invoked
+     * directly on the selector thread, 0 to always use the workers.
+     */
+    private long inlineCostThresholdNanos = 0;
+
+    /**
+     * Controls which requests are handed to the workers when they fall behind,
+     * null to queue every request.
+     */
+    private TAdmissionController admissionController = null;
+
     public Args(TNonblockingServerTransport transport) {
       super(transport);
     }
@@ -169,6 +208,39 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
       return this;
     }
 
+    public InvokerPolicy getInvokerPolicy() {
+      return invokerPolicy;
+    }
+
+    public Args invokerPolicy(InvokerPolicy invokerPolicy) {
+      this.invokerPolicy = invokerPolicy;
+      return this;
+    }
+
+    public long getInlineCostThreshold(TimeUnit unit) {
+      return unit.convert(inlineCostThresholdNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Invoke the requests of cheap methods directly on the selector thread,
+     * which saves the hand over to a worker. The cost of a method is the moving
+     * average of the time its invocations took, so a method is always handed
+     * to the workers until it was measured to be cheap.
+     */
+    public Args inlineCostThreshold(long threshold, TimeUnit unit) {
+      this.inlineCostThresholdNanos = unit.toNanos(threshold);
+      return this;
+    }
+
+    public TAdmissionController getAdmissionController() {
+      return admissionController;
+    }
+
+    public Args admissionController(TAdmissionController admissionController) {
+      this.admissionController = admissionController;
+      return this;
+    }
+
     public void validate() {
       if (selectorThreads <= 0) {
         throw new IllegalArgumentException("selectorThreads must be positive.");
@@ -179,6 +251,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
       if (acceptQueueSizePerThread <= 0) {
         throw new IllegalArgumentException("acceptQueueSizePerThread must be positive.");
       }
+      if (inlineCostThresholdNanos < 0) {
+        throw new IllegalArgumentException("inlineCostThreshold must be non-negative.");
+      }
     }
   }
 
@@ -195,6 +270,9 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
 
   private final Args args;
 
+  // Moving average of the invocation time of the methods, if requests may be invoked inline
+  private final ConcurrentHashMap<String, AtomicLong> methodCostNanos = new ConcurrentHashMap<String, AtomicLong>();
+
   /**
    * Create the server with the specified Args configuration
    */
@@ -304,10 +382,31 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
   protected boolean requestInvoke(FrameBuffer frameBuffer) {
     Runnable invocation = getRunnable(frameBuffer);
     if (invoker != null) {
+      if (args.inlineCostThresholdNanos > 0) {
+        String methodName = frameBuffer.getMethodName();
+        if (methodName != null) {
+          invocation = new CostedInvocation(invocation, methodName);
+          if (isInlineCost(methodName)) {
+            invocation.run();
+            return true;
+          }
+        }
+      }
+      TAdmissionController admissionController = args.admissionController;
+      if (admissionController != null) {
+        if (!admissionController.tryEnqueue()) {
+          frameBuffer.reject(SHED_MESSAGE);
+          return true;
+        }
+        invocation = new AdmittedInvocation(frameBuffer, invocation, admissionController);
+      }
       try {
         invoker.execute(invocation);
         return true;
       } catch (RejectedExecutionException rx) {
+        if (admissionController != null) {
+          admissionController.cancelEnqueue();
+        }
         LOGGER.warn("ExecutorService rejected execution!", rx);
         return false;
       }
@@ -322,11 +421,90 @@ public class TThreadedSelectorServer extends AbstractNonblockingServer {
     return new Invocation(frameBuffer);
   }
 
+  private boolean isInlineCost(String methodName) {
+    AtomicLong cost = methodCostNanos.get(methodName);
+    return cost != null && cost.get() <= args.inlineCostThresholdNanos;
+  }
+
+  private void recordCost(String methodName, long nanos) {
+    AtomicLong cost = methodCostNanos.get(methodName);
+    if (cost == null) {
+      if (methodCostNanos.size() >= MAX_COSTED_METHODS) {
+        return;
+      }
+      cost = methodCostNanos.putIfAbsent(methodName, new AtomicLong(nanos));
+      if (cost == null) {
+        return;
+      }
+    }
+    long average;
+    do {
+      average = cost.get();
+    } while (!cost.compareAndSet(average, average + (nanos - average) / 8));
+  }
+
+  /**
+   * Measures the time an invocation takes, to tell which methods can be
+   * invoked on the selector thread.
+   */
+  private class CostedInvocation implements Runnable {
+    private final Runnable invocation;
+    private final String methodName;
+
+    CostedInvocation(Runnable invocation, String methodName) {
+      this.invocation = invocation;
+      this.methodName = methodName;
+    }
+
+    public void run() {
+      long start = System.nanoTime();
+      try {
+        invocation.run();
+      } finally {
+        recordCost(methodName, System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * Runs an invocation if the admission controller lets it through once a
+   * worker picks it up, and sheds it otherwise.
+   */
+  private static class AdmittedInvocation implements Runnable {
+    private final FrameBuffer frameBuffer;
+    private final Runnable invocation;
+    private final TAdmissionController admissionController;
+    private final long enqueuedAt = System.nanoTime();
+
+    AdmittedInvocation(FrameBuffer frameBuffer, Runnable invocation, TAdmissionController admissionController) {
+      this.frameBuffer = frameBuffer;
+      this.invocation = invocation;
+      this.admissionController = admissionController;
+    }
+
+    public void run() {
+      long now = System.nanoTime();
+      if (admissionController.admit(now - enqueuedAt, now)) {
+        invocation.run();
+      } else {
+        frameBuffer.reject(SHED_MESSAGE);
+      }
+    }
+  }
+
   /**
    * Helper to create the invoker if one is not specified
    */
   protected static ExecutorService createDefaultExecutor(Args options) {
-    return (options.workerThreads > 0) ? Executors.newFixedThreadPool(options.workerThreads) : null;
+    if (options.workerThreads <= 0) {
+      return null;
+    }
+    if (options.invokerPolicy == Args.InvokerPolicy.WORK_STEALING) {
+      // every lane needs a worker, so with fewer workers than selectors some selectors share a lane
+      int numLanes = Math.min(options.selectorThreads, options.workerThreads);
+      return TWorkStealingInvoker.withWorkers(numLanes, options.workerThreads, "TThreadedSelectorServer-worker");
+    }
+    return Executors.newFixedThreadPool(options.workerThreads);
   }
 
   private static BlockingQueue<TNonblockingTransport> createDefaultAcceptQueue(int queueSize) {
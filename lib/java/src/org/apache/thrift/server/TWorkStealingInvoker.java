@@ -0,0 +1,302 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Invoker for the nonblocking servers which avoids a single shared queue. It is made of lanes,
+ * each with its own lock-free run queue and group of workers. A thread handing over tasks,
+ * typically a selector thread, is paired with one lane and always queues its tasks there, so
+ * the selector threads of a {@link TThreadedSelectorServer} do not contend with each other.
+ * Workers run the tasks of their own lane first, and steal tasks from the other lanes when
+ * their lane runs dry. When a task is queued and no worker of its lane is idle, an idle worker
+ * of another lane is woken up to steal it.
+ * <p>
+ * The lanes are handed out round-robin to the threads queueing tasks, so there should be as
+ * many lanes as selector threads.
+ */
+public class TWorkStealingInvoker extends AbstractExecutorService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(TWorkStealingInvoker.class.getName());
+
+  // Idle workers check for shutdown at least this often
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private final Lane[] lanes;
+  private final List<Worker> workers = new ArrayList<Worker>();
+  private final AtomicInteger nextLane = new AtomicInteger();
+  private final ThreadLocal<Lane> laneOfThread = new ThreadLocal<Lane>();
+  private final CountDownLatch terminated;
+  private final LongAdder stolenTasks = new LongAdder();
+  private volatile boolean shutdown = false;
+
+  public TWorkStealingInvoker(int numLanes, int workersPerLane) {
+    this(numLanes, workersPerLane, "TWorkStealingInvoker");
+  }
+
+  /**
+   * @param numLanes number of run queues, usually the number of selector threads.
+   * @param workersPerLane number of workers draining each run queue.
+   * @param threadNamePrefix prefix of the names of the worker threads.
+   */
+  public TWorkStealingInvoker(int numLanes, int workersPerLane, String threadNamePrefix) {
+    this(numLanes, checkPositive(workersPerLane, "workersPerLane") * (long) numLanes, threadNamePrefix);
+  }
+
+  /**
+   * Creates an invoker with exactly {@code numWorkers} workers, split as evenly as possible
+   * across the lanes. The first {@code numWorkers % numLanes} lanes get one worker more.
+   *
+   * @param numLanes number of run queues, usually the number of selector threads.
+   * @param numWorkers total number of workers, at least {@code numLanes}.
+   * @param threadNamePrefix prefix of the names of the worker threads.
+   */
+  public static TWorkStealingInvoker withWorkers(int numLanes, int numWorkers, String threadNamePrefix) {
+    if (numWorkers < numLanes) {
+      throw new IllegalArgumentException("numWorkers must be at least numLanes.");
+    }
+    return new TWorkStealingInvoker(numLanes, (long) numWorkers, threadNamePrefix);
+  }
+
+  private TWorkStealingInvoker(int numLanes, long numWorkers, String threadNamePrefix) {
+    checkPositive(numLanes, "numLanes");
+    if (numWorkers > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many workers.");
+    }
+    this.lanes = new Lane[numLanes];
+    this.terminated = new CountDownLatch((int) numWorkers);
+    for (int i = 0; i < numLanes; i++) {
+      lanes[i] = new Lane(i);
+    }
+    for (Lane lane : lanes) {
+      long laneWorkers = numWorkers / numLanes + (lane.index < numWorkers % numLanes ? 1 : 0);
+      for (int j = 0; j < laneWorkers; j++) {
+        workers.add(new Worker(lane, threadNamePrefix + "-" + lane.index + "-" + j));
+      }
+    }
+    for (Worker worker : workers) {
+      worker.start();
+    }
+  }
+
+  private static int checkPositive(int value, String name) {
+    if (value <= 0) {
+      throw new IllegalArgumentException(name + " must be positive.");
+    }
+    return value;
+  }
+
+  public int getNumLanes() {
+    return lanes.length;
+  }
+
+  /**
+   * @return number of workers of the lanes with the most workers.
+   */
+  public int getWorkersPerLane() {
+    return (workers.size() + lanes.length - 1) / lanes.length;
+  }
+
+  public int getNumWorkers() {
+    return workers.size();
+  }
+
+  /**
+   * @return number of tasks run by a worker of another lane than the one they were queued on.
+   */
+  public long getStolenTasks() {
+    return stolenTasks.sum();
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    if (task == null) {
+      throw new NullPointerException();
+    }
+    if (shutdown) {
+      throw new RejectedExecutionException("Invoker is shut down");
+    }
+    Lane lane = laneOfCurrentThread();
+    lane.tasks.offer(task);
+    if (shutdown && lane.tasks.remove(task)) {
+      // shut down meanwhile, and the workers may be gone already
+      throw new RejectedExecutionException("Invoker is shut down");
+    }
+    wakeIdleWorker(lane);
+  }
+
+  private Lane laneOfCurrentThread() {
+    Lane lane = laneOfThread.get();
+    if (lane == null) {
+      lane = lanes[(nextLane.getAndIncrement() & Integer.MAX_VALUE) % lanes.length];
+      laneOfThread.set(lane);
+    }
+    return lane;
+  }
+
+  // Wakes an idle worker of the lane, or else of the nearest lane, which will steal the task
+  private void wakeIdleWorker(Lane lane) {
+    for (int i = 0; i < lanes.length; i++) {
+      Lane candidate = lanes[(lane.index + i) % lanes.length];
+      Worker worker;
+      while ((worker = candidate.idleWorkers.poll()) != null) {
+        if (worker.idle.compareAndSet(true, false)) {
+          LockSupport.unpark(worker);
+          return;
+        }
+      }
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+    for (Worker worker : workers) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown = true;
+    List<Runnable> pending = new ArrayList<Runnable>();
+    for (Lane lane : lanes) {
+      Runnable task;
+      while ((task = lane.tasks.poll()) != null) {
+        pending.add(task);
+      }
+    }
+    for (Worker worker : workers) {
+      worker.interrupt();
+    }
+    return pending;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return terminated.getCount() == 0;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  private static class Lane {
+    private final int index;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final ConcurrentLinkedQueue<Worker> idleWorkers = new ConcurrentLinkedQueue<Worker>();
+
+    Lane(int index) {
+      this.index = index;
+    }
+  }
+
+  private class Worker extends Thread {
+    private final Lane lane;
+    // set while parked and listed in the idle workers of the lane, cleared by whoever wakes it
+    private final AtomicBoolean idle = new AtomicBoolean();
+
+    Worker(Lane lane, String name) {
+      super(name);
+      this.lane = lane;
+    }
+
+    @Override
+    public void run() {
+      laneOfThread.set(lane);
+      try {
+        while (true) {
+          Runnable task = nextTask();
+          if (task == null) {
+            idle.set(true);
+            lane.idleWorkers.offer(this);
+            // a task queued before the worker was listed as idle would not wake it up
+            task = nextTask();
+            if (task == null && !shutdown) {
+              LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+            if (idle.compareAndSet(true, false)) {
+              lane.idleWorkers.remove(this);
+            } else if (task != null) {
+              // execute() counted this worker as woken up, but it found a task and did not park,
+              // so the task that was queued might have nobody to run it. Pass the wakeup on.
+              wakeIdleWorker(lane);
+            }
+          }
+          if (task == null && shutdown) {
+            // tasks queued before the shutdown are run before exiting
+            task = nextTask();
+            if (task == null) {
+              return;
+            }
+          }
+          if (task != null) {
+            runTask(task);
+          }
+        }
+      } finally {
+        terminated.countDown();
+      }
+    }
+
+    private Runnable nextTask() {
+      Runnable task = lane.tasks.poll();
+      if (task != null) {
+        return task;
+      }
+      for (int i = 1; i < lanes.length; i++) {
+        task = lanes[(lane.index + i) % lanes.length].tasks.poll();
+        if (task != null) {
+          stolenTasks.increment();
+          return task;
+        }
+      }
+      return null;
+    }
+
+    private void runTask(Runnable task) {
+      try {
+        task.run();
+      } catch (Throwable t) {
+        // an Error would otherwise end the worker, and terminate the invoker once all are gone
+        LOGGER.error("Uncaught exception in invocation", t);
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe pool of heap byte buffers, used to hold request payloads so that they do not
+ * need to be allocated for every request. Buffers are grouped by power of two capacities, from 64 bytes
+ * up to the max pooled buffer size. Larger buffers are allocated on demand and never pooled.
+ */
+public class ByteBufferPool {
+
+  public static final int DEFAULT_MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+  public static final int DEFAULT_MAX_BUFFERS_PER_SIZE = 64;
+
+  private static final int MIN_SIZE_SHIFT = 6;
+
+  private final int maxPooledBufferSize;
+  private final int maxBuffersPerSize;
+  private final Queue<ByteBuffer>[] freeBuffers;
+  // Number of buffers in each of the queues above, as ConcurrentLinkedQueue.size() is not O(1).
+  private final AtomicInteger[] freeBufferCounts;
+
+  public ByteBufferPool() {
+    this(DEFAULT_MAX_POOLED_BUFFER_SIZE, DEFAULT_MAX_BUFFERS_PER_SIZE);
+  }
+
+  /**
+   * @param maxPooledBufferSize buffers larger than this are not pooled.
+   * @param maxBuffersPerSize max number of idle buffers kept for each capacity.
+   */
+  @SuppressWarnings("unchecked")
+  public ByteBufferPool(int maxPooledBufferSize, int maxBuffersPerSize) {
+    if (maxPooledBufferSize < 0 || maxBuffersPerSize < 0) {
+      throw new IllegalArgumentException("Negative pool size: max pooled buffer size " +
+          maxPooledBufferSize + ", max buffers per size " + maxBuffersPerSize);
+    }
+    this.maxPooledBufferSize = maxPooledBufferSize;
+    this.maxBuffersPerSize = maxBuffersPerSize;
+    int sizeClasses = maxPooledBufferSize < (1 << MIN_SIZE_SHIFT) ? 0 : sizeClass(maxPooledBufferSize) + 1;
+    freeBuffers = new Queue[sizeClasses];
+    freeBufferCounts = new AtomicInteger[sizeClasses];
+    for (int i = 0; i < sizeClasses; i++) {
+      freeBuffers[i] = new ConcurrentLinkedQueue<>();
+      freeBufferCounts[i] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * Get a buffer with position 0 and limit set to the requested size. The capacity of the buffer
+   * may be larger than the requested size.
+   *
+   * @param size number of bytes needed.
+   * @return a heap byte buffer.
+   */
+  public ByteBuffer acquire(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Negative buffer size " + size);
+    }
+    int sizeClass = sizeClass(size);
+    if (sizeClass >= freeBuffers.length) {
+      return ByteBuffer.allocate(size);
+    }
+    ByteBuffer buffer = freeBuffers[sizeClass].poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(1 << (sizeClass + MIN_SIZE_SHIFT));
+    } else {
+      freeBufferCounts[sizeClass].decrementAndGet();
+      buffer.clear();
+    }
+    buffer.limit(size);
+    return buffer;
+  }
+
+  /**
+   * Give a buffer back to the pool. The buffer must not be used by the caller afterwards.
+   *
+   * @param buffer buffer obtained from {@link #acquire(int)}, can be null.
+   */
+  public void release(ByteBuffer buffer) {
+    if (buffer == null || !buffer.hasArray()) {
+      return;
+    }
+    int capacity = buffer.capacity();
+    if (Integer.bitCount(capacity) != 1 || capacity < (1 << MIN_SIZE_SHIFT)) {
+      // Not allocated by the pool.
+      return;
+    }
+    int sizeClass = sizeClass(capacity);
+    if (sizeClass >= freeBuffers.length) {
+      return;
+    }
+    if (freeBufferCounts[sizeClass].incrementAndGet() > maxBuffersPerSize) {
+      freeBufferCounts[sizeClass].decrementAndGet();
+      return;
+    }
+    freeBuffers[sizeClass].offer(buffer);
+  }
+
+  /**
+   * @return number of idle buffers held by the pool.
+   */
+  public int getIdleBufferCount() {
+    int count = 0;
+    for (AtomicInteger freeBufferCount : freeBufferCounts) {
+      count += freeBufferCount.get();
+    }
+    return count;
+  }
+
+  /**
+   * @return index of the smallest power of two capacity that can hold size bytes.
+   */
+  private static int sizeClass(int size) {
+    if (size <= (1 << MIN_SIZE_SHIFT)) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT;
+  }
+}
@@ -20,7 +20,6 @@
 package org.apache.thrift.transport;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
 
@@ -37,6 +36,7 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.params.CoreConnectionPNames;
+import org.apache.thrift.TByteArrayOutputStream;
 
 /**
  * HTTP implementation of the TTransport interface. Used for working with a
@@ -59,17 +59,32 @@ import org.apache.http.params.CoreConnectionPNames;
  * http.protocol.expect-continue=false
  * http.connection.stalecheck=false
  *
- * Also note that under high load, the HttpURLConnection implementation
- * may exhaust the open file descriptor limit.
+ * Both implementations send the request straight out of the write buffer and
+ * read the whole response before flush() returns, so the underlying connection
+ * is released right away. With HttpURLConnection it goes back to the JDK
+ * keep-alive cache (sized by the http.maxConnections system property), with
+ * HttpClient to its connection manager. Share one HttpClient with a pooling
+ * connection manager across transports to reuse connections to a server.
+ *
+ * HttpURLConnection sends the request in fixed-length streaming mode, so it
+ * can't be sent again: a server asking for authentication (401/407, which
+ * java.net.Authenticator would otherwise answer) or redirecting the request
+ * makes flush() fail with an HttpRetryException. Authenticate up front with a
+ * custom Authorization header (setCustomHeader) and use the final URL, or use
+ * the HttpClient implementation.
  *
  * @see <a href="https://issues.apache.org/jira/browse/THRIFT-970">THRIFT-970</a>
  */
 
 public class THttpClient extends TTransport {
 
+  private static final int MAX_READ_CHUNK = 64 * 1024;
+
   private URL url_ = null;
 
-  private final ByteArrayOutputStream requestBuffer_ = new ByteArrayOutputStream();
+  private final TByteArrayOutputStream requestBuffer_ = new TByteArrayOutputStream(1024);
+
+  private final TByteArrayOutputStream responseBuffer_ = new TByteArrayOutputStream(1024);
 
   private InputStream inputStream_ = null;
 
@@ -213,16 +228,36 @@ public class THttpClient extends TTransport {
       }
   }
 
+  /**
+   * Read the whole response and make it the input of this transport.
+   *
+   * The Content-Length sent by the server only sizes the read chunks, up to
+   * MAX_READ_CHUNK bytes, so a bogus length can't make us allocate more than
+   * the server actually sends.
+   *
+   * @param is response stream.
+   * @param contentLength length of the response, or a negative value if unknown.
+   */
+  private void readResponse(InputStream is, long contentLength) throws IOException {
+    responseBuffer_.reset();
+    int chunk = contentLength >= 0 ? (int) Math.min(contentLength, MAX_READ_CHUNK) : 1024;
+    byte[] buf = new byte[Math.max(chunk, 1)];
+    int len;
+    while ((len = is.read(buf)) != -1) {
+      responseBuffer_.write(buf, 0, len);
+    }
+    if (contentLength >= 0 && responseBuffer_.len() < contentLength) {
+      throw new IOException("Response is truncated after " + responseBuffer_.len() + " of " + contentLength + " bytes");
+    }
+    inputStream_ = new ByteArrayInputStream(responseBuffer_.get(), 0, responseBuffer_.len());
+  }
+
   private void flushUsingHttpClient() throws TTransportException {
     
     if (null == this.client) {
       throw new TTransportException("Null HttpClient, aborting.");
     }
 
-    // Extract request and reset buffer
-    byte[] data = requestBuffer_.toByteArray();
-    requestBuffer_.reset();
-
     HttpPost post = null;
     
     InputStream is = null;
@@ -246,7 +281,8 @@ public class THttpClient extends TTransport {
         }
       }
 
-      post.setEntity(new ByteArrayEntity(data));
+      // Send the request straight out of the write buffer, it is reset once sent.
+      post.setEntity(new ByteArrayEntity(requestBuffer_.get(), 0, requestBuffer_.len()));
       
       HttpResponse response = this.client.execute(this.host, post);
       int responseCode = response.getStatusLine().getStatusCode();
@@ -264,21 +300,10 @@ public class THttpClient extends TTransport {
 
       // Read the responses into a byte array so we can release the connection
       // early. This implies that the whole content will have to be read in
-      // memory, and that momentarily we might use up twice the memory (while the
-      // thrift struct is being read up the chain).
+      // memory.
       // Proceeding differently might lead to exhaustion of connections and thus
       // to app failure.
-      
-      byte[] buf = new byte[1024];
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      
-      int len = 0;
-      do {
-        len = is.read(buf);
-        if (len > 0) {
-          baos.write(buf, 0, len);
-        }
-      } while (-1 != len);
+      readResponse(is, response.getEntity().getContentLength());
       
       try {
         // Indicate we're done with the content.
@@ -287,8 +312,6 @@ public class THttpClient extends TTransport {
         // We ignore this exception, it might only mean the server has no
         // keep-alive capability.
       }
-            
-      inputStream_ = new ByteArrayInputStream(baos.toByteArray());
     } catch (IOException ioe) {
       // Abort method so the connection gets released back to the connection manager
       if (null != post) {
@@ -296,6 +319,7 @@ public class THttpClient extends TTransport {
       }
       throw new TTransportException(ioe);
     } finally {
+      requestBuffer_.reset();
       if (null != is) {
         // Close the entity's input stream, this will release the underlying connection
         try {
@@ -317,10 +341,7 @@ public class THttpClient extends TTransport {
       return;
     }
 
-    // Extract request and reset buffer
-    byte[] data = requestBuffer_.toByteArray();
-    requestBuffer_.reset();
-
+    InputStream is = null;
     try {
       // Create connection object
       HttpURLConnection connection = (HttpURLConnection)url_.openConnection();
@@ -344,19 +365,31 @@ public class THttpClient extends TTransport {
         }
       }
       connection.setDoOutput(true);
+      // Stream the request with a known length rather than letting the connection buffer it.
+      connection.setFixedLengthStreamingMode(requestBuffer_.len());
       connection.connect();
-      connection.getOutputStream().write(data);
+      connection.getOutputStream().write(requestBuffer_.get(), 0, requestBuffer_.len());
 
       int responseCode = connection.getResponseCode();
       if (responseCode != HttpURLConnection.HTTP_OK) {
         throw new TTransportException("HTTP Response code: " + responseCode);
       }
 
-      // Read the responses
-      inputStream_ = connection.getInputStream();
-
+      // Read the whole response and close the stream, so that the connection goes back to the
+      // keep-alive cache instead of staying open until the next flush.
+      is = connection.getInputStream();
+      readResponse(is, connection.getContentLengthLong());
     } catch (IOException iox) {
       throw new TTransportException(iox);
+    } finally {
+      requestBuffer_.reset();
+      if (null != is) {
+        try {
+          is.close();
+        } catch (IOException ioe) {
+          // The response is already read, the connection is just not reused.
+        }
+      }
     }
   }
 }
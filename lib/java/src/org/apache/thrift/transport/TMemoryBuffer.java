@@ -78,6 +78,15 @@ public class TMemoryBuffer extends TTransport {
     return arr_.toString(charset);
   }
 
+  /**
+   * Discard the contents of the buffer so it can be written again. The storage
+   * is kept unless it grew past the initial size.
+   */
+  public void reset() {
+    arr_.reset();
+    pos_ = 0;
+  }
+
   public String inspect() {
     StringBuilder buf = new StringBuilder();
     byte[] bytes = arr_.toByteArray();
@@ -32,7 +32,14 @@ public class TMemoryTransport extends TTransport {
   private final TByteArrayOutputStream outputBuffer;
 
   public TMemoryTransport(byte[] input) {
-    inputBuffer = ByteBuffer.wrap(input);
+    this(input, 0, input.length);
+  }
+
+  /**
+   * Read input from a portion of a byte array, without copying it.
+   */
+  public TMemoryTransport(byte[] input, int offset, int length) {
+    inputBuffer = ByteBuffer.wrap(input, offset, length);
     outputBuffer = new TByteArrayOutputStream(1024);
   }
 
@@ -44,4 +44,24 @@ public abstract class TNonblockingTransport extends TTransport {
   public abstract int read(ByteBuffer buffer) throws IOException;
 
   public abstract int write(ByteBuffer buffer) throws IOException;
+
+  /**
+   * Nonblocking write of a sequence of buffers, in order. Implementations backed by a channel
+   * should override it to write all of them with one gathering write. This default writes the
+   * buffers one by one, and stops at the first one which cannot be fully written.
+   *
+   * @param buffers buffers to write out.
+   * @return number of bytes written.
+   * @see java.nio.channels.GatheringByteChannel#write(ByteBuffer[])
+   */
+  public long write(ByteBuffer[] buffers) throws IOException {
+    long written = 0;
+    for (ByteBuffer buffer : buffers) {
+      written += write(buffer);
+      if (buffer.hasRemaining()) {
+        break;
+      }
+    }
+    return written;
+  }
 }
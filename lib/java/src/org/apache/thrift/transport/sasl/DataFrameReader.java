@@ -19,6 +19,8 @@
 
 package org.apache.thrift.transport.sasl;
 
+import org.apache.thrift.transport.ByteBufferPool;
+
 /**
  * Frames for thrift (serialized) messages.
  */
@@ -27,4 +29,8 @@ public class DataFrameReader extends FrameReader<DataFrameHeaderReader> {
   public DataFrameReader() {
     super(new DataFrameHeaderReader());
   }
+
+  public DataFrameReader(ByteBufferPool payloadPool) {
+    super(new DataFrameHeaderReader(), payloadPool);
+  }
 }
@@ -29,14 +29,18 @@ import static org.apache.thrift.transport.sasl.DataFrameHeaderReader.PAYLOAD_LEN
 /**
  * Write frames of thrift messages. It expects an empty/null header to be provided with a payload
  * to be written out. Non empty headers are considered as error.
+ * The payload is not copied: it is written out right after the length header, so the caller must
+ * not modify the payload array until the frame is complete.
  */
 public class DataFrameWriter extends FrameWriter {
 
+  private final ByteBuffer lengthHeader = ByteBuffer.allocate(PAYLOAD_LENGTH_BYTES);
+
   @Override
   public void withOnlyPayload(byte[] payload, int offset, int length) {
     if (!isComplete()) {
       throw new IllegalStateException("Previsous write is not yet complete, with " +
-          frameBytes.remaining() + " bytes left.");
+          remaining() + " bytes left.");
     }
     frameBytes = buildFrameWithPayload(payload, offset, length);
   }
@@ -52,9 +56,10 @@ public class DataFrameWriter extends FrameWriter {
   }
 
   private ByteBuffer buildFrameWithPayload(byte[] payload, int offset, int length) {
-    byte[] bytes = new byte[PAYLOAD_LENGTH_BYTES + length];
-    EncodingUtils.encodeBigEndian(length, bytes, 0);
-    System.arraycopy(payload, offset, bytes, PAYLOAD_LENGTH_BYTES, length);
-    return ByteBuffer.wrap(bytes);
+    // The previous frame is complete, so the header buffer can be reused.
+    lengthHeader.clear();
+    EncodingUtils.encodeBigEndian(length, lengthHeader.array(), 0);
+    payloadBytes = ByteBuffer.wrap(payload, offset, length);
+    return lengthHeader;
   }
 }
@@ -19,25 +19,35 @@
 
 package org.apache.thrift.transport.sasl;
 
+import org.apache.thrift.transport.ByteBufferPool;
 import org.apache.thrift.transport.TEOFException;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Read frames from a transport. Each frame has a header and a payload. A header will indicate
  * the size of the payload and other informations about how to decode payload.
  * Implementations should subclass it by providing a header reader implementation.
+ * Payload buffers can optionally be taken from a {@link ByteBufferPool}, in which case they are
+ * given back to the pool when the reader is cleared.
  *
  * @param <T> Header type.
  */
 public abstract class FrameReader<T extends FrameHeaderReader> {
   private final T header;
+  private final ByteBufferPool payloadPool;
   private ByteBuffer payload;
 
   protected FrameReader(T header) {
+    this(header, null);
+  }
+
+  protected FrameReader(T header, ByteBufferPool payloadPool) {
     this.header = header;
+    this.payloadPool = payloadPool;
   }
 
   /**
@@ -52,7 +62,8 @@ public abstract class FrameReader<T extends FrameHeaderReader> {
   public boolean read(TTransport transport) throws TSaslNegotiationException, TTransportException {
     if (!header.isComplete()) {
       if (readHeader(transport)) {
-        payload = ByteBuffer.allocate(header.payloadSize());
+        payload = payloadPool == null ? ByteBuffer.allocate(header.payloadSize())
+            : payloadPool.acquire(header.payloadSize());
       } else {
         return false;
       }
@@ -107,7 +118,24 @@ public abstract class FrameReader<T extends FrameHeaderReader> {
    * @return byte array of the payload
    */
   public byte[] getPayload() {
-    return payload.array();
+    byte[] bytes = payload.array();
+    if (payload.arrayOffset() == 0 && bytes.length == header.payloadSize()) {
+      return bytes;
+    }
+    return Arrays.copyOfRange(bytes, payload.arrayOffset(), payload.arrayOffset() + header.payloadSize());
+  }
+
+  /**
+   * Get the payload without copying it out of a pooled buffer. The returned buffer is backed by
+   * an array, and is only valid until the reader is cleared.
+   *
+   * @return byte buffer of the payload, with position 0 and limit at the payload size
+   */
+  public ByteBuffer getPayloadBuffer() {
+    ByteBuffer payloadBuffer = payload.duplicate();
+    payloadBuffer.position(0);
+    payloadBuffer.limit(header.payloadSize());
+    return payloadBuffer;
   }
 
   /**
@@ -131,6 +159,9 @@ public abstract class FrameReader<T extends FrameHeaderReader> {
    */
   public void clear() {
     header.clear();
+    if (payloadPool != null) {
+      payloadPool.release(payload);
+    }
     payload = null;
   }
 
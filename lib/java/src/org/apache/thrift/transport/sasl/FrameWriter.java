@@ -29,7 +29,11 @@ import org.apache.thrift.transport.TNonblockingTransport;
  */
 public abstract class FrameWriter {
 
+  // The whole frame, or only its header if the payload is kept in a separate buffer.
   protected ByteBuffer frameBytes;
+  // Optional payload to be written right after frameBytes, without copying it into the frame.
+  protected ByteBuffer payloadBytes;
+  private final ByteBuffer[] gatheringBuffers = new ByteBuffer[2];
 
   /**
    * Provide (maybe empty) header and payload to the frame. This can be called only when isComplete
@@ -68,8 +72,9 @@ public abstract class FrameWriter {
                                    byte[] payload, int payloadOffset, int payloadLength) {
     if (!isComplete()) {
       throw new IllegalStateException("Previsous write is not yet complete, with " +
-          frameBytes.remaining() + " bytes left.");
+          remaining() + " bytes left.");
     }
+    payloadBytes = null;
     frameBytes = buildFrame(header, headerOffset, headerLength, payload, payloadOffset, payloadLength);
   }
 
@@ -93,16 +98,27 @@ public abstract class FrameWriter {
    */
   public abstract void withOnlyPayload(byte[] payload, int offset, int length);
 
+  /**
+   * Build the frame to write. Implementations may also set payloadBytes, in which case the
+   * returned buffer only holds the bytes preceding the payload.
+   */
   protected abstract ByteBuffer buildFrame(byte[] header, int headerOffset, int headerLength,
                                            byte[] payload, int payloadOffset, int payloadeLength);
 
   /**
-   * Nonblocking write to the underlying transport.
+   * Nonblocking write to the underlying transport. When the payload is held separately, header
+   * and payload are written with a single gathering write.
    *
    * @throws IOException
    */
   public void write(TNonblockingTransport transport) throws IOException {
-    transport.write(frameBytes);
+    if (payloadBytes == null) {
+      transport.write(frameBytes);
+    } else {
+      gatheringBuffers[0] = frameBytes;
+      gatheringBuffers[1] = payloadBytes;
+      transport.write(gatheringBuffers);
+    }
   }
 
   /**
@@ -110,7 +126,7 @@ public abstract class FrameWriter {
    * @return true when no more data needs to be written out
    */
   public boolean isComplete() {
-    return frameBytes == null || !frameBytes.hasRemaining();
+    return remaining() == 0;
   }
 
   /**
@@ -118,5 +134,16 @@ public abstract class FrameWriter {
    */
   public void clear() {
     frameBytes = null;
+    payloadBytes = null;
+    gatheringBuffers[0] = null;
+    gatheringBuffers[1] = null;
+  }
+
+  /**
+   * @return number of bytes of the current frame not yet written out.
+   */
+  protected int remaining() {
+    int remaining = frameBytes == null ? 0 : frameBytes.remaining();
+    return payloadBytes == null ? remaining : remaining + payloadBytes.remaining();
   }
 }
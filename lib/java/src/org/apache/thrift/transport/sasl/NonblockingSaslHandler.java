@@ -20,6 +20,7 @@
 package org.apache.thrift.transport.sasl;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.charset.StandardCharsets;
 
@@ -31,6 +32,7 @@ import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.server.ServerContext;
 import org.apache.thrift.server.TServerEventHandler;
+import org.apache.thrift.transport.ByteBufferPool;
 import org.apache.thrift.transport.TMemoryTransport;
 import org.apache.thrift.transport.TNonblockingTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -91,6 +93,18 @@ public class NonblockingSaslHandler {
                                 TSaslServerFactory saslServerFactory, TSaslProcessorFactory processorFactory,
                                 TProtocolFactory inputProtocolFactory, TProtocolFactory outputProtocolFactory,
                                 TServerEventHandler eventHandler) {
+    this(selectionKey, underlyingTransport, saslServerFactory, processorFactory, inputProtocolFactory,
+        outputProtocolFactory, eventHandler, null);
+  }
+
+  /**
+   * @param requestBufferPool pool of buffers holding request payloads, it can be shared by all the
+   *                          connections of a server. Null to allocate a buffer per request.
+   */
+  public NonblockingSaslHandler(SelectionKey selectionKey, TNonblockingTransport underlyingTransport,
+                                TSaslServerFactory saslServerFactory, TSaslProcessorFactory processorFactory,
+                                TProtocolFactory inputProtocolFactory, TProtocolFactory outputProtocolFactory,
+                                TServerEventHandler eventHandler, ByteBufferPool requestBufferPool) {
     this.selectionKey = selectionKey;
     this.underlyingTransport = underlyingTransport;
     this.saslServerFactory = saslServerFactory;
@@ -101,7 +115,7 @@ public class NonblockingSaslHandler {
 
     saslResponse = new SaslNegotiationFrameReader();
     saslChallenge = new SaslNegotiationFrameWriter();
-    requestReader = new DataFrameReader();
+    requestReader = new DataFrameReader(requestBufferPool);
     responseWriter = new DataFrameWriter();
   }
 
@@ -318,23 +332,35 @@ public class NonblockingSaslHandler {
 
   private void executeProcessing() {
     try {
-      byte[] inputPayload = requestReader.getPayload();
-      requestReader.clear();
-      byte[] rawInput = dataProtected ? saslPeer.unwrap(inputPayload) : inputPayload;
-      TMemoryTransport memoryTransport = new TMemoryTransport(rawInput);
-      TProtocol requestProtocol = inputProtocolFactory.getProtocol(memoryTransport);
-      TProtocol responseProtocol = outputProtocolFactory.getProtocol(memoryTransport);
-
-      if (eventHandler != null) {
-        if (!serverContextCreated) {
-          serverContext = eventHandler.createContext(requestProtocol, responseProtocol);
-          serverContextCreated = true;
+      TMemoryTransport memoryTransport;
+      // The payload may live in a pooled buffer, which is only given back after processing.
+      // While processing, this thread owns the request reader: close() leaves it alone.
+      try {
+        ByteBuffer inputPayload = requestReader.getPayloadBuffer();
+        if (dataProtected) {
+          memoryTransport = new TMemoryTransport(saslPeer.unwrap(inputPayload.array(),
+              inputPayload.arrayOffset(), inputPayload.remaining()));
+        } else {
+          memoryTransport = new TMemoryTransport(inputPayload.array(), inputPayload.arrayOffset(),
+              inputPayload.remaining());
+        }
+        TProtocol requestProtocol = inputProtocolFactory.getProtocol(memoryTransport);
+        TProtocol responseProtocol = outputProtocolFactory.getProtocol(memoryTransport);
+
+        if (eventHandler != null) {
+          if (!serverContextCreated) {
+            serverContext = eventHandler.createContext(requestProtocol, responseProtocol);
+            serverContextCreated = true;
+          }
+          eventHandler.processContext(serverContext, memoryTransport, memoryTransport);
         }
-        eventHandler.processContext(serverContext, memoryTransport, memoryTransport);
-      }
 
-      TProcessor processor = processorFactory.getProcessor(this);
-      processor.process(requestProtocol, responseProtocol);
+        TProcessor processor = processorFactory.getProcessor(this);
+        processor.process(requestProtocol, responseProtocol);
+      } finally {
+        // before the next phase is set, after which the network thread reads again
+        requestReader.clear();
+      }
       TByteArrayOutputStream rawOutput = memoryTransport.getOutput();
       if (rawOutput.len() == 0) {
         // This is a oneway request, no response to send back. Waiting for next incoming request.
@@ -345,6 +371,7 @@ public class NonblockingSaslHandler {
         byte[] outputPayload = saslPeer.wrap(rawOutput.get(), 0, rawOutput.len());
         responseWriter.withOnlyPayload(outputPayload);
       } else {
+        // Written out as is, rawOutput is not touched again before the response is complete.
         responseWriter.withOnlyPayload(rawOutput.get(), 0 ,rawOutput.len());
       }
       nextPhase = Phase.WRITING_RESPONSE;
@@ -413,6 +440,11 @@ public class NonblockingSaslHandler {
   public void close() {
     underlyingTransport.close();
     selectionKey.cancel();
+    if (currentPhase != Phase.PROCESSING) {
+      // A request being processed on another thread still reads the payload, and
+      // executeProcessing gives it back to the pool when it is done.
+      requestReader.clear();
+    }
     if (saslPeer != null) {
       saslPeer.dispose();
     }
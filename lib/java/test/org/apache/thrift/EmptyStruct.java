@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * Struct without fields, used as the arguments and the result of methods in tests.
+ */
+public class EmptyStruct implements TBase<EmptyStruct, TFieldIdEnum> {
+  private static final TStruct STRUCT_DESC = new TStruct("EmptyStruct");
+
+  @Override
+  public void read(TProtocol iprot) throws TException {
+    iprot.readStructBegin();
+    TField field;
+    while ((field = iprot.readFieldBegin()).type != TType.STOP) {
+      TProtocolUtil.skip(iprot, field.type);
+      iprot.readFieldEnd();
+    }
+    iprot.readStructEnd();
+  }
+
+  @Override
+  public void write(TProtocol oprot) throws TException {
+    oprot.writeStructBegin(STRUCT_DESC);
+    oprot.writeFieldStop();
+    oprot.writeStructEnd();
+  }
+
+  @Override
+  public TFieldIdEnum fieldForId(int fieldId) {
+    return null;
+  }
+
+  @Override
+  public boolean isSet(TFieldIdEnum field) {
+    return false;
+  }
+
+  @Override
+  public Object getFieldValue(TFieldIdEnum field) {
+    return null;
+  }
+
+  @Override
+  public void setFieldValue(TFieldIdEnum field, Object value) {
+  }
+
+  @Override
+  public EmptyStruct deepCopy() {
+    return new EmptyStruct();
+  }
+
+  @Override
+  public void clear() {
+  }
+
+  @Override
+  public int compareTo(EmptyStruct other) {
+    return 0;
+  }
+}
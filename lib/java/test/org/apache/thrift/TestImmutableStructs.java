@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TTupleProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import thrift.test.immutable.Document;
+import thrift.test.immutable.Invalid;
+import thrift.test.immutable.Point;
+import thrift.test.immutable.Shape;
+
+// Tests the code generated with the immutable_structs=cache_serialized option.
+//
+public class TestImmutableStructs {
+
+  private static final TProtocolFactory[] FACTORIES = {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TJSONProtocol.Factory(),
+      new TTupleProtocol.Factory()
+  };
+
+  private static Document document() {
+    Document document = new Document();
+    document.setId(42);
+    document.setTitle("title");
+    document.setPayload(new byte[] {1, 2, 3});
+    document.setOrigin(new Point(1, 2));
+    document.setPoints(new ArrayList<Point>(Arrays.asList(new Point(3, 4), new Point(5, 6))));
+    Map<String, List<Long>> index = new HashMap<String, List<Long>>();
+    index.put("a", new ArrayList<Long>(Arrays.asList(1L, 2L)));
+    document.setIndex(index);
+    document.setTags(new HashSet<String>(Arrays.asList("x", "y")));
+    document.setShape(Shape.radius(7));
+    Map<String, Long> counts = new HashMap<String, Long>();
+    counts.put("a", 1L);
+    counts.put("b", 2L);
+    document.setCounts(counts);
+    return document;
+  }
+
+  private static void assertFrozen(Runnable change) {
+    try {
+      change.run();
+      Assert.fail("Expected the frozen struct not to change");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFrozenStructsCannotChange() throws Exception {
+    final Document document = document().freeze();
+    assertFrozen(new Runnable() { public void run() { document.setId(1); } });
+    assertFrozen(new Runnable() { public void run() { document.unsetTitle(); } });
+    assertFrozen(new Runnable() { public void run() { document.setVersionIsSet(true); } });
+    assertFrozen(new Runnable() { public void run() { document.setPayload(new byte[0]); } });
+    assertFrozen(new Runnable() { public void run() { document.addToTags("z"); } });
+    assertFrozen(new Runnable() { public void run() { document.putToIndex("b", null); } });
+    assertFrozen(new Runnable() { public void run() { document.clear(); } });
+    assertFrozen(new Runnable() { public void run() { document.setFieldValue(Document._Fields.ID, 1L); } });
+    assertFrozen(new Runnable() { public void run() { document.getOrigin().setX(0); } });
+    assertFrozen(new Runnable() { public void run() { document.getPoints().get(0).setX(0); } });
+    assertFrozen(new Runnable() { public void run() { document.getPoints().clear(); } });
+    assertFrozen(new Runnable() { public void run() { document.getIndex().get("a").add(3L); } });
+    assertFrozen(new Runnable() { public void run() { document.getTags().remove("x"); } });
+    try {
+      document.read(new TBinaryProtocol(new TMemoryBuffer(0)));
+      Assert.fail("Expected the frozen struct not to be read into");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    Assert.assertEquals(document(), document);
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, document.getPayload());
+
+    // Copies of frozen structs can be changed
+    Document copy = document.deepCopy();
+    copy.setId(1);
+    copy.getPoints().get(0).setX(0);
+    copy.addToTags("z");
+    Assert.assertEquals(42, document.getId());
+    Assert.assertEquals(3, document.getPoints().get(0).getX());
+
+    // Containers of base types are shared with the copy until it changes them
+    copy = document.deepCopy();
+    Assert.assertEquals(document, copy);
+    Assert.assertEquals(0, document.compareTo(copy));
+    copy.putToCounts("c", 3L);
+    copy.getTags().remove("x");
+    Assert.assertEquals(document().getCounts(), document.getCounts());
+    Assert.assertEquals(document().getTags(), document.getTags());
+    Assert.assertTrue(document.compareTo(copy) > 0);
+    Assert.assertEquals(copy, copy.freeze().deepCopy());
+
+    final Invalid invalid = new Invalid("reason").freeze();
+    assertFrozen(new Runnable() { public void run() { invalid.setReason(null); } });
+  }
+
+  @Test
+  public void testMemoizedHashCode() {
+    Document document = document().freeze();
+    int hashCode = document().hashCode();
+    Assert.assertEquals(hashCode, document.hashCode());
+    Assert.assertEquals(hashCode, document.hashCode());
+    Assert.assertEquals(document.getOrigin().hashCode(), new Point(1, 2).hashCode());
+  }
+
+  @Test
+  public void testCachedSerializedForm() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      byte[] expected = new TSerializer(factory).serialize(document());
+      Document document = document().freeze();
+      for (int i = 0; i < 3; i++) {
+        Assert.assertArrayEquals(expected, new TSerializer(factory).serialize(document));
+        Assert.assertEquals(expected.length, document.serializedSize(factory));
+      }
+
+      // Frozen structs nested in structs which are not
+      Document outer = document();
+      outer.setOrigin(new Point(1, 2).freeze());
+      outer.getPoints().get(1).freeze();
+      Assert.assertArrayEquals(expected, new TSerializer(factory).serialize(outer));
+
+      Document read = new Document();
+      new TDeserializer(factory).deserialize(read, expected);
+      Assert.assertEquals(document, read);
+      read.setId(1);
+    }
+  }
+}
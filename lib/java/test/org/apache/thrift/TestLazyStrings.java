@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TTupleProtocol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import thrift.test.lazy.Entry;
+import thrift.test.lazy.Message;
+
+// Tests the code generated with the lazy_strings and reuse-objects options.
+//
+public class TestLazyStrings {
+
+  private static final TProtocolFactory[] FACTORIES = {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TJSONProtocol.Factory(),
+      new TTupleProtocol.Factory()
+  };
+
+  private static Message message() {
+    Message message = new Message();
+    message.setSource("source");
+    message.setText("t\u00e9xt \u2603");
+    message.setNote("note");
+    message.setPayload(new byte[] {1, 2, 3});
+    message.setWords(new ArrayList<String>(Arrays.asList("a", "b")));
+    message.setEntry(new Entry("key", 1));
+    message.addToEntries(new Entry("other", 2));
+    return message;
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      Message expected = message();
+      byte[] bytes = new TSerializer(factory).serialize(expected);
+
+      Message message = new Message();
+      new TDeserializer(factory).deserialize(message, bytes);
+      Assert.assertEquals(expected, message);
+      Assert.assertEquals(expected.hashCode(), message.hashCode());
+      Assert.assertEquals(0, expected.compareTo(message));
+      Assert.assertEquals(expected.toString(), message.toString());
+
+      message = new Message();
+      new TDeserializer(factory).deserialize(message, bytes);
+      Assert.assertArrayEquals(bytes, new TSerializer(factory).serialize(message));
+      Assert.assertEquals(expected, message.deepCopy());
+      Assert.assertEquals("t\u00e9xt \u2603", message.getText());
+      Assert.assertEquals("event", message.getKind());
+      Assert.assertEquals("key", message.getEntry().getKey());
+    }
+  }
+
+  @Test
+  public void testStringsDecodedOnUse() throws Exception {
+    byte[] bytes = new TSerializer(new TBinaryProtocol.Factory()).serialize(message());
+    Message message = new Message();
+    new TDeserializer(new TBinaryProtocol.Factory()).deserialize(message, bytes);
+    Assert.assertTrue(message.isSetText());
+
+    // The strings are views of the bytes read until they are used
+    int text = indexOf(bytes, "t\u00e9xt".getBytes(StandardCharsets.UTF_8));
+    bytes[text] = 'T';
+    Assert.assertEquals("T\u00e9xt \u2603", message.getText());
+    bytes[text] = 't';
+    Assert.assertEquals("T\u00e9xt \u2603", message.getText());
+    Assert.assertSame(message.getText(), message.getText());
+
+    Message copy = message.deepCopy();
+    Assert.assertEquals("source", copy.getSource());
+    Assert.assertEquals("note", copy.getNote());
+
+    message.setSource("changed");
+    Assert.assertEquals("changed", message.getSource());
+    Assert.assertEquals("source", copy.getSource());
+    message.unsetNote();
+    Assert.assertFalse(message.isSetNote());
+    Assert.assertNull(message.getNote());
+    copy.setNoteIsSet(false);
+    Assert.assertFalse(copy.isSetNote());
+    copy.clear();
+    Assert.assertFalse(copy.isSetText());
+    Assert.assertEquals("event", copy.getKind());
+  }
+
+  @Test
+  public void testDeserializeReused() throws Exception {
+    TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+    TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+    Message second = message();
+    second.unsetNote();
+    second.setKind("other");
+    byte[] first = serializer.serialize(message());
+    byte[] next = serializer.serialize(second);
+
+    Message message = new Message();
+    deserializer.deserializeReused(message, first, 0, first.length);
+    Entry entry = message.getEntry();
+    Assert.assertEquals(message(), message);
+    deserializer.deserializeReused(message, next, 0, next.length);
+    Assert.assertFalse(message.isSetNote());
+    Assert.assertEquals("other", message.getKind());
+    Assert.assertEquals(second.getText(), message.getText());
+    Assert.assertSame(entry, message.getEntry());
+    Assert.assertEquals(second.getEntry(), message.getEntry());
+  }
+
+  private static int indexOf(byte[] bytes, byte[] part) {
+    for (int i = 0; i + part.length <= bytes.length; i++) {
+      if (Arrays.equals(part, Arrays.copyOfRange(bytes, i, i + part.length))) {
+        return i;
+      }
+    }
+    throw new AssertionError("not found");
+  }
+}
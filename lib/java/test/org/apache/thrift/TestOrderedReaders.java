@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import thrift.test.ordered.Point;
+import thrift.test.ordered.Record;
+import thrift.test.ordered.Shape;
+
+// Tests the code generated with the ordered_readers option.
+//
+public class TestOrderedReaders {
+
+  private static final TProtocolFactory[] FACTORIES = {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TJSONProtocol.Factory()
+  };
+
+  private static Record full() {
+    Record record = new Record();
+    record.setCount(3);
+    record.setId(1L << 40);
+    record.setScore(0.5);
+    record.setName("name");
+    record.setActive(true);
+    record.setLevel((short) -7);
+    record.setFlags((byte) 0x7f);
+    record.setLabel("label");
+    record.setShape(Shape.SQUARE);
+    record.setOrigin(new Point(1, -1));
+    record.setValues(Arrays.asList(1, 2, 3));
+    record.setCounters(Collections.singletonMap("hits", 42L));
+    record.setRatio(-0.25);
+    record.setLegacy(9);
+    record.setVersion(2);
+    return record;
+  }
+
+  private static Record read(TMemoryBuffer buffer) throws TException {
+    Record record = new Record();
+    record.read(new TBinaryProtocol(buffer));
+    return record;
+  }
+
+  private static void writeField(TProtocol protocol, byte type, int id) throws TException {
+    protocol.writeFieldBegin(new TField("", type, (short) id));
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      Record expected = full();
+      Record read = new Record();
+      new TDeserializer(factory).deserialize(read, new TSerializer(factory).serialize(expected));
+      Assert.assertEquals(expected, read);
+
+      // Only the required field and the fields with default requiredness are written
+      Record sparse = new Record();
+      sparse.setVersion(5);
+      read = new Record();
+      new TDeserializer(factory).deserialize(read, new TSerializer(factory).serialize(sparse));
+      Assert.assertEquals(sparse, read);
+      Assert.assertFalse(read.isSetLevel());
+      Assert.assertFalse(read.isSetRatio());
+      Assert.assertFalse(read.isSetLegacy());
+      Assert.assertTrue(read.isSetCount());
+      Assert.assertTrue(read.isSetVersion());
+    }
+  }
+
+  @Test
+  public void testReadsFieldsOutOfOrder() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TProtocol protocol = new TBinaryProtocol(buffer);
+    protocol.writeStructBegin(new TStruct());
+    writeField(protocol, TType.I64, 20);
+    protocol.writeI64(4);
+    writeField(protocol, TType.I16, 6);
+    protocol.writeI16((short) 12);
+    writeField(protocol, TType.I32, 1);
+    protocol.writeI32(8);
+    writeField(protocol, TType.I32, -1);
+    protocol.writeI32(-5);
+    protocol.writeFieldStop();
+    protocol.writeStructEnd();
+
+    Record record = read(buffer);
+    Assert.assertEquals(4, record.getVersion());
+    Assert.assertEquals(12, record.getLevel());
+    Assert.assertEquals(8, record.getCount());
+    Assert.assertEquals(-5, record.getLegacy());
+    Assert.assertFalse(record.isSetId());
+    Assert.assertFalse(record.isSetFlags());
+  }
+
+  @Test
+  public void testSkipsUnknownAndMismatchedFields() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TProtocol protocol = new TBinaryProtocol(buffer);
+    protocol.writeStructBegin(new TStruct());
+    writeField(protocol, TType.I32, 1);
+    protocol.writeI32(8);
+    writeField(protocol, TType.STRING, 2);
+    protocol.writeString("not an i64");
+    writeField(protocol, TType.DOUBLE, 3);
+    protocol.writeDouble(1.5);
+    writeField(protocol, TType.STRING, 13);
+    protocol.writeString("unknown");
+    writeField(protocol, TType.DOUBLE, 15);
+    protocol.writeDouble(2.5);
+    writeField(protocol, TType.I64, 20);
+    protocol.writeI64(1);
+    protocol.writeFieldStop();
+    protocol.writeStructEnd();
+
+    Record record = read(buffer);
+    Assert.assertEquals(8, record.getCount());
+    Assert.assertFalse(record.isSetId());
+    Assert.assertEquals(1.5, record.getScore(), 0.0);
+    Assert.assertEquals(2.5, record.getRatio(), 0.0);
+    Assert.assertEquals(1, record.getVersion());
+  }
+
+  @Test
+  public void testChecksRequiredFields() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TProtocol protocol = new TBinaryProtocol(buffer);
+    protocol.writeStructBegin(new TStruct());
+    writeField(protocol, TType.I32, 1);
+    protocol.writeI32(8);
+    protocol.writeFieldStop();
+    protocol.writeStructEnd();
+
+    try {
+      read(buffer);
+      Assert.fail("Expected the missing required field to be reported");
+    } catch (TProtocolException e) {
+      Assert.assertTrue(e.getMessage().contains("version"));
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TTupleProtocol;
+import org.junit.Assert;
+import org.junit.Test;
+
+import thrift.test.primitive.FeatureVector;
+
+// Tests the code generated with the primitive_collections option.
+//
+public class TestPrimitiveCollectionsOption {
+
+  private static final TProtocolFactory[] FACTORIES = {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TJSONProtocol.Factory(),
+      new TTupleProtocol.Factory()
+  };
+
+  private static FeatureVector boxed() {
+    FeatureVector vector = new FeatureVector();
+    List<Integer> ids = new ArrayList<Integer>();
+    for (int i = 0; i < 2000; i++) {
+      ids.add(i * 37 - 20000);
+    }
+    vector.setIds(ids);
+    vector.setTimestamps(Arrays.asList(Long.MIN_VALUE, 0L, 1L << 40));
+    vector.setWeights(Arrays.asList(0.5, -0.0, Double.NaN));
+    vector.setTags(new HashSet<Integer>(Arrays.asList(3, -1, 7)));
+    vector.setSeen(new HashSet<Long>(Arrays.asList(1L << 50, -2L)));
+    Map<Integer, String> names = new HashMap<Integer, String>();
+    names.put(1, "one");
+    names.put(-2, "minus two");
+    vector.setNames(names);
+    Map<Long, List<Double>> series = new HashMap<Long, List<Double>>();
+    series.put(10L, Arrays.asList(1.0, 2.0));
+    series.put(11L, new ArrayList<Double>());
+    vector.setSeries(series);
+    vector.setLabels(Arrays.asList("a", "b"));
+    return vector;
+  }
+
+  @Test
+  public void testReadsIntoPrimitiveCollections() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      FeatureVector expected = boxed();
+      FeatureVector read = new FeatureVector();
+      new TDeserializer(factory).deserialize(read, new TSerializer(factory).serialize(expected));
+
+      Assert.assertEquals(expected, read);
+      Assert.assertTrue(read.getIds() instanceof TIntArrayList);
+      Assert.assertTrue(read.getTimestamps() instanceof TLongArrayList);
+      Assert.assertTrue(read.getWeights() instanceof TDoubleArrayList);
+      Assert.assertTrue(read.getTags() instanceof TIntHashSet);
+      Assert.assertTrue(read.getSeen() instanceof TLongHashSet);
+      Assert.assertTrue(read.getNames() instanceof TIntHashMap);
+      Assert.assertTrue(read.getSeries() instanceof TLongHashMap);
+      Assert.assertTrue(read.getSeries().get(10L) instanceof TDoubleArrayList);
+    }
+  }
+
+  @Test
+  public void testWritesPrimitiveCollectionsLikeBoxedOnes() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      FeatureVector expected = boxed();
+      FeatureVector primitive = new FeatureVector();
+      new TDeserializer(factory).deserialize(primitive, new TSerializer(factory).serialize(expected));
+
+      FeatureVector read = new FeatureVector();
+      new TDeserializer(factory).deserialize(read, new TSerializer(factory).serialize(primitive));
+      Assert.assertEquals(expected, read);
+
+      // Lists keep their order, so both write the same bytes
+      FeatureVector lists = new FeatureVector();
+      lists.setIds(expected.getIds());
+      lists.setWeights(expected.getWeights());
+      FeatureVector primitiveLists = new FeatureVector();
+      primitiveLists.setIds(primitive.getIds());
+      primitiveLists.setWeights(primitive.getWeights());
+      Assert.assertArrayEquals(new TSerializer(factory).serialize(lists),
+          new TSerializer(factory).serialize(primitiveLists));
+    }
+  }
+
+  @Test
+  public void testAllocatesPrimitiveCollections() {
+    FeatureVector vector = new FeatureVector();
+    vector.addToIds(1);
+    vector.addToTags(2);
+    vector.putToNames(3, "three");
+    Assert.assertTrue(vector.getIds() instanceof TIntArrayList);
+    Assert.assertTrue(vector.getTags() instanceof TIntHashSet);
+    Assert.assertTrue(vector.getNames() instanceof TIntHashMap);
+
+    FeatureVector copy = boxed().deepCopy();
+    Assert.assertEquals(boxed(), copy);
+    Assert.assertTrue(copy.getIds() instanceof TIntArrayList);
+    Assert.assertTrue(copy.getSeen() instanceof TLongHashSet);
+    Assert.assertEquals(0, copy.compareTo(boxed()));
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.thrift;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestProcessFunction {
+
+  @Test
+  public void testAllocatesStructsByDefault() throws Exception {
+    RecordingFunction fn = new RecordingFunction("echo");
+    TBaseProcessor<Object> processor = processor(fn);
+    call(processor, "echo");
+    call(processor, "echo");
+
+    Assert.assertFalse(fn.isReuseStructs());
+    Assert.assertNotSame(fn.args.get(0), fn.args.get(1));
+    Assert.assertNotSame(fn.results.get(0), fn.results.get(1));
+  }
+
+  @Test
+  public void testReusesStructsOfThread() throws Exception {
+    RecordingFunction fn = new RecordingFunction("echo");
+    TBaseProcessor<Object> processor = processor(fn);
+    processor.setReuseStructs(true);
+    Assert.assertTrue(fn.isReuseStructs());
+    Assert.assertEquals(TMessageType.REPLY, call(processor, "echo").readMessageBegin().type);
+    Assert.assertEquals(TMessageType.REPLY, call(processor, "echo").readMessageBegin().type);
+
+    Assert.assertSame(fn.args.get(0), fn.args.get(1));
+    Assert.assertSame(fn.results.get(0), fn.results.get(1));
+    Assert.assertNotSame(fn.args.get(0), fn.results.get(0));
+
+    // other threads get structs of their own
+    final TBaseProcessor<Object> shared = processor;
+    Thread other = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          call(shared, "echo");
+        } catch (TException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    other.start();
+    other.join();
+    Assert.assertEquals(3, fn.args.size());
+    Assert.assertNotSame(fn.args.get(0), fn.args.get(2));
+    Assert.assertNotSame(fn.results.get(0), fn.results.get(2));
+  }
+
+  @Test
+  public void testClearsReusedStructsAfterCall() throws Exception {
+    RecordingFunction fn = new RecordingFunction("echo");
+    TBaseProcessor<Object> processor = processor(fn);
+    processor.setReuseStructs(true);
+    call(processor, "echo");
+
+    // nothing the handler was given or returned stays reachable until the next call
+    Assert.assertEquals(1, fn.args.get(0).clears);
+    Assert.assertEquals(1, fn.results.get(0).clears);
+    call(processor, "echo");
+    Assert.assertEquals(2, fn.args.get(0).clears);
+    Assert.assertEquals(2, fn.results.get(0).clears);
+  }
+
+  @Test
+  public void testReentrantCallsAllocateStructs() throws Exception {
+    final TBaseProcessor<Object>[] processor = new TBaseProcessor[1];
+    RecordingFunction fn = new RecordingFunction("echo") {
+      private boolean nested = false;
+
+      @Override
+      public TBase getResult(Object iface, EmptyStruct args) throws TException {
+        if (!nested) {
+          nested = true;
+          call(processor[0], "echo");
+        }
+        return super.getResult(iface, args);
+      }
+    };
+    processor[0] = processor(fn);
+    processor[0].setReuseStructs(true);
+    call(processor[0], "echo");
+
+    // the nested call runs while the outer call still uses the structs of the thread
+    Assert.assertEquals(2, fn.args.size());
+    Assert.assertNotSame(fn.args.get(0), fn.args.get(1));
+    Assert.assertNotSame(fn.results.get(0), fn.results.get(1));
+
+    call(processor[0], "echo");
+    Assert.assertSame(fn.args.get(1), fn.args.get(2));
+    Assert.assertSame(fn.results.get(1), fn.results.get(2));
+  }
+
+  private static TBaseProcessor<Object> processor(ProcessFunction<Object, ? extends TBase> fn) {
+    Map<String, ProcessFunction<Object, ? extends TBase>> processMap =
+        new HashMap<String, ProcessFunction<Object, ? extends TBase>>();
+    processMap.put(fn.getMethodName(), fn);
+    return new TBaseProcessor<Object>(new Object(), processMap) {};
+  }
+
+  private static TProtocol call(TProcessor processor, String method) throws TException {
+    TMemoryBuffer request = new TMemoryBuffer(64);
+    TProtocol in = new TBinaryProtocol(request);
+    in.writeMessageBegin(new TMessage(method, TMessageType.CALL, 1));
+    new EmptyStruct().write(in);
+    in.writeMessageEnd();
+    TProtocol out = new TBinaryProtocol(new TMemoryBuffer(64));
+    processor.process(in, out);
+    return out;
+  }
+
+  private static class ClearCountingStruct extends EmptyStruct {
+    int clears = 0;
+
+    @Override
+    public void clear() {
+      clears++;
+    }
+  }
+
+  private static class RecordingFunction extends ProcessFunction<Object, EmptyStruct> {
+    final List<ClearCountingStruct> args = new ArrayList<ClearCountingStruct>();
+    final List<ClearCountingStruct> results = new ArrayList<ClearCountingStruct>();
+
+    RecordingFunction(String methodName) {
+      super(methodName);
+    }
+
+    @Override
+    protected boolean isOneway() {
+      return false;
+    }
+
+    @Override
+    public TBase getResult(Object iface, EmptyStruct args) throws TException {
+      ClearCountingStruct result = getResultInstance();
+      this.args.add((ClearCountingStruct) args);
+      this.results.add(result);
+      return result;
+    }
+
+    @Override
+    public EmptyStruct getEmptyArgsInstance() {
+      return new ClearCountingStruct();
+    }
+
+    @Override
+    public EmptyStruct getEmptyResultInstance() {
+      return new ClearCountingStruct();
+    }
+  }
+}
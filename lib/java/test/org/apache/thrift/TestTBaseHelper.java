@@ -19,12 +19,19 @@
 package org.apache.thrift;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import junit.framework.TestCase;
 
@@ -206,4 +213,98 @@ public class TestTBaseHelper extends TestCase {
 
     assertNull(TBaseHelper.copyBinary((byte[])null));
   }
+
+  public void testFreeze() throws Exception {
+    Map<String, List<Integer>> map = new HashMap<String, List<Integer>>();
+    map.put("a", new ArrayList<Integer>(Arrays.asList(1, 2)));
+    Map<String, List<Integer>> frozen = TBaseHelper.freeze(map);
+    assertEquals(map, frozen);
+    try {
+      frozen.put("b", null);
+      fail("map is modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      frozen.get("a").add(3);
+      fail("nested list is modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    TIntArrayList ints = new TIntArrayList();
+    ints.addInt(4);
+    List<Integer> frozenInts = TBaseHelper.freeze((List<Integer>) ints);
+    assertEquals(Arrays.asList(4), frozenInts);
+    try {
+      frozenInts.set(0, 5);
+      fail("list is modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    assertNull(TBaseHelper.freeze((List<Integer>) null));
+    assertEquals("string", TBaseHelper.freeze("string"));
+  }
+
+  public void testCompareToSortedContainers() throws Exception {
+    SortedSet<String> a = new TreeSet<String>(Arrays.asList("a", "b", "d"));
+    SortedSet<String> b = new TreeSet<String>(Arrays.asList("a", "c", "d"));
+    assertTrue(TBaseHelper.compareTo(a, b) < 0);
+    assertTrue(TBaseHelper.compareTo(b, a) > 0);
+    assertEquals(0, TBaseHelper.compareTo(a, new TreeSet<String>(a)));
+    assertEquals(TBaseHelper.compareTo(new HashSet<String>(a), new HashSet<String>(b)),
+        TBaseHelper.compareTo(a, b));
+    assertTrue(TBaseHelper.compareTo(a, Collections.unmodifiableSortedSet(b)) < 0);
+
+    SortedMap<Integer, String> c = new TreeMap<Integer, String>();
+    c.put(1, "x");
+    c.put(2, "y");
+    SortedMap<Integer, String> d = new TreeMap<Integer, String>(c);
+    assertEquals(0, TBaseHelper.compareTo(c, d));
+    d.put(2, "z");
+    assertTrue(TBaseHelper.compareTo(c, d) < 0);
+    d.remove(2);
+    d.put(3, "y");
+    assertTrue(TBaseHelper.compareTo(c, d) < 0);
+    assertEquals(TBaseHelper.compareTo(new HashMap<Integer, String>(c), new HashMap<Integer, String>(d)),
+        TBaseHelper.compareTo(c, d));
+  }
+
+  public void testCopyOnWrite() throws Exception {
+    List<String> list = TBaseHelper.freeze(new ArrayList<String>(Arrays.asList("a", "b")));
+    List<String> listCopy = TBaseHelper.copyOnWrite(list);
+    assertEquals(list, listCopy);
+    listCopy.add("c");
+    listCopy.set(0, "z");
+    assertEquals(Arrays.asList("a", "b"), list);
+    assertEquals(Arrays.asList("z", "b", "c"), listCopy);
+
+    Set<String> set = TBaseHelper.freeze(new TreeSet<String>(Arrays.asList("a", "b", "c")));
+    Set<String> setCopy = TBaseHelper.copyOnWrite(set);
+    assertEquals(set, setCopy);
+    assertEquals(set.hashCode(), setCopy.hashCode());
+    for (Iterator<String> it = setCopy.iterator(); it.hasNext(); ) {
+      if (!it.next().equals("b")) {
+        it.remove();
+      }
+    }
+    assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c")), set);
+    assertEquals(Collections.singleton("b"), setCopy);
+    setCopy.add("a");
+    assertTrue(TBaseHelper.freeze(setCopy) instanceof SortedSet);
+
+    Map<String, Long> map = TBaseHelper.freeze(new HashMap<String, Long>());
+    Map<String, Long> mapCopy = TBaseHelper.copyOnWrite(map);
+    mapCopy.put("a", 1L);
+    assertTrue(map.isEmpty());
+    map = TBaseHelper.freeze(mapCopy);
+    mapCopy = TBaseHelper.copyOnWrite(map);
+    mapCopy.entrySet().iterator().next().setValue(2L);
+    assertEquals(Long.valueOf(1L), map.get("a"));
+    assertEquals(Long.valueOf(2L), mapCopy.get("a"));
+    mapCopy.keySet().remove("a");
+    assertTrue(mapCopy.isEmpty());
+    assertEquals(1, map.size());
+  }
 }
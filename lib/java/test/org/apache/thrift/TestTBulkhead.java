@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTBulkhead {
+
+  @Test
+  public void testRejectsCallsBeyondLimit() {
+    TBulkhead bulkhead = new TBulkhead("test", 2);
+    Assert.assertTrue(bulkhead.tryAcquire());
+    Assert.assertTrue(bulkhead.tryAcquireNow());
+    Assert.assertFalse(bulkhead.tryAcquire());
+    Assert.assertFalse(bulkhead.tryAcquireNow());
+    Assert.assertEquals(2, bulkhead.getActiveCalls());
+    Assert.assertEquals(2, bulkhead.getRejectedCalls());
+
+    bulkhead.release();
+    Assert.assertTrue(bulkhead.tryAcquire());
+  }
+
+  @Test
+  public void testWaitsForPermit() throws Exception {
+    final TBulkhead bulkhead = new TBulkhead("test", 1, 5, TimeUnit.SECONDS);
+    Assert.assertTrue(bulkhead.tryAcquire());
+    Thread releaser = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        bulkhead.release();
+      }
+    });
+    releaser.start();
+    Assert.assertTrue(bulkhead.tryAcquire());
+    Assert.assertEquals(0, bulkhead.getRejectedCalls());
+    releaser.join();
+  }
+
+  @Test
+  public void testProcessorRejectsCallsOfFullBulkhead() throws Exception {
+    final CountDownLatch slowStarted = new CountDownLatch(1);
+    final CountDownLatch slowRelease = new CountDownLatch(1);
+    Map<String, ProcessFunction<Object, ? extends TBase>> processMap =
+        new HashMap<String, ProcessFunction<Object, ? extends TBase>>();
+    processMap.put("slow", new EmptyFunction("slow") {
+      @Override
+      public TBase getResult(Object iface, EmptyStruct args) throws TException {
+        slowStarted.countDown();
+        try {
+          slowRelease.await();
+        } catch (InterruptedException e) {
+          throw new TException(e);
+        }
+        return args;
+      }
+    });
+    processMap.put("fast", new EmptyFunction("fast"));
+    final TBaseProcessor<Object> processor = new TBaseProcessor<Object>(new Object(), processMap) {};
+    TBulkhead bulkhead = new TBulkhead("slow", 1);
+    processor.assignBulkhead("slow", bulkhead);
+    Assert.assertEquals(Collections.singletonMap("slow", bulkhead), processor.getBulkheadsView());
+
+    Thread slowCall = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          call(processor, "slow");
+        } catch (TException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    slowCall.start();
+    Assert.assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+
+    TProtocol rejected = call(processor, "slow");
+    Assert.assertEquals(TMessageType.EXCEPTION, rejected.readMessageBegin().type);
+    TApplicationException x = TApplicationException.readFrom(rejected);
+    Assert.assertEquals(TApplicationException.INTERNAL_ERROR, x.getType());
+    Assert.assertEquals("Bulkhead slow is full, rejected slow", x.getMessage());
+    Assert.assertEquals(1, bulkhead.getRejectedCalls());
+
+    // the other methods are not affected by the full bulkhead
+    Assert.assertEquals(TMessageType.REPLY, call(processor, "fast").readMessageBegin().type);
+
+    slowRelease.countDown();
+    slowCall.join();
+    Assert.assertEquals(0, bulkhead.getActiveCalls());
+    Assert.assertEquals(TMessageType.REPLY, call(processor, "slow").readMessageBegin().type);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAssignUnknownMethod() {
+    Map<String, ProcessFunction<Object, ? extends TBase>> processMap =
+        new HashMap<String, ProcessFunction<Object, ? extends TBase>>();
+    new TBaseProcessor<Object>(new Object(), processMap) {}.assignBulkhead("missing", new TBulkhead("test", 1));
+  }
+
+  private static TProtocol call(TProcessor processor, String method) throws TException {
+    TMemoryBuffer request = new TMemoryBuffer(64);
+    TProtocol in = new TBinaryProtocol(request);
+    in.writeMessageBegin(new TMessage(method, TMessageType.CALL, 1));
+    new EmptyStruct().write(in);
+    in.writeMessageEnd();
+    TProtocol out = new TBinaryProtocol(new TMemoryBuffer(64));
+    processor.process(in, out);
+    return out;
+  }
+
+  private static class EmptyFunction extends ProcessFunction<Object, EmptyStruct> {
+    EmptyFunction(String methodName) {
+      super(methodName);
+    }
+
+    @Override
+    protected boolean isOneway() {
+      return false;
+    }
+
+    @Override
+    public TBase getResult(Object iface, EmptyStruct args) throws TException {
+      return args;
+    }
+
+    @Override
+    public EmptyStruct getEmptyArgsInstance() {
+      return new EmptyStruct();
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTHedgingPolicy {
+
+  @Test
+  public void testNoHedgeUntilWarm() {
+    THedgingPolicy policy = new THedgingPolicy();
+    Assert.assertEquals(-1, policy.getHedgeDelay(TimeUnit.MILLISECONDS));
+    for (int i = 0; i < 10; i++) {
+      policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+    }
+    Assert.assertEquals(-1, policy.getHedgeDelay(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testDelayIsPercentile() {
+    THedgingPolicy policy = new THedgingPolicy(0.95, 1, TimeUnit.MILLISECONDS, 0.1);
+    for (int i = 1; i <= 100; i++) {
+      policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+    }
+    Assert.assertEquals(95, policy.getHedgeDelay(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testMinDelay() {
+    THedgingPolicy policy = new THedgingPolicy(0.95, 10, TimeUnit.MILLISECONDS, 0.1);
+    for (int i = 0; i < 100; i++) {
+      policy.recordLatency(TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    Assert.assertEquals(10, policy.getHedgeDelay(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testBudget() {
+    THedgingPolicy policy = new THedgingPolicy(0.95, 1, TimeUnit.MILLISECONDS, 0.1);
+    // the initial budget allows one hedge
+    Assert.assertTrue(policy.tryHedge());
+    Assert.assertFalse(policy.tryHedge());
+    for (int i = 0; i < 10; i++) {
+      policy.onCall();
+    }
+    Assert.assertTrue(policy.tryHedge());
+    Assert.assertFalse(policy.tryHedge());
+  }
+}
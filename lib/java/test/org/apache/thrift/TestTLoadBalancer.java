@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTLoadBalancer {
+
+  private static final InetSocketAddress A = InetSocketAddress.createUnresolved("a", 1);
+  private static final InetSocketAddress B = InetSocketAddress.createUnresolved("b", 1);
+
+  @Test
+  public void testPrefersLeastOutstanding() {
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(A, B), TLoadBalancer.Policy.LEAST_OUTSTANDING);
+    TLoadBalancer.Endpoint first = balancer.select();
+    // with two endpoints both are always compared, so the idle one wins
+    for (int i = 0; i < 10; i++) {
+      TLoadBalancer.Endpoint second = balancer.select();
+      Assert.assertNotSame(first, second);
+      balancer.recordSuccess(second, 1000);
+    }
+    balancer.recordSuccess(first, 1000);
+    Assert.assertEquals(0, first.getOutstanding());
+    List<TLoadBalancer.Endpoint> endpoints = balancer.getEndpoints();
+    Assert.assertEquals(11, endpoints.get(0).getRequests() + endpoints.get(1).getRequests());
+  }
+
+  @Test
+  public void testPrefersLowerLatency() {
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(A, B), TLoadBalancer.Policy.EWMA);
+    List<TLoadBalancer.Endpoint> endpoints = balancer.getEndpoints();
+    TLoadBalancer.Endpoint slow = endpoints.get(0);
+    TLoadBalancer.Endpoint fast = endpoints.get(1);
+    slow.recordLatency(50000000, System.nanoTime());
+    fast.recordLatency(1000000, System.nanoTime());
+    for (int i = 0; i < 10; i++) {
+      TLoadBalancer.Endpoint endpoint = balancer.select();
+      Assert.assertSame(fast, endpoint);
+      balancer.recordSuccess(endpoint, 1000000);
+    }
+  }
+
+  @Test
+  public void testEjection() throws Exception {
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(A, B), TLoadBalancer.Policy.LEAST_OUTSTANDING, 100, 1000);
+    TLoadBalancer.Endpoint failed = balancer.select();
+    balancer.recordFailure(failed, true);
+    Assert.assertTrue(failed.isEjected());
+    Assert.assertEquals(1, failed.getEjections());
+    for (int i = 0; i < 20; i++) {
+      TLoadBalancer.Endpoint endpoint = balancer.select();
+      Assert.assertNotSame(failed, endpoint);
+      balancer.recordSuccess(endpoint, 1000);
+    }
+    Thread.sleep(150);
+    Assert.assertFalse(failed.isEjected());
+  }
+
+  @Test
+  public void testAllEjected() {
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(A, B), TLoadBalancer.Policy.LEAST_OUTSTANDING, 10000, 10000);
+    TLoadBalancer.Endpoint first = balancer.select();
+    balancer.recordFailure(first, true);
+    TLoadBalancer.Endpoint second = balancer.select();
+    balancer.recordFailure(second, true);
+    // the endpoint ejected first comes back first
+    TLoadBalancer.Endpoint endpoint = balancer.select();
+    Assert.assertSame(first, endpoint);
+    balancer.recordSuccess(endpoint, 1000);
+    Assert.assertFalse(first.isEjected());
+  }
+
+  @Test
+  public void testShouldEject() {
+    Assert.assertTrue(TLoadBalancer.shouldEject(new TimeoutException()));
+    Assert.assertTrue(TLoadBalancer.shouldEject(new TTransportException(TTransportException.NOT_OPEN)));
+    Assert.assertTrue(TLoadBalancer.shouldEject(
+        new TTransportException(TTransportException.UNKNOWN, new SocketTimeoutException())));
+    Assert.assertFalse(TLoadBalancer.shouldEject(new TTransportException(TTransportException.END_OF_FILE)));
+    Assert.assertFalse(TLoadBalancer.shouldEject(new TApplicationException()));
+  }
+
+  @Test
+  public void testBalancedClientSkipsUnreachableEndpoint() throws Exception {
+    ServerSocket live = new ServerSocket(0);
+    ServerSocket dead = new ServerSocket(0);
+    InetSocketAddress liveAddress = new InetSocketAddress("localhost", live.getLocalPort());
+    InetSocketAddress deadAddress = new InetSocketAddress("localhost", dead.getLocalPort());
+    dead.close();
+
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(deadAddress, liveAddress),
+        TLoadBalancer.Policy.LEAST_OUTSTANDING);
+    TServiceClientPool<PlainClient> pool = new TServiceClientPool<>(
+        new TServiceClientPool.Args<>(new PlainClientFactory()));
+    TLoadBalancedClient<PlainClient> client = new TLoadBalancedClient<>(balancer, pool);
+    try {
+      for (int i = 0; i < 10; i++) {
+        Assert.assertEquals("ok", client.execute(new TServiceClientPool.ClientCallback<PlainClient, String>() {
+          @Override
+          public String call(PlainClient client) {
+            return "ok";
+          }
+        }));
+      }
+      TLoadBalancer.Endpoint deadEndpoint = balancer.getEndpoints().get(0);
+      Assert.assertTrue(deadEndpoint.getEjections() <= 1);
+      Assert.assertEquals(deadEndpoint.getRequests(), deadEndpoint.getFailures());
+      Assert.assertEquals(10, balancer.getEndpoints().get(1).getRequests());
+    } finally {
+      pool.close();
+      live.close();
+    }
+  }
+
+  @Test
+  public void testHedgedCallAvoidsSlowEndpoint() throws Exception {
+    ServerSocket slow = new ServerSocket(0);
+    ServerSocket fast = new ServerSocket(0);
+    final int slowPort = slow.getLocalPort();
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(
+        new InetSocketAddress("localhost", slowPort), new InetSocketAddress("localhost", fast.getLocalPort())),
+        TLoadBalancer.Policy.LEAST_OUTSTANDING);
+    TServiceClientPool<PlainClient> pool = new TServiceClientPool<>(
+        new TServiceClientPool.Args<>(new PlainClientFactory()));
+    TLoadBalancedClient<PlainClient> client = new TLoadBalancedClient<>(balancer, pool);
+    THedgingPolicy policy = new THedgingPolicy(0.95, 1, TimeUnit.MILLISECONDS, 1);
+    for (int i = 0; i < 20; i++) {
+      policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      for (int i = 0; i < 5; i++) {
+        long start = System.nanoTime();
+        int port = client.executeHedged(new TServiceClientPool.ClientCallback<PlainClient, Integer>() {
+          @Override
+          public Integer call(PlainClient client) {
+            int port = ((TSocket) client.getInputProtocol().getTransport()).getSocket().getPort();
+            if (port == slowPort) {
+              try {
+                Thread.sleep(500);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            }
+            return port;
+          }
+        }, policy, executor);
+        Assert.assertNotEquals(slowPort, port);
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(400));
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      pool.close();
+      slow.close();
+      fast.close();
+    }
+  }
+
+  @Test
+  public void testHedgedCallRetriesEarlyFailure() throws Exception {
+    ServerSocket failing = new ServerSocket(0);
+    ServerSocket working = new ServerSocket(0);
+    final int failingPort = failing.getLocalPort();
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(
+        new InetSocketAddress("localhost", failingPort), new InetSocketAddress("localhost", working.getLocalPort())),
+        TLoadBalancer.Policy.LEAST_OUTSTANDING);
+    TServiceClientPool<PlainClient> pool = new TServiceClientPool<>(
+        new TServiceClientPool.Args<>(new PlainClientFactory()));
+    TLoadBalancedClient<PlainClient> client = new TLoadBalancedClient<>(balancer, pool);
+    THedgingPolicy policy = new THedgingPolicy(0.95, 1, TimeUnit.MILLISECONDS, 1);
+    for (int i = 0; i < 20; i++) {
+      policy.recordLatency(TimeUnit.SECONDS.toNanos(10));
+    }
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      for (int i = 0; i < 5; i++) {
+        long start = System.nanoTime();
+        int port = client.executeHedged(new TServiceClientPool.ClientCallback<PlainClient, Integer>() {
+          @Override
+          public Integer call(PlainClient client) throws TException {
+            int port = ((TSocket) client.getInputProtocol().getTransport()).getSocket().getPort();
+            if (port == failingPort) {
+              throw new TTransportException(TTransportException.END_OF_FILE);
+            }
+            return port;
+          }
+        }, policy, executor);
+        Assert.assertNotEquals(failingPort, port);
+        // the hedge is not held back until the hedge delay
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+      }
+    } finally {
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      pool.close();
+      failing.close();
+      working.close();
+    }
+  }
+
+  @Test
+  public void testHedgedCallHonorsDeadline() throws Exception {
+    ServerSocket server = new ServerSocket(0);
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(new InetSocketAddress("localhost", server.getLocalPort())),
+        TLoadBalancer.Policy.LEAST_OUTSTANDING);
+    TServiceClientPool<PlainClient> pool = new TServiceClientPool<>(
+        new TServiceClientPool.Args<>(new PlainClientFactory()));
+    TLoadBalancedClient<PlainClient> client = new TLoadBalancedClient<>(balancer, pool);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    TDeadline previous = TDeadline.setCurrent(TDeadline.after(100, TimeUnit.MILLISECONDS));
+    try {
+      client.executeHedged(new TServiceClientPool.ClientCallback<PlainClient, Void>() {
+        @Override
+        public Void call(PlainClient client) {
+          try {
+            Thread.sleep(500);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return null;
+        }
+      }, new THedgingPolicy(), executor);
+      Assert.fail("expected the deadline to pass");
+    } catch (TTransportException e) {
+      Assert.assertEquals(TTransportException.TIMED_OUT, e.getType());
+    } finally {
+      TDeadline.setCurrent(previous);
+      executor.shutdown();
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+      pool.close();
+      server.close();
+    }
+  }
+
+  private static class PlainClient extends TServiceClient {
+    PlainClient(TProtocol prot) {
+      super(prot);
+    }
+  }
+
+  private static class PlainClientFactory implements TServiceClientFactory<PlainClient> {
+    @Override
+    public PlainClient getClient(TProtocol prot) {
+      return new PlainClient(prot);
+    }
+
+    @Override
+    public PlainClient getClient(TProtocol iprot, TProtocol oprot) {
+      return new PlainClient(iprot);
+    }
+  }
+}
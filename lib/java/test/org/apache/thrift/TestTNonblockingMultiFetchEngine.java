@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TNonblockingServer;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTNonblockingMultiFetchEngine {
+
+  private static final long[] SERVER_DELAYS_MILLIS = {0, 0, 500};
+
+  private final List<TServer> servers = new ArrayList<>();
+  private final List<InetSocketAddress> addresses = new ArrayList<>();
+  private TNonblockingMultiFetchEngine engine;
+
+  /**
+   * Replies to a string request with the request followed by the server index.
+   */
+  private static class ReplyProcessor implements TProcessor {
+    private final int index;
+    private final long delayMillis;
+
+    ReplyProcessor(int index, long delayMillis) {
+      this.index = index;
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void process(TProtocol in, TProtocol out) throws TException {
+      String request = in.readString();
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      out.writeString(request + "-" + index);
+      out.getTransport().flush();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    for (int i = 0; i < SERVER_DELAYS_MILLIS.length; i++) {
+      TNonblockingServerSocket socket = new TNonblockingServerSocket(
+          new InetSocketAddress("localhost", 0));
+      final TServer server = new TNonblockingServer(new TNonblockingServer.Args(socket)
+          .processor(new ReplyProcessor(i, SERVER_DELAYS_MILLIS[i])));
+      new Thread(server::serve).start();
+      servers.add(server);
+      addresses.add(new InetSocketAddress("localhost", socket.getPort()));
+    }
+    for (TServer server : servers) {
+      while (!server.isServing()) {
+        Thread.sleep(10);
+      }
+    }
+    engine = new TNonblockingMultiFetchEngine(1024 * 1024);
+  }
+
+  @After
+  public void tearDown() {
+    engine.close();
+    for (TServer server : servers) {
+      server.stop();
+    }
+  }
+
+  private static ByteBuffer request(String message) throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TFramedTransport framed = new TFramedTransport(buffer);
+    new TBinaryProtocol(framed).writeString(message);
+    framed.flush();
+    return ByteBuffer.wrap(buffer.getArray(), 0, buffer.length());
+  }
+
+  private static String reply(ByteBuffer response) throws TException {
+    Assert.assertEquals(response.remaining() - 4, response.getInt(0));
+    return new TBinaryProtocol(new TMemoryInputTransport(response.array(), 4,
+        response.remaining() - 4)).readString();
+  }
+
+  @Test
+  public void testFetchReusesConnections() throws Exception {
+    List<InetSocketAddress> fastServers = addresses.subList(0, 2);
+    for (int i = 0; i < 3; i++) {
+      ByteBuffer[] responses = engine.fetch(request("req" + i), fastServers, 5000)
+          .get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(2, responses.length);
+      Assert.assertEquals("req" + i + "-0", reply(responses[0]));
+      Assert.assertEquals("req" + i + "-1", reply(responses[1]));
+      Assert.assertEquals(2, engine.getNumConnections());
+    }
+  }
+
+  @Test
+  public void testQuorum() throws Exception {
+    long start = System.nanoTime();
+    ByteBuffer[] responses = engine.fetch(request("quorum"), addresses, 2, 5000, null)
+        .get(5, TimeUnit.SECONDS);
+    Assert.assertTrue("Quorum should not wait for the slow server",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SERVER_DELAYS_MILLIS[2]);
+    Assert.assertEquals("quorum-0", reply(responses[0]));
+    Assert.assertEquals("quorum-1", reply(responses[1]));
+    Assert.assertNull(responses[2]);
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    ByteBuffer[] responses = engine.fetch(request("timeout"), addresses, 100)
+        .get(5, TimeUnit.SECONDS);
+    Assert.assertEquals("timeout-0", reply(responses[0]));
+    Assert.assertEquals("timeout-1", reply(responses[1]));
+    Assert.assertNull(responses[2]);
+  }
+
+  @Test
+  public void testHedged() throws Exception {
+    List<InetSocketAddress> replicas = Arrays.asList(addresses.get(2), addresses.get(0));
+    long start = System.nanoTime();
+    ByteBuffer response = engine.fetchHedged(request("hedged"), replicas, 20, 5000)
+        .get(5, TimeUnit.SECONDS);
+    Assert.assertTrue("Hedged request should not wait for the slow replica",
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < SERVER_DELAYS_MILLIS[2]);
+    Assert.assertEquals("hedged-0", reply(response));
+  }
+
+  @Test
+  public void testListenerAndConnectError() throws Exception {
+    TNonblockingServerSocket unused = new TNonblockingServerSocket(new InetSocketAddress("localhost", 0));
+    InetSocketAddress refusing = new InetSocketAddress("localhost", unused.getPort());
+    unused.close();
+
+    final ConcurrentHashMap<Integer, Object> outcomes = new ConcurrentHashMap<>();
+    List<InetSocketAddress> targets = Arrays.asList(addresses.get(0), refusing);
+    ByteBuffer[] responses = engine.fetch(request("listener"), targets, 2, 5000,
+        new TNonblockingMultiFetchEngine.ResponseListener() {
+          @Override
+          public void onResponse(int serverIndex, ByteBuffer response) {
+            outcomes.put(serverIndex, response);
+          }
+
+          @Override
+          public void onError(int serverIndex, Exception exception) {
+            outcomes.put(serverIndex, exception);
+          }
+        }).get(5, TimeUnit.SECONDS);
+    Assert.assertEquals("listener-0", reply(responses[0]));
+    Assert.assertNull(responses[1]);
+    Assert.assertSame(responses[0], outcomes.get(0));
+    Assert.assertTrue(outcomes.get(1) instanceof Exception);
+  }
+
+  @Test
+  public void testHugeFrameSizeFailsOnlyThatConnection() throws Exception {
+    // Answers every request with a frame size close to Integer.MAX_VALUE
+    final ServerSocket bogus = new ServerSocket(0);
+    Thread bogusThread = new Thread(() -> {
+      try (Socket socket = bogus.accept()) {
+        InputStream in = socket.getInputStream();
+        in.read(new byte[64]);
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(Integer.MAX_VALUE);
+        out.flush();
+        in.read();
+      } catch (Exception e) {
+        // the engine closed the connection
+      }
+    });
+    bogusThread.start();
+    try {
+      InetSocketAddress bogusAddress = new InetSocketAddress("localhost", bogus.getLocalPort());
+      ByteBuffer[] responses = engine.fetch(request("huge"),
+          Arrays.asList(addresses.get(0), bogusAddress), 5000).get(5, TimeUnit.SECONDS);
+      Assert.assertEquals("huge-0", reply(responses[0]));
+      Assert.assertNull(responses[1]);
+
+      // The select thread survived
+      responses = engine.fetch(request("after"), addresses.subList(0, 2), 5000)
+          .get(5, TimeUnit.SECONDS);
+      Assert.assertEquals("after-0", reply(responses[0]));
+      Assert.assertEquals("after-1", reply(responses[1]));
+    } finally {
+      bogus.close();
+      bogusThread.join(5000);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTPrimitiveCollections {
+
+  @Test
+  public void testListBehavesLikeArrayList() {
+    TIntArrayList list = new TIntArrayList();
+    List<Integer> expected = new ArrayList<Integer>();
+    for (int i = 0; i < 100; i++) {
+      list.addInt(i * 7);
+      expected.add(i * 7);
+    }
+    list.add(3, -1);
+    expected.add(3, -1);
+    Assert.assertEquals(expected.remove(10), list.remove(10));
+    list.set(0, 42);
+    expected.set(0, 42);
+
+    Assert.assertEquals(expected, list);
+    Assert.assertEquals(list, expected);
+    Assert.assertEquals(expected.hashCode(), list.hashCode());
+    Assert.assertEquals(expected.indexOf(42), list.indexOf(42));
+    Assert.assertEquals(-1, list.indexOf("42"));
+    Assert.assertEquals(list, new TIntArrayList(expected));
+    Assert.assertEquals(list, new TIntArrayList(list));
+
+    Iterator<Integer> it = list.iterator();
+    it.next();
+    it.remove();
+    expected.remove(0);
+    Assert.assertEquals(expected, list);
+    Assert.assertEquals(expected.size(), list.toIntArray().length);
+  }
+
+  @Test
+  public void testDoubleListUsesDoubleEquality() {
+    TDoubleArrayList list = new TDoubleArrayList(2);
+    list.addDouble(Double.NaN);
+    list.addDouble(0.0);
+    List<Double> expected = Arrays.asList(Double.NaN, 0.0);
+    Assert.assertEquals(expected, list);
+    Assert.assertEquals(expected.hashCode(), list.hashCode());
+    Assert.assertEquals(0, list.indexOfDouble(Double.NaN));
+    Assert.assertFalse(list.containsDouble(-0.0));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testListChecksIndex() {
+    TLongArrayList list = new TLongArrayList(10);
+    list.addLong(1L);
+    list.getLong(1);
+  }
+
+  @Test
+  public void testSetBehavesLikeHashSet() {
+    Random random = new Random(1);
+    TLongHashSet set = new TLongHashSet();
+    Set<Long> expected = new HashSet<Long>();
+    for (int i = 0; i < 10000; i++) {
+      long key = random.nextInt(2000) - 1000L;
+      if (random.nextBoolean()) {
+        Assert.assertEquals(expected.add(key), set.addLong(key));
+      } else {
+        Assert.assertEquals(expected.remove(key), set.removeLong(key));
+      }
+      Assert.assertEquals(expected.size(), set.size());
+    }
+    Assert.assertEquals(expected, set);
+    Assert.assertEquals(set, expected);
+    Assert.assertEquals(expected.hashCode(), set.hashCode());
+    Assert.assertEquals(expected, new TLongHashSet(set));
+    Assert.assertEquals(expected, new HashSet<Long>(set));
+
+    int walked = 0;
+    for (int slot = set.nextSlot(0); slot >= 0; slot = set.nextSlot(slot + 1)) {
+      Assert.assertTrue(expected.contains(set.keyAt(slot)));
+      walked++;
+    }
+    Assert.assertEquals(expected.size(), walked);
+
+    for (Iterator<Long> it = set.iterator(); it.hasNext();) {
+      if (it.next() % 2 == 0) {
+        it.remove();
+      }
+    }
+    for (Iterator<Long> it = expected.iterator(); it.hasNext();) {
+      if (it.next() % 2 == 0) {
+        it.remove();
+      }
+    }
+    Assert.assertEquals(expected, set);
+    set.clear();
+    Assert.assertTrue(set.isEmpty());
+    Assert.assertFalse(set.containsLong(1L));
+  }
+
+  @Test
+  public void testSetSurvivesRemovalChurn() {
+    TIntHashSet set = new TIntHashSet(4);
+    for (int i = 0; i < 100000; i++) {
+      Assert.assertTrue(set.addInt(i));
+      Assert.assertTrue(set.removeInt(i));
+    }
+    Assert.assertTrue(set.isEmpty());
+    Assert.assertTrue(set.addInt(0));
+    Assert.assertTrue(set.contains(0));
+    Assert.assertFalse(set.contains(0L));
+  }
+
+  @Test
+  public void testMapBehavesLikeHashMap() {
+    Random random = new Random(2);
+    TIntHashMap<String> map = new TIntHashMap<String>();
+    Map<Integer, String> expected = new HashMap<Integer, String>();
+    for (int i = 0; i < 10000; i++) {
+      int key = random.nextInt(500);
+      if (random.nextInt(3) > 0) {
+        String value = random.nextBoolean() ? null : Integer.toString(i);
+        Assert.assertEquals(expected.put(key, value), map.putInt(key, value));
+      } else {
+        Assert.assertEquals(expected.remove(key), map.removeInt(key));
+      }
+      Assert.assertEquals(expected.size(), map.size());
+    }
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(map, expected);
+    Assert.assertEquals(expected.hashCode(), map.hashCode());
+    Assert.assertEquals(expected, new TIntHashMap<String>(map));
+    Assert.assertEquals(expected, new TIntHashMap<String>(expected));
+
+    for (int slot = map.nextSlot(0); slot >= 0; slot = map.nextSlot(slot + 1)) {
+      Assert.assertEquals(expected.get(map.keyAt(slot)), map.valueAt(slot));
+    }
+
+    for (Map.Entry<Integer, String> entry : map.entrySet()) {
+      entry.setValue("x" + entry.getKey());
+    }
+    for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+      entry.setValue("x" + entry.getKey());
+    }
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(expected.entrySet(), map.entrySet());
+    Assert.assertNull(map.get("1"));
+    Assert.assertFalse(map.containsKey(null));
+  }
+
+  @Test
+  public void testLongMapKeys() {
+    TLongHashMap<Integer> map = new TLongHashMap<Integer>(2);
+    map.putLong(Long.MIN_VALUE, 1);
+    map.putLong(0L, 2);
+    map.putLong(1L << 32, 3);
+    map.putLong(1L, 4);
+    Assert.assertEquals(4, map.size());
+    Assert.assertEquals(Integer.valueOf(1), map.getLong(Long.MIN_VALUE));
+    Assert.assertEquals(Integer.valueOf(3), map.get(1L << 32));
+    Assert.assertEquals(Integer.valueOf(4), map.get(1L));
+    Assert.assertNull(map.get(1));
+    Assert.assertTrue(map.containsKeyLong(0L));
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransportException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTServiceClientPool {
+
+  private ServerSocket serverSocket;
+  private Thread acceptThread;
+  private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+  private InetSocketAddress endpoint;
+  private TServiceClientPool<PlainClient> pool;
+
+  private static class PlainClient extends TServiceClient {
+    PlainClient(TProtocol prot) {
+      super(prot);
+    }
+  }
+
+  private static class PlainClientFactory implements TServiceClientFactory<PlainClient> {
+    @Override
+    public PlainClient getClient(TProtocol prot) {
+      return new PlainClient(prot);
+    }
+
+    @Override
+    public PlainClient getClient(TProtocol iprot, TProtocol oprot) {
+      return new PlainClient(iprot);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    serverSocket = new ServerSocket(0);
+    endpoint = new InetSocketAddress("localhost", serverSocket.getLocalPort());
+    acceptThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            accepted.add(serverSocket.accept());
+          }
+        } catch (IOException e) {
+          // closed
+        }
+      }
+    });
+    acceptThread.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (pool != null) {
+      pool.close();
+    }
+    serverSocket.close();
+    acceptThread.join();
+    for (Socket socket : accepted) {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testReusesReleasedClient() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory()));
+    TServiceClientPool.PooledClient<PlainClient> first = pool.borrow(endpoint);
+    Assert.assertEquals(1, pool.getActiveCount(endpoint));
+    pool.release(first);
+    Assert.assertEquals(0, pool.getActiveCount(endpoint));
+    Assert.assertEquals(1, pool.getIdleCount(endpoint));
+
+    TServiceClientPool.PooledClient<PlainClient> second = pool.borrow(endpoint);
+    Assert.assertSame(first, second);
+    pool.release(second);
+
+    TServiceClientPool.PoolMetrics metrics = pool.getMetrics();
+    Assert.assertEquals(1, metrics.getEndpoints());
+    Assert.assertEquals(1, metrics.getCreated());
+    Assert.assertEquals(2, metrics.getBorrowed());
+    Assert.assertEquals(1, metrics.getIdle());
+  }
+
+  @Test
+  public void testMaxTotalPerEndpoint() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory())
+        .maxTotalPerEndpoint(2));
+    TServiceClientPool.PooledClient<PlainClient> first = pool.borrow(endpoint);
+    TServiceClientPool.PooledClient<PlainClient> second = pool.borrow(endpoint);
+    try {
+      pool.borrow(endpoint);
+      Assert.fail("borrowed more clients than allowed");
+    } catch (TException e) {
+      // expected
+    }
+    pool.release(first);
+    Assert.assertSame(first, pool.borrow(endpoint));
+    pool.release(second);
+  }
+
+  @Test
+  public void testReleaseTwice() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory()));
+    TServiceClientPool.PooledClient<PlainClient> first = pool.borrow(endpoint);
+    pool.release(first);
+    try {
+      pool.release(first);
+      Assert.fail("released a client twice");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    Assert.assertEquals(0, pool.getActiveCount(endpoint));
+    Assert.assertEquals(1, pool.getIdleCount(endpoint));
+
+    // the client can be borrowed and released again
+    Assert.assertSame(first, pool.borrow(endpoint));
+    Assert.assertNotSame(first, pool.borrow(endpoint));
+    pool.release(first);
+    Assert.assertEquals(1, pool.getActiveCount(endpoint));
+  }
+
+  @Test
+  public void testMaxIdlePerEndpoint() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory())
+        .maxIdlePerEndpoint(1));
+    TServiceClientPool.PooledClient<PlainClient> first = pool.borrow(endpoint);
+    TServiceClientPool.PooledClient<PlainClient> second = pool.borrow(endpoint);
+    pool.release(first);
+    pool.release(second);
+    Assert.assertEquals(1, pool.getIdleCount(endpoint));
+    Assert.assertEquals(1, pool.getMetrics().getIdleEvictions());
+  }
+
+  @Test
+  public void testTransportFailureEvictsClient() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory()));
+    try {
+      pool.execute(endpoint, new TServiceClientPool.ClientCallback<PlainClient, Void>() {
+        @Override
+        public Void call(PlainClient client) throws TException {
+          throw new TTransportException("broken");
+        }
+      });
+      Assert.fail("expected the transport error");
+    } catch (TTransportException e) {
+      // expected
+    }
+    Assert.assertEquals(0, pool.getIdleCount(endpoint));
+    Assert.assertEquals(1, pool.getMetrics().getFailureEvictions());
+
+    // application errors keep the connection
+    try {
+      pool.execute(endpoint, new TServiceClientPool.ClientCallback<PlainClient, Void>() {
+        @Override
+        public Void call(PlainClient client) throws TException {
+          throw new TApplicationException("failed");
+        }
+      });
+      Assert.fail("expected the application error");
+    } catch (TApplicationException e) {
+      // expected
+    }
+    Assert.assertEquals(1, pool.getIdleCount(endpoint));
+  }
+
+  @Test
+  public void testMaxLifetime() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory())
+        .maxLifetimeMillis(50));
+    TServiceClientPool.PooledClient<PlainClient> first = pool.borrow(endpoint);
+    pool.release(first);
+    Thread.sleep(100);
+    TServiceClientPool.PooledClient<PlainClient> second = pool.borrow(endpoint);
+    Assert.assertNotSame(first, second);
+    pool.release(second);
+    Assert.assertEquals(1, pool.getMetrics().getLifetimeEvictions());
+  }
+
+  @Test
+  public void testIdleEviction() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory())
+        .maxIdleMillis(50)
+        .evictionIntervalMillis(20));
+    pool.release(pool.borrow(endpoint));
+    Assert.assertEquals(1, pool.getIdleCount(endpoint));
+    long deadline = System.currentTimeMillis() + 2000;
+    while (pool.getIdleCount(endpoint) > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(0, pool.getIdleCount(endpoint));
+    Assert.assertEquals(1, pool.getMetrics().getIdleEvictions());
+  }
+
+  @Test
+  public void testValidator() throws Exception {
+    pool = new TServiceClientPool<>(new TServiceClientPool.Args<>(new PlainClientFactory())
+        .validator(new TServiceClientPool.Validator<PlainClient>() {
+          @Override
+          public boolean validate(PlainClient client) {
+            return false;
+          }
+        }, 0));
+    TServiceClientPool.PooledClient<PlainClient> first = pool.borrow(endpoint);
+    pool.release(first);
+    TServiceClientPool.PooledClient<PlainClient> second = pool.borrow(endpoint);
+    Assert.assertNotSame(first, second);
+    pool.release(second);
+    Assert.assertEquals(1, pool.getMetrics().getFailureEvictions());
+  }
+}
@@ -233,6 +233,18 @@ public class TestTAsyncClientManager extends TestCase {
     assertEquals(numThreads * numCallsPerThread, numSuccesses);
   }
 
+  public void testParallelCallsOnMultipleSelectors() throws Exception {
+    clientManager_.stop();
+    clientManager_ = new TAsyncClientManager(4);
+    testParallelCalls();
+    List<TAsyncClientManager.SelectorMetrics> metrics = clientManager_.getSelectorMetrics();
+    assertEquals(4, metrics.size());
+    for (TAsyncClientManager.SelectorMetrics selectorMetrics : metrics) {
+      assertEquals(0, selectorMetrics.getPendingCalls());
+      assertTrue(selectorMetrics.getLoops() > 0);
+    }
+  }
+
   private Srv.AsyncClient getClient() throws IOException {
     TNonblockingSocket clientSocket = new TNonblockingSocket(ServerTestBase.HOST, ServerTestBase.PORT);
     return new Srv.AsyncClient(new TBinaryProtocol.Factory(), clientManager_, clientSocket);
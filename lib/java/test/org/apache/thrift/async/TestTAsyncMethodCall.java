@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TNonblockingSocket;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTAsyncMethodCall {
+
+  private enum Behavior {
+    // send the request frame back
+    ECHO,
+    // never reply
+    SILENT,
+    // close the connection once the request is read
+    CLOSE
+  }
+
+  private ServerSocket serverSocket;
+  private Thread serverThread;
+  private volatile Behavior behavior = Behavior.ECHO;
+  private final List<Integer> frameSizes = new ArrayList<Integer>();
+  private final List<Socket> accepted = new ArrayList<Socket>();
+  private TAsyncClientManager clientManager;
+
+  /**
+   * Client with a single method sending a string, which it expects back.
+   */
+  private static class EchoClient extends TAsyncClient {
+    EchoClient(TProtocolFactory protocolFactory, TAsyncClientManager manager, TNonblockingTransport transport) {
+      super(protocolFactory, manager, transport);
+    }
+
+    void echo(final String message, AsyncMethodCallback<String> callback) throws TException {
+      checkReady();
+      EchoCall call = new EchoCall(this, ___protocolFactory, ___transport, callback, message);
+      ___currentMethod = call;
+      ___manager.call(call);
+    }
+  }
+
+  private static class EchoCall extends TAsyncMethodCall<String> {
+    private final String message;
+
+    EchoCall(TAsyncClient client, TProtocolFactory protocolFactory, TNonblockingTransport transport,
+             AsyncMethodCallback<String> callback, String message) {
+      super(client, protocolFactory, transport, callback, false);
+      this.message = message;
+    }
+
+    @Override
+    protected void write_args(TProtocol protocol) throws TException {
+      protocol.writeMessageBegin(new TMessage("echo", TMessageType.CALL, 0));
+      protocol.writeString(message);
+      protocol.writeMessageEnd();
+    }
+
+    @Override
+    protected String getResult() throws TException {
+      TProtocol protocol = new TBinaryProtocol(new TMemoryInputTransport(getFrameBuffer().array()));
+      protocol.readMessageBegin();
+      return protocol.readString();
+    }
+  }
+
+  /**
+   * Counts the writes of the transport.
+   */
+  private static class CountingSocket extends TNonblockingSocket {
+    final AtomicInteger gatheringWrites = new AtomicInteger();
+    final AtomicInteger singleWrites = new AtomicInteger();
+    final List<ByteBuffer[]> writtenArrays = new ArrayList<ByteBuffer[]>();
+
+    CountingSocket(String host, int port) throws IOException {
+      super(host, port);
+    }
+
+    @Override
+    public int write(ByteBuffer buffer) throws IOException {
+      singleWrites.incrementAndGet();
+      return super.write(buffer);
+    }
+
+    @Override
+    public long write(ByteBuffer[] buffers) throws IOException {
+      gatheringWrites.incrementAndGet();
+      synchronized (writtenArrays) {
+        writtenArrays.add(buffers);
+      }
+      return super.write(buffers);
+    }
+  }
+
+  private static class Result implements AsyncMethodCallback<String> {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<String> response = new AtomicReference<String>();
+    final AtomicReference<Exception> error = new AtomicReference<Exception>();
+
+    @Override
+    public void onComplete(String value) {
+      response.set(value);
+      latch.countDown();
+    }
+
+    @Override
+    public void onError(Exception exception) {
+      error.set(exception);
+      latch.countDown();
+    }
+
+    void await() throws InterruptedException {
+      Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    serverSocket = new ServerSocket(0);
+    serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Socket socket = serverSocket.accept();
+            synchronized (accepted) {
+              accepted.add(socket);
+            }
+            new Thread(new Runnable() {
+              @Override
+              public void run() {
+                serve(socket);
+              }
+            }).start();
+          }
+        } catch (IOException e) {
+          // server socket closed
+        }
+      }
+    });
+    serverThread.start();
+    clientManager = new TAsyncClientManager();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    clientManager.stop();
+    serverSocket.close();
+    serverThread.join();
+    synchronized (accepted) {
+      for (Socket socket : accepted) {
+        socket.close();
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      while (true) {
+        int size = in.readInt();
+        byte[] frame = new byte[size];
+        in.readFully(frame);
+        synchronized (frameSizes) {
+          frameSizes.add(size);
+        }
+        switch (behavior) {
+          case ECHO:
+            out.writeInt(size);
+            out.write(frame);
+            out.flush();
+            break;
+          case SILENT:
+            break;
+          case CLOSE:
+            socket.close();
+            return;
+        }
+      }
+    } catch (IOException e) {
+      // connection closed
+    }
+  }
+
+  private EchoClient newClient(TNonblockingTransport transport, long timeout) {
+    EchoClient client = new EchoClient(new TBinaryProtocol.Factory(), clientManager, transport);
+    client.setTimeout(timeout);
+    return client;
+  }
+
+  private static String echo(EchoClient client, String message) throws Exception {
+    Result result = new Result();
+    client.echo(message, result);
+    result.await();
+    if (result.error.get() != null) {
+      throw result.error.get();
+    }
+    return result.response.get();
+  }
+
+  @Test
+  public void testKeepsSelectionKeyAcrossCalls() throws Exception {
+    EchoClient client = newClient(new TNonblockingSocket("localhost", serverSocket.getLocalPort()), 0);
+    Assert.assertEquals("first", echo(client, "first"));
+    SelectionKey key = client.getSelectionKey();
+    Assert.assertNotNull(key);
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals("call " + i, echo(client, "call " + i));
+      Assert.assertSame(key, client.getSelectionKey());
+      Assert.assertTrue(key.isValid());
+    }
+    synchronized (accepted) {
+      Assert.assertEquals(1, accepted.size());
+    }
+  }
+
+  @Test
+  public void testWritesFrameInOneGather() throws Exception {
+    CountingSocket transport = new CountingSocket("localhost", serverSocket.getLocalPort());
+    EchoClient client = newClient(transport, 0);
+    Assert.assertEquals("gathered", echo(client, "gathered"));
+    Assert.assertEquals(1, transport.gatheringWrites.get());
+    Assert.assertEquals(0, transport.singleWrites.get());
+    Assert.assertEquals(2, transport.writtenArrays.get(0).length);
+
+    // a request larger than the socket buffers is written over several selections
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1 << 20; i++) {
+      large.append((char) ('a' + i % 26));
+    }
+    Assert.assertEquals(large.toString(), echo(client, large.toString()));
+    Assert.assertEquals(0, transport.singleWrites.get());
+    synchronized (frameSizes) {
+      Assert.assertEquals(2, frameSizes.size());
+      Assert.assertTrue(frameSizes.get(1) > 1 << 20);
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    behavior = Behavior.SILENT;
+    EchoClient client = newClient(new TNonblockingSocket("localhost", serverSocket.getLocalPort()), 100);
+    Result result = new Result();
+    client.echo("never answered", result);
+    result.await();
+    Assert.assertTrue(result.error.get() instanceof TimeoutException);
+    Assert.assertTrue(client.hasError());
+  }
+
+  @Test
+  public void testConnectionClosedByServer() throws Exception {
+    EchoClient client = newClient(new TNonblockingSocket("localhost", serverSocket.getLocalPort()), 0);
+    Assert.assertEquals("before", echo(client, "before"));
+    behavior = Behavior.CLOSE;
+    Result result = new Result();
+    client.echo("closed", result);
+    result.await();
+    Assert.assertNull(result.response.get());
+    Assert.assertTrue(result.error.get() instanceof IOException);
+    Assert.assertTrue(client.hasError());
+    try {
+      client.echo("after", new Result());
+      Assert.fail("a client in error should not take calls");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.THedgingPolicy;
+import org.apache.thrift.TLoadBalancer;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.server.TNonblockingServer;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TNonblockingTransport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTLoadBalancedAsyncClient {
+
+  private final List<TServer> servers = new ArrayList<TServer>();
+  private final List<Thread> serverThreads = new ArrayList<Thread>();
+  private TAsyncClientManager clientManager;
+  private InetSocketAddress liveAddress;
+  private InetSocketAddress deadAddress;
+
+  /**
+   * Client with a single method sending a string which the server echoes.
+   */
+  private static class EchoClient extends TAsyncClient {
+    EchoClient(TProtocolFactory protocolFactory, TAsyncClientManager manager, TNonblockingTransport transport) {
+      super(protocolFactory, manager, transport);
+    }
+
+    void echo(final String message, AsyncMethodCallback<String> callback) throws TException {
+      checkReady();
+      EchoCall call = new EchoCall(this, ___protocolFactory, ___transport, callback, message);
+      ___currentMethod = call;
+      ___manager.call(call);
+    }
+  }
+
+  private static class EchoCall extends TAsyncMethodCall<String> {
+    private final String message;
+
+    EchoCall(TAsyncClient client, TProtocolFactory protocolFactory, TNonblockingTransport transport,
+             AsyncMethodCallback<String> callback, String message) {
+      super(client, protocolFactory, transport, callback, false);
+      this.message = message;
+    }
+
+    @Override
+    protected void write_args(TProtocol protocol) throws TException {
+      protocol.writeMessageBegin(new TMessage("echo", TMessageType.CALL, 0));
+      protocol.writeString(message);
+      protocol.writeMessageEnd();
+    }
+
+    @Override
+    protected String getResult() throws TException {
+      TProtocol protocol = new TBinaryProtocol(new TMemoryInputTransport(getFrameBuffer().array()));
+      protocol.readMessageBegin();
+      return protocol.readString();
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    liveAddress = startServer(0);
+    ServerSocket dead = new ServerSocket(0);
+    deadAddress = new InetSocketAddress("localhost", dead.getLocalPort());
+    dead.close();
+    clientManager = new TAsyncClientManager();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    clientManager.stop();
+    for (TServer server : servers) {
+      server.stop();
+    }
+    for (Thread thread : serverThreads) {
+      thread.join();
+    }
+  }
+
+  private InetSocketAddress startServer(final long delayMillis) throws Exception {
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(0);
+    final TServer server = new TNonblockingServer(new TNonblockingServer.Args(serverSocket).processor(new TProcessor() {
+      @Override
+      public void process(TProtocol in, TProtocol out) throws TException {
+        TMessage message = in.readMessageBegin();
+        String payload = in.readString();
+        in.readMessageEnd();
+        if (delayMillis > 0) {
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+        out.writeString(payload);
+        out.writeMessageEnd();
+        out.getTransport().flush();
+      }
+    }));
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    });
+    serverThread.start();
+    servers.add(server);
+    serverThreads.add(serverThread);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!server.isServing() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    return new InetSocketAddress("localhost", serverSocket.getPort());
+  }
+
+  private TLoadBalancedAsyncClient<EchoClient> newClient(TLoadBalancer balancer) {
+    return new TLoadBalancedAsyncClient<EchoClient>(balancer,
+        new TAsyncClientFactory<EchoClient>() {
+          @Override
+          public EchoClient getAsyncClient(TNonblockingTransport transport) {
+            return new EchoClient(new TBinaryProtocol.Factory(), clientManager, transport);
+          }
+        }, 1000, 4);
+  }
+
+  @Test
+  public void testRoutesAroundUnreachableEndpoint() throws Exception {
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(deadAddress, liveAddress),
+        TLoadBalancer.Policy.EWMA, 10000, 10000);
+    TLoadBalancedAsyncClient<EchoClient> client = newClient(balancer);
+
+    final AtomicInteger echoed = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    for (int i = 0; i < 20; i++) {
+      final String message = "message " + i;
+      final CountDownLatch latch = new CountDownLatch(1);
+      client.execute(new TLoadBalancedAsyncClient.AsyncInvocation<EchoClient, String>() {
+        @Override
+        public void invoke(EchoClient client, AsyncMethodCallback<String> callback) throws TException {
+          client.echo(message, callback);
+        }
+      }, new AsyncMethodCallback<String>() {
+        @Override
+        public void onComplete(String response) {
+          if (message.equals(response)) {
+            echoed.incrementAndGet();
+          }
+          latch.countDown();
+        }
+
+        @Override
+        public void onError(Exception exception) {
+          failed.incrementAndGet();
+          latch.countDown();
+        }
+      });
+      Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+    client.close();
+
+    // the unreachable endpoint fails once, then stays ejected
+    TLoadBalancer.Endpoint dead = balancer.getEndpoints().get(0);
+    TLoadBalancer.Endpoint live = balancer.getEndpoints().get(1);
+    Assert.assertTrue(failed.get() <= 1);
+    Assert.assertEquals(failed.get(), dead.getFailures());
+    Assert.assertEquals(dead.getFailures(), dead.getEjections());
+    Assert.assertEquals(20 - failed.get(), echoed.get());
+    Assert.assertEquals(0, live.getFailures());
+    Assert.assertTrue(live.getLatencyEwmaNanos() > 0);
+  }
+
+  @Test
+  public void testHedgedCallAvoidsSlowEndpoint() throws Exception {
+    InetSocketAddress slowAddress = startServer(500);
+    TLoadBalancer balancer = new TLoadBalancer(Arrays.asList(slowAddress, liveAddress),
+        TLoadBalancer.Policy.LEAST_OUTSTANDING);
+    TLoadBalancedAsyncClient<EchoClient> client = newClient(balancer);
+    THedgingPolicy policy = new THedgingPolicy(0.95, 1, TimeUnit.MILLISECONDS, 1);
+    for (int i = 0; i < 20; i++) {
+      policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+    }
+    try {
+      for (int i = 0; i < 5; i++) {
+        final String message = "message " + i;
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<String> response = new AtomicReference<String>();
+        client.executeHedged(new TLoadBalancedAsyncClient.AsyncInvocation<EchoClient, String>() {
+          @Override
+          public void invoke(EchoClient client, AsyncMethodCallback<String> callback) throws TException {
+            client.echo(message, callback);
+          }
+        }, new AsyncMethodCallback<String>() {
+          @Override
+          public void onComplete(String result) {
+            response.set(result);
+            latch.countDown();
+          }
+
+          @Override
+          public void onError(Exception exception) {
+            latch.countDown();
+          }
+        }, policy);
+        Assert.assertTrue(latch.await(400, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(message, response.get());
+      }
+    } finally {
+      client.close();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.async;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+
+public class TestTimeoutWheel extends TestCase {
+
+  private static final long TICK = 10;
+
+  public void testExpiresAtEndOfTick() throws Exception {
+    long now = System.currentTimeMillis();
+    TimeoutWheel wheel = new TimeoutWheel(TICK, 16, now);
+    TAsyncMethodCall<?> call = newCall(50);
+    wheel.add(call);
+    assertEquals(1, wheel.size());
+
+    List<TAsyncMethodCall<?>> expired = new ArrayList<TAsyncMethodCall<?>>();
+    wheel.expire(call.getTimeoutTimestamp() - 1, expired);
+    assertTrue(expired.isEmpty());
+    wheel.expire(call.getTimeoutTimestamp() + TICK, expired);
+    assertEquals(1, expired.size());
+    assertSame(call, expired.get(0));
+    assertEquals(0, wheel.size());
+  }
+
+  public void testRemove() throws Exception {
+    long now = System.currentTimeMillis();
+    TimeoutWheel wheel = new TimeoutWheel(TICK, 16, now);
+    TAsyncMethodCall<?> first = newCall(30);
+    TAsyncMethodCall<?> second = newCall(30);
+    TAsyncMethodCall<?> third = newCall(30);
+    wheel.add(first);
+    wheel.add(second);
+    wheel.add(third);
+    wheel.remove(second);
+    // removing twice is harmless
+    wheel.remove(second);
+    assertEquals(2, wheel.size());
+
+    List<TAsyncMethodCall<?>> expired = new ArrayList<TAsyncMethodCall<?>>();
+    wheel.expire(now + 1000, expired);
+    assertEquals(2, expired.size());
+    assertTrue(expired.contains(first));
+    assertTrue(expired.contains(third));
+    assertEquals(0, wheel.size());
+  }
+
+  public void testTimeoutsBeyondOneRotation() throws Exception {
+    long now = System.currentTimeMillis();
+    TimeoutWheel wheel = new TimeoutWheel(TICK, 4, now);
+    TAsyncMethodCall<?> shortCall = newCall(20);
+    TAsyncMethodCall<?> longCall = newCall(20 + 4 * TICK);
+    wheel.add(shortCall);
+    wheel.add(longCall);
+
+    List<TAsyncMethodCall<?>> expired = new ArrayList<TAsyncMethodCall<?>>();
+    wheel.expire(shortCall.getTimeoutTimestamp() + TICK, expired);
+    assertEquals(1, expired.size());
+    assertSame(shortCall, expired.get(0));
+    assertEquals(1, wheel.size());
+
+    expired.clear();
+    wheel.expire(longCall.getTimeoutTimestamp() + TICK, expired);
+    assertEquals(1, expired.size());
+    assertSame(longCall, expired.get(0));
+  }
+
+  public void testMillisToNextTick() throws Exception {
+    long now = System.currentTimeMillis();
+    TimeoutWheel wheel = new TimeoutWheel(TICK, 16, now);
+    assertEquals(0, wheel.millisToNextTick(now));
+    wheel.add(newCall(100));
+    long wait = wheel.millisToNextTick(now);
+    assertTrue(wait >= 1 && wait <= TICK);
+  }
+
+  private static TAsyncMethodCall<?> newCall(long timeout) {
+    TAsyncClient client = new TAsyncClient(null, null, null, timeout) {};
+    return new TAsyncMethodCall<Void>(client, null, null, null, false) {
+      @Override
+      protected void write_args(TProtocol protocol) throws TException {
+      }
+
+      @Override
+      protected Void getResult() throws Exception {
+        return null;
+      }
+    };
+  }
+}
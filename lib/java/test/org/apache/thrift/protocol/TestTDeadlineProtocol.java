@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TDeadline;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTDeadlineProtocol {
+
+  @After
+  public void tearDown() {
+    TDeadline.setCurrent(null);
+  }
+
+  @Test
+  public void testCallCarriesDeadline() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TDeadline.setCurrent(TDeadline.after(5, TimeUnit.SECONDS));
+    writeMessage(new TDeadlineProtocol(new TBinaryProtocol(buffer)), TMessageType.CALL);
+    TDeadline.setCurrent(null);
+
+    TApplicationException args = readMessage(new TDeadlineProtocol(new TBinaryProtocol(buffer)));
+    Assert.assertEquals("args", args.getMessage());
+    TDeadline received = TDeadline.current();
+    Assert.assertNotNull(received);
+    long remaining = received.remaining(TimeUnit.MILLISECONDS);
+    Assert.assertTrue(remaining > 4000 && remaining <= 5000);
+  }
+
+  @Test
+  public void testPlainProtocolSkipsDeadline() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TDeadline.setCurrent(TDeadline.after(5, TimeUnit.SECONDS));
+    writeMessage(new TDeadlineProtocol(new TCompactProtocol(buffer)), TMessageType.CALL);
+    TDeadline.setCurrent(null);
+
+    TApplicationException args = readMessage(new TCompactProtocol(buffer));
+    Assert.assertEquals("args", args.getMessage());
+    Assert.assertNull(TDeadline.current());
+  }
+
+  @Test
+  public void testReplyDoesNotCarryDeadline() throws Exception {
+    TMemoryBuffer withDeadline = new TMemoryBuffer(64);
+    TMemoryBuffer withoutDeadline = new TMemoryBuffer(64);
+    TDeadline.setCurrent(TDeadline.after(5, TimeUnit.SECONDS));
+    writeMessage(new TDeadlineProtocol(new TBinaryProtocol(withDeadline)), TMessageType.REPLY);
+    TDeadline.setCurrent(null);
+    writeMessage(new TBinaryProtocol(withoutDeadline), TMessageType.REPLY);
+    Assert.assertEquals(withoutDeadline.length(), withDeadline.length());
+  }
+
+  @Test
+  public void testNewCallClearsDeadline() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    writeMessage(new TBinaryProtocol(buffer), TMessageType.CALL);
+    TDeadline.setCurrent(TDeadline.after(5, TimeUnit.SECONDS));
+    readMessage(new TDeadlineProtocol(new TBinaryProtocol(buffer)));
+    Assert.assertNull(TDeadline.current());
+  }
+
+  private static void writeMessage(TProtocol protocol, byte type) throws Exception {
+    protocol.writeMessageBegin(new TMessage("method", type, 1));
+    new TApplicationException(TApplicationException.UNKNOWN, "args").write(protocol);
+    protocol.writeMessageEnd();
+  }
+
+  private static TApplicationException readMessage(TProtocol protocol) throws Exception {
+    protocol.readMessageBegin();
+    TApplicationException args = TApplicationException.readFrom(protocol);
+    protocol.readMessageEnd();
+    return args;
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TDeadline;
+import org.apache.thrift.TMessageHeaders;
+import org.apache.thrift.server.THeaderServerContext;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTHeaderProtocol {
+
+  private static final Map<String, String> HEADERS = new HashMap<String, String>();
+  static {
+    HEADERS.put("trace-id", "4bf92f3577b34da6");
+    HEADERS.put("span-id", "00f067aa0ba902b7");
+  }
+
+  @After
+  public void tearDown() {
+    TMessageHeaders.setCurrent(null);
+    TDeadline.setCurrent(null);
+  }
+
+  @Test
+  public void testCallCarriesHeaders() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TMessageHeaders.setCurrent(HEADERS);
+    writeMessage(new THeaderProtocol(new TBinaryProtocol(buffer)), TMessageType.CALL);
+    TMessageHeaders.setCurrent(null);
+
+    THeaderProtocol protocol = new THeaderProtocol(new TBinaryProtocol(buffer));
+    THeaderServerContext context = new THeaderServerContext(protocol);
+    TApplicationException args = readMessage(protocol);
+    Assert.assertEquals("args", args.getMessage());
+    Assert.assertEquals(HEADERS, TMessageHeaders.current());
+    Assert.assertEquals(HEADERS, context.getHeaders());
+  }
+
+  @Test
+  public void testPlainProtocolSkipsHeaders() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TMessageHeaders.setCurrent(HEADERS);
+    writeMessage(new THeaderProtocol(new TCompactProtocol(buffer)), TMessageType.CALL);
+    TMessageHeaders.setCurrent(null);
+
+    TApplicationException args = readMessage(new TCompactProtocol(buffer));
+    Assert.assertEquals("args", args.getMessage());
+    Assert.assertTrue(TMessageHeaders.current().isEmpty());
+  }
+
+  @Test
+  public void testStacksWithDeadline() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TMessageHeaders.setCurrent(HEADERS);
+    TDeadline.setCurrent(TDeadline.after(5, TimeUnit.SECONDS));
+    writeMessage(new THeaderProtocol(new TDeadlineProtocol(new TCompactProtocol(buffer))), TMessageType.CALL);
+    TMessageHeaders.setCurrent(null);
+    TDeadline.setCurrent(null);
+
+    TApplicationException args = readMessage(new TDeadlineProtocol(new THeaderProtocol(new TCompactProtocol(buffer))));
+    Assert.assertEquals("args", args.getMessage());
+    Assert.assertEquals(HEADERS, TMessageHeaders.current());
+    Assert.assertNotNull(TDeadline.current());
+  }
+
+  @Test
+  public void testReplyDoesNotCarryHeaders() throws Exception {
+    TMemoryBuffer withHeaders = new TMemoryBuffer(64);
+    TMemoryBuffer withoutHeaders = new TMemoryBuffer(64);
+    TMessageHeaders.setCurrent(HEADERS);
+    writeMessage(new THeaderProtocol(new TBinaryProtocol(withHeaders)), TMessageType.REPLY);
+    TMessageHeaders.setCurrent(null);
+    writeMessage(new TBinaryProtocol(withoutHeaders), TMessageType.REPLY);
+    Assert.assertEquals(withoutHeaders.length(), withHeaders.length());
+  }
+
+  @Test
+  public void testNewCallClearsHeaders() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TMessageHeaders.setCurrent(HEADERS);
+    THeaderProtocol protocol = new THeaderProtocol(new TBinaryProtocol(buffer));
+    writeMessage(protocol, TMessageType.CALL);
+    TMessageHeaders.setCurrent(null);
+    writeMessage(protocol, TMessageType.CALL);
+
+    readMessage(protocol);
+    Assert.assertEquals(HEADERS, protocol.getReadHeaders());
+    readMessage(protocol);
+    Assert.assertEquals(Collections.emptyMap(), protocol.getReadHeaders());
+    Assert.assertTrue(TMessageHeaders.current().isEmpty());
+  }
+
+  @Test
+  public void testSkipsReservedFieldOfOtherMapType() throws Exception {
+    TMemoryBuffer buffer = new TMemoryBuffer(64);
+    TProtocol out = new TBinaryProtocol(buffer);
+    out.writeMessageBegin(new TMessage("method", TMessageType.CALL, 1));
+    out.writeStructBegin(new TStruct(""));
+    out.writeFieldBegin(new TField("", TType.MAP, THeaderProtocol.HEADERS_FIELD_ID));
+    out.writeMapBegin(new TMap(TType.I32, TType.STRING, 2));
+    out.writeI32(1);
+    out.writeString("one");
+    out.writeI32(2);
+    out.writeString("two");
+    out.writeMapEnd();
+    out.writeFieldEnd();
+    out.writeFieldBegin(new TField("", TType.STRING, (short) 1));
+    out.writeString("args");
+    out.writeFieldEnd();
+    out.writeFieldStop();
+    out.writeStructEnd();
+    out.writeMessageEnd();
+
+    THeaderProtocol protocol = new THeaderProtocol(new TBinaryProtocol(buffer));
+    TApplicationException args = readMessage(protocol);
+    Assert.assertEquals("args", args.getMessage());
+    Assert.assertTrue(protocol.getReadHeaders().isEmpty());
+    Assert.assertTrue(TMessageHeaders.current().isEmpty());
+  }
+
+  private static void writeMessage(TProtocol protocol, byte type) throws Exception {
+    protocol.writeMessageBegin(new TMessage("method", type, 1));
+    new TApplicationException(TApplicationException.UNKNOWN, "args").write(protocol);
+    protocol.writeMessageEnd();
+  }
+
+  private static TApplicationException readMessage(TProtocol protocol) throws Exception {
+    protocol.readMessageBegin();
+    TApplicationException args = TApplicationException.readFrom(protocol);
+    protocol.readMessageEnd();
+    return args;
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.thrift.TIntArrayList;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the bulk array methods write the same list bodies as the element by element
+ * methods, and read them back through buffered and unbuffered transports.
+ */
+public class TestTProtocolBulkArrays {
+
+  private static final TProtocolFactory[] FACTORIES = {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TJSONProtocol.Factory()
+  };
+
+  // More elements than fit in the bulk buffers, so that the chunking is exercised
+  private static final int COUNT = 3000;
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void testI16Array() throws Exception {
+    short[] values = new short[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      values[i] = (short) random.nextInt();
+    }
+    values[0] = Short.MIN_VALUE;
+    values[1] = Short.MAX_VALUE;
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer bulk = new TMemoryBuffer(COUNT);
+      TProtocol out = factory.getProtocol(bulk);
+      out.writeListBegin(new TList(TType.I16, COUNT));
+      out.writeI16Array(values, 0, COUNT);
+      out.writeListEnd();
+      TMemoryBuffer single = new TMemoryBuffer(COUNT);
+      TProtocol prot = factory.getProtocol(single);
+      prot.writeListBegin(new TList(TType.I16, COUNT));
+      for (short value : values) {
+        prot.writeI16(value);
+      }
+      prot.writeListEnd();
+      assertSameBytes(factory, single, bulk);
+      for (TProtocol in : readers(factory, bulk)) {
+        short[] read = new short[COUNT + 2];
+        Assert.assertEquals(COUNT, in.readListBeginSize());
+        in.readI16Array(read, 1, COUNT);
+        in.readListEnd();
+        Assert.assertArrayEquals(values, Arrays.copyOfRange(read, 1, COUNT + 1));
+      }
+    }
+  }
+
+  @Test
+  public void testI32Array() throws Exception {
+    int[] values = new int[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      values[i] = random.nextInt() >> random.nextInt(32);
+    }
+    values[0] = Integer.MIN_VALUE;
+    values[1] = Integer.MAX_VALUE;
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer bulk = new TMemoryBuffer(COUNT);
+      TProtocol out = factory.getProtocol(bulk);
+      out.writeListBegin(new TList(TType.I32, COUNT));
+      out.writeI32Array(values, 0, COUNT);
+      out.writeListEnd();
+      TMemoryBuffer single = new TMemoryBuffer(COUNT);
+      TProtocol prot = factory.getProtocol(single);
+      prot.writeListBegin(new TList(TType.I32, COUNT));
+      for (int value : values) {
+        prot.writeI32(value);
+      }
+      prot.writeListEnd();
+      assertSameBytes(factory, single, bulk);
+      for (TProtocol in : readers(factory, bulk)) {
+        int[] read = new int[COUNT];
+        Assert.assertEquals(COUNT, in.readListBeginSize());
+        in.readI32Array(read, 0, COUNT);
+        in.readListEnd();
+        Assert.assertArrayEquals(values, read);
+      }
+    }
+  }
+
+  @Test
+  public void testI64Array() throws Exception {
+    long[] values = new long[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      values[i] = random.nextLong() >> random.nextInt(64);
+    }
+    values[0] = Long.MIN_VALUE;
+    values[1] = Long.MAX_VALUE;
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer bulk = new TMemoryBuffer(COUNT);
+      TProtocol out = factory.getProtocol(bulk);
+      out.writeListBegin(new TList(TType.I64, COUNT));
+      out.writeI64Array(values, 0, COUNT);
+      out.writeListEnd();
+      TMemoryBuffer single = new TMemoryBuffer(COUNT);
+      TProtocol prot = factory.getProtocol(single);
+      prot.writeListBegin(new TList(TType.I64, COUNT));
+      for (long value : values) {
+        prot.writeI64(value);
+      }
+      prot.writeListEnd();
+      assertSameBytes(factory, single, bulk);
+      for (TProtocol in : readers(factory, bulk)) {
+        long[] read = new long[COUNT];
+        Assert.assertEquals(COUNT, in.readListBeginSize());
+        in.readI64Array(read, 0, COUNT);
+        in.readListEnd();
+        Assert.assertArrayEquals(values, read);
+      }
+    }
+  }
+
+  @Test
+  public void testDoubleArray() throws Exception {
+    double[] values = new double[COUNT];
+    for (int i = 0; i < COUNT; i++) {
+      values[i] = random.nextGaussian();
+    }
+    values[0] = Double.NaN;
+    values[1] = Double.NEGATIVE_INFINITY;
+    values[2] = -0.0;
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer bulk = new TMemoryBuffer(COUNT);
+      TProtocol out = factory.getProtocol(bulk);
+      out.writeListBegin(new TList(TType.DOUBLE, COUNT));
+      out.writeDoubleArray(values, 0, COUNT);
+      out.writeListEnd();
+      TMemoryBuffer single = new TMemoryBuffer(COUNT);
+      TProtocol prot = factory.getProtocol(single);
+      prot.writeListBegin(new TList(TType.DOUBLE, COUNT));
+      for (double value : values) {
+        prot.writeDouble(value);
+      }
+      prot.writeListEnd();
+      assertSameBytes(factory, single, bulk);
+      for (TProtocol in : readers(factory, bulk)) {
+        double[] read = new double[COUNT];
+        Assert.assertEquals(COUNT, in.readListBeginSize());
+        in.readDoubleArray(read, 0, COUNT);
+        in.readListEnd();
+        Assert.assertArrayEquals(values, read, 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testByteArray() throws Exception {
+    byte[] values = new byte[COUNT];
+    random.nextBytes(values);
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer bulk = new TMemoryBuffer(COUNT);
+      TProtocol out = factory.getProtocol(bulk);
+      out.writeListBegin(new TList(TType.BYTE, COUNT));
+      out.writeByteArray(values, 0, COUNT);
+      out.writeListEnd();
+      TMemoryBuffer single = new TMemoryBuffer(COUNT);
+      TProtocol prot = factory.getProtocol(single);
+      prot.writeListBegin(new TList(TType.BYTE, COUNT));
+      for (byte value : values) {
+        prot.writeByte(value);
+      }
+      prot.writeListEnd();
+      assertSameBytes(factory, single, bulk);
+      for (TProtocol in : readers(factory, bulk)) {
+        byte[] read = new byte[COUNT];
+        Assert.assertEquals(COUNT, in.readListBeginSize());
+        in.readByteArray(read, 0, COUNT);
+        in.readListEnd();
+        Assert.assertArrayEquals(values, read);
+      }
+    }
+  }
+
+  @Test
+  public void testPrimitiveListElements() throws Exception {
+    TIntArrayList list = new TIntArrayList();
+    for (int i = 0; i < COUNT; i++) {
+      list.addInt(i - COUNT / 2);
+    }
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer buffer = new TMemoryBuffer(COUNT);
+      TProtocol prot = factory.getProtocol(buffer);
+      prot.writeListBegin(new TList(TType.I32, list.size()));
+      list.writeElements(prot);
+      prot.writeListEnd();
+
+      TIntArrayList read = new TIntArrayList(1);
+      read.addInt(7);
+      int size = prot.readListBeginSize();
+      read.readElements(prot, size);
+      prot.readListEnd();
+      Assert.assertEquals(COUNT + 1, read.size());
+      Assert.assertEquals(7, read.getInt(0));
+      Assert.assertEquals(list, read.subList(1, read.size()));
+    }
+  }
+
+  private static void assertSameBytes(TProtocolFactory factory, TMemoryBuffer expected,
+      TMemoryBuffer actual) {
+    Assert.assertArrayEquals(factory.getClass().getName(),
+        Arrays.copyOf(expected.getArray(), expected.length()),
+        Arrays.copyOf(actual.getArray(), actual.length()));
+  }
+
+  // The same bytes through a transport with a readable buffer, and through one without
+  private static TProtocol[] readers(TProtocolFactory factory, TMemoryBuffer written) {
+    byte[] bytes = Arrays.copyOf(written.getArray(), written.length());
+    TTransport buffered = new TMemoryInputTransport(bytes);
+    TTransport unbuffered = new TIOStreamTransport(new ByteArrayInputStream(bytes));
+    return new TProtocol[] {factory.getProtocol(buffered), factory.getProtocol(unbuffered)};
+  }
+}
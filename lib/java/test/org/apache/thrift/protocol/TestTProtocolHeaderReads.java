@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the allocation free header reads decode the same headers as the regular ones.
+ */
+public class TestTProtocolHeaderReads {
+
+  private static final TProtocolFactory[] FACTORIES = {
+      new TBinaryProtocol.Factory(),
+      new TCompactProtocol.Factory(),
+      new TJSONProtocol.Factory(),
+      new TTupleProtocol.Factory()
+  };
+
+  @Test
+  public void testPackedFieldHeader() {
+    byte[] types = {TType.STOP, TType.BOOL, TType.I32, TType.STRUCT, TType.LIST};
+    short[] ids = {0, 1, -1, Short.MAX_VALUE, Short.MIN_VALUE};
+    for (byte type : types) {
+      for (short id : ids) {
+        int header = TField.packHeader(type, id);
+        Assert.assertEquals(type, TField.headerType(header));
+        Assert.assertEquals(id, TField.headerId(header));
+      }
+    }
+  }
+
+  @Test
+  public void testHeaderReadsMatchRegularReads() throws Exception {
+    for (TProtocolFactory factory : FACTORIES) {
+      TMemoryBuffer regular = new TMemoryBuffer(256);
+      TMemoryBuffer packed = new TMemoryBuffer(256);
+      writeStruct(factory.getProtocol(regular));
+      writeStruct(factory.getProtocol(packed));
+
+      TProtocol regularProt = factory.getProtocol(regular);
+      TProtocol packedProt = factory.getProtocol(packed);
+      regularProt.readStructBegin();
+      packedProt.readStructBegin();
+      while (true) {
+        TField field = regularProt.readFieldBegin();
+        int header = packedProt.readFieldHeader();
+        String message = factory.getClass().getName() + " field " + field.id;
+        Assert.assertEquals(message, field.type, TField.headerType(header));
+        Assert.assertEquals(message, field.id, TField.headerId(header));
+        if (field.type == TType.STOP) {
+          break;
+        }
+        switch (field.type) {
+          case TType.BOOL:
+            Assert.assertEquals(message, regularProt.readBool(), packedProt.readBool());
+            break;
+          case TType.I32:
+            Assert.assertEquals(message, regularProt.readI32(), packedProt.readI32());
+            break;
+          case TType.LIST:
+            Assert.assertEquals(message, regularProt.readListBegin().size, packedProt.readListBeginSize());
+            readElements(regularProt, packedProt, 3);
+            regularProt.readListEnd();
+            packedProt.readListEnd();
+            break;
+          case TType.SET:
+            Assert.assertEquals(message, regularProt.readSetBegin().size, packedProt.readSetBeginSize());
+            readElements(regularProt, packedProt, 2);
+            regularProt.readSetEnd();
+            packedProt.readSetEnd();
+            break;
+          case TType.MAP:
+            int size = regularProt.readMapBegin().size;
+            Assert.assertEquals(message, size, packedProt.readMapBeginSize());
+            readElements(regularProt, packedProt, 2 * size);
+            regularProt.readMapEnd();
+            packedProt.readMapEnd();
+            break;
+          default:
+            Assert.fail(message);
+        }
+        regularProt.readFieldEnd();
+        packedProt.readFieldEnd();
+      }
+      regularProt.readStructEnd();
+      packedProt.readStructEnd();
+    }
+  }
+
+  private static void readElements(TProtocol regular, TProtocol packed, int count) throws Exception {
+    for (int i = 0; i < count; i++) {
+      Assert.assertEquals(regular.readI32(), packed.readI32());
+    }
+  }
+
+  private static void writeStruct(TProtocol prot) throws Exception {
+    prot.writeStructBegin(new TStruct("test"));
+    prot.writeFieldBegin(new TField("flag", TType.BOOL, (short) 1));
+    prot.writeBool(true);
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("delta", TType.I32, (short) 2));
+    prot.writeI32(42);
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("far", TType.I32, (short) 300));
+    prot.writeI32(-7);
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("list", TType.LIST, (short) 301));
+    prot.writeListBegin(new TList(TType.I32, 3));
+    for (int i = 0; i < 3; i++) {
+      prot.writeI32(i);
+    }
+    prot.writeListEnd();
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("set", TType.SET, (short) 302));
+    prot.writeSetBegin(new TSet(TType.I32, 2));
+    prot.writeI32(10);
+    prot.writeI32(20);
+    prot.writeSetEnd();
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("map", TType.MAP, (short) 303));
+    prot.writeMapBegin(new TMap(TType.I32, TType.I32, 1));
+    prot.writeI32(1);
+    prot.writeI32(2);
+    prot.writeMapEnd();
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("empty", TType.MAP, (short) 304));
+    prot.writeMapBegin(new TMap(TType.I32, TType.I32, 0));
+    prot.writeMapEnd();
+    prot.writeFieldEnd();
+    prot.writeFieldBegin(new TField("flagOff", TType.BOOL, (short) 305));
+    prot.writeBool(false);
+    prot.writeFieldEnd();
+    prot.writeFieldStop();
+    prot.writeStructEnd();
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializable;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the size protocols count exactly the bytes the protocols write.
+ */
+public class TestTSizeProtocol {
+
+  private static final String[] STRINGS = {
+      "",
+      "ascii",
+      "éè two byte",
+      "中文 three byte",
+      "😀 pair",
+      "unpaired \ud83d high",
+      "unpaired \ude00 low",
+      "ends with \ud83d"
+  };
+
+  // Writes everything the protocols encode differently: field id deltas, bool fields,
+  // small and large containers, varints of all widths and bulk arrays
+  private static final TSerializable MESSAGE = new TSerializable() {
+    @Override
+    public void read(TProtocol iprot) throws TException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void write(TProtocol oprot) throws TException {
+      oprot.writeMessageBegin(new TMessage("methodé", TMessageType.CALL, 300));
+      oprot.writeStructBegin(new TStruct("outer"));
+      oprot.writeFieldBegin(new TField("flag", TType.BOOL, (short) 1));
+      oprot.writeBool(true);
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("far", TType.I32, (short) 100));
+      oprot.writeI32(Integer.MIN_VALUE);
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("negative", TType.BOOL, (short) -3));
+      oprot.writeBool(false);
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("inner", TType.STRUCT, (short) 5));
+      oprot.writeStructBegin(new TStruct("inner"));
+      oprot.writeFieldBegin(new TField("i16", TType.I16, (short) 20));
+      oprot.writeI16((short) -200);
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("i64", TType.I64, (short) 21));
+      oprot.writeI64(Long.MAX_VALUE);
+      oprot.writeFieldEnd();
+      oprot.writeFieldStop();
+      oprot.writeStructEnd();
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("strings", TType.LIST, (short) 6));
+      oprot.writeListBegin(new TList(TType.STRING, STRINGS.length));
+      for (String str : STRINGS) {
+        oprot.writeString(str);
+      }
+      oprot.writeListEnd();
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("empty", TType.MAP, (short) 7));
+      oprot.writeMapBegin(new TMap(TType.I32, TType.DOUBLE, 0));
+      oprot.writeMapEnd();
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("map", TType.MAP, (short) 8));
+      oprot.writeMapBegin(new TMap(TType.BYTE, TType.STRING, 2));
+      oprot.writeByte((byte) 1);
+      oprot.writeBinary(ByteBuffer.wrap(new byte[300], 10, 200));
+      oprot.writeByte((byte) 2);
+      oprot.writeBinary(ByteBuffer.allocate(0));
+      oprot.writeMapEnd();
+      oprot.writeFieldEnd();
+      oprot.writeFieldBegin(new TField("set", TType.SET, (short) 9));
+      oprot.writeSetBegin(new TSet(TType.BOOL, 3));
+      oprot.writeBool(true);
+      oprot.writeBool(false);
+      oprot.writeBool(true);
+      oprot.writeSetEnd();
+      oprot.writeFieldEnd();
+      writeArrays(oprot);
+      oprot.writeFieldStop();
+      oprot.writeStructEnd();
+      oprot.writeMessageEnd();
+    }
+  };
+
+  private static void writeArrays(TProtocol oprot) throws TException {
+    int count = 1000;
+    short[] shorts = new short[count];
+    int[] ints = new int[count];
+    long[] longs = new long[count];
+    double[] doubles = new double[count];
+    for (int i = 0; i < count; i++) {
+      shorts[i] = (short) (i * 97);
+      ints[i] = i * i * i * (i % 2 == 0 ? 1 : -1);
+      longs[i] = (long) ints[i] << (i % 32);
+      doubles[i] = i / 3.0;
+    }
+    oprot.writeFieldBegin(new TField("shorts", TType.LIST, (short) 10));
+    oprot.writeListBegin(new TList(TType.I16, count - 1));
+    oprot.writeI16Array(shorts, 1, count - 1);
+    oprot.writeListEnd();
+    oprot.writeFieldEnd();
+    oprot.writeFieldBegin(new TField("ints", TType.LIST, (short) 11));
+    oprot.writeListBegin(new TList(TType.I32, count));
+    oprot.writeI32Array(ints, 0, count);
+    oprot.writeListEnd();
+    oprot.writeFieldEnd();
+    oprot.writeFieldBegin(new TField("longs", TType.SET, (short) 12));
+    oprot.writeSetBegin(new TSet(TType.I64, count));
+    oprot.writeI64Array(longs, 0, count);
+    oprot.writeSetEnd();
+    oprot.writeFieldEnd();
+    oprot.writeFieldBegin(new TField("doubles", TType.LIST, (short) 13));
+    oprot.writeListBegin(new TList(TType.DOUBLE, count));
+    oprot.writeDoubleArray(doubles, 0, count);
+    oprot.writeListEnd();
+    oprot.writeFieldEnd();
+    oprot.writeFieldBegin(new TField("bytes", TType.LIST, (short) 14));
+    oprot.writeListBegin(new TList(TType.BYTE, 14));
+    oprot.writeByteArray(new byte[20], 3, 14);
+    oprot.writeListEnd();
+    oprot.writeFieldEnd();
+  }
+
+  private static int written(TProtocolFactory factory, TSerializable object) throws TException {
+    TMemoryBuffer buffer = new TMemoryBuffer(1024);
+    object.write(factory.getProtocol(buffer));
+    return buffer.length();
+  }
+
+  @Test
+  public void testSizes() throws Exception {
+    TProtocolFactory[] factories = {
+        new TBinaryProtocol.Factory(),
+        new TBinaryProtocol.Factory(false, false),
+        new TCompactProtocol.Factory(),
+        new TJSONProtocol.Factory(),
+        new TTupleProtocol.Factory()
+    };
+    for (TProtocolFactory factory : factories) {
+      Assert.assertEquals(written(factory, MESSAGE), TSizeProtocol.sizeOf(MESSAGE, factory));
+    }
+
+    TSerializable exception = new TApplicationException(TApplicationException.INTERNAL_ERROR, "failed");
+    for (TProtocolFactory factory : factories) {
+      Assert.assertEquals(written(factory, exception), TSizeProtocol.sizeOf(exception, factory));
+    }
+  }
+
+  @Test
+  public void testForFactory() throws Exception {
+    Assert.assertTrue(TSizeProtocol.forFactory(new TBinaryProtocol.Factory()) instanceof TSizeProtocol.Binary);
+    Assert.assertTrue(TSizeProtocol.forFactory(new TCompactProtocol.Factory()) instanceof TSizeProtocol.Compact);
+    // The tuple protocol writes structs differently from the compact protocol it extends
+    Assert.assertNull(TSizeProtocol.forFactory(new TTupleProtocol.Factory()));
+    Assert.assertNull(TSizeProtocol.forFactory(new TJSONProtocol.Factory()));
+
+    TSizeProtocol sizer = TSizeProtocol.forFactory(new TCompactProtocol.Factory());
+    MESSAGE.write(sizer);
+    long size = sizer.getSize();
+    sizer.reset();
+    MESSAGE.write(sizer);
+    Assert.assertEquals(size, sizer.getSize());
+  }
+
+  @Test
+  public void testUtf8Length() {
+    for (String str : STRINGS) {
+      Assert.assertEquals(str, str.getBytes(StandardCharsets.UTF_8).length, TSizeProtocol.utf8Length(str));
+    }
+  }
+
+  @Test
+  public void testVarintSizes() {
+    int[] ints = {0, 1, 127, 128, 16383, 16384, 1 << 21, 1 << 28, Integer.MAX_VALUE, -1};
+    int[] intSizes = {1, 1, 1, 2, 2, 3, 4, 5, 5, 5};
+    for (int i = 0; i < ints.length; i++) {
+      Assert.assertEquals(intSizes[i], TSizeProtocol.varint32Size(ints[i]));
+    }
+    long[] longs = {0, 127, 128, 1L << 35, 1L << 62, Long.MAX_VALUE, -1};
+    int[] longSizes = {1, 1, 2, 6, 9, 9, 10};
+    for (int i = 0; i < longs.length; i++) {
+      Assert.assertEquals(longSizes[i], TSizeProtocol.varint64Size(longs[i]));
+    }
+  }
+}
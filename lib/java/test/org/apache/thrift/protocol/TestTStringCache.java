@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTStringCache {
+
+  @Test
+  public void testReturnsSameInstance() {
+    TStringCache cache = new TStringCache(16, 8);
+    byte[] buf = "xxkeyxx\u00e9".getBytes(StandardCharsets.UTF_8);
+    String first = cache.get(buf, 2, 3);
+    Assert.assertEquals("key", first);
+    Assert.assertSame(first, cache.get("key".getBytes(StandardCharsets.UTF_8), 0, 3));
+    Assert.assertEquals("ke", cache.get(buf, 2, 2));
+
+    String accented = cache.get(buf, 7, 2);
+    Assert.assertEquals("\u00e9", accented);
+    Assert.assertSame(accented, cache.get(buf, 7, 2));
+  }
+
+  @Test
+  public void testSkipsLongStrings() {
+    TStringCache cache = new TStringCache(16, 4);
+    byte[] buf = "too long".getBytes(StandardCharsets.UTF_8);
+    String first = cache.get(buf, 0, buf.length);
+    Assert.assertEquals("too long", first);
+    Assert.assertNotSame(first, cache.get(buf, 0, buf.length));
+  }
+
+  @Test
+  public void testEvictsOnCollision() {
+    // a single slot keeps the last string only
+    TStringCache cache = new TStringCache(1, 8);
+    byte[] a = "a".getBytes(StandardCharsets.UTF_8);
+    byte[] b = "b".getBytes(StandardCharsets.UTF_8);
+    String first = cache.get(a, 0, 1);
+    Assert.assertEquals("b", cache.get(b, 0, 1));
+    String again = cache.get(a, 0, 1);
+    Assert.assertEquals("a", again);
+    Assert.assertNotSame(first, again);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new TStringCache(0, 8);
+  }
+
+  @Test
+  public void testProtocolsDedupStrings() throws Exception {
+    TStringCache cache = new TStringCache();
+    TBinaryProtocol.Factory binary = new TBinaryProtocol.Factory();
+    binary.setStringCache(cache);
+    TCompactProtocol.Factory compact = new TCompactProtocol.Factory();
+    compact.setStringCache(cache);
+    TProtocolFactory[] factories = {binary, compact};
+    for (TProtocolFactory factory : factories) {
+      TMemoryBuffer trans = new TMemoryBuffer(16);
+      TProtocol out = factory.getProtocol(trans);
+      out.writeString("status");
+      out.writeString("status");
+      TProtocol in = factory.getProtocol(trans);
+      String first = in.readString();
+      Assert.assertEquals("status", first);
+      Assert.assertSame(first, in.readString());
+    }
+  }
+
+  @Test
+  public void testFactoriesWithCacheAreSerializable() throws Exception {
+    TStringCache cache = new TStringCache(100, 16);
+    cache.get("cached".getBytes(StandardCharsets.UTF_8), 0, 6);
+    TBinaryProtocol.Factory binary = new TBinaryProtocol.Factory();
+    binary.setStringCache(cache);
+    TCompactProtocol.Factory compact = new TCompactProtocol.Factory();
+    compact.setStringCache(cache);
+    TProtocolFactory[] factories = {binary, compact};
+    for (TProtocolFactory factory : factories) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(factory);
+      out.close();
+      TProtocolFactory copy = (TProtocolFactory) new ObjectInputStream(
+          new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+      TMemoryBuffer trans = new TMemoryBuffer(16);
+      TProtocol protocol = copy.getProtocol(trans);
+      protocol.writeString("status");
+      protocol.writeString("status");
+      String first = protocol.readString();
+      Assert.assertSame(first, protocol.readString());
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(cache);
+    out.close();
+    TStringCache copy = (TStringCache) new ObjectInputStream(
+        new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    Assert.assertEquals(128, copy.getSize());
+    Assert.assertEquals(16, copy.getMaxLength());
+  }
+}
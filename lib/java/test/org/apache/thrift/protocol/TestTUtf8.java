@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that TUtf8 encodes and decodes exactly like the JDK.
+ */
+public class TestTUtf8 {
+
+  private static final String[] STRINGS = {
+      "",
+      "ascii",
+      "\u00e9\u00e8 two byte",
+      "\u4e2d\u6587 three byte",
+      "\ud83d\ude00 pair",
+      "unpaired \ud83d high",
+      "unpaired \ude00 low",
+      "ends with \ud83d",
+      "\u007f\u0080\u07ff\u0800\uffff"
+  };
+
+  @Test
+  public void testEncode() throws Exception {
+    for (String str : STRINGS) {
+      byte[] expected = str.getBytes(StandardCharsets.UTF_8);
+      Assert.assertEquals(str, expected.length, TUtf8.encodedLength(str));
+      byte[] dst = new byte[str.length() * 3];
+      int end = TUtf8.encode(str, 0, str.length(), dst, 0);
+      Assert.assertArrayEquals(str, expected, Arrays.copyOf(dst, end));
+    }
+  }
+
+  @Test
+  public void testWriteInChunks() throws Exception {
+    // pairs straddle the chunk boundaries of the scratch buffer
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      sb.append(i % 7 == 0 ? "\ud83d\ude00" : i % 3 == 0 ? "\u4e2d" : "a");
+    }
+    String str = sb.toString();
+    for (int scratch = 6; scratch <= 30; scratch++) {
+      TMemoryBuffer trans = new TMemoryBuffer(16);
+      TUtf8.write(str, new byte[scratch], trans);
+      Assert.assertArrayEquals(str.getBytes(StandardCharsets.UTF_8),
+          Arrays.copyOf(trans.getArray(), trans.length()));
+    }
+  }
+
+  @Test
+  public void testDecode() throws Exception {
+    for (String str : STRINGS) {
+      byte[] utf8 = str.getBytes(StandardCharsets.UTF_8);
+      Assert.assertEquals(new String(utf8, StandardCharsets.UTF_8), TUtf8.decode(utf8, 0, utf8.length));
+    }
+    byte[][] malformed = {
+        {(byte) 0x80},
+        {'a', (byte) 0xc3},
+        {(byte) 0xc0, (byte) 0xaf},
+        {(byte) 0xe0, (byte) 0x80, (byte) 0xaf},
+        {(byte) 0xed, (byte) 0xa0, (byte) 0x80},
+        {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+        {(byte) 0xe4, (byte) 0xb8, 'x'},
+        {(byte) 0xff, 'b'}
+    };
+    for (byte[] utf8 : malformed) {
+      Assert.assertEquals(new String(utf8, StandardCharsets.UTF_8), TUtf8.decode(utf8, 0, utf8.length));
+    }
+    byte[] framed = "--\u00e9t\u00e9--".getBytes(StandardCharsets.UTF_8);
+    Assert.assertEquals("\u00e9t\u00e9", TUtf8.decode(framed, 2, framed.length - 4));
+  }
+
+  @Test
+  public void testProtocolsRoundTrip() throws Exception {
+    StringBuilder large = new StringBuilder();
+    while (large.length() < 10000) {
+      large.append("\u00e9\ud83d\ude00x");
+    }
+    TProtocolFactory[] factories = {new TBinaryProtocol.Factory(), new TCompactProtocol.Factory()};
+    for (TProtocolFactory factory : factories) {
+      TMemoryBuffer trans = new TMemoryBuffer(16);
+      TProtocol out = factory.getProtocol(trans);
+      for (String str : STRINGS) {
+        out.writeString(str);
+      }
+      out.writeString(large.toString());
+      TProtocol in = factory.getProtocol(trans);
+      for (String str : STRINGS) {
+        Assert.assertEquals(new String(str.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8), in.readString());
+      }
+      Assert.assertEquals(large.toString(), in.readString());
+    }
+  }
+}
@@ -19,6 +19,8 @@
 
 package org.apache.thrift.server;
 
+import java.util.List;
+
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
@@ -89,6 +91,48 @@ public class TestSaslNonblockingServer extends TestTSaslTransports.TestTSaslTran
     }
   }
 
+  public void testNetworkThreadMetrics() throws Exception {
+    TNonblockingServerTransport serverSocket = new TNonblockingServerSocket(
+        new TNonblockingServerSocket.NonblockingAbstractServerSocketArgs().port(PORT));
+    TSaslNonblockingServer.Args args = new TSaslNonblockingServer.Args(serverSocket)
+        .processor(new ThriftTest.Processor<>(new TestHandler()))
+        .networkThreads(2)
+        .addSaslMechanism(TestTSaslTransports.WRAPPED_MECHANISM, TestTSaslTransports.SERVICE,
+            TestTSaslTransports.HOST, TestTSaslTransports.WRAPPED_PROPS,
+            new TestSaslCallbackHandler(TestTSaslTransports.PASSWORD));
+    server = new TSaslNonblockingServer(args);
+    server.serve();
+
+    TSaslClientTransport[] clients = new TSaslClientTransport[2];
+    try {
+      for (int i = 0; i < clients.length; i++) {
+        TSocket socket = new TSocket(HOST, PORT);
+        socket.setTimeout(SOCKET_TIMEOUT);
+        clients[i] = new TSaslClientTransport(TestTSaslTransports.WRAPPED_MECHANISM,
+            TestTSaslTransports.PRINCIPAL, TestTSaslTransports.SERVICE, TestTSaslTransports.HOST,
+            TestTSaslTransports.WRAPPED_PROPS, new TestSaslCallbackHandler(TestTSaslTransports.PASSWORD), socket);
+        clients[i].open();
+        new ThriftTest.Client(new TBinaryProtocol(clients[i])).testVoid();
+      }
+
+      List<TSaslNonblockingServer.NetworkThreadMetrics> metrics = server.getNetworkThreadMetrics();
+      assertEquals(2, metrics.size());
+      for (TSaslNonblockingServer.NetworkThreadMetrics threadMetrics : metrics) {
+        // Connections are spread to the least loaded network thread.
+        assertEquals(threadMetrics.toString(), 1, threadMetrics.getConnections());
+        assertEquals(0, threadMetrics.getPendingConnections());
+        assertTrue(threadMetrics.getWakeups() > 0);
+      }
+    } finally {
+      for (TSaslClientTransport client : clients) {
+        if (client != null) {
+          client.close();
+        }
+      }
+      stopServer();
+    }
+  }
+
   @Override
   public void testTransportFactory() {
     // This test is irrelevant here, so skipped.
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTAdmissionController {
+
+  @Test
+  public void testQueueBound() {
+    TAdmissionController controller = new TAdmissionController(2);
+    Assert.assertTrue(controller.tryEnqueue());
+    Assert.assertTrue(controller.tryEnqueue());
+    Assert.assertFalse(controller.tryEnqueue());
+    Assert.assertTrue(controller.admit(0));
+    Assert.assertTrue(controller.tryEnqueue());
+
+    TAdmissionController.Metrics metrics = controller.getMetrics();
+    Assert.assertEquals(2, metrics.getQueued());
+    Assert.assertEquals(1, metrics.getAdmitted());
+    Assert.assertEquals(1, metrics.getShedQueueFull());
+  }
+
+  @Test
+  public void testShedsStaleRequestsOfStandingQueue() {
+    TAdmissionController controller = new TAdmissionController(100, 5, 20, TimeUnit.MILLISECONDS);
+    long stale = TimeUnit.MILLISECONDS.toNanos(50);
+    long interval = TimeUnit.MILLISECONDS.toNanos(20);
+    long now = System.nanoTime();
+    // a long delay alone does not shed, the queue has to stand for an interval
+    controller.tryEnqueue();
+    Assert.assertTrue(controller.admit(stale, now));
+    now += interval + 1;
+    controller.tryEnqueue();
+    Assert.assertFalse(controller.admit(stale, now));
+    Assert.assertTrue(controller.getMetrics().isOverloaded());
+    // requests within twice the target still go through
+    controller.tryEnqueue();
+    Assert.assertTrue(controller.admit(TimeUnit.MILLISECONDS.toNanos(8), now + 1));
+
+    // an interval with a quick request ends the overload
+    now += interval + 1;
+    controller.tryEnqueue();
+    Assert.assertTrue(controller.admit(0, now));
+    now += interval + 1;
+    controller.tryEnqueue();
+    Assert.assertTrue(controller.admit(stale, now));
+    Assert.assertFalse(controller.getMetrics().isOverloaded());
+
+    TAdmissionController.Metrics metrics = controller.getMetrics();
+    Assert.assertEquals(1, metrics.getShedQueueDelay());
+    Assert.assertEquals(stale, metrics.getMaxQueueDelayNanos());
+  }
+
+  @Test
+  public void testServerShedsRequests() throws Exception {
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(0);
+    TAdmissionController controller = new TAdmissionController(1, 0, 100, TimeUnit.MILLISECONDS);
+    final TServer server = new TThreadedSelectorServer(new TThreadedSelectorServer.Args(serverSocket)
+        .workerThreads(1)
+        .admissionController(controller)
+        .processor(new TProcessor() {
+          @Override
+          public void process(TProtocol in, TProtocol out) throws TException {
+            TMessage message = in.readMessageBegin();
+            in.readMessageEnd();
+            try {
+              Thread.sleep(300);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+            out.writeMessageEnd();
+            out.getTransport().flush();
+          }
+        }));
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    });
+    serverThread.start();
+    final int port = serverSocket.getPort();
+    ExecutorService clients = Executors.newFixedThreadPool(4);
+    try {
+      while (!server.isServing()) {
+        Thread.sleep(10);
+      }
+      List<Future<Byte>> replies = new ArrayList<Future<Byte>>();
+      for (int i = 0; i < 4; i++) {
+        replies.add(clients.submit(new Callable<Byte>() {
+          @Override
+          public Byte call() throws Exception {
+            TSocket socket = new TSocket("localhost", port);
+            socket.open();
+            try {
+              TProtocol protocol = new TBinaryProtocol(new TFramedTransport(socket));
+              protocol.writeMessageBegin(new TMessage("method", TMessageType.CALL, 1));
+              protocol.writeMessageEnd();
+              protocol.getTransport().flush();
+              TMessage reply = protocol.readMessageBegin();
+              if (reply.type == TMessageType.EXCEPTION) {
+                TApplicationException x = TApplicationException.readFrom(protocol);
+                Assert.assertEquals(TApplicationException.INTERNAL_ERROR, x.getType());
+              }
+              return reply.type;
+            } finally {
+              socket.close();
+            }
+          }
+        }));
+        Thread.sleep(20);
+      }
+      int processed = 0;
+      int shed = 0;
+      for (Future<Byte> reply : replies) {
+        if (reply.get() == TMessageType.REPLY) {
+          processed++;
+        } else {
+          shed++;
+        }
+      }
+      // one request runs, one waits, the others are shed
+      Assert.assertEquals(2, processed);
+      Assert.assertEquals(2, shed);
+      Assert.assertEquals(2, controller.getMetrics().getShedQueueFull());
+    } finally {
+      clients.shutdown();
+      server.stop();
+      serverThread.join();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.THttpClient;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTAsyncServlet {
+
+  private Tomcat tomcat;
+  private TAsyncServlet servlet;
+  private ExecutorService executor;
+  private String url;
+
+  /**
+   * Echoes back the string in the request, or fails if it is empty.
+   */
+  private static class EchoProcessor implements TProcessor {
+    @Override
+    public void process(TProtocol in, TProtocol out) throws TException {
+      String message = in.readString();
+      if (message.isEmpty()) {
+        throw new TException("Empty message");
+      }
+      out.writeString(message);
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newFixedThreadPool(2);
+    servlet = new TAsyncServlet(new EchoProcessor(), new TBinaryProtocol.Factory(), executor);
+    servlet.addCustomHeader("X-Test", "async");
+
+    tomcat = new Tomcat();
+    tomcat.setPort(0);
+    tomcat.setBaseDir(new File(System.getProperty("java.io.tmpdir"), "tomcat-async-servlet").getPath());
+    Context context = tomcat.addContext("", null);
+    Wrapper wrapper = Tomcat.addServlet(context, "thrift", servlet);
+    wrapper.setAsyncSupported(true);
+    context.addServletMappingDecoded("/thrift", "thrift");
+    tomcat.start();
+    url = "http://localhost:" + tomcat.getConnector().getLocalPort() + "/thrift";
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    tomcat.stop();
+    tomcat.destroy();
+  }
+
+  @Test
+  public void testEcho() throws Exception {
+    THttpClient transport = new THttpClient(url);
+    TProtocol protocol = new TBinaryProtocol(transport);
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      large.append((char) ('a' + i % 26));
+    }
+    for (String message : new String[]{"hello", large.toString(), "world"}) {
+      protocol.writeString(message);
+      transport.flush();
+      Assert.assertEquals(message, protocol.readString());
+    }
+    transport.close();
+  }
+
+  @Test
+  public void testProcessingFailure() throws Exception {
+    THttpClient transport = new THttpClient(url);
+    TProtocol protocol = new TBinaryProtocol(transport);
+    protocol.writeString("");
+    try {
+      transport.flush();
+      Assert.fail("Processing failure should be reported as an HTTP error");
+    } catch (TException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("500"));
+    }
+    transport.close();
+  }
+
+  @Test
+  public void testRequestTooLarge() throws Exception {
+    servlet.setMaxRequestSize(1024);
+    THttpClient transport = new THttpClient(url);
+    TProtocol protocol = new TBinaryProtocol(transport);
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      large.append('x');
+    }
+    protocol.writeString(large.toString());
+    try {
+      transport.flush();
+      Assert.fail("Request larger than the limit should be rejected");
+    } catch (TException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("413"));
+    }
+
+    protocol.writeString("small");
+    transport.flush();
+    Assert.assertEquals("small", protocol.readString());
+    transport.close();
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTLatencyHistogram {
+
+  @Test
+  public void testBucketsBoundRelativeError() {
+    long[] values = {0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE};
+    for (long value : values) {
+      long highest = TLatencyHistogram.highestValueOf(TLatencyHistogram.bucketOf(value));
+      Assert.assertTrue(highest >= value);
+      Assert.assertTrue(highest - value <= value / 16);
+    }
+    for (long value = 0; value < 100000; value++) {
+      int bucket = TLatencyHistogram.bucketOf(value);
+      Assert.assertTrue(value <= TLatencyHistogram.highestValueOf(bucket));
+      Assert.assertTrue(bucket == 0 || value > TLatencyHistogram.highestValueOf(bucket - 1));
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    TLatencyHistogram histogram = new TLatencyHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    TLatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    Assert.assertEquals(1000, snapshot.getCount());
+    Assert.assertEquals(1000, snapshot.getMax());
+    Assert.assertEquals(500.5, snapshot.getMean(), 0.0);
+    assertWithin(500, snapshot.getValueAtPercentile(50));
+    assertWithin(990, snapshot.getValueAtPercentile(99));
+    Assert.assertEquals(1000, snapshot.getValueAtPercentile(100));
+    Assert.assertEquals(1, snapshot.getValueAtPercentile(0));
+  }
+
+  @Test
+  public void testEmpty() {
+    TLatencyHistogram.Snapshot snapshot = new TLatencyHistogram().snapshot();
+    Assert.assertEquals(0, snapshot.getCount());
+    Assert.assertEquals(0, snapshot.getValueAtPercentile(99));
+    Assert.assertEquals(0, snapshot.getMean(), 0.0);
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    Assert.assertTrue(actual + " is not within 1/16 above " + expected,
+        actual >= expected && actual <= expected + expected / 16);
+  }
+}
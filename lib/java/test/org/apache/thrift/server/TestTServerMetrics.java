@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.thrift.EmptyStruct;
+import org.apache.thrift.ProcessFunction;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TBaseProcessor;
+import org.apache.thrift.TBulkhead;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServerInstrumentation.Outcome;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTServerMetrics {
+
+  @Test
+  public void testProcessorReportsOutcomes() throws Exception {
+    Map<String, ProcessFunction<Object, ? extends TBase>> processMap =
+        new HashMap<String, ProcessFunction<Object, ? extends TBase>>();
+    processMap.put("ok", new TestFunction("ok", null));
+    processMap.put("failing", new TestFunction("failing", new TApplicationException("failed")));
+    processMap.put("limited", new TestFunction("limited", null));
+    TBaseProcessor<Object> processor = new TBaseProcessor<Object>(new Object(), processMap) {};
+    TServerMetrics metrics = new TServerMetrics();
+    processor.setInstrumentation(metrics);
+    TBulkhead bulkhead = new TBulkhead("limited", 1);
+    processor.assignBulkhead("limited", bulkhead);
+    bulkhead.tryAcquire();
+
+    for (int i = 0; i < 3; i++) {
+      call(processor, "ok");
+    }
+    call(processor, "failing");
+    call(processor, "limited");
+
+    TServerMetrics.Snapshot snapshot = metrics.snapshot();
+    TServerMetrics.MethodSnapshot ok = snapshot.getMethods().get("ok");
+    Assert.assertEquals(3, ok.getCount(Outcome.SUCCESS));
+    Assert.assertEquals(3, ok.getLatency().getCount());
+    Assert.assertEquals(1, snapshot.getMethods().get("failing").getCount(Outcome.ERROR));
+    TServerMetrics.MethodSnapshot limited = snapshot.getMethods().get("limited");
+    Assert.assertEquals(1, limited.getCount(Outcome.REJECTED));
+    Assert.assertEquals(0, limited.getLatency().getCount());
+  }
+
+  @Test
+  public void testNonblockingServerReportsFrames() throws Exception {
+    Map<String, ProcessFunction<Object, ? extends TBase>> processMap =
+        new HashMap<String, ProcessFunction<Object, ? extends TBase>>();
+    processMap.put("ok", new TestFunction("ok", null));
+    TBaseProcessor<Object> processor = new TBaseProcessor<Object>(new Object(), processMap) {};
+    TServerMetrics metrics = new TServerMetrics();
+    processor.setInstrumentation(metrics);
+
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(0);
+    final TServer server = new TThreadedSelectorServer(new TThreadedSelectorServer.Args(serverSocket)
+        .processor(processor));
+    server.setInstrumentation(metrics);
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    });
+    serverThread.start();
+    try {
+      while (!server.isServing()) {
+        Thread.sleep(10);
+      }
+      TSocket socket = new TSocket("localhost", serverSocket.getPort());
+      socket.open();
+      try {
+        TProtocol protocol = new TBinaryProtocol(new TFramedTransport(socket));
+        for (int i = 0; i < 4; i++) {
+          protocol.writeMessageBegin(new TMessage("ok", TMessageType.CALL, i));
+          new EmptyStruct().write(protocol);
+          protocol.writeMessageEnd();
+          protocol.getTransport().flush();
+          Assert.assertEquals(TMessageType.REPLY, protocol.readMessageBegin().type);
+          new EmptyStruct().read(protocol);
+          protocol.readMessageEnd();
+        }
+      } finally {
+        socket.close();
+      }
+    } finally {
+      server.stop();
+      serverThread.join();
+    }
+
+    TServerMetrics.Snapshot snapshot = metrics.snapshot();
+    Assert.assertEquals(4, snapshot.getFrames());
+    Assert.assertEquals(4, snapshot.getQueueWait().getCount());
+    // frame size, strict binary message header of "ok" and an empty struct
+    Assert.assertEquals(4 * (4 + 4 + 4 + 2 + 4 + 1), snapshot.getRequestBytes());
+    Assert.assertEquals(4 * (4 + 4 + 4 + 2 + 4 + 1), snapshot.getResponseBytes());
+    Assert.assertEquals(4, snapshot.getMethods().get("ok").getCount(Outcome.SUCCESS));
+  }
+
+  private static void call(TBaseProcessor<Object> processor, String method) throws TException {
+    TProtocol in = new TBinaryProtocol(new TMemoryBuffer(64));
+    in.writeMessageBegin(new TMessage(method, TMessageType.CALL, 1));
+    new EmptyStruct().write(in);
+    in.writeMessageEnd();
+    processor.process(in, new TBinaryProtocol(new TMemoryBuffer(64)));
+  }
+
+  private static class TestFunction extends ProcessFunction<Object, EmptyStruct> {
+    private final TException failure;
+
+    TestFunction(String methodName, TException failure) {
+      super(methodName);
+      this.failure = failure;
+    }
+
+    @Override
+    protected boolean isOneway() {
+      return false;
+    }
+
+    @Override
+    public TBase getResult(Object iface, EmptyStruct args) throws TException {
+      if (failure != null) {
+        throw failure;
+      }
+      return args;
+    }
+
+    @Override
+    public EmptyStruct getEmptyArgsInstance() {
+      return new EmptyStruct();
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.server;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTWorkStealingInvoker {
+
+  @Test
+  public void testRunsTasksOfAllSubmitters() throws Exception {
+    final TWorkStealingInvoker invoker = new TWorkStealingInvoker(3, 2);
+    final int tasksPerSubmitter = 1000;
+    final CountDownLatch done = new CountDownLatch(3 * tasksPerSubmitter);
+    Thread[] submitters = new Thread[3];
+    for (int i = 0; i < submitters.length; i++) {
+      submitters[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < tasksPerSubmitter; j++) {
+            invoker.execute(new Runnable() {
+              @Override
+              public void run() {
+                done.countDown();
+              }
+            });
+          }
+        }
+      });
+      submitters[i].start();
+    }
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    invoker.shutdown();
+    Assert.assertTrue(invoker.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testIdleLaneStealsTasks() throws Exception {
+    TWorkStealingInvoker invoker = new TWorkStealingInvoker(2, 1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch stolen = new CountDownLatch(1);
+    // both tasks go to the lane of this thread, its only worker is kept busy by the first one
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+        stolen.countDown();
+      }
+    });
+    Assert.assertTrue(stolen.await(5, TimeUnit.SECONDS));
+    Assert.assertEquals(1, invoker.getStolenTasks());
+    blocked.countDown();
+    invoker.shutdown();
+    Assert.assertTrue(invoker.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testWorkerSurvivesError() throws Exception {
+    TWorkStealingInvoker invoker = new TWorkStealingInvoker(1, 1);
+    final CountDownLatch ran = new CountDownLatch(1);
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+        throw new AssertionError("task failed");
+      }
+    });
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    });
+    Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+    Assert.assertFalse(invoker.isTerminated());
+    invoker.shutdown();
+    Assert.assertTrue(invoker.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDefaultExecutorSplitsWorkersExactly() throws Exception {
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(0);
+    try {
+      int[][] configs = {{5, 2}, {6, 3}, {2, 4}};
+      for (int[] config : configs) {
+        TWorkStealingInvoker invoker = (TWorkStealingInvoker) TThreadedSelectorServer.createDefaultExecutor(
+            new TThreadedSelectorServer.Args(serverSocket)
+                .workerThreads(config[0])
+                .selectorThreads(config[1])
+                .invokerPolicy(TThreadedSelectorServer.Args.InvokerPolicy.WORK_STEALING));
+        Assert.assertEquals(config[0], invoker.getNumWorkers());
+        Assert.assertEquals(Math.min(config[0], config[1]), invoker.getNumLanes());
+        invoker.shutdown();
+        Assert.assertTrue(invoker.awaitTermination(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      serverSocket.close();
+    }
+  }
+
+  @Test
+  public void testShutdownRunsQueuedTasks() throws Exception {
+    TWorkStealingInvoker invoker = new TWorkStealingInvoker(1, 1);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final AtomicInteger ran = new AtomicInteger();
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          blocked.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        ran.incrementAndGet();
+      }
+    });
+    for (int i = 0; i < 10; i++) {
+      invoker.execute(new Runnable() {
+        @Override
+        public void run() {
+          ran.incrementAndGet();
+        }
+      });
+    }
+    invoker.shutdown();
+    try {
+      invoker.execute(new Runnable() {
+        @Override
+        public void run() {
+        }
+      });
+      Assert.fail("Expected the task to be rejected");
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    Assert.assertFalse(invoker.isTerminated());
+    blocked.countDown();
+    Assert.assertTrue(invoker.awaitTermination(5, TimeUnit.SECONDS));
+    Assert.assertEquals(11, ran.get());
+  }
+
+  @Test
+  public void testShutdownNowReturnsQueuedTasks() throws Exception {
+    TWorkStealingInvoker invoker = new TWorkStealingInvoker(1, 1);
+    final CountDownLatch started = new CountDownLatch(1);
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          Thread.sleep(10000);
+        } catch (InterruptedException e) {
+          // interrupted by shutdownNow
+        }
+      }
+    });
+    Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+    invoker.execute(new Runnable() {
+      @Override
+      public void run() {
+      }
+    });
+    List<Runnable> pending = invoker.shutdownNow();
+    Assert.assertEquals(1, pending.size());
+    Assert.assertTrue(invoker.awaitTermination(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testServerInvokesCheapMethodsInline() throws Exception {
+    final AtomicInteger inline = new AtomicInteger();
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(0);
+    final TServer server = new TThreadedSelectorServer(new TThreadedSelectorServer.Args(serverSocket)
+        .invokerPolicy(TThreadedSelectorServer.Args.InvokerPolicy.WORK_STEALING)
+        .inlineCostThreshold(1, TimeUnit.SECONDS)
+        .processor(new TProcessor() {
+          @Override
+          public void process(TProtocol in, TProtocol out) throws TException {
+            if (Thread.currentThread() instanceof TThreadedSelectorServer.SelectorThread) {
+              inline.incrementAndGet();
+            }
+            TMessage message = in.readMessageBegin();
+            in.readMessageEnd();
+            out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+            out.writeMessageEnd();
+            out.getTransport().flush();
+          }
+        }));
+    Thread serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        server.serve();
+      }
+    });
+    serverThread.start();
+    try {
+      while (!server.isServing()) {
+        Thread.sleep(10);
+      }
+      TSocket socket = new TSocket("localhost", serverSocket.getPort());
+      socket.open();
+      try {
+        TProtocol protocol = new TBinaryProtocol(new TFramedTransport(socket));
+        for (int i = 0; i < 5; i++) {
+          protocol.writeMessageBegin(new TMessage("method", TMessageType.CALL, i));
+          protocol.writeMessageEnd();
+          protocol.getTransport().flush();
+          Assert.assertEquals(TMessageType.REPLY, protocol.readMessageBegin().type);
+          protocol.readMessageEnd();
+        }
+      } finally {
+        socket.close();
+      }
+      // the first call is measured on a worker, the next ones are known to be cheap once
+      // the measure is recorded
+      Assert.assertTrue(inline.get() >= 3);
+    } finally {
+      server.stop();
+      serverThread.join();
+    }
+  }
+}
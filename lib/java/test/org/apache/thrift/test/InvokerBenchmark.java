@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.server.TThreadedSelectorServer.Args.InvokerPolicy;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
+import org.apache.thrift.transport.TSocket;
+
+/**
+ * Compares the latency of the invoker policies of TThreadedSelectorServer, with
+ * many clients calling a method which takes a few microseconds.
+ */
+public class InvokerBenchmark {
+  private static final int SELECTOR_THREADS = 4;
+  private static final int WORKER_THREADS = 8;
+  private static final int CLIENTS = 64;
+  private static final int CALLS_PER_CLIENT = 20000;
+  private static final long WORK_NANOS = 20000;
+
+  public static void main(String[] args) throws Exception {
+    for (int round = 0; round < 2; round++) {
+      // the first round warms up
+      run(InvokerPolicy.SHARED_QUEUE, 0);
+      run(InvokerPolicy.WORK_STEALING, 0);
+      run(InvokerPolicy.WORK_STEALING, 2 * WORK_NANOS);
+    }
+  }
+
+  private static void run(InvokerPolicy policy, long inlineNanos) throws Exception {
+    TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(0);
+    final TServer server = new TThreadedSelectorServer(new TThreadedSelectorServer.Args(serverSocket)
+        .selectorThreads(SELECTOR_THREADS)
+        .workerThreads(WORKER_THREADS)
+        .invokerPolicy(policy)
+        .inlineCostThreshold(inlineNanos, TimeUnit.NANOSECONDS)
+        .processor(new TProcessor() {
+          public void process(TProtocol in, TProtocol out) throws TException {
+            TMessage message = in.readMessageBegin();
+            in.readMessageEnd();
+            long end = System.nanoTime() + WORK_NANOS;
+            while (System.nanoTime() - end < 0) {
+              // busy handler
+            }
+            out.writeMessageBegin(new TMessage(message.name, TMessageType.REPLY, message.seqid));
+            out.writeMessageEnd();
+            out.getTransport().flush();
+          }
+        }));
+    Thread serverThread = new Thread(new Runnable() {
+      public void run() {
+        server.serve();
+      }
+    });
+    serverThread.start();
+    while (!server.isServing()) {
+      Thread.sleep(10);
+    }
+
+    final int port = serverSocket.getPort();
+    final long[] latencies = new long[CLIENTS * CALLS_PER_CLIENT];
+    final CountDownLatch done = new CountDownLatch(CLIENTS);
+    long start = System.nanoTime();
+    for (int c = 0; c < CLIENTS; c++) {
+      final int offset = c * CALLS_PER_CLIENT;
+      new Thread(new Runnable() {
+        public void run() {
+          try {
+            TSocket socket = new TSocket("localhost", port);
+            socket.open();
+            TProtocol protocol = new TBinaryProtocol(new TFramedTransport(socket));
+            for (int i = 0; i < CALLS_PER_CLIENT; i++) {
+              long callStart = System.nanoTime();
+              protocol.writeMessageBegin(new TMessage("method", TMessageType.CALL, i));
+              protocol.writeMessageEnd();
+              protocol.getTransport().flush();
+              protocol.readMessageBegin();
+              protocol.readMessageEnd();
+              latencies[offset + i] = System.nanoTime() - callStart;
+            }
+            socket.close();
+          } catch (TException e) {
+            e.printStackTrace();
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    done.await();
+    long elapsed = System.nanoTime() - start;
+    server.stop();
+    serverThread.join();
+
+    Arrays.sort(latencies);
+    System.out.println(policy + (inlineNanos > 0 ? " + inline" : "")
+        + ": " + (latencies.length * 1000000000L / elapsed) + " calls/s"
+        + ", p50 " + micros(latencies, 0.5)
+        + ", p99 " + micros(latencies, 0.99)
+        + ", p99.9 " + micros(latencies, 0.999)
+        + ", max " + (latencies[latencies.length - 1] / 1000) + " us");
+  }
+
+  private static String micros(long[] sorted, double percentile) {
+    return sorted[(int) (percentile * (sorted.length - 1))] / 1000 + " us";
+  }
+}
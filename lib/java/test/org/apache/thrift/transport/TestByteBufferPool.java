@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestByteBufferPool {
+
+  @Test
+  public void testAcquireRoundsUpCapacity() {
+    ByteBufferPool pool = new ByteBufferPool();
+    ByteBuffer buffer = pool.acquire(100);
+    Assert.assertEquals(0, buffer.position());
+    Assert.assertEquals(100, buffer.limit());
+    Assert.assertEquals(128, buffer.capacity());
+    Assert.assertEquals(64, pool.acquire(0).capacity());
+    Assert.assertEquals(64, pool.acquire(64).capacity());
+    Assert.assertEquals(128, pool.acquire(65).capacity());
+  }
+
+  @Test
+  public void testReleasedBufferIsReused() {
+    ByteBufferPool pool = new ByteBufferPool();
+    ByteBuffer buffer = pool.acquire(1000);
+    buffer.put((byte) 1);
+    pool.release(buffer);
+    Assert.assertEquals(1, pool.getIdleBufferCount());
+    ByteBuffer reused = pool.acquire(600);
+    Assert.assertSame(buffer, reused);
+    Assert.assertEquals(0, reused.position());
+    Assert.assertEquals(600, reused.limit());
+    Assert.assertEquals(0, pool.getIdleBufferCount());
+  }
+
+  @Test
+  public void testLargeBuffersAreNotPooled() {
+    ByteBufferPool pool = new ByteBufferPool(1024, 4);
+    ByteBuffer buffer = pool.acquire(2000);
+    Assert.assertEquals(2000, buffer.capacity());
+    pool.release(buffer);
+    pool.release(ByteBuffer.allocate(4096));
+    Assert.assertEquals(0, pool.getIdleBufferCount());
+  }
+
+  @Test
+  public void testIdleBuffersAreBounded() {
+    ByteBufferPool pool = new ByteBufferPool(1024, 2);
+    for (int i = 0; i < 5; i++) {
+      pool.release(ByteBuffer.allocate(256));
+    }
+    Assert.assertEquals(2, pool.getIdleBufferCount());
+    // Buffers not allocated by the pool are ignored.
+    pool.release(ByteBuffer.allocate(100));
+    Assert.assertEquals(2, pool.getIdleBufferCount());
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.thrift.transport;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.server.TServlet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTHttpClient {
+
+  private Tomcat tomcat;
+  private String url;
+
+  @Before
+  public void setUp() throws Exception {
+    TProcessor echo = new TProcessor() {
+      @Override
+      public void process(TProtocol in, TProtocol out) throws TException {
+        out.writeString(in.readString());
+      }
+    };
+    tomcat = new Tomcat();
+    tomcat.setPort(0);
+    tomcat.setBaseDir(new File(System.getProperty("java.io.tmpdir"), "tomcat-http-client").getPath());
+    Context context = tomcat.addContext("", null);
+    Tomcat.addServlet(context, "thrift", new TServlet(echo, new TBinaryProtocol.Factory()));
+    context.addServletMappingDecoded("/thrift", "thrift");
+    tomcat.start();
+    url = "http://localhost:" + tomcat.getConnector().getLocalPort() + "/thrift";
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    tomcat.stop();
+    tomcat.destroy();
+  }
+
+  @Test
+  public void testHttpURLConnection() throws Exception {
+    checkEcho(new THttpClient(url));
+  }
+
+  @Test
+  public void testHttpClient() throws Exception {
+    checkEcho(new THttpClient(url, HttpClients.createDefault()));
+  }
+
+  @Test
+  public void testBogusContentLength() throws Exception {
+    // answers any request with a Content-Length far larger than the body
+    final ServerSocket server = new ServerSocket(0);
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try (Socket socket = server.accept()) {
+          InputStream in = socket.getInputStream();
+          in.read(new byte[8192]);
+          OutputStream out = socket.getOutputStream();
+          out.write(("HTTP/1.1 200 OK\r\nContent-Type: application/x-thrift\r\n"
+              + "Content-Length: 2000000000\r\nConnection: close\r\n\r\nshort").getBytes(StandardCharsets.US_ASCII));
+          out.flush();
+        } catch (Exception e) {
+          // the client gave up
+        }
+      }
+    });
+    thread.start();
+    try {
+      THttpClient transport = new THttpClient("http://localhost:" + server.getLocalPort() + "/thrift");
+      transport.write(new byte[]{1, 2, 3});
+      try {
+        transport.flush();
+        Assert.fail("a truncated response should fail the flush");
+      } catch (TTransportException e) {
+        // expected
+      }
+    } finally {
+      server.close();
+      thread.join();
+    }
+  }
+
+  private static void checkEcho(THttpClient transport) throws TException {
+    TProtocol protocol = new TBinaryProtocol(transport);
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100000; i++) {
+      large.append((char) ('a' + i % 26));
+    }
+    for (String message : new String[]{"hello", large.toString(), "", "world"}) {
+      protocol.writeString(message);
+      transport.flush();
+      Assert.assertEquals(message, protocol.readString());
+    }
+    transport.close();
+  }
+}
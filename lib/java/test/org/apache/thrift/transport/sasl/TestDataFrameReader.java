@@ -19,6 +19,7 @@
 
 package org.apache.thrift.transport.sasl;
 
+import org.apache.thrift.transport.ByteBufferPool;
 import org.apache.thrift.transport.TMemoryInputTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.junit.Assert;
@@ -58,4 +59,32 @@ public class TestDataFrameReader {
     buffer.position(DataFrameHeaderReader.PAYLOAD_LENGTH_BYTES);
     Assert.assertEquals("Payload should be the same as from the transport", buffer, ByteBuffer.wrap(dataFrameReader.getPayload()));
   }
+
+  @Test
+  public void testReadWithPooledPayload() throws TTransportException {
+    int payloadSize = 100;
+    ByteBuffer buffer = ByteBuffer.allocate(DataFrameHeaderReader.PAYLOAD_LENGTH_BYTES + payloadSize);
+    buffer.putInt(payloadSize);
+    for (int i = 0; i < payloadSize; i++) {
+      buffer.put((byte) i);
+    }
+
+    ByteBufferPool pool = new ByteBufferPool();
+    DataFrameReader dataFrameReader = new DataFrameReader(pool);
+    dataFrameReader.read(new TMemoryInputTransport(buffer.array()));
+    Assert.assertTrue("Reader should be complete", dataFrameReader.isComplete());
+    ByteBuffer payloadBuffer = dataFrameReader.getPayloadBuffer();
+    Assert.assertEquals(payloadSize, payloadBuffer.remaining());
+    buffer.position(DataFrameHeaderReader.PAYLOAD_LENGTH_BYTES);
+    Assert.assertEquals("Payload should be the same as from the transport", buffer, payloadBuffer);
+    Assert.assertEquals("Payload should be the same as from the transport", buffer, ByteBuffer.wrap(dataFrameReader.getPayload()));
+
+    // The payload buffer goes back to the pool and is reused by the next frame.
+    dataFrameReader.clear();
+    Assert.assertEquals(1, pool.getIdleBufferCount());
+    dataFrameReader.read(new TMemoryInputTransport(buffer.array()));
+    Assert.assertTrue("Reader should be complete", dataFrameReader.isComplete());
+    Assert.assertSame(payloadBuffer.array(), dataFrameReader.getPayloadBuffer().array());
+    Assert.assertEquals(0, pool.getIdleBufferCount());
+  }
 }
@@ -43,7 +43,7 @@ public class TestDataFrameWriter {
     byte[] expectedBytes = new byte[BYTES.length + PAYLOAD_LENGTH_BYTES];
     EncodingUtils.encodeBigEndian(BYTES.length, expectedBytes);
     System.arraycopy(BYTES, 0, expectedBytes, PAYLOAD_LENGTH_BYTES, BYTES.length);
-    Assert.assertEquals(ByteBuffer.wrap(expectedBytes), frameWriter.frameBytes);
+    Assert.assertEquals(ByteBuffer.wrap(expectedBytes), frameBytes(frameWriter));
   }
 
   @Test
@@ -55,7 +55,15 @@ public class TestDataFrameWriter {
     byte[] expectedBytes = new byte[portionLength + PAYLOAD_LENGTH_BYTES];
     EncodingUtils.encodeBigEndian(portionLength, expectedBytes);
     System.arraycopy(BYTES, portionOffset, expectedBytes, PAYLOAD_LENGTH_BYTES, portionLength);
-    Assert.assertEquals(ByteBuffer.wrap(expectedBytes), frameWriter.frameBytes);
+    Assert.assertEquals(ByteBuffer.wrap(expectedBytes), frameBytes(frameWriter));
+  }
+
+  @Test
+  public void testPayloadIsNotCopied() {
+    DataFrameWriter frameWriter = new DataFrameWriter();
+    byte[] payload = BYTES.clone();
+    frameWriter.withOnlyPayload(payload);
+    Assert.assertSame(payload, frameWriter.payloadBytes.array());
   }
 
   @Test(expected = IllegalArgumentException.class)
@@ -78,24 +86,37 @@ public class TestDataFrameWriter {
     // Slow socket which writes one byte per call.
     TNonblockingTransport transport = Mockito.mock(TNonblockingTransport.class);
     SlowWriting slowWriting = new SlowWriting();
-    Mockito.when(transport.write(frameWriter.frameBytes)).thenAnswer(slowWriting);
+    Mockito.when(transport.write(Mockito.any(ByteBuffer[].class))).thenAnswer(slowWriting);
     frameWriter.write(transport);
-    while (slowWriting.written < frameWriter.frameBytes.limit()) {
+    while (slowWriting.written < PAYLOAD_LENGTH_BYTES + BYTES.length) {
       Assert.assertFalse("Frame writer should not be complete", frameWriter.isComplete());
       frameWriter.write(transport);
     }
     Assert.assertTrue("Frame writer should be complete", frameWriter.isComplete());
   }
 
-  private static class SlowWriting implements Answer<Integer> {
+  private static ByteBuffer frameBytes(FrameWriter frameWriter) {
+    ByteBuffer frame = ByteBuffer.allocate(frameWriter.frameBytes.remaining() +
+        frameWriter.payloadBytes.remaining());
+    frame.put(frameWriter.frameBytes.duplicate());
+    frame.put(frameWriter.payloadBytes.duplicate());
+    frame.flip();
+    return frame;
+  }
+
+  private static class SlowWriting implements Answer<Long> {
     int written = 0;
 
     @Override
-    public Integer answer(InvocationOnMock invocation) throws Throwable {
-      ByteBuffer bytes = (ByteBuffer) invocation.getArguments()[0];
-      bytes.get();
-      written ++;
-      return 1;
+    public Long answer(InvocationOnMock invocation) throws Throwable {
+      for (ByteBuffer bytes : (ByteBuffer[]) invocation.getArguments()[0]) {
+        if (bytes.hasRemaining()) {
+          bytes.get();
+          written ++;
+          return 1L;
+        }
+      }
+      return 0L;
     }
   }
 }
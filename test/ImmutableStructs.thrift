@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// The java code generator has an option to generate structs which can be
+// frozen, after which they memoize their hash code and serialized form
+
+namespace java thrift.test.immutable
+
+struct Point {
+  1: i32 x;
+  2: i32 y;
+}
+
+union Shape {
+  1: Point center;
+  2: i32 radius;
+}
+
+exception Invalid {
+  1: string reason;
+}
+
+struct Document {
+  1: i64 id;
+  2: string title;
+  3: binary payload;
+  4: Point origin;
+  5: list<Point> points;
+  6: map<string, list<i64>> index;
+  7: set<string> tags;
+  8: optional Shape shape;
+  9: optional i32 version;
+  10: map<string, i64> counts;
+}
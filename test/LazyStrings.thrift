@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// The java code generator has an option to read strings as views of their
+// UTF-8 bytes, which are decoded when the strings are first used
+
+namespace java thrift.test.lazy
+
+struct Entry {
+  1: string key;
+  2: i64 value;
+}
+
+struct Message {
+  1: required string source;
+  2: string text;
+  3: optional string note;
+  4: string kind = "event";
+  5: binary payload;
+  6: list<string> words;
+  7: Entry entry;
+  8: list<Entry> entries;
+}
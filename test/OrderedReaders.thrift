@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// The java code generator has an option to read the fields in id order
+// before falling back to dispatching on the field id
+
+namespace java thrift.test.ordered
+
+enum Shape {
+  CIRCLE = 1,
+  SQUARE = 2
+}
+
+struct Point {
+  1: i32 x;
+  2: i32 y;
+}
+
+struct Record {
+  1: i32 count;
+  2: i64 id;
+  3: double score;
+  4: string name;
+  5: bool active;
+  6: optional i16 level;
+  7: optional byte flags;
+  8: optional string label;
+  9: Shape shape;
+  10: Point origin;
+  11: list<i32> values;
+  12: map<string, i64> counters;
+  15: optional double ratio;
+  -1: optional i32 legacy;
+  20: required i64 version;
+}
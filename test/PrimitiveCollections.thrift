@@ -0,0 +1,34 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// The java code generator has an option to back lists of i32/i64/double,
+// and sets and maps keyed by i32/i64, with primitive collections
+
+namespace java thrift.test.primitive
+
+struct FeatureVector {
+  1: list<i32> ids;
+  2: list<i64> timestamps;
+  3: list<double> weights;
+  4: set<i32> tags;
+  5: set<i64> seen;
+  6: map<i32, string> names;
+  7: map<i64, list<double>> series;
+  8: list<string> labels;
+}